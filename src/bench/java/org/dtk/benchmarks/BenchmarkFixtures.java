@@ -0,0 +1,235 @@
+package org.dtk.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Input data shared by the benchmarks. Sample inputs are read from the
+ * unit test fixtures, sample_apps and sample_pages, on the test classpath.
+ * Synthetic inputs generate the same constructs at the scale of a large
+ * application, where the fixtures are too small to show scaling problems.
+ *
+ * @author James Thomas
+ */
+
+public class BenchmarkFixtures {
+
+	/**
+	 * Locate test resource directory or file.
+	 *
+	 * @param path - Path relative to test resources
+	 * @return Resource file
+	 */
+	public static File getResource(String path) {
+		URL resource = BenchmarkFixtures.class.getResource("/" + path);
+
+		if (resource == null) {
+			throw new IllegalStateException("Missing benchmark fixture, run test-compile first: " + path);
+		}
+
+		try {
+			return new File(resource.toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException("Invalid benchmark fixture location: " + resource, e);
+		}
+	}
+
+	/**
+	 * All JavaScript from the sample applications and pages for a module
+	 * format, script files followed by inline page scripts.
+	 *
+	 * @param moduleFormat - Fixture directory, "amd" or "non_amd"
+	 * @return Concatenated script source
+	 * @throws IOException - Unable to read fixtures
+	 */
+	public static String getSampleScripts(String moduleFormat) throws IOException {
+		StringBuilder scripts = new StringBuilder();
+
+		for (File script: listFiles(getResource("sample_apps/" + moduleFormat), ".js")) {
+			scripts.append(FileUtils.readFileToString(script, "UTF-8")).append('\n');
+		}
+
+		for (File page: listFiles(getResource("sample_pages/" + moduleFormat), ".html")) {
+			Document document = Jsoup.parse(page, "UTF-8");
+			for (Element script: document.select("script")) {
+				if (!script.hasAttr("src")) {
+					scripts.append(script.data()).append('\n');
+				}
+			}
+		}
+
+		return scripts.toString();
+	}
+
+	/**
+	 * Generate AMD source with module definitions, each listing dependencies
+	 * and containing a nested require call.
+	 *
+	 * @param modules - Number of module definitions
+	 * @return Script source
+	 */
+	public static String getSyntheticAmdSource(int modules) {
+		StringBuilder source = new StringBuilder();
+
+		for (int i = 0; i < modules; i++) {
+			source.append("define(\"app/module").append(i).append("\", [\"dojo/_base/declare\", \"dojo/dom\", ")
+				.append("\"app/module").append((i + 1) % modules).append("\"], function (declare, dom, next) {\n")
+				.append("\tvar local = {count: ").append(i).append(", label: \"module").append(i).append("\"};\n")
+				.append("\trequire([\"dijit/form/Button").append(i % 10).append("\"], function (Button) {\n")
+				.append("\t\tnew Button({label: local.label}, dom.byId(\"node").append(i).append("\"));\n")
+				.append("\t});\n")
+				.append("\treturn declare(null, {value: function () { return local.count * 2; }});\n")
+				.append("});\n");
+		}
+
+		return source.toString();
+	}
+
+	/**
+	 * Generate non-AMD source using dojo.provide and dojo.require
+	 * for each module.
+	 *
+	 * @param modules - Number of modules
+	 * @return Script source
+	 */
+	public static String getSyntheticNonAmdSource(int modules) {
+		StringBuilder source = new StringBuilder();
+
+		for (int i = 0; i < modules; i++) {
+			source.append("dojo.provide(\"app.module").append(i).append("\");\n")
+				.append("dojo.require(\"dijit.form.Button").append(i % 10).append("\");\n")
+				.append("dojo.require(\"app.module").append((i + 1) % modules).append("\");\n")
+				.append("app.module").append(i).append(" = function (node) {\n")
+				.append("\treturn new dijit.form.Button({label: \"module").append(i).append("\"}, node);\n")
+				.append("};\n");
+		}
+
+		return source.toString();
+	}
+
+	/**
+	 * Generate object literal source in the style of loader configuration,
+	 * scalar values, nested module paths and package lists.
+	 *
+	 * @param entries - Number of entries in each nested value
+	 * @return Object literal source
+	 */
+	public static String getSyntheticObjectLiteral(int entries) {
+		StringBuilder paths = new StringBuilder(), packages = new StringBuilder();
+
+		for (int i = 0; i < entries; i++) {
+			if (i > 0) {
+				paths.append(", ");
+				packages.append(", ");
+			}
+			paths.append("\"app/module").append(i).append("\": \"../app/module").append(i).append('"');
+			packages.append("{name: \"package").append(i).append("\", location: \"../package").append(i).append("\"}");
+		}
+
+		return "{async: true, parseOnLoad: false, baseUrl: \"./js/\", locale: \"en-gb\", "
+			+ "paths: {" + paths + "}, packages: [" + packages + "]}";
+	}
+
+	/**
+	 * Generate loader configuration source, setting dojoConfig globally
+	 * followed by a script using it.
+	 *
+	 * @param entries - Number of entries in each nested value
+	 * @return Script source
+	 */
+	public static String getSyntheticConfigSource(int entries) {
+		return "var dojoConfig = " + getSyntheticObjectLiteral(entries) + ";\n" + getSyntheticAmdSource(entries);
+	}
+
+	/**
+	 * Create zip archive of a directory, with an entry for each directory
+	 * before its contents, as expected when inflating archives.
+	 *
+	 * @param directory - Directory to archive
+	 * @return Archive contents
+	 * @throws IOException - Unable to read directory contents
+	 */
+	public static byte[] zipDirectory(File directory) throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		ZipOutputStream out = new ZipOutputStream(archive);
+
+		try {
+			addToZip(out, directory, "");
+		} finally {
+			out.close();
+		}
+
+		return archive.toByteArray();
+	}
+
+	/**
+	 * Add directory contents to an archive.
+	 *
+	 * @param out - Archive stream
+	 * @param directory - Directory to add
+	 * @param prefix - Entry name prefix for directory contents
+	 * @throws IOException - Unable to read directory contents
+	 */
+	protected static void addToZip(ZipOutputStream out, File directory, String prefix) throws IOException {
+		File[] files = directory.listFiles();
+
+		for (File file: files) {
+			String entryName = prefix + file.getName();
+
+			if (file.isDirectory()) {
+				out.putNextEntry(new ZipEntry(entryName + "/"));
+				out.closeEntry();
+				addToZip(out, file, entryName + "/");
+			} else {
+				out.putNextEntry(new ZipEntry(entryName));
+				out.write(FileUtils.readFileToByteArray(file));
+				out.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Find all files under a directory with the suffix given, sorted by path
+	 * so inputs are identical between runs.
+	 *
+	 * @param directory - Directory to search
+	 * @param suffix - File name suffix
+	 * @return Matching files
+	 */
+	protected static List<File> listFiles(File directory, String suffix) {
+		List<File> matches = new ArrayList<File>();
+		addFiles(directory, suffix, matches);
+		Collections.sort(matches);
+		return matches;
+	}
+
+	/**
+	 * Add files with the suffix given, searching directories recursively.
+	 *
+	 * @param directory - Directory to search
+	 * @param suffix - File name suffix
+	 * @param matches - Matching files are added here
+	 */
+	protected static void addFiles(File directory, String suffix, List<File> matches) {
+		for (File file: directory.listFiles()) {
+			if (file.isDirectory()) {
+				addFiles(file, suffix, matches);
+			} else if (file.getName().endsWith(suffix)) {
+				matches.add(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.dtk.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.dtk.resources.build.BuildContextFactory;
+import org.dtk.resources.build.BuildEngine;
+import org.dtk.resources.build.BuildEnginePool;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the Rhino set up done before each build runs, comparing
+ * a new build engine for every build, as before engines were pooled, with
+ * an engine borrowed from the build engine pool. Both prepare a fresh
+ * build scope, the work left for each build once an engine is available.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildEngineBenchmark {
+
+	/** AMD loader bundled with the web application */
+	protected static final String moduleLoaderPath = "src/main/webapp/js/build/amd_loader/dojo.js";
+
+	/** Build system package bundled with the web application */
+	protected static final String buildModulePath = "src/main/webapp/js/build/bdbuild/";
+
+	protected BuildContextFactory contextFactory;
+
+	protected BuildEnginePool buildEnginePool;
+
+	@Setup
+	public void setUp() throws IOException {
+		contextFactory = new BuildContextFactory(BuildContextFactory.DEFAULT_OPTIMIZATION_LEVEL);
+		buildEnginePool = new BuildEnginePool(moduleLoaderPath, buildModulePath, contextFactory, 1);
+		buildEnginePool.prestartEngines(1);
+	}
+
+	@Benchmark
+	public Scriptable newEngine() throws IOException {
+		return createBuildScope(new BuildEngine(moduleLoaderPath, buildModulePath, contextFactory));
+	}
+
+	@Benchmark
+	public Scriptable pooledEngine() throws IOException {
+		BuildEngine buildEngine = buildEnginePool.borrowEngine();
+
+		try {
+			return createBuildScope(buildEngine);
+		} finally {
+			buildEnginePool.returnEngine(buildEngine);
+		}
+	}
+
+	/**
+	 * Enter a build context and create the scope a build runs in.
+	 *
+	 * @param buildEngine - Build engine
+	 * @return Build scope
+	 */
+	protected static Scriptable createBuildScope(BuildEngine buildEngine) {
+		Context cx = buildEngine.enterContext();
+
+		try {
+			return buildEngine.createBuildScope(cx);
+		} finally {
+			Context.exit();
+		}
+	}
+}
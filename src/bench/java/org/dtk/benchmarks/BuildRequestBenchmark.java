@@ -0,0 +1,111 @@
+package org.dtk.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dtk.resources.build.BuildRequest;
+import org.dtk.resources.packages.PackageRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for work done on every build request, converting request
+ * parameters into canonical form with the build digest, and rendering
+ * the build profile. Modules reference a temporary package created from
+ * a sample application, avoiding the need for a configured package
+ * repository.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildRequestBenchmark {
+
+	/** Number of modules in each build layer */
+	@Param({"10", "500"})
+	public int modules;
+
+	/** Build layers in the request */
+	protected static final int LAYERS = 3;
+
+	protected List<Map<String, String>> packages;
+
+	protected List<Map<String, Object>> layers;
+
+	protected BuildRequest buildRequest;
+
+	@Setup
+	public void setUp() throws IOException, NoSuchAlgorithmException {
+		BuildRequest.transformJobsPaths = "src/main/webapp/WEB-INF/resources/transform_jobs.txt";
+
+		byte[] sampleApp = BenchmarkFixtures.zipDirectory(
+			BenchmarkFixtures.getResource("sample_apps/amd/local_dtk_with_custom_modules_paths"));
+		String packageName = PackageRepository.getInstance().createTemporaryPackage(new ByteArrayInputStream(sampleApp));
+
+		packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", packageName, "version", "1.0.0"));
+
+		// Modules are listed out of order, with duplicates, as they
+		// would be in a request built from analysed dependencies
+		layers = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < LAYERS; i++) {
+			List<Map<String, String>> layerModules = new ArrayList<Map<String, String>>();
+			for (int j = modules; j > 0; j--) {
+				layerModules.add(getReference("name", "sample/module" + j % (modules - 1), "package", packageName));
+			}
+
+			Map<String, Object> layer = new HashMap<String, Object>();
+			layer.put("name", "layer" + i + ".js");
+			layer.put("modules", layerModules);
+			layers.add(layer);
+		}
+
+		buildRequest = newBuildRequest();
+	}
+
+	@Benchmark
+	public BuildRequest newBuildRequest() throws IOException, NoSuchAlgorithmException {
+		return new BuildRequest(packages, "none", "shrinksafe", "comments", "all", "none", layers);
+	}
+
+	@Benchmark
+	public String getProfileText() throws IOException {
+		return buildRequest.getProfileText();
+	}
+
+	/**
+	 * Create package or module reference from key and value pairs.
+	 *
+	 * @param keyValues - Alternate keys and values
+	 * @return Reference
+	 */
+	protected static Map<String, String> getReference(String... keyValues) {
+		Map<String, String> reference = new HashMap<String, String>();
+
+		for (int i = 1; i < keyValues.length; i += 2) {
+			reference.put(keyValues[i - 1], keyValues[i]);
+		}
+
+		return reference;
+	}
+}
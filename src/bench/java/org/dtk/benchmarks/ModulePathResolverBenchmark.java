@@ -0,0 +1,84 @@
+package org.dtk.benchmarks;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dtk.analysis.script.loader.AmdModulePathResolver;
+import org.dtk.analysis.script.loader.ModulePathResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for resolving module identifiers to file paths, run for
+ * every dependency found when analysing an application. Identifiers
+ * match configured paths at different depths, or fall back to the
+ * default location relative to the loader.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModulePathResolverBenchmark {
+
+	/** Number of configured module paths */
+	@Param({"10", "1000"})
+	public int paths;
+
+	/** Module identifiers resolved by each invocation */
+	protected static final int IDENTIFIERS = 100;
+
+	protected ModulePathResolver resolver;
+
+	protected String[] moduleIdentifiers;
+
+	@Setup
+	public void setUp() throws MalformedURLException {
+		Map<String, String> modulePaths = new HashMap<String, String>();
+
+		for (int i = 0; i < paths; i++) {
+			modulePaths.put("app/package" + i, "../app/package" + i);
+			modulePaths.put("app/package" + i + "/nested", "../nested/package" + i);
+		}
+
+		resolver = new AmdModulePathResolver(new URL("http://localhost/js/dojo/"), modulePaths);
+
+		moduleIdentifiers = new String[IDENTIFIERS];
+		for (int i = 0; i < IDENTIFIERS; i++) {
+			switch (i % 3) {
+			case 0:
+				moduleIdentifiers[i] = "app/package" + (i % paths) + "/widget/Module" + i;
+				break;
+			case 1:
+				moduleIdentifiers[i] = "app/package" + (i % paths) + "/nested/Module" + i;
+				break;
+			default:
+				moduleIdentifiers[i] = "dijit/form/Module" + i;
+			}
+		}
+	}
+
+	@Benchmark
+	public void getRelativePath(Blackhole blackhole) {
+		for (String moduleIdentifier: moduleIdentifiers) {
+			blackhole.consume(resolver.getRelativePath(moduleIdentifier));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.dtk.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dtk.analysis.script.ScriptParserErrorReporter;
+import org.dtk.analysis.script.exceptions.InvalidLiteralNode;
+import org.dtk.analysis.script.node.ObjectLiteral;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.ScriptOrFnNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for converting object literal AST nodes, e.g. loader
+ * configuration, into Java values. Source is parsed once, each invocation
+ * wraps the literal node and reads every value, the work done for each
+ * configuration object found.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectLiteralBenchmark {
+
+	/** Number of module paths and packages in the literal */
+	@Param({"10", "100", "1000"})
+	public int entries;
+
+	/** Parsed object literal node */
+	protected Node literalNode;
+
+	@Setup
+	public void setUp() {
+		String scriptSource = "var lit = " + BenchmarkFixtures.getSyntheticObjectLiteral(entries) + ";";
+
+		CompilerEnvirons ce = new CompilerEnvirons();
+		ScriptParserErrorReporter errorReporter = new ScriptParserErrorReporter();
+
+		ce.setGenerateDebugInfo(true);
+		ce.initFromContext(ContextFactory.getGlobal().enterContext());
+		ce.setErrorReporter(errorReporter);
+		Context.exit();
+
+		ScriptOrFnNode ast = new Parser(ce, errorReporter).parse(scriptSource, "script", 0);
+		literalNode = ast.getFirstChild().getFirstChild().getFirstChild();
+	}
+
+	@Benchmark
+	public void constructAndReadValues(Blackhole blackhole) throws InvalidLiteralNode {
+		ObjectLiteral literal = new ObjectLiteral(literalNode);
+
+		for (String key: literal.getKeys()) {
+			blackhole.consume(literal.getValue(key));
+		}
+	}
+
+	@Benchmark
+	public List<String> constructAndReadKeys() throws InvalidLiteralNode {
+		return new ObjectLiteral(literalNode).getKeys();
+	}
+}
@@ -0,0 +1,91 @@
+package org.dtk.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dtk.analysis.script.config.BaseScriptConfigParser;
+import org.dtk.analysis.script.config.LoaderConfigParser;
+import org.dtk.analysis.script.dependency.AMDScriptParser;
+import org.dtk.analysis.script.dependency.BaseScriptDependencyParser;
+import org.dtk.analysis.script.dependency.NonAMDScriptParser;
+import org.dtk.resources.Dependencies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for script analysis used when finding module dependencies
+ * and loader configuration in user applications. Each invocation parses
+ * the source from scratch, as happens for every script analysed.
+ *
+ * "sample" input is all JavaScript from the test fixtures, other inputs
+ * are synthetic sources with the number of modules given.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptParserBenchmark {
+
+	/** Source input, sample fixtures or number of synthetic modules */
+	@Param({"sample", "100", "1000"})
+	public String input;
+
+	protected String amdSource;
+
+	protected String nonAmdSource;
+
+	protected String configSource;
+
+	@Setup
+	public void setUp() throws IOException {
+		// Invalid fixture scripts are logged on every parse
+		Logger.getLogger(Dependencies.class.getName()).setLevel(Level.OFF);
+		Logger.getLogger(BaseScriptDependencyParser.class.getName()).setLevel(Level.OFF);
+		Logger.getLogger(LoaderConfigParser.class.getName()).setLevel(Level.OFF);
+		Logger.getLogger(BaseScriptConfigParser.class.getName()).setLevel(Level.OFF);
+
+		if ("sample".equals(input)) {
+			amdSource = BenchmarkFixtures.getSampleScripts("amd");
+			nonAmdSource = BenchmarkFixtures.getSampleScripts("non_amd");
+			configSource = "var dojoConfig = " + BenchmarkFixtures.getSyntheticObjectLiteral(10) + ";\n" + amdSource;
+		} else {
+			int modules = Integer.parseInt(input);
+			amdSource = BenchmarkFixtures.getSyntheticAmdSource(modules);
+			nonAmdSource = BenchmarkFixtures.getSyntheticNonAmdSource(modules);
+			configSource = BenchmarkFixtures.getSyntheticConfigSource(modules);
+		}
+	}
+
+	@Benchmark
+	public List<String> amdModuleDependencies() {
+		return new AMDScriptParser(amdSource).getModuleDependencies();
+	}
+
+	@Benchmark
+	public List<String> nonAmdModuleDependencies() {
+		return new NonAMDScriptParser(nonAmdSource).getModuleDependencies();
+	}
+
+	@Benchmark
+	public Map<String, Object> loaderScriptConfig() {
+		return new LoaderConfigParser(configSource).getScriptConfig();
+	}
+}
@@ -0,0 +1,124 @@
+package org.dtk.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for writing build result archives and inflating uploaded
+ * user applications. Archive contents are generated script files, text
+ * compressing in the same way as real build output.
+ *
+ * @author James Thomas
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipArchiveBenchmark {
+
+	/** Number of files in the archive */
+	@Param({"10", "200"})
+	public int files;
+
+	/** Size of each file in kilobytes */
+	@Param({"4", "256"})
+	public int fileSize;
+
+	protected File workingDirectory;
+
+	protected Map<String, byte[]> fileContents;
+
+	protected Map<String, File> sourceFiles;
+
+	protected byte[] archive;
+
+	@Setup
+	public void setUp() throws IOException {
+		workingDirectory = FileUtil.createTempDirectory();
+		File sourceDirectory = new File(workingDirectory, "source");
+
+		// Fixed seed, identical contents between runs
+		Random random = new Random(files * 31 + fileSize);
+		fileContents = new HashMap<String, byte[]>();
+		sourceFiles = new HashMap<String, File>();
+
+		for (int i = 0; i < files; i++) {
+			String name = "module" + i + ".js";
+			byte[] contents = generateScript(random, fileSize * 1024);
+			File sourceFile = new File(sourceDirectory, name);
+
+			FileUtils.writeByteArrayToFile(sourceFile, contents);
+			fileContents.put(name, contents);
+			sourceFiles.put(name, sourceFile);
+		}
+
+		archive = BenchmarkFixtures.zipDirectory(sourceDirectory);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtil.deleteDirectory(workingDirectory);
+	}
+
+	@Benchmark
+	public void writeToZipFile() throws IOException {
+		FileUtil.writeToZipFile(new File(workingDirectory, "memory.zip").getAbsolutePath(), fileContents);
+	}
+
+	@Benchmark
+	public void writeFilesToZipFile() throws IOException {
+		FileUtil.writeFilesToZipFile(new File(workingDirectory, "files.zip").getAbsolutePath(), sourceFiles,
+			Deflater.DEFAULT_COMPRESSION);
+	}
+
+	@Benchmark
+	public boolean inflateZipFile() {
+		File inflated = new File(workingDirectory, "inflated");
+		inflated.mkdir();
+		return FileUtil.inflateZipFile(inflated.getAbsolutePath(), new ByteArrayInputStream(archive));
+	}
+
+	/**
+	 * Generate script text of the size given, statements with
+	 * randomly chosen identifiers and values.
+	 *
+	 * @param random - Random source
+	 * @param size - Size in bytes
+	 * @return Script text
+	 */
+	protected static byte[] generateScript(Random random, int size) {
+		StringBuilder script = new StringBuilder(size + 64);
+
+		while (script.length() < size) {
+			script.append("var value").append(random.nextInt(1000)).append(" = dojo.byId(\"node")
+				.append(random.nextInt(100000)).append("\").offsetWidth * ").append(random.nextInt(50)).append(";\n");
+		}
+
+		script.setLength(size);
+		return script.toString().getBytes();
+	}
+}
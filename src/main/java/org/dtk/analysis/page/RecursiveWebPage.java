@@ -40,6 +40,10 @@ import org.jsoup.select.Elements;
  * recursively analysed for any dependencies specified. Module dependencies will be ignored if the containing
  * package is already set to "ignore" or we have previously seen this module dependency.
  * 
+ * Dependencies are followed breadth first, all newly discovered modules at the same depth are retrieved 
+ * together, letting implementations fetch module source concurrently. Retrieved modules are analysed in 
+ * discovery order, so discovered modules are the same however long each retrieval takes. 
+ * 
  * Retrieved module source is made available through the "getModuleSource" and "isModuleSourceAvailable" methods. 
  * 
  * @author James Thomas
@@ -57,6 +61,12 @@ public abstract class RecursiveWebPage extends WebPage implements RecursiveModul
 	 * Retrieved module source contents, look up by absolute module identifier.
 	 */
 	protected Map<String, String> moduleSource = new HashMap<String, String>();
+	
+	/**
+	 * Absolute module identifiers whose source has been requested, whether 
+	 * or not it was retrieved. Stops modules being requested twice. 
+	 */
+	protected Set<String> requestedModules = new HashSet<String>();
 
 	/**
 	 * Loader configuration, resolved module paths discovered. 
@@ -120,9 +130,38 @@ public abstract class RecursiveWebPage extends WebPage implements RecursiveModul
 	 * @param scriptSource - JavaScript source text to analyse for module dependencies
 	 */
 	protected void recursivelyAnalyseScriptDependencies(String scriptSource) {
-		List<String> moduleDependencies = analyseModuleDependencies(scriptSource);
+		List<String> modulesToRetrieve = discoverModuleDependencies(scriptSource);
 		
-		for(String moduleIdentifier: moduleDependencies) {
+		// Walk dependency graph one level at a time, analysing retrieved 
+		// modules in the order they were discovered.
+		while (!modulesToRetrieve.isEmpty()) {
+			Map<String, String> retrievedSource = retrieveModuleSources(modulesToRetrieve);
+			List<String> nextModules = new ArrayList<String>();
+			
+			for (String absoluteModuleIdentifier: modulesToRetrieve) {
+				String moduleContents = retrievedSource.get(absoluteModuleIdentifier);
+				if (moduleContents != null) {
+					moduleSource.put(absoluteModuleIdentifier, moduleContents);
+					nextModules.addAll(discoverModuleDependencies(moduleContents));
+				}
+			}
+			
+			modulesToRetrieve = nextModules;
+		}
+	}
+	
+	/**
+	 * Analyse module dependencies from a JavaScript source string, updating 
+	 * discovered modules. Returns modules, not previously requested or in an 
+	 * ignored package, whose source should be retrieved and analysed. 
+	 * 
+	 * @param scriptSource - JavaScript source text to analyse for module dependencies
+	 * @return Absolute module identifiers to retrieve, in discovery order 
+	 */
+	protected List<String> discoverModuleDependencies(String scriptSource) {
+		List<String> modulesToRetrieve = new ArrayList<String>();
+		
+		for(String moduleIdentifier: analyseModuleDependencies(scriptSource)) {
 			String absoluteModuleIdentifier = getAbsoluteModuleIdentifier(moduleIdentifier),
 				packageName = getPackageIdentifier(absoluteModuleIdentifier);
 
@@ -130,20 +169,39 @@ public abstract class RecursiveWebPage extends WebPage implements RecursiveModul
 				updateDiscoveredModules(packageName, absoluteModuleIdentifier);			 
 	 			 
 				if (shouldAnalyseForDependencies(packageName, absoluteModuleIdentifier)) {
-					String moduleContents = retrieveModuleSource(absoluteModuleIdentifier);		
-					if (moduleContents != null) {
-						moduleSource.put(absoluteModuleIdentifier, moduleContents);
-						recursivelyAnalyseScriptDependencies(moduleContents);
-					}
+					requestedModules.add(absoluteModuleIdentifier);
+					modulesToRetrieve.add(absoluteModuleIdentifier);
 				}
-			 }			
-		 }
+			}			
+		}
+		
+		return modulesToRetrieve;
+	}
+	
+	/**
+	 * Retrieve source for a set of modules. Default implementation retrieves
+	 * each module in turn, implementations may retrieve modules concurrently.
+	 * 
+	 * @param moduleIdentifiers - Absolute module identifiers
+	 * @return Module source, by module identifier, missing when unavailable
+	 */
+	protected Map<String, String> retrieveModuleSources(List<String> moduleIdentifiers) {
+		Map<String, String> retrievedSource = new HashMap<String, String>();
+		
+		for (String moduleIdentifier: moduleIdentifiers) {
+			String moduleContents = retrieveModuleSource(moduleIdentifier);
+			if (moduleContents != null) {
+				retrievedSource.put(moduleIdentifier, moduleContents);
+			}
+		}
+		
+		return retrievedSource;
 	}
 	
 	/**
 	 * Should the package module has its module dependencies analysed? 
 	 * Ignore any modules for pre-specified packages or those we have already
-	 * analysed.
+	 * analysed or requested.
 	 * 
 	 * @param packageName - Module package identifer
 	 * @param absoluteModuleIdentifier - Absolute module identifier
@@ -151,7 +209,8 @@ public abstract class RecursiveWebPage extends WebPage implements RecursiveModul
 	 */
 	protected boolean shouldAnalyseForDependencies(String packageName, String absoluteModuleIdentifier) {
 		try {
-			return !isPackageIgnored(packageName) && !isModuleSourceAvailable(absoluteModuleIdentifier);
+			return !isPackageIgnored(packageName) && !isModuleSourceAvailable(absoluteModuleIdentifier)
+				&& !requestedModules.contains(absoluteModuleIdentifier);
 		} catch (UnknownModuleIdentifier e) {
 			logger.warning(String.format("Unable to analyse module dependencies for unknown package & module identifier (%s) %s", 
 				packageName, absoluteModuleIdentifier));
@@ -2,19 +2,36 @@ package org.dtk.analysis.page;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.util.EntityUtils;
 import org.dtk.analysis.ModuleFormat;
 import org.dtk.analysis.script.loader.AmdModulePathResolver;
 import org.dtk.analysis.script.loader.ModulePathResolver;
 import org.dtk.analysis.script.loader.NonAmdModulePathResolver;
+import org.dtk.util.HttpClientPool;
+import org.dtk.util.HttpResponseCache;
+import org.dtk.util.HttpResponseCache.CachedResponse;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
@@ -28,6 +45,12 @@ import org.jsoup.nodes.Element;
  * internally this is translated into an external URL based upon the 
  * user's configuration set in the loader. 
  * 
+ * Modules discovered together are downloaded concurrently by a bounded pool 
+ * of threads shared by all pages, with the number of requests in flight to 
+ * each host, across all pages, limited to the shared client's maximum 
+ * connections per host. Modules which can't be downloaded, after retrying,
+ * are logged and left out of the results.
+ * 
  * @author James Thomas
  */
 
@@ -48,6 +71,75 @@ public class RemoteWebPage extends RecursiveWebPage {
 	 */
 	protected static final Logger logger = Logger.getLogger(RemoteWebPage.class.getName());		
 	
+	/**
+	 * Maximum threads downloading module source, across all pages.
+	 */
+	protected static final int MAX_FETCH_THREADS = 32;
+	
+	/**
+	 * Attempts made to download a module before giving up, when failures are transient.
+	 */
+	protected static final int MAX_FETCH_ATTEMPTS = 3;
+	
+	/**
+	 * Delay before retrying a failed download, multiplied by the attempts made.
+	 */
+	protected static final long FETCH_RETRY_DELAY_MS = 200;
+	
+	/**
+	 * Threads downloading module source, shared by all pages. Idle 
+	 * threads are stopped, fetchers queue once all threads are busy.
+	 */
+	protected static final ExecutorService fetchExecutor = createFetchExecutor();
+	
+	/**
+	 * Module identifier with its remote location.
+	 */
+	protected static class ModuleLocation {
+		final String moduleIdentifier;
+		final String url;
+		
+		ModuleLocation(String moduleIdentifier, String url) {
+			this.moduleIdentifier = moduleIdentifier;
+			this.url = url;
+		}
+	}
+	
+	/**
+	 * Downloads module source from a host's queue until the queue is empty.
+	 */
+	protected class ModuleFetcher implements Runnable {
+		final Queue<ModuleLocation> hostQueue;
+		final Map<String, String> retrievedSource;
+		
+		ModuleFetcher(Queue<ModuleLocation> hostQueue, Map<String, String> retrievedSource) {
+			this.hostQueue = hostQueue;
+			this.retrievedSource = retrievedSource;
+		}
+		
+		@Override
+		public void run() {
+			ModuleLocation moduleLocation = hostQueue.poll();
+			
+			while (moduleLocation != null && !Thread.currentThread().isInterrupted()) {
+				try {
+					String moduleContents = fetchModuleSource(moduleLocation.url);
+					if (moduleContents != null) {
+						retrievedSource.put(moduleLocation.moduleIdentifier, moduleContents);
+					}
+				} catch (IOException e) {
+					logFailedFetch(moduleLocation.url, e);
+				} catch (RuntimeException e) {
+					// Leave remaining modules for this host to be downloaded
+					logFailedFetch(moduleLocation.url, e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				moduleLocation = hostQueue.poll();
+			}
+		}
+	}
+	
 	/**
 	 * Default constructor, store http client internal and delegate to super class.
 	 * 
@@ -75,6 +167,24 @@ public class RemoteWebPage extends RecursiveWebPage {
 		parse();					
 	}
 	
+	/**
+	 * Create thread pool downloading module source.
+	 * 
+	 * @return Bounded executor with daemon threads
+	 */
+	protected static ExecutorService createFetchExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_FETCH_THREADS, MAX_FETCH_THREADS, 
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "module-fetch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
 	/**
 	 * When we detect the Dojo script tag, initialise 
 	 * a new module path resolver with current configuration.
@@ -105,7 +215,78 @@ public class RemoteWebPage extends RecursiveWebPage {
 	@Override
 	protected String retrieveModuleSource(String moduleIdentifier) {
 		URL absoluteModulePath = resolver.getAbsolutePath(moduleIdentifier);
-		return retrieveUrl(absoluteModulePath.toString());			
+		String moduleContents = null;
+		
+		if (absoluteModulePath != null) {
+			try {
+				moduleContents = fetchModuleSource(absoluteModulePath.toString());
+			} catch (IOException e) {
+				logFailedFetch(absoluteModulePath.toString(), e);
+			} catch (InterruptedException e) {
+				logFailedFetch(absoluteModulePath.toString(), e);
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		return moduleContents;
+	}
+	
+	/**
+	 * Download source for modules concurrently. Module locations are queued 
+	 * by host, each host's queue drained by up to the maximum connections 
+	 * per host fetchers, which share the host's request permits with other
+	 * pages.
+	 * 
+	 * @param moduleIdentifiers - Absolute module identifiers
+	 * @return Module source, by module identifier, missing when unavailable
+	 */
+	@Override
+	protected Map<String, String> retrieveModuleSources(List<String> moduleIdentifiers) {
+		if (moduleIdentifiers.size() < 2) {
+			return super.retrieveModuleSources(moduleIdentifiers);
+		}
+		
+		Map<String, Queue<ModuleLocation>> hostQueues = new LinkedHashMap<String, Queue<ModuleLocation>>();
+		for (String moduleIdentifier: moduleIdentifiers) {
+			URL absoluteModulePath = resolver.getAbsolutePath(moduleIdentifier);
+			if (absoluteModulePath != null) {
+				Queue<ModuleLocation> hostQueue = hostQueues.get(absoluteModulePath.getAuthority());
+				if (hostQueue == null) {
+					hostQueue = new ConcurrentLinkedQueue<ModuleLocation>();
+					hostQueues.put(absoluteModulePath.getAuthority(), hostQueue);
+				}
+				hostQueue.add(new ModuleLocation(moduleIdentifier, absoluteModulePath.toString()));
+			}
+		}
+		
+		Map<String, String> retrievedSource = new ConcurrentHashMap<String, String>();
+		List<Future<?>> fetchers = new ArrayList<Future<?>>();
+		int fetchersPerHost = HttpClientPool.getInstance().getMaxConnectionsPerHost();
+		
+		for (Queue<ModuleLocation> hostQueue: hostQueues.values()) {
+			for (int i = Math.min(fetchersPerHost, hostQueue.size()); i > 0; i--) {
+				fetchers.add(fetchExecutor.submit(new ModuleFetcher(hostQueue, retrievedSource)));
+			}
+		}
+		
+		try {
+			for (Future<?> fetcher: fetchers) {
+				try {
+					fetcher.get();
+				} catch (ExecutionException e) {
+					// Module download failures are logged by the fetcher 
+					logger.log(Level.WARNING, "Module fetcher stopped unexpectedly", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			// Analysis abandoned, stop outstanding downloads
+			for (Future<?> fetcher: fetchers) {
+				fetcher.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+		}
+		
+		return retrievedSource;
 	}
 
 	/**
@@ -211,10 +392,69 @@ public class RemoteWebPage extends RecursiveWebPage {
 		return baseUrl == null;
 	}	
 	
+	/**
+	 * Download module source through the shared response cache, waiting 
+	 * for a request permit for the module's host. Transient failures are 
+	 * retried after a short delay, without holding a permit. Other failures, 
+	 * e.g. unknown host or connection refused, won't succeed on retry so 
+	 * fail immediately.
+	 * 
+	 * @param location - Module URL
+	 * @return Module source, null if the server doesn't have the module
+	 * @throws IOException - Unable to download module after retrying
+	 * @throws InterruptedException - Interrupted waiting for a request permit
+	 */
+	protected String fetchModuleSource(String location) throws IOException, InterruptedException {
+		String host = new URL(location).getAuthority();
+		
+		for (int attempt = 1; ; attempt++) {
+			Semaphore hostPermits = HttpClientPool.getInstance().acquireHostPermit(host);
+			
+			try {
+				CachedResponse response = HttpResponseCache.getInstance().retrieve(httpClient, location);
+				if (response == null) {
+					logger.warning("Unable to retrieve URL: " + location);
+					return null;
+				}
+				
+				return response.getText();
+			} catch (IOException e) {
+				if (attempt >= MAX_FETCH_ATTEMPTS || !isTransientFetchFailure(e)) {
+					throw e;
+				}
+			} finally {
+				hostPermits.release();
+			}
+			
+			Thread.sleep(FETCH_RETRY_DELAY_MS * attempt);
+		}
+	}
+	
+	/**
+	 * Could the download succeed if retried? Servers closing the connection
+	 * without a response, and timed out reads, may be temporary.
+	 * 
+	 * @param fetchError - Download failure
+	 * @return Failure is transient
+	 */
+	protected static boolean isTransientFetchFailure(IOException fetchError) {
+		return fetchError instanceof NoHttpResponseException || fetchError instanceof SocketTimeoutException;
+	}
+	
+	/**
+	 * Log module which couldn't be downloaded, it's left out of the results.
+	 * 
+	 * @param location - Module URL
+	 * @param cause - Download failure
+	 */
+	protected void logFailedFetch(String location, Throwable cause) {
+		logger.log(Level.WARNING, "Unable to retrieve module source at location: " + location, cause);
+	}
+	
 	/**
 	 * Use HttpClient to request and return response content 
-	 * for a given URL. Returns a null response when there's an
-	 * error retrieving URL content.
+	 * for a given URL, through the shared response cache. Returns 
+	 * a null response when there's an error retrieving URL content.
 	 * 
 	 * @param location - URL to retrieve 
 	 * @return Response content
@@ -223,13 +463,11 @@ public class RemoteWebPage extends RecursiveWebPage {
 		String moduleContents = null;
 
 		try {
-			HttpGet httpget = new HttpGet(location);
-			HttpResponse response = httpClient.execute(httpget);
+			CachedResponse response = HttpResponseCache.getInstance().retrieve(httpClient, location);
 	
-			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				moduleContents = EntityUtils.toString(response.getEntity());	
+			if (response != null) {
+				moduleContents = response.getText();	
 			} else {
-				EntityUtils.toString(response.getEntity());
 				logger.warning("Unable to retrieve URL: " + location);
 			}
 		} catch (IOException ioe) {
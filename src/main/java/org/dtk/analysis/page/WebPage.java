@@ -8,6 +8,7 @@ import java.util.Map;
 import org.dtk.analysis.ModuleAnalysis;
 import org.dtk.analysis.ModuleFormat;
 import org.dtk.analysis.exceptions.FatalAnalysisError;
+import org.dtk.analysis.script.ScriptParseCache;
 import org.dtk.analysis.script.config.DojoConfigAttrs;
 import org.dtk.analysis.script.config.LoaderConfigParser;
 import org.dtk.analysis.script.config.ScriptConfigParser;
@@ -218,14 +219,15 @@ public abstract class WebPage implements ModuleAnalysis {
 	
 	/**
 	 * Return list of module dependencies within a JavaScript source
-	 * contents. 
+	 * contents. Results from previous analysis of the same source are
+	 * reused, the returned list must not be modified.
 	 * 
 	 * @param scriptContents - JavaScript source text to analyse
 	 * @return List of discovered module dependencies
 	 */
 	protected List<String> analyseModuleDependencies(String scriptContents) {
 		ScriptDependencyParser scriptParser = getScriptParser(scriptContents);		 
-		return scriptParser.getModuleDependencies();		 
+		return ScriptParseCache.getInstance().getModuleDependencies(scriptParser, scriptContents);
 	}
 	
 	/**
@@ -280,13 +282,15 @@ public abstract class WebPage implements ModuleAnalysis {
 
 	/**
 	 * Parse any script configuration values present in the script source.
+	 * Results from previous analysis of the same source are reused, the 
+	 * returned lookup must not be modified.
 	 * 
 	 * @param scriptSource - JavaScript source text
 	 * @return Lookup for configuration values, empty if no config found
 	 */
 	protected Map<String, Object> parseScriptConfiguration(String scriptSource) {
 		ScriptConfigParser scriptConfigParser = new LoaderConfigParser(scriptSource); 
-		return scriptConfigParser.getScriptConfig();
+		return ScriptParseCache.getInstance().getScriptConfig(scriptConfigParser, scriptSource);
 	}
 	
 	/**
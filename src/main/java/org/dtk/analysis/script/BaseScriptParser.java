@@ -1,11 +1,13 @@
 package org.dtk.analysis.script;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
 
 import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.FunctionNode;
@@ -19,7 +21,7 @@ import org.mozilla.javascript.Token;
  * files by the Closure compiler. 
  * 
  * Set ups internal state to turn source file into an AST
- * and recursively walk the tree, calling the "parseNode"  
+ * and walk the tree, calling the "parseNode"  
  * method on finding each node. Extending classes will implement
  * the "parseNode" method to perform actions based on the nodes found.
  * 
@@ -37,10 +39,16 @@ public abstract class BaseScriptParser {
 	protected String scriptSource;
 	
 	/**
-	 * Set of nodes that have already been visiting 
-	 * by the AST walker.
+	 * Marker placed on the traversal stack above a node, 
+	 * once popped that node's children have been searched. 
 	 */
-	Set<Node> parsedNodes = new HashSet<Node>();
+	protected static final Object CHILDREN_SEARCHED = new Object();
+	
+	/**
+	 * Required identifier tokens in the source without a 
+	 * matching node found yet, -1 when not counted.
+	 */
+	protected int unmatchedIdentifiers = -1;
 	
 	/**
 	 * Default constructor, passing in JavaScript source
@@ -53,20 +61,35 @@ public abstract class BaseScriptParser {
 	}
 	
 	/**
-	 * Start the recursively parsing of the JavaScript 
+	 * Start the parsing of the JavaScript 
 	 * text source. Sets up the new parsing environment and 
 	 * begins to walk the AST generate from the parsed source.
 	 * 
+	 * Sources without any of the identifiers this parser looks 
+	 * for are skipped, as the AST can't contain matching nodes. 
+	 * 
 	 * @throws EvaluatorException - Fatal exception thrown while
 	 * parsing JavaScript source
 	 */
 	protected void parse() throws EvaluatorException {
+		if (!isParseRequired()) {
+			return;
+		}
+		
 		// Parse script source 
 		CompilerEnvirons ce = new CompilerEnvirons(); 
 		ScriptParserErrorReporter errorReporter = new ScriptParserErrorReporter();
 		
-		ce.setGenerateDebugInfo(true);		
-		ce.initFromContext(ContextFactory.getGlobal().enterContext());
+		ce.setGenerateDebugInfo(true);
+		
+		// Context only needed to initialise the compiler environment, 
+		// don't leave it associated with the current thread.
+		Context cx = ContextFactory.getGlobal().enterContext();
+		try {
+			ce.initFromContext(cx);
+		} finally {
+			Context.exit();
+		}
 		ce.setErrorReporter(errorReporter);
 		
 		Parser p = new Parser(ce, errorReporter); 
@@ -75,41 +98,111 @@ public abstract class BaseScriptParser {
 		searchAstForNodes(ast);
 	}
 	
+	/**
+	 * Check whether the script source needs a full parse, using a 
+	 * lexical scan for the identifiers required by this parser. 
+	 * Matching tokens are counted, allowing the AST search to stop
+	 * once a node has been found for each one.
+	 * 
+	 * @return Source may contain nodes of interest
+	 */
+	protected boolean isParseRequired() {
+		List<String> requiredIdentifiers = getRequiredIdentifiers();
+		
+		if (this.scriptSource == null || requiredIdentifiers.isEmpty()) {
+			return true;
+		}
+		
+		unmatchedIdentifiers = ScriptTokenScanner.countIdentifiers(this.scriptSource, requiredIdentifiers);
+		return unmatchedIdentifiers > 0;
+	}
+	
+	/**
+	 * Record a node found for one of the required identifier tokens,
+	 * parsers call this for each node matched. 
+	 */
+	protected void matchedRequiredIdentifier() {
+		if (unmatchedIdentifiers > 0) {
+			unmatchedIdentifiers--;
+		}
+	}
+	
+	/**
+	 * Have nodes been found for every required identifier token? 
+	 * No further nodes of interest can be present in the AST. 
+	 * 
+	 * @return AST search can stop
+	 */
+	protected boolean isSearchComplete() {
+		return unmatchedIdentifiers == 0;
+	}
+	
+	/**
+	 * Identifiers, at least one of which must be present in the source
+	 * for parsing to find anything. Parsers return an empty list, the 
+	 * default, when every source must be parsed.
+	 * 
+	 * @return Required identifiers
+	 */
+	protected List<String> getRequiredIdentifiers() {
+		return Collections.emptyList();
+	}
+	
 	/** 
 	 * Depth-first search of parsed JavaScript source
 	 * to discover all available AST node references.
 	 * 
 	 * If a node has children or is a top-level script node, 
-	 * recursively search those before proceeding.
+	 * search those before proceeding.
 	 * 
 	 * Every discovered node is passed to the abstract "parseNode"
 	 * method for processing.    
 	 * 
 	 * After processing, move on "next" link for current node.
 	 * 
-	 * @param node - AST Node
+	 * Pending nodes are held on an explicit stack rather than 
+	 * recursing, so deeply nested or very long scripts can't
+	 * exhaust the thread's stack. Search stops early once no
+	 * further nodes of interest can be present.
+	 * 
+	 * @param root - AST Node
 	 */
-	protected void searchAstForNodes(Node node) {
-		// Ignore null nodes or those we have seen before!
-		if (node == null || parsedNodes.contains(node)) {
-			return;
-		}
+	protected void searchAstForNodes(Node root) {
+		Deque<Object> pending = new ArrayDeque<Object>();
 		
-		// Script level nodes have global list of function definitions. 
-		// Parse inner tokens for function definitions here.
-		if (node instanceof ScriptOrFnNode) {
-			searchFunctionDefsForNodes((ScriptOrFnNode) node);			
+		if (root != null) {
+			pending.push(root);
 		}
 		
-		// Parse children from left to right.
-		searchAstForNodes(node.getFirstChild());
-		searchAstForNodes(node.getLastChild());
-		
-		// Parse this node and then move along to next
-		parseNode(node);
-		parsedNodes.add(node);
-		
-		searchAstForNodes(node.getNext());		
+		while (!pending.isEmpty() && !isSearchComplete()) {
+			Object top = pending.pop();
+			
+			// Children searched, parse this node. Next sibling 
+			// is already below on the stack.
+			if (top == CHILDREN_SEARCHED) {
+				parseNode((Node) pending.pop());
+				continue;
+			}
+			
+			Node node = (Node) top;
+			
+			if (node.getNext() != null) {
+				pending.push(node.getNext());
+			}
+			
+			pending.push(node);
+			pending.push(CHILDREN_SEARCHED);
+			
+			if (node.getFirstChild() != null) {
+				pending.push(node.getFirstChild());
+			}
+			
+			// Script level nodes have global list of function definitions. 
+			// Search inner tokens for function definitions first.
+			if (node instanceof ScriptOrFnNode) {
+				searchFunctionDefsForNodes((ScriptOrFnNode) node, pending);			
+			}
+		}
 	}
 	
 	/**
@@ -122,17 +215,16 @@ public abstract class BaseScriptParser {
 	abstract protected void parseNode(Node node);
 	
 	/**
-	 * Search for nodes in each function definition under
-	 * the script node.  
+	 * Add each function definition under the script node to 
+	 * the pending nodes, last definition searched first.
 	 * 
 	 * @param sofn - Script or function node
+	 * @param pending - Traversal stack
 	 */
-	protected void searchFunctionDefsForNodes(ScriptOrFnNode sofn) {
-		int count = sofn.getFunctionCount() - 1;
-		while (count > -1) {
-			FunctionNode fn = sofn.getFunctionNode(count);
-			searchAstForNodes(fn);
-			count--;
+	protected void searchFunctionDefsForNodes(ScriptOrFnNode sofn, Deque<Object> pending) {
+		for (int index = 0; index < sofn.getFunctionCount(); index++) {
+			FunctionNode fn = sofn.getFunctionNode(index);
+			pending.push(fn);
 		}
 	}
 	
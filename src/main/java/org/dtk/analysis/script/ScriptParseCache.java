@@ -0,0 +1,219 @@
+package org.dtk.analysis.script;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.dtk.analysis.script.config.ScriptConfigParser;
+import org.dtk.analysis.script.dependency.ScriptDependencyParser;
+import org.dtk.analysis.script.node.ArrayLiteral;
+import org.dtk.analysis.script.node.ObjectLiteral;
+import org.dtk.metrics.Gauge;
+import org.dtk.metrics.MetricsRegistry;
+import org.dtk.util.BoundedLruCache;
+import org.dtk.util.DigestUtil;
+
+/**
+ * Bounded cache of script parsing results, shared by all analysis requests.
+ * The same scripts are analysed repeatedly, e.g. toolkit modules loaded from
+ * a CDN or an application re-analysed after small changes, so the module
+ * dependencies and loader configuration found are stored against a hash of
+ * the script source and parser used. Cached results skip the Rhino parse.
+ *
+ * Results are held in a bounded least recently used cache, and are shared
+ * between threads, so callers must not modify them.
+ *
+ * @author James Thomas
+ */
+
+public final class ScriptParseCache {
+	/** Single instance of the parse cache */
+	protected static final ScriptParseCache INSTANCE = new ScriptParseCache();
+
+	/** Default limit on cached results, in megabytes */
+	public static final int DEFAULT_MAX_SIZE_MB = 16;
+
+	/** Estimated bytes used by each cache entry and each value stored */
+	protected static final int ENTRY_OVERHEAD_BYTES = 64;
+
+	/** Cached results, keyed by parser type and source digest */
+	protected final BoundedLruCache<Object> results = new BoundedLruCache<Object>(DEFAULT_MAX_SIZE_MB * 1024L * 1024L, 
+		new BoundedLruCache.SizeFunction<Object>() {
+			public long getSize(String key, Object value) {
+				return estimateSize(key) + estimateSize(value);
+			}
+		}, 
+		MetricsRegistry.getInstance().counter("dwb_script_parse_cache_hits_total", "Scripts analysed using cached parse results."),
+		MetricsRegistry.getInstance().counter("dwb_script_parse_cache_misses_total", "Scripts parsed without cached results."));
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private ScriptParseCache() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+
+		MetricsRegistry.getInstance().gauge("dwb_script_parse_cache_bytes", "Estimated size of cached script parse results.",
+			new Gauge() {
+				public long getValue() {
+					return getCachedBytes();
+				}
+			});
+		MetricsRegistry.getInstance().gauge("dwb_script_parse_cache_hit_percent", "Percentage of scripts analysed using cached parse results.",
+			new Gauge() {
+				public long getValue() {
+					return Math.round(getHitRate() * 100);
+				}
+			});
+	}
+
+	/**
+	 * Return static instance of ScriptParseCache
+	 *
+	 * @return Parse cache instance.
+	 */
+	public static ScriptParseCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Return module dependencies for the script source, using cached
+	 * results from a previous parse by the same parser type when available.
+	 *
+	 * @param parser - Dependency parser for the script source
+	 * @param scriptSource - JavaScript source text
+	 * @return Module dependencies discovered
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getModuleDependencies(ScriptDependencyParser parser, String scriptSource) {
+		if (scriptSource == null) {
+			return parser.getModuleDependencies();
+		}
+
+		String key = getKey(parser, scriptSource);
+		Object cached = results.get(key);
+
+		if (cached != null) {
+			results.recordHit();
+			return (List<String>) cached;
+		}
+
+		results.recordMiss();
+		List<String> moduleDependencies = Collections.unmodifiableList(parser.getModuleDependencies());
+		results.put(key, moduleDependencies);
+
+		return moduleDependencies;
+	}
+
+	/**
+	 * Return loader configuration for the script source, using cached
+	 * results from a previous parse by the same parser type when available.
+	 * Literal values are fully read before caching, so later access doesn't
+	 * update them.
+	 *
+	 * @param parser - Configuration parser for the script source
+	 * @param scriptSource - JavaScript source text
+	 * @return Configuration values discovered
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> getScriptConfig(ScriptConfigParser parser, String scriptSource) {
+		if (scriptSource == null) {
+			return parser.getScriptConfig();
+		}
+
+		String key = getKey(parser, scriptSource);
+		Object cached = results.get(key);
+
+		if (cached != null) {
+			results.recordHit();
+			return (Map<String, Object>) cached;
+		}
+
+		results.recordMiss();
+		Map<String, Object> scriptConfig = Collections.unmodifiableMap(parser.getScriptConfig());
+		results.put(key, scriptConfig);
+
+		return scriptConfig;
+	}
+
+	/**
+	 * Set limit on estimated size of cached results, removing
+	 * results if the cache is now too large.
+	 *
+	 * @param maxBytes - Cache size in bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		results.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Estimated size of cached results.
+	 *
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return results.getCachedBytes();
+	}
+
+	/**
+	 * Fraction of scripts analysed using cached results.
+	 *
+	 * @return Hit rate between zero and one, zero before any lookups
+	 */
+	public double getHitRate() {
+		return results.getHitRate();
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		results.clear();
+	}
+
+	/**
+	 * Cache key for the parser type and script source,
+	 * hex encoded hash of the source text.
+	 *
+	 * @param parser - Script parser
+	 * @param scriptSource - JavaScript source text
+	 * @return Cache key
+	 */
+	protected static String getKey(Object parser, String scriptSource) {
+		return parser.getClass().getName() + ":" + DigestUtil.sha1Hex(scriptSource);
+	}
+
+	/**
+	 * Estimate memory used by a parse result. Literal values are
+	 * read completely as they are measured.
+	 *
+	 * @param value - Result value
+	 * @return Estimated size in bytes
+	 */
+	protected static long estimateSize(Object value) {
+		long size = ENTRY_OVERHEAD_BYTES;
+
+		if (value instanceof String) {
+			size += ((String) value).length() * 2L;
+		} else if (value instanceof Collection<?>) {
+			for (Object item: (Collection<?>) value) {
+				size += estimateSize(item);
+			}
+		} else if (value instanceof Map<?, ?>) {
+			for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+				size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+		} else if (value instanceof ObjectLiteral) {
+			ObjectLiteral literal = (ObjectLiteral) value;
+			for (String key: literal.getKeys()) {
+				size += estimateSize(key) + estimateSize(literal.getValue(key));
+			}
+		} else if (value instanceof ArrayLiteral) {
+			size += estimateSize(((ArrayLiteral) value).getValueList());
+		}
+
+		return size;
+	}
+}
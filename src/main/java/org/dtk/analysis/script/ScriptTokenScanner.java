@@ -0,0 +1,233 @@
+package org.dtk.analysis.script;
+
+import java.util.List;
+
+/**
+ * Lightweight lexical scanner for JavaScript source, used to decide whether
+ * a script needs a full AST parse. A single pass over the source finds the
+ * identifier tokens present, ignoring the contents of comments, string
+ * literals and regular expression literals. Scripts without any of the
+ * identifiers a parser looks for, e.g. minified third-party libraries never
+ * calling "require" or "define", can be skipped without parsing.
+ *
+ * Regular expression literals are distinguished from division using the
+ * previous token, the same heuristic used by JavaScript tokenizers.
+ *
+ * @author James Thomas
+ */
+
+public class ScriptTokenScanner {
+
+	/**
+	 * Keywords after which a forward slash starts a regular
+	 * expression literal rather than a division.
+	 */
+	protected static final String[] KEYWORDS_BEFORE_EXPRESSION = {
+		"return", "typeof", "instanceof", "in", "new", "delete", "void", "throw", "case", "do", "else"
+	};
+
+	/**
+	 * Private constructor, static methods only.
+	 */
+	private ScriptTokenScanner() {
+	}
+
+	/**
+	 * Does the script source contain any of the identifiers given as
+	 * a token, outside of comments, strings and regular expressions?
+	 *
+	 * @param source - JavaScript source text
+	 * @param identifiers - Identifiers to search for
+	 * @return Source contains at least one identifier
+	 */
+	public static boolean containsIdentifier(String source, List<String> identifiers) {
+		return scanForIdentifiers(source, identifiers, 1) > 0;
+	}
+
+	/**
+	 * Count the tokens in the script source matching any of the identifiers
+	 * given, outside of comments, strings and regular expressions.
+	 *
+	 * @param source - JavaScript source text
+	 * @param identifiers - Identifiers to search for
+	 * @return Number of matching tokens
+	 */
+	public static int countIdentifiers(String source, List<String> identifiers) {
+		return scanForIdentifiers(source, identifiers, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Scan source tokens, counting those matching the identifiers
+	 * until the limit is reached.
+	 *
+	 * @param source - JavaScript source text
+	 * @param identifiers - Identifiers to search for
+	 * @param limit - Stop scanning after this many matches
+	 * @return Number of matching tokens
+	 */
+	protected static int scanForIdentifiers(String source, List<String> identifiers, int limit) {
+		int length = source.length(), index = 0, matches = 0;
+		boolean regexAllowed = true;
+
+		while (index < length) {
+			char current = source.charAt(index), next = (index + 1 < length) ? source.charAt(index + 1) : 0;
+
+			if (current == '/' && next == '/') {
+				index = skipLineComment(source, index + 2);
+			} else if (current == '/' && next == '*') {
+				int end = source.indexOf("*/", index + 2);
+				index = (end > -1) ? end + 2 : length;
+			} else if (current == '"' || current == '\'') {
+				index = skipStringLiteral(source, index + 1, current);
+				regexAllowed = false;
+			} else if (current == '/') {
+				index = regexAllowed ? skipRegexLiteral(source, index + 1) : index + 1;
+				regexAllowed = !regexAllowed;
+			} else if (Character.isJavaIdentifierStart(current)) {
+				int start = index;
+				while (index < length && Character.isJavaIdentifierPart(source.charAt(index))) {
+					index++;
+				}
+
+				if (matchesToken(source, start, index, identifiers) && ++matches == limit) {
+					return matches;
+				}
+				regexAllowed = isKeywordBeforeExpression(source, start, index);
+			} else if (Character.isDigit(current)) {
+				while (index < length && (Character.isJavaIdentifierPart(source.charAt(index)) || source.charAt(index) == '.')) {
+					index++;
+				}
+				regexAllowed = false;
+			} else if ((current == '+' || current == '-') && next == current) {
+				index += 2;
+				regexAllowed = false;
+			} else {
+				if (!Character.isWhitespace(current)) {
+					regexAllowed = (current != ')' && current != ']');
+				}
+				index++;
+			}
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Does the token between the start and end positions
+	 * exactly match one of the identifiers?
+	 *
+	 * @param source - JavaScript source text
+	 * @param start - Token start
+	 * @param end - Token end, exclusive
+	 * @param identifiers - Identifiers to match
+	 * @return Token matches an identifier
+	 */
+	protected static boolean matchesToken(String source, int start, int end, List<String> identifiers) {
+		for (String identifier: identifiers) {
+			if (identifier.length() == end - start && source.regionMatches(start, identifier, 0, identifier.length())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Is the token a keyword that may be followed by an expression?
+	 *
+	 * @param source - JavaScript source text
+	 * @param start - Token start
+	 * @param end - Token end, exclusive
+	 * @return Token is keyword preceding an expression
+	 */
+	protected static boolean isKeywordBeforeExpression(String source, int start, int end) {
+		for (String keyword: KEYWORDS_BEFORE_EXPRESSION) {
+			if (keyword.length() == end - start && source.regionMatches(start, keyword, 0, keyword.length())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Return position after the end of a single line comment.
+	 *
+	 * @param source - JavaScript source text
+	 * @param index - Position after comment start
+	 * @return Position of the line terminator
+	 */
+	protected static int skipLineComment(String source, int index) {
+		while (index < source.length() && source.charAt(index) != '\n' && source.charAt(index) != '\r') {
+			index++;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Return position after the end of a string literal. Unterminated
+	 * strings end at the line terminator, so scanning can continue.
+	 *
+	 * @param source - JavaScript source text
+	 * @param index - Position after opening quote
+	 * @param quote - Quote character
+	 * @return Position after closing quote
+	 */
+	protected static int skipStringLiteral(String source, int index, char quote) {
+		while (index < source.length()) {
+			char current = source.charAt(index);
+
+			if (current == '\\') {
+				index += 2;
+			} else if (current == quote) {
+				return index + 1;
+			} else if (current == '\n' || current == '\r') {
+				return index;
+			} else {
+				index++;
+			}
+		}
+
+		return source.length();
+	}
+
+	/**
+	 * Return position after the end of a regular expression literal,
+	 * including any flags. Forward slashes within character classes
+	 * don't end the literal.
+	 *
+	 * @param source - JavaScript source text
+	 * @param index - Position after opening slash
+	 * @return Position after literal
+	 */
+	protected static int skipRegexLiteral(String source, int index) {
+		boolean inCharacterClass = false;
+
+		while (index < source.length()) {
+			char current = source.charAt(index);
+
+			if (current == '\\') {
+				index += 2;
+			} else if (current == '[') {
+				inCharacterClass = true;
+				index++;
+			} else if (current == ']') {
+				inCharacterClass = false;
+				index++;
+			} else if (current == '/' && !inCharacterClass) {
+				index++;
+				while (index < source.length() && Character.isJavaIdentifierPart(source.charAt(index))) {
+					index++;
+				}
+				return index;
+			} else if (current == '\n' || current == '\r') {
+				return index;
+			} else {
+				index++;
+			}
+		}
+
+		return source.length();
+	}
+}
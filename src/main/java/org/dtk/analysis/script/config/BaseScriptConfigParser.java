@@ -57,6 +57,7 @@ public abstract class BaseScriptConfigParser extends BaseScriptParser implements
 		case Token.VAR: 
 		case Token.EXPR_RESULT:
 			if (isConfigurationDefinition(node)) {
+				matchedRequiredIdentifier();
 				List<String> configurationKeys = retrieveConfigurationKeys(node);
 
 				for(String configKey: configurationKeys) {
@@ -1,6 +1,7 @@
 package org.dtk.analysis.script.config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,12 @@ public class LoaderConfigParser extends BaseScriptConfigParser {
 	 */
 	protected final Map<Node, ObjectLiteral> configurationLiterals = new HashMap<Node, ObjectLiteral>();
 	
+	/**
+	 * Configuration variable names, sources must reference one of these.
+	 */
+	protected static final List<String> LOADER_CONFIG_NAMES = Arrays.asList(
+		DojoConfigAttrs.LOADER_CONFIG_DOJO_CONFIG, DojoConfigAttrs.LOADER_CONFIG_DJCONFIG);
+	
 	/**
 	 * Static logging instance.
 	 */
@@ -46,6 +53,16 @@ public class LoaderConfigParser extends BaseScriptConfigParser {
 		super(scriptSource);
 	}
 
+	/**
+	 * Only parse sources referencing a configuration variable.
+	 * 
+	 * @return Configuration variable names
+	 */
+	@Override
+	protected List<String> getRequiredIdentifiers() {
+		return LOADER_CONFIG_NAMES;
+	}
+
 	/**
 	 * Does AST node contain a valid configuration declaration? 
 	 * Must be a local or global object literal variable declaration
@@ -1,6 +1,7 @@
 package org.dtk.analysis.script.dependency;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.mozilla.javascript.EvaluatorException;
@@ -35,6 +36,11 @@ public class AMDScriptParser extends BaseScriptDependencyParser {
 	 */
 	protected final static String AMD_DEFINE_METHOD = "define";
 	
+	/**
+	 * Sources must reference either AMD API method to contain dependencies.
+	 */
+	protected final static List<String> AMD_METHODS = Arrays.asList(AMD_REQUIRE_METHOD, AMD_DEFINE_METHOD);
+	
 	/**
 	 * Default constructor. 
 	 * 
@@ -56,6 +62,16 @@ public class AMDScriptParser extends BaseScriptDependencyParser {
 		}						
 	}	
 
+	/**
+	 * Only parse sources referencing the AMD API methods.
+	 * 
+	 * @return AMD API method names
+	 */
+	@Override
+	protected List<String> getRequiredIdentifiers() {
+		return AMD_METHODS;
+	}
+
 	/**
 	 * AST Node is an AMD API call that may contain module 
 	 * dependencies if either the function name matches a global
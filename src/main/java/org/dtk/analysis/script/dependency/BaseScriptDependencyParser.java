@@ -54,6 +54,7 @@ public abstract class BaseScriptDependencyParser extends BaseScriptParser implem
 		switch(node.getType()) {
 		case Token.CALL: 
 			if (isModuleDependencyCall(node)) {
+				matchedRequiredIdentifier();
 				List<String> dependencies = retrieveDependencyArguments(node);
 
 				for(String dependency: dependencies) {
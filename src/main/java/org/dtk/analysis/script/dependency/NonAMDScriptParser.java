@@ -1,6 +1,7 @@
 package org.dtk.analysis.script.dependency;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.mozilla.javascript.Node;
@@ -37,6 +38,16 @@ public class NonAMDScriptParser extends BaseScriptDependencyParser {
 		super(scriptSoure);
 	}
 
+	/**
+	 * Only parse sources referencing the dependency method.
+	 * 
+	 * @return Dependency method name
+	 */
+	@Override
+	protected List<String> getRequiredIdentifiers() {
+		return Collections.singletonList(DOJO_REQUIRE_METHOD);
+	}
+
 	/**
 	 * Check whether the AST node corresponds to the 
 	 * following format, "dojo.require()" 
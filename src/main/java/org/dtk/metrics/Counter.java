@@ -0,0 +1,55 @@
+package org.dtk.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonically increasing count, updated without locking.
+ * 
+ * @author James Thomas
+ */
+
+public class Counter implements Metric {
+	/** Current count */
+	protected final AtomicLong count = new AtomicLong();
+	
+	/**
+	 * Increment count by one.
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+	
+	/**
+	 * Increment count by the amount given.
+	 * 
+	 * @param amount - Amount to add
+	 */
+	public void increment(long amount) {
+		count.addAndGet(amount);
+	}
+	
+	/**
+	 * Current count.
+	 * 
+	 * @return Count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public String getType() {
+		return "counter";
+	}
+
+	@Override
+	public void writeSamples(String name, StringBuilder output) {
+		output.append(name).append(' ').append(getCount()).append('\n');
+	}
+
+	@Override
+	public void addAttributes(String name, Map<String, Long> attributes) {
+		attributes.put(name, getCount());
+	}
+}
@@ -0,0 +1,17 @@
+package org.dtk.metrics;
+
+/**
+ * Source for a metric value read when metrics are collected,
+ * e.g. queue depth or a counter owned by another class.
+ * 
+ * @author James Thomas
+ */
+
+public interface Gauge {
+	/**
+	 * Current value.
+	 * 
+	 * @return Metric value
+	 */
+	public long getValue();
+}
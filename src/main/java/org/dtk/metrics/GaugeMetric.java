@@ -0,0 +1,38 @@
+package org.dtk.metrics;
+
+import java.util.Map;
+
+/**
+ * Metric whose value is read from a gauge when collected. Used for both 
+ * gauges and counters maintained outside the registry.
+ * 
+ * @author James Thomas
+ */
+
+class GaugeMetric implements Metric {
+	/** Metric type */
+	protected final String type;
+	
+	/** Value source */
+	protected final Gauge gauge;
+	
+	GaugeMetric(String type, Gauge gauge) {
+		this.type = type;
+		this.gauge = gauge;
+	}
+
+	@Override
+	public String getType() {
+		return type;
+	}
+
+	@Override
+	public void writeSamples(String name, StringBuilder output) {
+		output.append(name).append(' ').append(gauge.getValue()).append('\n');
+	}
+
+	@Override
+	public void addAttributes(String name, Map<String, Long> attributes) {
+		attributes.put(name, gauge.getValue());
+	}
+}
@@ -0,0 +1,180 @@
+package org.dtk.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of recorded values, e.g. latencies or sizes, updated without
+ * locking. Values are counted in log-linear buckets, as in HDR histograms,
+ * each power of two range split into 32 equal sub-buckets. Quantiles are
+ * accurate to within about 3% of the value, across the full long range,
+ * using a fixed amount of memory however many values are recorded.
+ *
+ * @author James Thomas
+ */
+
+public class Histogram implements Metric {
+	/** Bits of precision within each power of two range */
+	protected static final int SUB_BUCKET_BITS = 5;
+
+	/** Sub-buckets per power of two range */
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** Buckets needed to cover all positive long values */
+	protected static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+	/** Quantiles reported */
+	protected static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+	/** Attribute suffixes for reported quantiles */
+	protected static final String[] QUANTILE_SUFFIXES = {"_p50", "_p90", "_p99"};
+
+	/** Values recorded in each bucket */
+	protected final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	/** Number of values recorded */
+	protected final AtomicLong count = new AtomicLong();
+
+	/** Total of values recorded */
+	protected final AtomicLong sum = new AtomicLong();
+
+	/** Largest value recorded */
+	protected final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value, negative values are recorded as zero.
+	 *
+	 * @param value - Value to record
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+
+		buckets.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Record time elapsed since the start time given.
+	 *
+	 * @param startMillis - Start time in milliseconds
+	 */
+	public void recordSince(long startMillis) {
+		record(System.currentTimeMillis() - startMillis);
+	}
+
+	/**
+	 * Number of values recorded.
+	 *
+	 * @return Count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Total of values recorded.
+	 *
+	 * @return Sum
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Largest value recorded.
+	 *
+	 * @return Maximum
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimate value at the quantile given, the highest value that
+	 * could be in the bucket containing the quantile.
+	 *
+	 * @param quantile - Quantile, between zero and one
+	 * @return Value at quantile, zero if nothing recorded
+	 */
+	public long getQuantile(double quantile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+
+		// Counts may change whilst being read, use a consistent copy
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total)), seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Bucket holding a value. Values below twice the sub-bucket count
+	 * have their own bucket, larger values share buckets with those
+	 * having the same leading bits.
+	 *
+	 * @param value - Non-negative value
+	 * @return Bucket index
+	 */
+	protected static int bucketIndex(long value) {
+		int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Largest value held by a bucket.
+	 *
+	 * @param index - Bucket index
+	 * @return Bucket upper bound
+	 */
+	protected static long bucketUpperBound(int index) {
+		int shift = Math.max(0, index / SUB_BUCKET_COUNT - 1);
+		long subBucket = index - shift * SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	@Override
+	public String getType() {
+		return "summary";
+	}
+
+	@Override
+	public void writeSamples(String name, StringBuilder output) {
+		for (double quantile: QUANTILES) {
+			output.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+				.append(getQuantile(quantile)).append('\n');
+		}
+		output.append(name).append("_sum ").append(getSum()).append('\n');
+		output.append(name).append("_count ").append(getCount()).append('\n');
+	}
+
+	@Override
+	public void addAttributes(String name, Map<String, Long> attributes) {
+		for (int i = 0; i < QUANTILES.length; i++) {
+			attributes.put(name + QUANTILE_SUFFIXES[i], getQuantile(QUANTILES[i]));
+		}
+		attributes.put(name + "_max", getMax());
+		attributes.put(name + "_sum", getSum());
+		attributes.put(name + "_count", getCount());
+	}
+}
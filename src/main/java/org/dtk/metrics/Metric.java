@@ -0,0 +1,35 @@
+package org.dtk.metrics;
+
+import java.util.Map;
+
+/**
+ * Single named metric held in the metrics registry. Metrics are written 
+ * in the Prometheus plain text format and exposed as JMX attributes.
+ * 
+ * @author James Thomas
+ */
+
+public interface Metric {
+	/**
+	 * Metric type, as used in the plain text format.
+	 * 
+	 * @return Metric type
+	 */
+	public String getType();
+	
+	/**
+	 * Write current samples for this metric, one per line.
+	 * 
+	 * @param name - Metric name
+	 * @param output - Plain text output
+	 */
+	public void writeSamples(String name, StringBuilder output);
+	
+	/**
+	 * Add current values as JMX attributes.
+	 * 
+	 * @param name - Metric name
+	 * @param attributes - Attribute names mapped to values
+	 */
+	public void addAttributes(String name, Map<String, Long> attributes);
+}
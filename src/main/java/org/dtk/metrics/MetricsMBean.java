@@ -0,0 +1,92 @@
+package org.dtk.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only JMX view of the metrics registry. Every metric value is
+ * an attribute, histograms have separate attributes for each quantile,
+ * maximum, sum and count. Attributes are read from the registry when
+ * requested, so metrics registered later are included.
+ *
+ * @author James Thomas
+ */
+
+public class MetricsMBean implements DynamicMBean {
+	/** Registry being exposed */
+	protected final MetricsRegistry registry;
+
+	/**
+	 * Create MBean for the registry given.
+	 *
+	 * @param registry - Metrics registry
+	 */
+	public MetricsMBean(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Long value = registry.getAttributes().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Long> values = registry.getAttributes();
+		AttributeList attributeList = new AttributeList();
+
+		for (String attribute: attributes) {
+			if (values.containsKey(attribute)) {
+				attributeList.add(new Attribute(attribute, values.get(attribute)));
+			}
+		}
+
+		return attributeList;
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributeInfo = new ArrayList<MBeanAttributeInfo>();
+
+		for (String attribute: registry.getAttributes().keySet()) {
+			attributeInfo.add(new MBeanAttributeInfo(attribute, Long.class.getName(),
+				attribute, true, false, false));
+		}
+
+		return new MBeanInfo(getClass().getName(), "Build service metrics",
+			attributeInfo.toArray(new MBeanAttributeInfo[0]), new MBeanConstructorInfo[0],
+			new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		// No operations are exposed, only metric attributes
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+}
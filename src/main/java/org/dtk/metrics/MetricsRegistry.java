@@ -0,0 +1,194 @@
+package org.dtk.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry holding all application metrics. Metrics are registered once,
+ * by name, and updated without locking by the code being measured. Current
+ * values are available in the Prometheus plain text format and through a
+ * JMX MBean, registered with the platform MBean server.
+ *
+ * @author James Thomas
+ */
+
+public final class MetricsRegistry {
+	/** Single instance of the metrics registry */
+	protected static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+	/** JMX name for metrics MBean */
+	protected static final String objectName = "org.dtk:type=Metrics";
+
+	/** Registered metrics, ordered by name */
+	protected final ConcurrentMap<String, RegisteredMetric> metrics
+		= new ConcurrentSkipListMap<String, RegisteredMetric>();
+
+	/** Name MBean was registered under, null when not registered */
+	protected ObjectName registeredName;
+
+	/**
+	 * Metric with its description.
+	 */
+	protected static class RegisteredMetric {
+		final String help;
+		final Metric metric;
+
+		RegisteredMetric(String help, Metric metric) {
+			this.help = help;
+			this.metric = metric;
+		}
+	}
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private MetricsRegistry() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+	}
+
+	/**
+	 * Return static instance of MetricsRegistry
+	 *
+	 * @return Metrics registry instance.
+	 */
+	public static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Return counter with the name given, registering a new
+	 * counter the first time.
+	 *
+	 * @param name - Metric name
+	 * @param help - Metric description
+	 * @return Counter
+	 */
+	public Counter counter(String name, String help) {
+		return (Counter) register(name, help, new Counter());
+	}
+
+	/**
+	 * Return histogram with the name given, registering a new
+	 * histogram the first time.
+	 *
+	 * @param name - Metric name
+	 * @param help - Metric description
+	 * @return Histogram
+	 */
+	public Histogram histogram(String name, String help) {
+		return (Histogram) register(name, help, new Histogram());
+	}
+
+	/**
+	 * Register gauge, read whenever metrics are collected. Replaces
+	 * any gauge previously registered with the same name.
+	 *
+	 * @param name - Metric name
+	 * @param help - Metric description
+	 * @param gauge - Value source
+	 */
+	public void gauge(String name, String help, Gauge gauge) {
+		metrics.put(name, new RegisteredMetric(help, new GaugeMetric("gauge", gauge)));
+	}
+
+	/**
+	 * Register counter maintained elsewhere, read whenever metrics are
+	 * collected. Replaces any counter previously registered with the same name.
+	 *
+	 * @param name - Metric name
+	 * @param help - Metric description
+	 * @param gauge - Counter value source
+	 */
+	public void counter(String name, String help, Gauge gauge) {
+		metrics.put(name, new RegisteredMetric(help, new GaugeMetric("counter", gauge)));
+	}
+
+	/**
+	 * All metrics in the Prometheus plain text format.
+	 *
+	 * @return Metrics text
+	 */
+	public String getMetricsText() {
+		StringBuilder output = new StringBuilder();
+
+		for (Map.Entry<String, RegisteredMetric> entry: metrics.entrySet()) {
+			String name = entry.getKey();
+			RegisteredMetric registered = entry.getValue();
+
+			output.append("# HELP ").append(name).append(' ').append(registered.help).append('\n');
+			output.append("# TYPE ").append(name).append(' ').append(registered.metric.getType()).append('\n');
+			registered.metric.writeSamples(name, output);
+		}
+
+		return output.toString();
+	}
+
+	/**
+	 * Current values of all metrics, keyed by attribute name.
+	 *
+	 * @return Metric attributes
+	 */
+	public Map<String, Long> getAttributes() {
+		Map<String, Long> attributes = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, RegisteredMetric> entry: metrics.entrySet()) {
+			entry.getValue().metric.addAttributes(entry.getKey(), attributes);
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * Register metrics MBean with the platform MBean server.
+	 *
+	 * @throws JMException - Unable to register MBean
+	 */
+	public synchronized void registerMBean() throws JMException {
+		if (registeredName == null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+
+			// Left behind by an earlier deployment in the same JVM
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+
+			server.registerMBean(new MetricsMBean(this), name);
+			registeredName = name;
+		}
+	}
+
+	/**
+	 * Remove metrics MBean from the platform MBean server.
+	 *
+	 * @throws JMException - Unable to unregister MBean
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (registeredName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+			registeredName = null;
+		}
+	}
+
+	/**
+	 * Return existing metric with this name or register the new metric.
+	 *
+	 * @param name - Metric name
+	 * @param help - Metric description
+	 * @param metric - New metric
+	 * @return Registered metric
+	 */
+	protected Metric register(String name, String help, Metric metric) {
+		RegisteredMetric existing = metrics.putIfAbsent(name, new RegisteredMetric(help, metric));
+		return (existing != null) ? existing.metric : metric;
+	}
+}
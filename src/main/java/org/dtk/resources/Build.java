@@ -1,6 +1,8 @@
 package org.dtk.resources;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -23,15 +25,19 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.http.HttpStatus;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.dtk.resources.build.BuildRequest;
+import org.dtk.resources.build.manager.BuildLog;
 import org.dtk.resources.build.manager.BuildState;
 import org.dtk.resources.build.manager.BuildStatusManager;
 import org.dtk.resources.exceptions.ConfigurationException;
@@ -94,6 +100,10 @@ public class Build {
 	protected static final String missingBuildResourceErrorText 
 	= "Unable to access build result, build process hasn't completed.";
 	
+	/** Error text when a build result is evicted before it could be streamed */
+	protected static final String evictedBuildResultErrorText 
+	= "Unable to stream build result, build result has been removed from the cache.";
+	
 	/** Log messages **/
 	/** We have successfully parsed a user's new build request */
 	protected static final String newBuildRequestLogMsg 
@@ -115,7 +125,8 @@ public class Build {
 	 * a compressed version of the requested JavaScript layers. User will have a link
 	 * to the status polling API returned, which allows them to verify a build has finished
 	 * and download the result. Incorrect and/or missing parameters will generate appropriate
-	 * JavaScript error response
+	 * JavaScript error response. When the build queue is full, the request is refused
+	 * with HTTP 503 and a Retry-After header. 
 	 * 
 	 * @param request - Http request details
 	 * @param buildDetails - Json object request details.
@@ -161,31 +172,71 @@ public class Build {
 
 	/**
 	 * Return build status for a particular build reference. 
-	 * Builds can either be completing or building. Builds 
-	 * not completed, contain the latest build results. Builds
-	 * finished, have a link to the finished resource.
+	 * Builds can either be queued, completing or building. Builds 
+	 * not completed, contain the latest build results. Queued 
+	 * builds include their current position in the build queue. 
+	 * Builds finished, have a link to the finished resource.
+	 * 
+	 * Clients passing the status version from their last response
+	 * are held until the status changes, or a timeout expires, 
+	 * rather than polling. Passing the log sequence number from 
+	 * the last response returns only the new log lines. 
 	 * 
 	 * @param request - Http Request
 	 * @param ref - Build Reference Identifier
+	 * @param version - Status version already seen, optional
+	 * @param after - Sequence number of the last log line seen, optional
 	 * @return Build job details
 	 */
 	@GET 
 	@Path("status/{ref}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public HashMap<String, String> retrieveBuildStatus(@Context HttpServletRequest request, @Context HttpServletResponse response, 
-		@PathParam("ref") String reference) {
+		@PathParam("ref") String reference, @QueryParam("version") Long version, @QueryParam("after") Long after) {
 		logger.entering(this.getClass().getName(), "retrieveBuildStatus");
 		
 		HashMap<String, String> buildStatus = new HashMap<String, String>();
 
 		BuildStatusManager buildStateManager = BuildStatusManager.getInstance();
 		
+		// Wait for something new, read version before the state so
+		// any change made whilst building the response isn't missed.
+		long currentVersion = (version != null) 
+			? buildStateManager.awaitBuildStatusChange(reference, version)
+			: buildStateManager.getBuildStatusVersion(reference);
+		
 		// Retrieve current build state for reference build
 		BuildState buildState = buildStateManager.retrieveBuildState(reference);
 		
 		// Store resulting state in the response
 		buildStatus.put("state", buildState.toString());
-		buildStatus.put("logs", buildStateManager.getCompleteBuildLog(reference));
+		buildStatus.put("version", Long.toString(currentVersion));
+		
+		if (after != null) {
+			// Only return log lines the client hasn't seen, letting it know
+			// when the lines it has are from a previous build attempt. 
+			boolean logsCleared = buildStateManager.isBuildLogCleared(reference, after);
+			List<BuildLog.LogLine> logLines = buildStateManager.getBuildLogsAfter(reference, after);
+			
+			StringBuilder logs = new StringBuilder();
+			long logSeq = after;
+			for (BuildLog.LogLine logLine: logLines) {
+				logs.append('\n').append(logLine.line);
+				logSeq = logLine.seq;
+			}
+			
+			buildStatus.put("logs", logs.toString());
+			buildStatus.put("logSeq", Long.toString(logSeq));
+			buildStatus.put("logsCleared", Boolean.toString(logsCleared));
+		} else {
+			buildStatus.put("logs", buildStateManager.getCompleteBuildLog(reference));
+		}
+		
+		// Let waiting clients know how many builds are ahead of them
+		if (buildState == BuildState.QUEUED) {
+			buildStatus.put("queuePosition", Integer.toString(buildStateManager.getQueuePosition(reference)));
+		}
+		
 		// If build has completed, include resource link, otherwise just include 
 		// current logs.
 		if (buildState == BuildState.COMPLETED) {
@@ -200,37 +251,151 @@ public class Build {
 		logger.exiting(this.getClass().getName(), "retrieveBuildStatus");		
 		return buildStatus;
 	}
+	
+	/**
+	 * Return progress and timing events reported by the build system for
+	 * a particular build reference. Includes build phases and their durations,
+	 * time spent in each transform, the slowest module transforms, file sizes
+	 * read and written and time spent optimising. Empty until the build starts.
+	 * 
+	 * @param response - Http Response
+	 * @param ref - Build Reference Identifier
+	 * @return Build events
+	 */
+	@GET 
+	@Path("status/{ref}/events")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> retrieveBuildEvents(@Context HttpServletResponse response, @PathParam("ref") String reference) {
+		logger.entering(this.getClass().getName(), "retrieveBuildEvents");
+		
+		Map<String, Object> buildEvents = BuildStatusManager.getInstance().getBuildEvents(reference);
+		if (buildEvents == null) {
+			buildEvents = new HashMap<String, Object>();
+		}
+		
+		// Events change until the build finishes
+		response.addHeader("Cache-Control", "no-cache, must-revalidate");
+		response.addHeader("Pragma", "no-cache");
+		
+		logger.exiting(this.getClass().getName(), "retrieveBuildEvents");
+		return buildEvents;
+	}
 
 	/**
 	 * Retrieve the build result for a given reference.
-	 * Invalid resources result in a 404 response.
+	 * Invalid resources result in a 404 response. Build 
+	 * results are rebuilt with different bytes after cache 
+	 * eviction, so the strong entity tag combines the reference
+	 * with the archive's modification time and size. Matching 
+	 * If-None-Match requests
+	 * receive a 304 and single byte range requests a 206, 
+	 * allowing caches and resumed downloads to avoid fetching 
+	 * the whole archive again. 
 	 * 
+	 * @param request - HTTP Request
 	 * @param response - HTTP Response
 	 * @param reference - Build resource identifier
-	 * @return Output stream for compressed Dojo build.
+	 * @return Response streaming the compressed Dojo build.
 	 */
 	@GET 
 	@Path("{reference}")
 	@Produces("application/zip")
-	public StreamingOutput retrieveBuildResult(@Context HttpServletResponse response, @PathParam("reference") String reference) {
+	public Response retrieveBuildResult(@Context HttpServletRequest request, @Context HttpServletResponse response, 
+		@PathParam("reference") String reference) {
 		logger.entering(this.getClass().getName(), "retrieveBuildResult");
 		BuildStatusManager buildStateManager = BuildStatusManager.getInstance();
 		
-		// Retrieve current build state for reference build
-		BuildState buildState = buildStateManager.retrieveBuildState(reference);
+		// Find completed build result, it's only reserved against cache 
+		// eviction once the response body is written. 
+		String buildResultPath = buildStateManager.findBuildResult(reference);
 		
-		if (buildState != BuildState.COMPLETED) {
+		if (buildResultPath == null) {
 			throw new MissingResourceException(missingBuildResourceErrorText);
 		}
 
+		File buildResult = new File(buildResultPath);
+		long length = buildResult.length(), lastModified = buildResult.lastModified();
+		String entityTagValue = reference + "-" + Long.toHexString(lastModified) 
+			+ "-" + Long.toHexString(length), entityTag = "\"" + entityTagValue + "\"";
+		
+		// Client already has this build result
+		if (HttpUtil.entityTagMatches(request.getHeader(HttpUtil.ifNoneMatch), entityTag, true)) {
+			logger.exiting(this.getClass().getName(), "retrieveBuildResult");
+			return Response.notModified(entityTagValue).build();
+		}
+		
 		// Set header to force download of content rather than display.
 		response.setHeader(HttpUtil.contentDisposition, HttpUtil.contentDispositionAttachment);
 		
+		// Ranges are ignored when a conditional If-Range doesn't match this result, 
+		// resuming a download of an archive since rebuilt sends the whole archive.
+		String ifRange = request.getHeader(HttpUtil.ifRange);
+		long[] range = null;
+		if (ifRange == null || HttpUtil.entityTagMatches(ifRange, entityTag, false)) {
+			range = HttpUtil.parseByteRange(request.getHeader(HttpUtil.range), length);
+		}
+		
+		ResponseBuilder builder;
+		
+		if (range == null) {
+			// Stream file output back to the user
+			builder = Response.ok(reserveWhileWriting(FileUtil.streamingFileOutput(buildResultPath, false), reference, buildResultPath, 
+				lastModified, length))
+				.header(HttpUtil.contentLength, length);
+		} else if (range[0] >= length) {
+			builder = Response.status(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+				.header(HttpUtil.contentRange, "bytes */" + length);
+		} else {
+			builder = Response.status(HttpStatus.SC_PARTIAL_CONTENT)
+				.entity(reserveWhileWriting(FileUtil.streamingFileRangeOutput(buildResultPath, range[0], range[1]), reference, 
+					buildResultPath, lastModified, length))
+				.header(HttpUtil.contentLength, range[1] - range[0] + 1)
+				.header(HttpUtil.contentRange, "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		
 		logger.exiting(this.getClass().getName(), "retrieveBuildResult");			
-		// Stream file output back to the user
-		return FileUtil.streamingFileOutput(buildStateManager.getBuildResultPath(reference), false);
+		return builder.tag(entityTagValue).header(HttpUtil.acceptRanges, "bytes").build();
 	}
 
+	/**
+	 * Wrap build result output so the build result is reserved against 
+	 * cache eviction whilst streaming, released once streaming has finished.
+	 * Output which is never written never reserves the build result. The 
+	 * archive's modification time and size, used for the response headers 
+	 * and entity tag, must be unchanged once reserved.
+	 * 
+	 * @param output - Build result output
+	 * @param reference - Build reference
+	 * @param buildResultPath - Build result being streamed 
+	 * @param lastModified - Archive modification time when the response was created
+	 * @param length - Archive size when the response was created
+	 * @return Output reserving the build result
+	 */
+	protected StreamingOutput reserveWhileWriting(final StreamingOutput output, final String reference, 
+		final String buildResultPath, final long lastModified, final long length) {
+		return new StreamingOutput() {
+			public void write(OutputStream out) throws IOException, WebApplicationException {
+				BuildStatusManager buildStateManager = BuildStatusManager.getInstance();
+				String acquiredPath = buildStateManager.acquireBuildResult(reference);
+				
+				try {
+					// Build result evicted, or rebuilt, since the response was created
+					File buildResult = new File(buildResultPath);
+					if (!buildResultPath.equals(acquiredPath) || buildResult.lastModified() != lastModified 
+						|| buildResult.length() != length) {
+						throw new IOException(evictedBuildResultErrorText);
+					}
+					
+					output.write(out);
+				} finally {
+					if (acquiredPath != null) {
+						buildStateManager.releaseBuildResult(reference);
+					}
+				}
+			}
+		};
+	}
+	
 	/**
 	 * Construct a new instance of the BuildRequest object. Extract mandatory
 	 * parameters from the request map, verifying that parameters are valid, 
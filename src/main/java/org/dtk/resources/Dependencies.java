@@ -23,7 +23,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.HttpClient;
 import org.apache.wink.common.model.multipart.BufferedInMultiPart;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
@@ -35,6 +35,8 @@ import org.dtk.analysis.exceptions.ModuleSourceNotAvailable;
 import org.dtk.analysis.exceptions.UnknownModuleIdentifier;
 import org.dtk.analysis.page.LocalWebPage;
 import org.dtk.analysis.page.RemoteWebPage;
+import org.dtk.metrics.Histogram;
+import org.dtk.metrics.MetricsRegistry;
 import org.dtk.resources.dependencies.DependenciesResponse;
 import org.dtk.resources.dependencies.DojoScriptVersions;
 import org.dtk.resources.dependencies.ExplicitModuleFormatAnalysisDependenciesResponse;
@@ -43,9 +45,12 @@ import org.dtk.resources.exceptions.ConfigurationException;
 import org.dtk.resources.exceptions.IncorrectParameterException;
 import org.dtk.resources.packages.PackageRepository;
 import org.dtk.util.FileUtil;
+import org.dtk.util.HttpClientPool;
+import org.dtk.util.HttpResponseCache;
+import org.dtk.util.HttpResponseCache.CachedResponse;
 import org.dtk.util.HttpUtil;
 import org.dtk.util.JsonUtil;
-import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.NativeArray;
@@ -87,6 +92,9 @@ public class Dependencies {
 	protected static final String incorrectUrlErrorText = "Unable to parse URL parameter for remote Web Application. " +
 	"Check format of the request parameter value";
 
+	/** Character set for remote pages when neither the response nor the page specify one */
+	protected static final String defaultPageCharset = "UTF-8";
+
 	/** Error text when json processing class throws parsing error. */
 	protected static final String internalServerErrorText = "Internal error processing module dependencies. Please try again.";
 
@@ -113,6 +121,10 @@ public class Dependencies {
 	/** Listener logging class */
 	protected static Logger logger = Logger.getLogger(Dependencies.class.getName());
 	
+	/** Time taken to analyse submitted sources */
+	protected static final Histogram analysisDuration = MetricsRegistry.getInstance()
+		.histogram("dwb_dependency_analysis_milliseconds", "Time taken to analyse submitted web pages and URLs for module dependencies.");
+	
 	/**
 	 * Analyse source input for Dojo module dependencies. Allows a request
 	 * to provide a html page, remote URL, build profile, which will be parsed
@@ -127,6 +139,7 @@ public class Dependencies {
 	@Produces(MediaType.TEXT_HTML)
 	public String analyseDependencies(BufferedInMultiPart multiPartForm) {
 		logger.entering(this.getClass().getName(), "analyseDependencies");
+		long analysisStarted = System.currentTimeMillis();
 
 		String encodedJson = null;
 		
@@ -190,6 +203,7 @@ public class Dependencies {
 			throw new ConfigurationException(internalServerErrorText);		
 		}
 
+		analysisDuration.recordSince(analysisStarted);
 		logger.exiting(this.getClass().getName(), "analyseDependencies");
 		
 		// Encoded response and return 
@@ -242,7 +256,19 @@ public class Dependencies {
 				textUrl = "http://" + textUrl;
 			}
 			url = new URL(textUrl);
-			RecursiveModuleAnalysis remotePage = new RemoteWebPage(Jsoup.connect(url.toString()).timeout(30 * 1000).get(), url, new DefaultHttpClient(), new HashSet<String>() {{
+			// Page and modules share pooled connections and cached responses
+			HttpClient httpClient = HttpClientPool.getInstance().getHttpClient();
+			CachedResponse page = HttpResponseCache.getInstance().retrieve(httpClient, url.toString());
+			if (page == null) {
+				throw new IncorrectParameterException(incorrectUrlErrorText);
+			}
+			
+			// Relative references resolve against the page location after redirects
+			URL pageUrl = new URL(page.getLocation());
+			Document document = HttpUtil.parseHtmlDocument(page.getContent(), page.getCharset(), 
+				defaultPageCharset, pageUrl.toString());
+			
+			RecursiveModuleAnalysis remotePage = new RemoteWebPage(document, pageUrl, httpClient, new HashSet<String>() {{
 				add("dojo");
 				add("dojox");
 				add("dijit");
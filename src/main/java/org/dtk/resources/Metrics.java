@@ -0,0 +1,47 @@
+package org.dtk.resources;
+
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+
+import org.dtk.metrics.MetricsRegistry;
+
+/**
+ * RESTful Metrics API. Returns current values for all application 
+ * metrics, e.g. build queue depth, build durations and cache hit counts, 
+ * in the Prometheus plain text format. 
+ * 
+ * @author James Thomas
+ */
+
+@Path("/metrics")
+public class Metrics {
+	/** Metrics logging class */
+	protected static Logger logger = Logger.getLogger(Metrics.class.getName());
+	
+	/**
+	 * Return all metrics, one sample per line. 
+	 * 
+	 * @param response - Http Response
+	 * @return Metrics text
+	 */
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getMetrics(@Context HttpServletResponse response) {
+		logger.entering(this.getClass().getName(), "getMetrics");
+		
+		// Values change constantly, never cache.
+		response.addHeader("Cache-Control", "no-cache, must-revalidate");
+		response.addHeader("Pragma", "no-cache");
+		
+		String metrics = MetricsRegistry.getInstance().getMetricsText();
+		
+		logger.exiting(this.getClass().getName(), "getMetrics");
+		return metrics;
+	}
+}
@@ -8,8 +8,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -23,6 +25,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
@@ -34,6 +37,7 @@ import org.apache.wink.common.model.multipart.BufferedInMultiPart;
 import org.dtk.resources.dependencies.ScriptParser;
 import org.dtk.resources.exceptions.ConfigurationException;
 import org.dtk.resources.exceptions.IncorrectParameterException;
+import org.dtk.resources.packages.PackageModuleIndex;
 import org.dtk.resources.packages.PackageRepository;
 import org.dtk.util.HttpUtil;
 import org.dtk.util.JsonUtil;
@@ -159,6 +163,53 @@ public class Packages {
 		return packageDetails;
 	}
 	
+	/**
+	 * Retrieve module dependency graph for a package version, read from the 
+	 * package's module index rather than parsing module sources. When layer 
+	 * modules are given, only those modules and their transitive dependencies 
+	 * are returned.
+	 * 
+	 * @param id - Package identifier
+	 * @param version - Package version
+	 * @param layerModules - Layer module identifiers, optional 
+	 * @return Modules with their dependencies, plugin dependencies and has flags.
+	 */
+	@GET
+	@Path("{name}/{version}/modules")
+	@Produces(MediaType.APPLICATION_JSON)
+	public HashMap<String, Object> getPackageModules(@PathParam("name") String id, @PathParam("version") String version, 
+		@QueryParam("layer") List<String> layerModules) {
+		logger.entering(this.getClass().getName(), "getPackageModules");
+		
+		// Retrieve module index, HTTP 404 if invalid name/version given.
+		PackageModuleIndex moduleIndex = PackageRepository.getInstance().getModuleIndex(id, version);
+		
+		Collection<String> moduleIds = moduleIndex.getModules();
+		if (layerModules != null && !layerModules.isEmpty()) {
+			moduleIds = moduleIndex.getTransitiveDependencies(layerModules);
+		}
+		
+		Map<String, Object> modules = new LinkedHashMap<String, Object>();
+		for (String moduleId: moduleIds) {
+			// Modules outside this package have no dependency details
+			if (moduleIndex.containsModule(moduleId)) {
+				Map<String, Object> moduleDetails = new HashMap<String, Object>();
+				moduleDetails.put("dependencies", moduleIndex.getDependencies(moduleId));
+				moduleDetails.put("pluginDependencies", moduleIndex.getPluginDependencies(moduleId));
+				moduleDetails.put("hasFlags", moduleIndex.getHasFlags(moduleId));
+				modules.put(moduleId, moduleDetails);
+			} else {
+				modules.put(moduleId, null);
+			}
+		}
+		
+		HashMap<String, Object> packageModules = new HashMap<String, Object>();
+		packageModules.put("modules", modules);
+		
+		logger.exiting(this.getClass().getName(), "getPackageModules");
+		return packageModules;
+	}
+	
 	/**
 	 * Create a new temporary package resource. Client must include a compressed user application
 	 * in the request, present under the "user_app" key. This application will be uncompressed and 
@@ -0,0 +1,56 @@
+package org.dtk.resources.build;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Context factory used for all contexts running the JavaScript 
+ * build system. Contexts are created with the configured optimisation
+ * level, rather than Rhino's defaults, so compiled build scripts are 
+ * generated consistently for every build.
+ * 
+ * @author James Thomas
+ */
+
+public class BuildContextFactory extends ContextFactory {
+	/** Default optimisation level, compile scripts to Java classes */
+	public static final int DEFAULT_OPTIMIZATION_LEVEL = 0;
+	
+	/** Optimisation level for new contexts, -1 for interpreted mode */
+	protected final int optimizationLevel;
+	
+	/**
+	 * Create new build context factory.
+	 * 
+	 * @param optimizationLevel - Rhino optimisation level, -1 to 9
+	 * @throws IllegalArgumentException - Invalid optimisation level
+	 */
+	public BuildContextFactory(int optimizationLevel) {
+		if (!Context.isValidOptimizationLevel(optimizationLevel)) {
+			throw new IllegalArgumentException("Invalid Rhino optimisation level: " + optimizationLevel);
+		}
+		
+		this.optimizationLevel = optimizationLevel;
+	}
+	
+	/**
+	 * Create new context using the build optimisation level.
+	 * 
+	 * @return New context
+	 */
+	@Override
+	protected Context makeContext() {
+		Context cx = super.makeContext();
+		cx.setOptimizationLevel(optimizationLevel);
+		return cx;
+	}
+	
+	/**
+	 * Optimisation level used for build contexts.
+	 * 
+	 * @return Optimisation level
+	 */
+	public int getOptimizationLevel() {
+		return optimizationLevel;
+	}
+}
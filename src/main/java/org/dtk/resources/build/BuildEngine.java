@@ -0,0 +1,160 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.tools.shell.Global;
+
+/**
+ * Pre-initialised Rhino environment for running the JavaScript build
+ * system. Standard objects and shell functions are created once, in a
+ * sealed shared scope, and the AMD loader script is compiled once. Each
+ * build executes in a fresh child scope using the shared scope as its
+ * prototype, so global variables defined by one build are never seen by
+ * another. Build package scripts loaded by the build system are executed
+ * from the JVM-wide compiled script cache.
+ *
+ * @author James Thomas
+ */
+
+public class BuildEngine {
+	/** Sealed top level scope, shared between all builds run on this engine */
+	protected final Global sharedScope;
+
+	/** Compiled AMD loader script */
+	protected final Script moduleLoader;
+
+	/** AMD module loader script path */
+	protected final String moduleLoaderPath;
+
+	/** Modification time of the loader script when compiled */
+	protected final long moduleLoaderModified;
+	
+	/** Context factory for build contexts */
+	protected final ContextFactory contextFactory;
+
+	/**
+	 * Create new build engine, initialising the shared scope and
+	 * compiling the AMD loader script.
+	 *
+	 * @param moduleLoaderPath - Location of the AMD loader script
+	 * @param buildModulePath - Location of the build package
+	 * @param contextFactory - Factory for build contexts
+	 * @throws IOException - Unable to read module loader
+	 */
+	public BuildEngine(String moduleLoaderPath, String buildModulePath, ContextFactory contextFactory) 
+		throws IOException {
+		File moduleLoaderFile = new File(moduleLoaderPath);
+
+		this.moduleLoaderPath = moduleLoaderPath;
+		this.moduleLoaderModified = moduleLoaderFile.lastModified();
+		this.contextFactory = contextFactory;
+
+		Context cx = contextFactory.enterContext();
+		try {
+			// Use Rhino's global object's as prototype for top scope because
+			// logger.js assumes access to "print" function. Standard library is
+			// sealed so builds can't interfere with each other.
+			sharedScope = new Global();
+			sharedScope.setSealedStdLib(true);
+			sharedScope.init(cx);
+			
+			// Build package and loader modules are static, run them from compiled script cache.
+			List<String> cachedDirectories = new ArrayList<String>();
+			cachedDirectories.add(canonicalDirectoryPath(moduleLoaderFile.getParentFile()));
+			cachedDirectories.add(canonicalDirectoryPath(new File(buildModulePath)));
+			
+			sharedScope.defineProperty("load", new CachingLoadFunction(sharedScope, cachedDirectories, 
+				BuildScriptCache.getInstance()), ScriptableObject.DONTENUM);
+			
+			// Standard objects such as RegExp and Packages are created lazily,
+			// replacing their slot on first access, force creation before sealing.
+			for (Object id: sharedScope.getAllIds()) {
+				if (id instanceof String) {
+					ScriptableObject.getProperty(sharedScope, (String) id);
+				}
+			}
+			sharedScope.sealObject();
+
+			String moduleLoaderScript = FileUtils.readFileToString(moduleLoaderFile);
+			moduleLoader = cx.compileString(moduleLoaderScript, "moduleLoader", 1, null);
+		} finally {
+			Context.exit();
+		}
+	}
+
+	/**
+	 * Create a new top level scope for a single build. Scope inherits
+	 * standard objects and shell functions from the shared scope, all
+	 * new global variables are stored in the child scope.
+	 *
+	 * @param cx - Current context
+	 * @return New build scope
+	 */
+	public Scriptable createBuildScope(Context cx) {
+		Scriptable buildScope = cx.newObject(sharedScope);
+		buildScope.setPrototype(sharedScope);
+		buildScope.setParentScope(null);
+
+		return buildScope;
+	}
+
+	/**
+	 * Execute the compiled AMD loader in the build scope.
+	 *
+	 * @param cx - Current context
+	 * @param buildScope - Scope created for this build
+	 */
+	public void executeModuleLoader(Context cx, Scriptable buildScope) {
+		moduleLoader.exec(cx, buildScope);
+	}
+
+	/**
+	 * Enter a new context for running a build on this engine. 
+	 * Caller must exit the context when finished.
+	 * 
+	 * @return Build context
+	 */
+	public Context enterContext() {
+		return contextFactory.enterContext();
+	}
+	
+	/**
+	 * Canonical directory path, with forward slashes and trailing 
+	 * separator, used to match script paths.
+	 * 
+	 * @param directory - Directory 
+	 * @return Canonical directory path
+	 * @throws IOException - Unable to resolve path
+	 */
+	protected String canonicalDirectoryPath(File directory) throws IOException {
+		return directory.getCanonicalPath().replace('\\', '/') + "/";
+	}
+	
+	/**
+	 * Has the loader script changed since this engine was
+	 * created?
+	 *
+	 * @return Engine needs recreating
+	 */
+	public boolean isStale() {
+		return new File(moduleLoaderPath).lastModified() != moduleLoaderModified;
+	}
+
+	/**
+	 * AMD loader script path used by this engine.
+	 *
+	 * @return Module loader path
+	 */
+	public String getModuleLoaderPath() {
+		return moduleLoaderPath;
+	}
+}
@@ -0,0 +1,114 @@
+package org.dtk.resources.build;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Pool of pre-initialised build engines. Creating a build engine sets up
+ * the Rhino standard objects and compiles the AMD loader, which takes
+ * seconds, so engines are kept between builds and handed to the next
+ * build process. Pool never blocks, a new engine is created when all
+ * engines are in use and extra engines are dropped when returned.
+ *
+ * @author James Thomas
+ */
+
+public class BuildEnginePool {
+	/** Idle engines, ready for use */
+	protected final BlockingQueue<BuildEngine> idleEngines;
+
+	/** AMD module loader script path */
+	protected final String moduleLoaderPath;
+
+	/** AMD build package location */
+	protected final String buildModulePath;
+
+	/** Factory for build contexts */
+	protected final ContextFactory contextFactory;
+
+	/**
+	 * Create new empty pool.
+	 *
+	 * @param moduleLoaderPath - AMD loader script path
+	 * @param buildModulePath - AMD build package location
+	 * @param contextFactory - Factory for build contexts
+	 * @param maxIdleEngines - Maximum number of engines kept between builds
+	 */
+	public BuildEnginePool(String moduleLoaderPath, String buildModulePath, ContextFactory contextFactory, 
+		int maxIdleEngines) {
+		this.moduleLoaderPath = moduleLoaderPath;
+		this.buildModulePath = buildModulePath;
+		this.contextFactory = contextFactory;
+		this.idleEngines = new LinkedBlockingQueue<BuildEngine>(maxIdleEngines);
+	}
+
+	/**
+	 * Create engines up front so the first builds don't pay
+	 * the start up cost.
+	 *
+	 * @param engines - Number of engines to create
+	 * @throws IOException - Unable to read module loader
+	 */
+	public void prestartEngines(int engines) throws IOException {
+		for (int i = 0; i < engines; i++) {
+			if (!idleEngines.offer(createEngine())) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Take an idle engine from the pool, creating a new engine when
+	 * none are available. Engines whose loader script has changed on
+	 * disk are discarded.
+	 *
+	 * @return Build engine
+	 * @throws IOException - Unable to read module loader
+	 */
+	public BuildEngine borrowEngine() throws IOException {
+		BuildEngine engine = idleEngines.poll();
+
+		while (engine != null && engine.isStale()) {
+			engine = idleEngines.poll();
+		}
+
+		if (engine == null) {
+			engine = createEngine();
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Return engine to the pool after the build has finished.
+	 *
+	 * @param engine - Engine previously borrowed
+	 */
+	public void returnEngine(BuildEngine engine) {
+		if (!engine.isStale()) {
+			idleEngines.offer(engine);
+		}
+	}
+
+	/**
+	 * Create new build engine with this pool's settings.
+	 *
+	 * @return Build engine
+	 * @throws IOException - Unable to read module loader
+	 */
+	protected BuildEngine createEngine() throws IOException {
+		return new BuildEngine(moduleLoaderPath, buildModulePath, contextFactory);
+	}
+
+	/**
+	 * AMD loader script path used by engines in this pool.
+	 *
+	 * @return Module loader path
+	 */
+	public String getModuleLoaderPath() {
+		return moduleLoaderPath;
+	}
+}
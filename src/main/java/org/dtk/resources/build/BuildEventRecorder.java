@@ -0,0 +1,267 @@
+package org.dtk.resources.build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dtk.resources.build.manager.BuildStatusManager;
+import org.dtk.resources.exceptions.MissingResourceException;
+
+/**
+ * Records structured progress and timing events reported by the JavaScript
+ * build system, exposed in the build scope as "buildEvents". Build phases,
+ * time spent in each transform, file sizes read and written and optimiser
+ * time are aggregated, along with the slowest individual module transforms,
+ * so memory used stays small however many modules are built. A snapshot is
+ * published to the build status every time a phase changes.
+ *
+ * Events are reported by the single thread running the build scripts.
+ *
+ * @author James Thomas
+ */
+
+public class BuildEventRecorder {
+	/** Number of slowest module transforms kept */
+	protected static final int SLOWEST_TRANSFORMS = 10;
+
+	/** Unique reference for the build being recorded */
+	protected final String buildReference;
+
+	/** Time the build started */
+	protected final long startMillis = System.currentTimeMillis();
+
+	/** Phases in order, name mapped to start offset and duration, -1 while running */
+	protected final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+	/** Phase currently running, null before first phase and after finishing */
+	protected String currentPhase;
+
+	/** Transforms, name mapped to count, total and maximum time */
+	protected final Map<String, long[]> transforms = new LinkedHashMap<String, long[]>();
+
+	/** Slowest module transforms, slowest first */
+	protected final List<ModuleTiming> slowestTransforms = new ArrayList<ModuleTiming>();
+
+	/** Files read and written, with total sizes in bytes */
+	protected long filesRead, bytesRead, filesWritten, bytesWritten;
+
+	/** Modules optimised, total time and source sizes before and after */
+	protected long optimizedModules, optimizeMillis, optimizeCharsIn, optimizeCharsOut;
+
+	/** Has the build system finished? */
+	protected boolean finished;
+
+	/**
+	 * Time taken by a single transform on a module.
+	 */
+	protected static class ModuleTiming {
+		final String module;
+		final String transform;
+		final long millis;
+
+		ModuleTiming(String module, String transform, long millis) {
+			this.module = module;
+			this.transform = transform;
+			this.millis = millis;
+		}
+	}
+
+	/** Orders module timings slowest first */
+	protected static final Comparator<ModuleTiming> slowestFirst = new Comparator<ModuleTiming>() {
+		public int compare(ModuleTiming first, ModuleTiming second) {
+			if (first.millis == second.millis) {
+				return 0;
+			}
+			return first.millis > second.millis ? -1 : 1;
+		}
+	};
+
+	/**
+	 * Create new recorder for a build.
+	 *
+	 * @param buildReference - Unique build reference
+	 */
+	public BuildEventRecorder(String buildReference) {
+		this.buildReference = buildReference;
+	}
+
+	/**
+	 * Build system started a new phase, finishing the current phase.
+	 *
+	 * @param phase - Phase name
+	 */
+	public void phaseStarted(String phase) {
+		finishCurrentPhase();
+
+		currentPhase = phase;
+		phases.put(phase, new long[] {elapsedMillis(), -1});
+		publish();
+	}
+
+	/**
+	 * Build system has finished, finishing the current phase.
+	 */
+	public void buildFinished() {
+		finishCurrentPhase();
+
+		finished = true;
+		publish();
+	}
+
+	/**
+	 * Transform applied to a module.
+	 *
+	 * @param transform - Transform name
+	 * @param module - Module identifier or source path
+	 * @param millis - Time taken
+	 */
+	public void transformFinished(String transform, String module, double millis) {
+		long time = (long) millis;
+
+		long[] timing = transforms.get(transform);
+		if (timing == null) {
+			timing = new long[3];
+			transforms.put(transform, timing);
+		}
+		timing[0]++;
+		timing[1] += time;
+		timing[2] = Math.max(timing[2], time);
+
+		// Keep list sorted, dropping the fastest once full
+		int size = slowestTransforms.size();
+		if (size < SLOWEST_TRANSFORMS || time > slowestTransforms.get(size - 1).millis) {
+			if (size == SLOWEST_TRANSFORMS) {
+				slowestTransforms.remove(size - 1);
+			}
+			slowestTransforms.add(new ModuleTiming(module, transform, time));
+			Collections.sort(slowestTransforms, slowestFirst);
+		}
+	}
+
+	/**
+	 * File read by the build system.
+	 *
+	 * @param bytes - File size
+	 */
+	public void fileRead(double bytes) {
+		filesRead++;
+		bytesRead += (long) bytes;
+	}
+
+	/**
+	 * File written by the build system.
+	 *
+	 * @param bytes - File size
+	 */
+	public void fileWritten(double bytes) {
+		filesWritten++;
+		bytesWritten += (long) bytes;
+	}
+
+	/**
+	 * Module source optimised.
+	 *
+	 * @param module - Module identifier
+	 * @param millis - Time taken
+	 * @param charsIn - Source length before optimising
+	 * @param charsOut - Source length after optimising
+	 */
+	public void optimizeFinished(String module, double millis, double charsIn, double charsOut) {
+		optimizedModules++;
+		optimizeMillis += (long) millis;
+		optimizeCharsIn += (long) charsIn;
+		optimizeCharsOut += (long) charsOut;
+	}
+
+	/**
+	 * Snapshot of the recorded events, suitable for JSON serialisation.
+	 *
+	 * @return Recorded events
+	 */
+	public Map<String, Object> getEvents() {
+		Map<String, Object> events = new LinkedHashMap<String, Object>();
+		events.put("finished", finished);
+		events.put("buildTime", elapsedMillis());
+
+		List<Map<String, Object>> phaseList = new ArrayList<Map<String, Object>>();
+		for (Map.Entry<String, long[]> phase: phases.entrySet()) {
+			Map<String, Object> phaseDetails = new HashMap<String, Object>();
+			phaseDetails.put("name", phase.getKey());
+			phaseDetails.put("start", phase.getValue()[0]);
+			phaseDetails.put("duration", phase.getValue()[1]);
+			phaseList.add(phaseDetails);
+		}
+		events.put("phases", phaseList);
+
+		Map<String, Object> transformMap = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, long[]> transform: transforms.entrySet()) {
+			Map<String, Object> transformDetails = new HashMap<String, Object>();
+			transformDetails.put("count", transform.getValue()[0]);
+			transformDetails.put("totalTime", transform.getValue()[1]);
+			transformDetails.put("maxTime", transform.getValue()[2]);
+			transformMap.put(transform.getKey(), transformDetails);
+		}
+		events.put("transforms", transformMap);
+
+		List<Map<String, Object>> slowestList = new ArrayList<Map<String, Object>>();
+		for (ModuleTiming moduleTiming: slowestTransforms) {
+			Map<String, Object> timingDetails = new HashMap<String, Object>();
+			timingDetails.put("module", moduleTiming.module);
+			timingDetails.put("transform", moduleTiming.transform);
+			timingDetails.put("time", moduleTiming.millis);
+			slowestList.add(timingDetails);
+		}
+		events.put("slowestTransforms", slowestList);
+
+		Map<String, Object> io = new HashMap<String, Object>();
+		io.put("filesRead", filesRead);
+		io.put("bytesRead", bytesRead);
+		io.put("filesWritten", filesWritten);
+		io.put("bytesWritten", bytesWritten);
+		events.put("io", io);
+
+		Map<String, Object> optimizer = new HashMap<String, Object>();
+		optimizer.put("modules", optimizedModules);
+		optimizer.put("time", optimizeMillis);
+		optimizer.put("charactersIn", optimizeCharsIn);
+		optimizer.put("charactersOut", optimizeCharsOut);
+		events.put("optimizer", optimizer);
+
+		return events;
+	}
+
+	/**
+	 * Send latest snapshot to the build status.
+	 */
+	public void publish() {
+		try {
+			BuildStatusManager.getInstance().setBuildEvents(buildReference, getEvents());
+		} catch (MissingResourceException e) {
+			// Build run without a build status, nothing to update.
+		}
+	}
+
+	/**
+	 * Record duration of the running phase.
+	 */
+	protected void finishCurrentPhase() {
+		if (currentPhase != null) {
+			long[] phase = phases.get(currentPhase);
+			phase[1] = elapsedMillis() - phase[0];
+			currentPhase = null;
+		}
+	}
+
+	/**
+	 * Time since the build started.
+	 *
+	 * @return Elapsed milliseconds
+	 */
+	protected long elapsedMillis() {
+		return System.currentTimeMillis() - startMillis;
+	}
+}
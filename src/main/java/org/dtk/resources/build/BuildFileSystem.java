@@ -0,0 +1,250 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dtk.resources.packages.PackageSourceCache;
+
+/**
+ * File system access for a single build, exposed in the build scope as
+ * "buildFileSystem" and used by the Rhino "fs" module in place of the shell's
+ * readFile function and java.io writers. Files are read through a file channel
+ * into a direct buffer pooled for each thread, with large files memory mapped
+ * instead, and written through a file channel in one pass. File status is
+ * cached for the life of the build, as the build system checks the same
+ * directories and files many times over. Files and directory listings within
+ * package locations are shared with other builds through the package source
+ * cache.
+ *
+ * Text is decoded and encoded with the same replacement behaviour as the
+ * readers and writers used before, so file contents are unchanged. Methods
+ * are called by the single thread running the build scripts.
+ *
+ * @author James Thomas
+ */
+
+public class BuildFileSystem {
+	/** Files at least this size are memory mapped, smaller files use the pooled buffer */
+	protected static final int MAP_THRESHOLD_BYTES = 256 * 1024;
+
+	/** Direct read buffer for each thread, large enough for any file not mapped */
+	protected static final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(MAP_THRESHOLD_BYTES);
+		}
+	};
+
+	/** Records files read and written, may be null */
+	protected final BuildEventRecorder buildEvents;
+
+	/** Package files and directory listings shared between builds */
+	protected final PackageSourceCache packageSources = PackageSourceCache.getInstance();
+
+	/** File status for paths checked during this build */
+	protected final Map<String, FileStat> statCache = new HashMap<String, FileStat>();
+
+	/** Status lookups answered from the cache */
+	protected long statCacheHits;
+
+	/**
+	 * Status of a file or directory when first checked.
+	 */
+	public static class FileStat {
+		protected final boolean file;
+		protected final boolean directory;
+		protected final long size;
+		protected final long lastModified;
+
+		FileStat(File path) {
+			this.file = path.isFile();
+			this.directory = !file && path.isDirectory();
+			this.size = file ? path.length() : 0;
+			this.lastModified = path.lastModified();
+		}
+
+		public boolean isFile() {
+			return file;
+		}
+
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * Create file system access for a new build.
+	 *
+	 * @param buildEvents - Build event recorder, may be null
+	 */
+	public BuildFileSystem(BuildEventRecorder buildEvents) {
+		this.buildEvents = buildEvents;
+	}
+
+	/**
+	 * Read the text contents of a file.
+	 *
+	 * @param filename - File path
+	 * @param encoding - Character encoding, UTF-8 when null
+	 * @return File contents
+	 * @throws IOException - Unable to read the file
+	 */
+	public String readFileSync(String filename, String encoding) throws IOException {
+		Charset charset = Charset.forName(encoding != null ? encoding : "UTF-8");
+		File file = new File(filename);
+		String contents = packageSources.getFileContents(filename, charset.name());
+
+		if (contents == null) {
+			// Status read first, so changes whilst reading invalidate the cached contents
+			long lastModified = file.lastModified(), length = file.length();
+			contents = readFile(file, charset);
+			packageSources.putFileContents(filename, charset.name(), contents, lastModified, length);
+		}
+
+		if (buildEvents != null) {
+			buildEvents.fileRead(file.length());
+		}
+
+		return contents;
+	}
+
+	/**
+	 * Read and decode file contents through a file channel.
+	 *
+	 * @param file - File to read
+	 * @param charset - Character encoding
+	 * @return File contents
+	 * @throws IOException - Unable to read the file
+	 */
+	protected String readFile(File file, Charset charset) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+
+			if (size >= MAP_THRESHOLD_BYTES) {
+				return charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)).toString();
+			}
+
+			ByteBuffer buffer = readBuffers.get();
+			buffer.clear();
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+				// Keep reading until the end of the file, file may have grown since sized
+			}
+			buffer.flip();
+
+			return charset.decode(buffer).toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write text contents to a file, replacing any existing file.
+	 *
+	 * @param filename - File path
+	 * @param contents - Text contents
+	 * @param encoding - Character encoding, platform default when null
+	 * @throws IOException - Unable to write the file
+	 */
+	public void writeFileSync(String filename, String contents, String encoding) throws IOException {
+		Charset charset = (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+		ByteBuffer encoded = charset.encode(contents);
+		long size = encoded.remaining();
+		FileOutputStream out = new FileOutputStream(filename);
+
+		try {
+			FileChannel channel = out.getChannel();
+			while (encoded.hasRemaining()) {
+				channel.write(encoded);
+			}
+		} finally {
+			out.close();
+			statCache.remove(filename);
+		}
+
+		if (buildEvents != null) {
+			buildEvents.fileWritten(size);
+		}
+	}
+
+	/**
+	 * Status of a file or directory, cached after the first check.
+	 * Paths which don't exist are neither files nor directories.
+	 *
+	 * @param filename - File or directory path
+	 * @return File status
+	 */
+	public FileStat statSync(String filename) {
+		FileStat stat = statCache.get(filename);
+
+		if (stat == null) {
+			stat = new FileStat(new File(filename));
+			statCache.put(filename, stat);
+		} else {
+			statCacheHits++;
+		}
+
+		return stat;
+	}
+
+	/**
+	 * Create a directory, with any missing parent directories.
+	 *
+	 * @param path - Directory path
+	 */
+	public void mkdirSync(String path) {
+		File dir = new File(path);
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		statCache.remove(path);
+	}
+
+	/**
+	 * Names of the files and directories within a directory.
+	 *
+	 * @param path - Directory path
+	 * @return Directory entry names, empty when not a directory
+	 */
+	public String[] readdirSync(String path) {
+		String[] names = packageSources.getDirectoryListing(path);
+
+		if (names == null) {
+			File dir = new File(path);
+			long lastModified = dir.lastModified();
+			names = dir.list();
+			if (names == null) {
+				return new String[0];
+			}
+			packageSources.putDirectoryListing(path, names, lastModified);
+		}
+
+		return names.clone();
+	}
+
+	/**
+	 * Number of status lookups answered from the cache.
+	 *
+	 * @return Cache hits
+	 */
+	public long getStatCacheHits() {
+		return statCacheHits;
+	}
+}
@@ -0,0 +1,210 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dtk.resources.packages.PackageRepository;
+import org.dtk.resources.packages.PackageScanIndex;
+import org.dtk.util.DigestUtil;
+
+/**
+ * Package scan indexes for a single build, exposed in the build scope as
+ * "buildModuleIndex" and used by the build system's dependency scan to skip
+ * modules scanned by an earlier build. Scan results are looked up by the
+ * resource's source path, mapped to a module in one of the build packages,
+ * and only returned while the module text is unchanged. Text is compared
+ * after build pragmas are applied, as seen by the scan.
+ *
+ * The index stores the build system's own scan result, rather than
+ * answering from the parsed package module graph, as the scan also follows
+ * require() calls inside module factories and layer contents must not
+ * change. Package modules are never parsed to create the index, scan
+ * results recorded by the build are persisted when the build finishes.
+ *
+ * @author James Thomas
+ */
+
+public class BuildModuleIndex {
+	/** Module source file extension */
+	protected static final String MODULE_SUFFIX = ".js";
+
+	/** Logging class instance */
+	protected static final Logger logger = Logger.getLogger(BuildModuleIndex.class.getName());
+
+	/** Package index unavailable log message */
+	protected static final String moduleIndexUnavailableLogMsg
+		= "Unable to use scan index for package (%1$s) & version (%2$s), modules will be scanned: %3$s";
+
+	/** Packages with a scan index, in build request order */
+	protected final List<IndexedPackage> packages = new ArrayList<IndexedPackage>();
+
+	/** Scans answered from the index */
+	protected long scanHits;
+
+	/** Scans not found in the index */
+	protected long scanMisses;
+
+	/**
+	 * Build package with its location and scan index.
+	 */
+	protected static class IndexedPackage {
+		final String name;
+		final String version;
+		final String locationPrefix;
+		final PackageScanIndex scanIndex;
+
+		IndexedPackage(String name, String version, File location, PackageScanIndex scanIndex) {
+			this.name = name;
+			this.version = version;
+			this.locationPrefix = location.getAbsolutePath() + File.separator;
+			this.scanIndex = scanIndex;
+		}
+	}
+
+	/**
+	 * Create scan index for the packages in a build request. Temporary
+	 * packages aren't indexed between requests, so are left out. Packages
+	 * whose location can't be found are logged and left out.
+	 *
+	 * @param buildPackages - Build request packages, name and version
+	 * @return Build module index
+	 */
+	public static BuildModuleIndex forPackages(List<Map<String, String>> buildPackages) {
+		PackageRepository packageRepo = PackageRepository.getInstance();
+		BuildModuleIndex buildModuleIndex = new BuildModuleIndex();
+
+		for (Map<String, String> buildPackage: buildPackages) {
+			String name = buildPackage.get("name"), version = buildPackage.get("version");
+			if (packageRepo.isTemporaryPackage(name)) {
+				continue;
+			}
+
+			try {
+				File location = new File(packageRepo.getPackageLocation(name, version));
+				buildModuleIndex.addPackage(name, version, location, packageRepo.getScanIndex(name, version));
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, String.format(moduleIndexUnavailableLogMsg, name, version, e.getMessage()));
+			}
+		}
+
+		return buildModuleIndex;
+	}
+
+	/**
+	 * Add package to the index.
+	 *
+	 * @param name - Package name
+	 * @param version - Package version
+	 * @param location - Package location
+	 * @param scanIndex - Package scan index
+	 */
+	public void addPackage(String name, String version, File location, PackageScanIndex scanIndex) {
+		packages.add(new IndexedPackage(name, version, location, scanIndex));
+	}
+
+	/**
+	 * Return dependency scan recorded for the module at this path,
+	 * while the module text is unchanged.
+	 *
+	 * @param src - Module source path
+	 * @param text - Module text being scanned
+	 * @return Scan result, null if not found or the text has changed
+	 */
+	public String lookup(String src, String text) {
+		String scanResult = null;
+
+		IndexedPackage indexedPackage = findPackage(src);
+		if (indexedPackage != null) {
+			scanResult = indexedPackage.scanIndex.getScanResult(getModuleId(indexedPackage, src), DigestUtil.sha1Hex(text));
+		}
+
+		if (scanResult != null) {
+			scanHits++;
+		} else {
+			scanMisses++;
+		}
+
+		return scanResult;
+	}
+
+	/**
+	 * Record dependency scan for the module at this path. Paths
+	 * outside the build packages are ignored.
+	 *
+	 * @param src - Module source path
+	 * @param text - Module text scanned
+	 * @param scanResult - Scan result
+	 */
+	public void record(String src, String text, String scanResult) {
+		IndexedPackage indexedPackage = findPackage(src);
+		if (indexedPackage != null) {
+			indexedPackage.scanIndex.recordScanResult(getModuleId(indexedPackage, src), DigestUtil.sha1Hex(text), scanResult);
+		}
+	}
+
+	/**
+	 * Persist scan results recorded during this build.
+	 */
+	public void save() {
+		PackageRepository packageRepo = PackageRepository.getInstance();
+		for (IndexedPackage indexedPackage: packages) {
+			packageRepo.saveScanIndex(indexedPackage.name, indexedPackage.version, indexedPackage.scanIndex);
+		}
+	}
+
+	/**
+	 * Build package containing the module at this path.
+	 *
+	 * @param src - Module source path
+	 * @return Build package, null if not in a build package
+	 */
+	protected IndexedPackage findPackage(String src) {
+		if (!src.endsWith(MODULE_SUFFIX)) {
+			return null;
+		}
+
+		String path = new File(src).getAbsolutePath();
+		for (IndexedPackage indexedPackage: packages) {
+			if (path.startsWith(indexedPackage.locationPrefix)) {
+				return indexedPackage;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Module identifier for a path, relative to the package location
+	 * without the file extension.
+	 *
+	 * @param indexedPackage - Package containing the module
+	 * @param src - Module source path
+	 * @return Module identifier
+	 */
+	protected String getModuleId(IndexedPackage indexedPackage, String src) {
+		String relativePath = new File(src).getAbsolutePath().substring(indexedPackage.locationPrefix.length());
+		return relativePath.substring(0, relativePath.length() - MODULE_SUFFIX.length()).replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Scans answered from the index during this build.
+	 *
+	 * @return Scan hits
+	 */
+	public long getScanHits() {
+		return scanHits;
+	}
+
+	/**
+	 * Scans not found in the index during this build.
+	 *
+	 * @return Scan misses
+	 */
+	public long getScanMisses() {
+		return scanMisses;
+	}
+}
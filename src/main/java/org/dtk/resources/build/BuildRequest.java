@@ -7,12 +7,16 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
@@ -50,6 +54,12 @@ public class BuildRequest {
 	/** Unique identifier for these build parameters, used to cache computed result. */
 	String buildReference;
 	
+	/** Were the packages and layers already in canonical form when given? */
+	boolean canonicalForm;
+	
+	/** Identifier for the build parameters as given, before canonicalisation. */
+	String requestReference;
+	
 	/** Filename for the compressed build archive */
 	protected static final String archivedBuildFile = "dojo.zip";
 	
@@ -60,6 +70,9 @@ public class BuildRequest {
 	protected static final String format = "org.dtk.resources.build.BuildRequest: packages=%1$s " +
 		"cdn=%2$s, optimise=%3$s, cssOptimise=%4$s, platforms=%5$s, themes=%6$s, layers=%7$s";
 	
+	/** Boot layer, every other layer is built excluding its modules */
+	protected static final String BOOT_LAYER_NAME = "dojo.js";
+	
 	/** Dojo build profile format */
 	protected static final String profileFormat = "dependencies = %1$s; %2$s;";
 	
@@ -68,6 +81,31 @@ public class BuildRequest {
 	/** Empty theme identifier */
 	protected static final String MISSING_THEME_NAME = "none";
 	
+	/** Orders package or module references by name, then version or package, 
+	 * then remaining details. */
+	protected static final Comparator<Map<String, String>> referenceComparator = new Comparator<Map<String, String>>() {
+		public int compare(Map<String, String> first, Map<String, String> second) {
+			int result = compareValues(first.get("name"), second.get("name"));
+			if (result == 0) {
+				result = compareValues(first.get("version"), second.get("version"));
+			}
+			if (result == 0) {
+				result = compareValues(first.get("package"), second.get("package"));
+			}
+			if (result == 0) {
+				result = first.toString().compareTo(second.toString());
+			}
+			return result;
+		}
+		
+		protected int compareValues(String first, String second) {
+			if (first == null || second == null) {
+				return (first == null) ? (second == null ? 0 : -1) : 1;
+			}
+			return first.compareTo(second);
+		}
+	};
+	
 	/**
 	 * Create a new build request from constructor parameters.
 	 * 
@@ -84,13 +122,21 @@ public class BuildRequest {
 		String theme, List<Map<String, Object>> layers) 
 		throws JsonParseException, JsonMappingException, NoSuchAlgorithmException, IOException {
 		
-		this.packages = packages;
 		this.cdn = cdn;
 		this.optimise = optimise;
 		this.cssOptimise = cssOptimise;
 		this.platforms = platforms;
 		this.theme = theme; 
-		this.layers = layers;
+		
+		// Digest parameters as given, distinguishing requests which only 
+		// share a build because of canonicalisation.
+		this.requestReference = generateBuildDigest(packages, layers);
+		
+		// Requests differing only in ordering or duplicate entries produce 
+		// the same build, use canonical form for both the build and digest.
+		this.packages = canonicalPackages(packages);
+		this.layers = canonicalLayers(layers);
+		this.canonicalForm = this.packages.equals(packages) && this.layers.equals(layers);
 		
 		// Generate unique build reference for this set of 
 		// parameters, used hash digest of parameters.
@@ -107,11 +153,28 @@ public class BuildRequest {
 	 * @throws JsonParseException - Illegal JSON parsing error
 	 */
 	public String getProfileText() throws JsonParseException, JsonMappingException, IOException {
+		return getProfileText(layers);
+	}
+	
+	/**
+	 * Generate dojo build profile for a subset of this request's layers, 
+	 * used when the remaining layers are already cached. Module prefixes
+	 * are still resolved for the whole request, so layers build the same 
+	 * as when built together. 
+	 * 
+	 * @param buildLayers - Layers to build
+	 * @return Dojo build profile for the layers
+	 * @throws IOException - Unable to render build profile
+	 * @throws JsonMappingException - Unable to map from Java objects to JSON
+	 * @throws JsonParseException - Illegal JSON parsing error
+	 */
+	public String getProfileText(List<Map<String, Object>> buildLayers) 
+		throws JsonParseException, JsonMappingException, IOException {
 		Map<String, Object> buildProfile = new HashMap<String, Object>();
 		
 		List<List<String>> modulePrefixes = getModulePrefixes();
 		
-		buildProfile.put("layers", getProfileLayers());
+		buildProfile.put("layers", getProfileLayers(buildLayers));
 		buildProfile.put("layerOptimize", optimise);
 				
 		// REMOVE ME. Unclear how to force CSS files from themes to be included in the build output without
@@ -161,12 +224,13 @@ public class BuildRequest {
 	 * Convert the module layers for this build request into the format
 	 * the dojo build system expects. This will be converted straight to JSON.
 	 * 
+	 * @param buildLayers - Layers to convert
 	 * @return Dojo build layers, using a map to mirror simple object format
 	 */
-	protected List<Map<String, Object>> getProfileLayers() {
+	protected List<Map<String, Object>> getProfileLayers(List<Map<String, Object>> buildLayers) {
 		List<Map<String, Object>> profileLayers = new ArrayList<Map<String, Object>>();
 		
-		Iterator<Map<String, Object>> layerIter = layers.iterator();
+		Iterator<Map<String, Object>> layerIter = buildLayers.iterator();
 		
 		while(layerIter.hasNext()) {
 			final Map<String, Object> layer = layerIter.next();			
@@ -178,7 +242,7 @@ public class BuildRequest {
 				dependencies.add(modulesIter.next().get("name"));
 			}
 			
-			if ("dojo.js".equals(layer.get("name"))) {
+			if (isBootLayer(layer)) {
 				dependencies.add("dojo.selector.acme");
 			}
 						
@@ -193,10 +257,88 @@ public class BuildRequest {
 		return profileLayers;
 	}
 		
+	/**
+	 * Convert package references into canonical form. Duplicate references are
+	 * removed and remaining packages sorted by name and version. Maps are 
+	 * copied into sorted maps so serialised key order is fixed.
+	 * 
+	 * @param packages - Package references from the request
+	 * @return Canonical package references
+	 */
+	protected static List<Map<String, String>> canonicalPackages(List<Map<String, String>> packages) {
+		Set<Map<String, String>> uniquePackages = new LinkedHashSet<Map<String, String>>();
+		
+		Iterator<Map<String, String>> iter = packages.iterator();
+		while(iter.hasNext()) {
+			uniquePackages.add(new TreeMap<String, String>(iter.next()));
+		}
+		
+		List<Map<String, String>> sortedPackages = new ArrayList<Map<String, String>>(uniquePackages);
+		Collections.sort(sortedPackages, referenceComparator);
+		
+		return sortedPackages;
+	}
+	
+	/**
+	 * Convert build layers into canonical form. Layer order is kept, as the 
+	 * build system generates layers in order, but each layer's module list 
+	 * is normalised, sorted and has duplicates removed. Layer details are 
+	 * copied into sorted maps so serialised key order is fixed.
+	 * 
+	 * @param layers - Build layers from the request
+	 * @return Canonical build layers
+	 */
+	protected static List<Map<String, Object>> canonicalLayers(List<Map<String, Object>> layers) {
+		List<Map<String, Object>> canonicalLayers = new ArrayList<Map<String, Object>>();
+		
+		Iterator<Map<String, Object>> layerIter = layers.iterator();
+		while(layerIter.hasNext()) {
+			Map<String, Object> layer = new TreeMap<String, Object>(layerIter.next());
+			List<Map<String, String>> modules = (List<Map<String, String>>) layer.get("modules");
+			
+			if (modules != null) {
+				Set<Map<String, String>> uniqueModules = new LinkedHashSet<Map<String, String>>();
+				
+				Iterator<Map<String, String>> moduleIter = modules.iterator();
+				while(moduleIter.hasNext()) {
+					Map<String, String> module = new TreeMap<String, String>(moduleIter.next());
+					if (module.containsKey("name")) {
+						module.put("name", canonicalModuleName(module.get("name")));
+					}
+					uniqueModules.add(module);
+				}
+				
+				List<Map<String, String>> sortedModules = new ArrayList<Map<String, String>>(uniqueModules);
+				Collections.sort(sortedModules, referenceComparator);
+				layer.put("modules", sortedModules);
+			}
+			
+			canonicalLayers.add(layer);
+		}
+		
+		return canonicalLayers;
+	}
+	
+	/**
+	 * Normalise module identifier, removing surrounding whitespace and using
+	 * dot separators, so "dijit/form/Button" and "dijit.form.Button" match.
+	 * 
+	 * @param moduleName - Module identifier
+	 * @return Normalised module identifier
+	 */
+	protected static String canonicalModuleName(String moduleName) {
+		if (moduleName == null) {
+			return null;
+		}
+		
+		return moduleName.trim().replace('/', '.');
+	}
+	
 	/**
 	 * Generate the unique digest for this build request. Used to identify the same build job
 	 * between requests. Variable parameters used to control the build are hashed using the SHA-1
-	 * algorithm. 
+	 * algorithm. Packages and layers are already in canonical form, so requests 
+	 * differing only in ordering generate the same digest. 
 	 * 
 	 * @return Build digest reference
 	 * @throws JsonParseException - Error parsing layers to Json
@@ -206,9 +348,22 @@ public class BuildRequest {
 	 */
 	protected String generateBuildDigest() 
 	throws JsonParseException, JsonMappingException, IOException, NoSuchAlgorithmException {
-		// TODO: Sort module list, so that we don't compile same thing twice
-		// when modules are included in a different order.
-
+		return generateBuildDigest(packages, layers);
+	}
+	
+	/**
+	 * Generate digest for the build parameters with the given packages and layers.
+	 * 
+	 * @param packages - Package references
+	 * @param layers - Build layers
+	 * @return Build digest reference
+	 * @throws JsonParseException - Error parsing layers to Json
+	 * @throws JsonMappingException - Error parsing layers to Json
+	 * @throws IOException - Error parsing layers to Json
+	 * @throws NoSuchAlgorithmException - Unable to access SHA-1 algorithm
+	 */
+	protected String generateBuildDigest(List<Map<String, String>> packages, List<Map<String, Object>> layers) 
+	throws JsonParseException, JsonMappingException, IOException, NoSuchAlgorithmException {
 		// Convert host object to simple JSON representation. Simple 
 		// reliable text representation of java object state.
 		String layersJson = JsonUtil.writeJavaToJson(layers),
@@ -225,13 +380,152 @@ public class BuildRequest {
 		md.update(cssOptimise.getBytes());
 		md.update(platforms.getBytes());
 
-		// Generate BASE64 encoded result, replacing non-safe directory characters
+		return encodeDigest(md);
+	}
+	
+	/**
+	 * Generate the digest identifying the build output for a single layer. 
+	 * Only parameters affecting the layer's compiled JavaScript are included,
+	 * so the same layer is shared between requests with different 
+	 * companion layers or themes. Layers are built excluding the modules
+	 * of the boot layer, so the boot layer's modules are included too.
+	 * 
+	 * @param layer - Canonical build layer from this request
+	 * @return Layer digest reference
+	 * @throws IOException - Error converting layer to Json
+	 * @throws NoSuchAlgorithmException - Unable to access SHA-1 algorithm
+	 */
+	public String getLayerDigest(Map<String, Object> layer) throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance("SHA");
+		md.update("layer".getBytes());
+		md.update(JsonUtil.writeJavaToJson(layer).getBytes());
+		
+		// Build system's default boot layer is used when the request has none
+		if (!isBootLayer(layer)) {
+			md.update("exclude".getBytes());
+			Iterator<Map<String, Object>> excludedIter = getExcludedLayers(layer).iterator();
+			while(excludedIter.hasNext()) {
+				md.update(JsonUtil.writeJavaToJson(excludedIter.next().get("modules")).getBytes());
+			}
+		}
+		
+		md.update(JsonUtil.writeJavaToJson(packages).getBytes());
+		md.update(cdn.getBytes());
+		md.update(optimise.getBytes());
+		md.update(platforms.getBytes());
+
+		return encodeDigest(md);
+	}
+	
+	/**
+	 * Generate the digest identifying build output not belonging to 
+	 * any layer, e.g. theme stylesheets and images. 
+	 * 
+	 * @return Resources digest reference
+	 * @throws IOException - Error converting packages to Json
+	 * @throws NoSuchAlgorithmException - Unable to access SHA-1 algorithm
+	 */
+	public String getResourcesDigest() throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance("SHA");
+		md.update("resources".getBytes());
+		md.update(JsonUtil.writeJavaToJson(packages).getBytes());
+		md.update(theme.getBytes());
+		md.update(cssOptimise.getBytes());
+
+		return encodeDigest(md);
+	}
+	
+	/**
+	 * Generate BASE64 encoded digest result, replacing non-safe directory characters.
+	 * 
+	 * @param md - Message digest with all parameters added
+	 * @return Digest reference
+	 */
+	protected static String encodeDigest(MessageDigest md) {
 		String optionsDigest = (new String( (new Base64()).encode(md.digest())));
 		String digest = optionsDigest.replace('+', '~').replace('/', '_').replace('=', '_');
 
 		return digest;
 	}
 	
+	/**
+	 * Layers from this request whose modules are excluded from a layer 
+	 * when it's built, the boot layer for every other layer. 
+	 * 
+	 * @param layer - Build layer
+	 * @return Excluded layers, empty for the boot layer or without one
+	 */
+	public List<Map<String, Object>> getExcludedLayers(Map<String, Object> layer) {
+		List<Map<String, Object>> excludedLayers = new ArrayList<Map<String, Object>>();
+		
+		if (!isBootLayer(layer)) {
+			Iterator<Map<String, Object>> layerIter = layers.iterator();
+			while(layerIter.hasNext()) {
+				Map<String, Object> requestLayer = layerIter.next();
+				if (isBootLayer(requestLayer)) {
+					excludedLayers.add(requestLayer);
+				}
+			}
+		}
+		
+		return excludedLayers;
+	}
+	
+	/**
+	 * Layers needed to build a subset of this request's layers, those 
+	 * given and any layers they exclude. Excluded layers must be in the 
+	 * profile, even when cached, or the build system substitutes its 
+	 * default boot layer. Layers are returned in request order.
+	 * 
+	 * @param buildLayers - Layers needing compilation
+	 * @return Layers for the build profile
+	 */
+	public List<Map<String, Object>> getProfileBuildLayers(List<Map<String, Object>> buildLayers) {
+		Set<String> layerNames = new HashSet<String>();
+		
+		Iterator<Map<String, Object>> layerIter = buildLayers.iterator();
+		while(layerIter.hasNext()) {
+			Map<String, Object> layer = layerIter.next();
+			layerNames.add((String) layer.get("name"));
+			
+			Iterator<Map<String, Object>> excludedIter = getExcludedLayers(layer).iterator();
+			while(excludedIter.hasNext()) {
+				layerNames.add((String) excludedIter.next().get("name"));
+			}
+		}
+		
+		List<Map<String, Object>> profileLayers = new ArrayList<Map<String, Object>>();
+		layerIter = layers.iterator();
+		while(layerIter.hasNext()) {
+			Map<String, Object> layer = layerIter.next();
+			if (layerNames.contains(layer.get("name"))) {
+				profileLayers.add(layer);
+			}
+		}
+		
+		return profileLayers;
+	}
+	
+	/**
+	 * Is this the boot layer, built with the loader?
+	 * 
+	 * @param layer - Build layer
+	 * @return Layer is the boot layer
+	 */
+	protected static boolean isBootLayer(Map<String, Object> layer) {
+		return BOOT_LAYER_NAME.equals(layer.get("name"));
+	}
+	
+	/**
+	 * File name of a layer's compiled output within the build archive.
+	 * 
+	 * @param layer - Build layer
+	 * @return Layer file name
+	 */
+	public static String getLayerFileName(Map<String, Object> layer) {
+		return new File((String) layer.get("name")).getName();
+	}
+	
 	/**
 	 * Given a build reference, find the associated file path for result of
 	 * the build. Constructed from full build result cache directory and
@@ -332,6 +626,45 @@ public class BuildRequest {
 		return buildReference;
 	}
 	
+	/**
+	 * Were the request's packages and layers already in canonical form, 
+	 * i.e. sorted, normalised and without duplicates?
+	 * 
+	 * @return Request was given in canonical form
+	 */
+	public boolean isCanonicalForm() {
+		return canonicalForm;
+	}
+	
+	/**
+	 * Return the identifier for the build parameters as given. Requests
+	 * differing only in ordering or duplicate entries have different 
+	 * request references but the same build reference.
+	 * 
+	 * @return Request reference
+	 */
+	public String getRequestReference() {
+		return requestReference;
+	}
+	
+	/**
+	 * Return the module layers for this build request.
+	 * 
+	 * @return Build layers
+	 */
+	public List<Map<String, Object>> getLayers() {
+		return layers;
+	}
+	
+	/**
+	 * Return the package references, name and version, for this build request.
+	 * 
+	 * @return Build packages
+	 */
+	public List<Map<String, String>> getPackages() {
+		return packages;
+	}
+	
 	/**
 	 * Return the location for the version of dojo reference by this 
 	 * request. 
@@ -2,10 +2,11 @@ package org.dtk.resources.build;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -15,17 +16,22 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
+import org.dtk.metrics.Counter;
+import org.dtk.metrics.Histogram;
+import org.dtk.metrics.MetricsRegistry;
 import org.dtk.resources.Build;
 import org.dtk.resources.build.manager.BuildState;
 import org.dtk.resources.build.manager.BuildStatusManager;
+import org.dtk.resources.build.worker.ForkedBuildWorkerPool;
 import org.dtk.util.FileUtil;
 
 /**
  * Asynchronous build thread used to convert build details into 
  * compiled JS layers. Build result cache is checked for pre-existing
  * build, based upon parameters requested, and compilation started if 
- * resource is missing. When the build has finished, required artifacts
- * are added to the compressed archive. 
+ * resource is missing. Layers are cached individually, only layers 
+ * without cached output are compiled. When the build has finished, 
+ * required artifacts are added to the compressed archive. 
  *  
  * @author James Thomas
  */
@@ -47,6 +53,41 @@ public class BuildRequestProcessor implements Runnable {
 	/** Log message when build has successfully completed **/
 	protected static final String finishedBuildLogMsg = "Successfully processed build request (%1$s), caching result at %2$s";
 	
+	/** Build log message when a layer's output is taken from the layer cache **/
+	protected static final String cachedLayerLogMsg = "Using cached build output for layer: %1$s";
+	
+	/** Log message when a built layer has no output to cache **/
+	protected static final String missingLayerOutputLogMsg = "Build request (%1$s) produced no output for layer: %2$s";
+	
+	/** Log message when raw build artifacts can't be removed **/
+	protected static final String deleteArtifactsErrorLogMsg = "Unable to delete build artifacts for build request (%1$s): %2$s";
+	
+	/** Builds whose archive was already in the build result cache */
+	protected static final Counter resultCacheHits = MetricsRegistry.getInstance()
+		.counter("dwb_build_result_cache_hits_total", "Builds served from an existing build archive.");
+	
+	/** Builds which had to be assembled or compiled */
+	protected static final Counter resultCacheMisses = MetricsRegistry.getInstance()
+		.counter("dwb_build_result_cache_misses_total", "Builds without an existing build archive.");
+	
+	/** Builds which failed */
+	protected static final Counter failedBuilds = MetricsRegistry.getInstance()
+		.counter("dwb_builds_failed_total", "Builds which failed.");
+	
+	/** Time taken to build and archive uncached builds */
+	protected static final Histogram buildDuration = MetricsRegistry.getInstance()
+		.histogram("dwb_build_duration_milliseconds", "Time taken to build and archive builds without an existing archive.");
+	
+	/** Size of build archives created */
+	protected static final Histogram archiveSize = MetricsRegistry.getInstance()
+		.histogram("dwb_build_archive_bytes", "Size of build archives created.");
+	
+	/** Profile file for builds of every layer in the request */
+	protected static final String profileFilename = "build.profile.js";
+	
+	/** Profile file for builds of the layers missing from the layer cache */
+	protected static final String partialProfileFilename = "build.profile.partial.js";
+	
     public BuildRequestProcessor(BuildRequest buildRequest) {
     	this.buildRequest = buildRequest;
     	this.buildStatusManager = BuildStatusManager.getInstance();
@@ -67,15 +108,28 @@ public class BuildRequestProcessor implements Runnable {
 		// parameters. If so, we can just use this cached version rather than rebuilding. 
 		File resultFile = new File(buildResultPath);
 		if (!resultFile.exists()) {
+			resultCacheMisses.increment();
+			long buildStarted = System.currentTimeMillis();
 			finishState = executeBuildProcess();
+			buildDuration.recordSince(buildStarted);
 		} else {
 			// Cached version exists, no need to build just update status.
+			resultCacheHits.increment();
 			finishState = BuildState.COMPLETED;
 		}
 		
+		if (finishState == BuildState.FAILED) {
+			failedBuilds.increment();
+		}
+		
 		// Set result path in the build status instance when build is available.
 		if (finishState == BuildState.COMPLETED) {
 			buildStatusManager.setBuildResultPath(buildRequest.getBuildReference(), buildResultPath);
+			
+			// Raw artifacts aren't needed once archived, layers are kept in the layer cache.
+			if (buildStatusManager.isDeleteBuildArtifacts()) {
+				deleteBuildArtifacts();
+			}
 		}
 		
 		// Update state......
@@ -91,68 +145,228 @@ public class BuildRequestProcessor implements Runnable {
 	 */
 	protected BuildState executeBuildProcess() {		
 		BuildState finishedState = BuildState.FAILED;				
-		try {			
-			ProfileBuilder profileBuilder = setupProfileBuilder();
+		LayerBuildCache layerCache = buildStatusManager.getLayerBuildCache();
+		
+		// Cached entries used by this build can't be evicted until released
+		List<String> acquiredEntries = new ArrayList<String>();
+		
+		try {
+			List<Map<String, Object>> layers = buildRequest.getLayers();
 			
-			// Execute the build scripts for this request and, if successful, create the archive file
-			// with relevant build artifacts
-			if (profileBuilder.executeBuild()) { 
-				createBuildArchive();
-				
-				// Build completed successfully, set state accordingly.
+			// Only layers without cached output need compiling
+			List<Map<String, Object>> uncachedLayers = new ArrayList<Map<String, Object>>();
+			Iterator<Map<String, Object>> layerIter = layers.iterator();
+			while(layerIter.hasNext()) {
+				Map<String, Object> layer = layerIter.next();
+				String layerDigest = buildRequest.getLayerDigest(layer);
+				if (layerCache.acquire(layerDigest)) {
+					acquiredEntries.add(layerDigest);
+				} else {
+					uncachedLayers.add(layer);
+				}
+			}
+			
+			String resourcesDigest = buildRequest.getResourcesDigest();
+			boolean resourcesCached = layerCache.acquire(resourcesDigest);
+			if (resourcesCached) {
+				acquiredEntries.add(resourcesDigest);
+			}
+			
+			// Theme resources are generated by any build, when these are all that's 
+			// missing rebuild every layer. Layers excluded by the uncached layers,
+			// i.e. the boot layer, are always rebuilt with them.
+			List<Map<String, Object>> buildLayers = uncachedLayers.isEmpty() && !resourcesCached 
+				? layers : buildRequest.getProfileBuildLayers(uncachedLayers);
+			
+			layerIter = layers.iterator();
+			while(layerIter.hasNext()) {
+				Map<String, Object> layer = layerIter.next();
+				if (!buildLayers.contains(layer)) {
+					buildStatusManager.addNewBuildLog(buildRequest.getBuildReference(), 
+						String.format(cachedLayerLogMsg, layer.get("name")));
+				}
+			}
+			
+			// Every layer and theme resource cached, just assemble the archive.
+			if (buildLayers.isEmpty()) {
+				createBuildArchive(buildLayers, new LinkedHashMap<String, File>());
 				finishedState = BuildState.COMPLETED;
-				logger.log(Level.INFO, String.format(finishedBuildLogMsg, buildRequest.getBuildReference(), buildRequest.getBuildResultPath()));
 			} else {
-				Exception buildError = profileBuilder.getBuildError();
-				logger.log(Level.SEVERE, String.format(fatalBuildErrorLogMsg, buildError.getMessage()));
-				buildStatusManager.addNewBuildLog(buildRequest.getBuildReference(), buildError.getMessage());
-			}			
+				ProfileBuilder profileBuilder = setupProfileBuilder(getPermanentBuildProfile(buildLayers));
+				
+				// Remove output left by any earlier attempt, artifacts are assigned 
+				// to layers by file name.
+				FileUtils.deleteDirectory(new File(buildRequest.getBuildResultArtifactsPath()));
+				
+				// Execute the build scripts for this request and, if successful, create the archive file
+				// with relevant build artifacts
+				if (profileBuilder.executeBuild()) { 
+					Map<String, File> builtFiles = cacheBuildArtifacts(buildLayers);
+					createBuildArchive(buildLayers, builtFiles);
+					finishedState = BuildState.COMPLETED;
+				} else {
+					Exception buildError = profileBuilder.getBuildError();
+					logger.log(Level.SEVERE, String.format(fatalBuildErrorLogMsg, buildError.getMessage()));
+					buildStatusManager.addNewBuildLog(buildRequest.getBuildReference(), buildError.getMessage());
+				}
+			}
+			
+			// Build completed successfully, set state accordingly.
+			if (finishedState == BuildState.COMPLETED) {
+				logger.log(Level.INFO, String.format(finishedBuildLogMsg, buildRequest.getBuildReference(), buildRequest.getBuildResultPath()));
+			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, String.format(fatalBuildErrorLogMsg, e.getMessage()));				
+		} finally {
+			for (String acquiredEntry: acquiredEntries) {
+				layerCache.release(acquiredEntry);
+			}
 		}
 		
 		return finishedState;
 	}
 	
 	/**
-	 * Instantiate new instance of profile builder for this request. Ensure profile file 
-	 * exists for this request and properties are passed in. 
+	 * Remove the raw build artifacts directory for this request.
+	 */
+	protected void deleteBuildArtifacts() {
+		try {
+			FileUtils.deleteDirectory(new File(buildRequest.getBuildResultArtifactsPath()));
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(deleteArtifactsErrorLogMsg, buildRequest.getBuildReference(), e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Store artifacts from a completed build in the layer cache. Each built 
+	 * layer's file and flattened NLS bundles form one cache entry, all remaining
+	 * artifacts, e.g. theme files, form the resources entry. Artifacts named after
+	 * request layers which weren't built are ignored, the build system may still 
+	 * generate unlayered versions of these. 
 	 * 
+	 * @param buildLayers - Layers compiled by the build
+	 * @return Archive paths mapped to artifacts belonging in the build archive
+	 * @throws IOException - Unable to copy artifacts into the cache
+	 * @throws NoSuchAlgorithmException - Unable to access digest algorithm
+	 */
+	protected Map<String, File> cacheBuildArtifacts(List<Map<String, Object>> buildLayers) 
+		throws IOException, NoSuchAlgorithmException {
+		LayerBuildCache layerCache = buildStatusManager.getLayerBuildCache();
+		
+		// Artifacts mapping to the same archive path replace earlier entries
+		Map<String, File> remainingFiles = new LinkedHashMap<String, File>();
+		Iterator<File> artifactFilesIter = extractBuildArtifactFiles().iterator();
+		while(artifactFilesIter.hasNext()) {
+			File artifactFile = artifactFilesIter.next();
+			remainingFiles.put(artifactArchivePath(artifactFile).replace(File.separatorChar, '/'), artifactFile);
+		}
+		
+		Map<String, File> builtFiles = new LinkedHashMap<String, File>();
+		
+		Iterator<Map<String, Object>> layerIter = buildRequest.getLayers().iterator();
+		while(layerIter.hasNext()) {
+			Map<String, Object> layer = layerIter.next();
+			Map<String, File> layerFiles = removeLayerArtifacts(layer, remainingFiles);
+			
+			if (!buildLayers.contains(layer)) {
+				continue;
+			}
+			
+			// Don't cache incomplete output, file will be missing from this archive only.
+			if (layerFiles.containsKey(BuildRequest.getLayerFileName(layer))) {
+				layerCache.store(buildRequest.getLayerDigest(layer), layerFiles);
+			} else {
+				logger.log(Level.WARNING, String.format(missingLayerOutputLogMsg, 
+					buildRequest.getBuildReference(), layer.get("name")));
+			}
+			
+			builtFiles.putAll(layerFiles);
+		}
+		
+		layerCache.store(buildRequest.getResourcesDigest(), remainingFiles);
+		builtFiles.putAll(remainingFiles);
+		
+		return builtFiles;
+	}
+	
+	/**
+	 * Remove the artifacts belonging to a layer, its compiled layer file and 
+	 * flattened NLS bundles, from the artifacts map. 
+	 * 
+	 * @param layer - Build layer
+	 * @param artifacts - Archive paths mapped to artifact files
+	 * @return Archive paths mapped to layer artifacts
+	 */
+	protected Map<String, File> removeLayerArtifacts(Map<String, Object> layer, Map<String, File> artifacts) {
+		String layerFileName = BuildRequest.getLayerFileName(layer);
+		String nlsBundlePrefix = "nls/" + layerFileName.replaceFirst("\\.js$", "") + "_";
+		
+		Map<String, File> layerFiles = new LinkedHashMap<String, File>();
+		Iterator<Map.Entry<String, File>> artifactIter = artifacts.entrySet().iterator();
+		while(artifactIter.hasNext()) {
+			Map.Entry<String, File> artifact = artifactIter.next();
+			String archivePath = artifact.getKey();
+			if (archivePath.equals(layerFileName) || archivePath.startsWith(nlsBundlePrefix)) {
+				layerFiles.put(archivePath, artifact.getValue());
+				artifactIter.remove();
+			}
+		}
+		
+		return layerFiles;
+	}
+	
+	/**
+	 * Instantiate new instance of profile builder for this request, using the 
+	 * profile file given. When forked build workers are enabled, the build will 
+	 * be run in a worker JVM. Otherwise the build reuses dependency scans held 
+	 * in the package scan indexes. 
+	 * 
+	 * @param profileFile - Build profile path
 	 * @return Profile builder ready to build this request.
-	 * @throws JsonParseException - Unable to generate profile file
-	 * @throws JsonMappingException - Unable to generate profile file
-	 * @throws IOException - Unable to persist profile file text
 	 */
-	protected ProfileBuilder setupProfileBuilder() throws JsonParseException, JsonMappingException, IOException {
-		// Create file path to profile text  
-		String profileFile = getPermanentBuildProfile(),
-			amdLoaderPath = buildStatusManager.getLoaderModulePath(),
+	protected ProfileBuilder setupProfileBuilder(String profileFile) {
+		String amdLoaderPath = buildStatusManager.getLoaderModulePath(),
 			buildPackageLocation = buildStatusManager.getBuildModulePath();
 		
 		File amdLoaderParent = (new File(amdLoaderPath)).getParentFile();
 		
+		ForkedBuildWorkerPool workerPool = buildStatusManager.getForkedBuildWorkerPool();
+		
+		if (workerPool != null) {
+			return new ForkedProfileBuilder(profileFile, buildRequest.getBuildResultDir(), workerPool, 
+				amdLoaderParent.getAbsolutePath(), buildPackageLocation, buildRequest.getBuildReference());
+		}
+		
 		ProfileBuilder profileBuilder = new ProfileBuilder(profileFile, buildRequest.getBuildResultDir(), 
-			amdLoaderPath, amdLoaderParent.getAbsolutePath(), buildPackageLocation, buildRequest.getBuildReference());
+			buildStatusManager.getBuildEnginePool(), amdLoaderParent.getAbsolutePath(), buildPackageLocation, 
+			buildRequest.getBuildReference());
+		
+		// Forked workers don't share the package scan indexes held in this process
+		profileBuilder.setBuildModuleIndex(BuildModuleIndex.forPackages(buildRequest.getPackages()));
 		
 		return profileBuilder;
 	}
 	
 	/**
-	 * Generate the build profile for this build request and persist the 
-	 * text to a file in the build directory for this unique build. 
+	 * Generate the build profile for the layers being built and persist the 
+	 * text to a file in the build directory for this unique build. Profiles 
+	 * for a subset of the layers change as the layer cache changes, so are
+	 * always regenerated. 
 	 * 
+	 * @param buildLayers - Layers to build
 	 * @return Path to persistent build profile 
 	 * @throws JsonParseException - Unable to generate JSON profile
 	 * @throws JsonMappingException - Unable to convert Java POJOs to JSON 
 	 * @throws IOException - Unable to write build profile to disk
 	 */
-	protected String getPermanentBuildProfile() throws JsonParseException, JsonMappingException, IOException {
-		String profileFilename = "build.profile.js";
+	protected String getPermanentBuildProfile(List<Map<String, Object>> buildLayers) 
+		throws JsonParseException, JsonMappingException, IOException {
 		String buildResultDir = buildRequest.getBuildResultDir();
-		File profileFile = new File(buildResultDir, profileFilename);
+		boolean allLayers = buildLayers.size() == buildRequest.getLayers().size();
+		File profileFile = new File(buildResultDir, allLayers ? profileFilename : partialProfileFilename);
 		
-		if (!profileFile.exists()) {
-			FileUtil.writeToFile(profileFile.getAbsolutePath(), buildRequest.getProfileText(), null, false);
+		if (!allLayers || !profileFile.exists()) {
+			FileUtil.writeToFile(profileFile.getAbsolutePath(), buildRequest.getProfileText(buildLayers), null, false);
 		}
 	    
 	    return profileFile.getAbsolutePath();
@@ -160,27 +374,42 @@ public class BuildRequestProcessor implements Runnable {
 	
 	/**
 	 * Create a new build archive from the artifacts generated 
-	 * during the build process. The resulting archive will be
-	 * written to disk in the cache directory. 
+	 * during the build process, along with cached output for 
+	 * layers which weren't built. The resulting archive will be
+	 * written to disk in the cache directory. Artifact contents
+	 * are streamed into the archive, never held in memory. 
 	 * 
+	 * @param buildLayers - Layers compiled by this build, empty if none
+	 * @param builtFiles - Archive paths mapped to artifacts from this build
 	 * @throws IOException - Unable to read build artifacts or write 
 	 * final archive file. 
+	 * @throws NoSuchAlgorithmException - Unable to access digest algorithm
 	 */
-	protected void createBuildArchive() throws IOException {
+	protected void createBuildArchive(List<Map<String, Object>> buildLayers, Map<String, File> builtFiles) 
+		throws IOException, NoSuchAlgorithmException {
 		String buildArchivePath = buildRequest.getBuildResultPath();
-				
-		Map<String, byte[]> archiveContents = new HashMap<String, byte[]>();
-		Iterator<File> artifactFilesIter = extractBuildArtifactFiles().iterator();
+		LayerBuildCache layerCache = buildStatusManager.getLayerBuildCache();
 		
-		while(artifactFilesIter.hasNext()) {
-			
-			File artifactFile = artifactFilesIter.next();
-			byte[] contents = FileUtils.readFileToByteArray(artifactFile);
-			// Path must be relative to base directory.....
-			archiveContents.put(artifactArchivePath(artifactFile), contents);			
+		Map<String, File> archiveContents = new LinkedHashMap<String, File>();
+		
+		// Theme resources only come from the cache when nothing was built
+		if (buildLayers.isEmpty()) {
+			archiveContents.putAll(layerCache.getEntryFiles(buildRequest.getResourcesDigest()));
 		}
 		
-		FileUtil.writeToZipFile(buildArchivePath, archiveContents);
+		Iterator<Map<String, Object>> layerIter = buildRequest.getLayers().iterator();
+		while(layerIter.hasNext()) {
+			Map<String, Object> layer = layerIter.next();
+			if (!buildLayers.contains(layer)) {
+				archiveContents.putAll(layerCache.getEntryFiles(buildRequest.getLayerDigest(layer)));
+			}
+		}
+		
+		archiveContents.putAll(builtFiles);
+		
+		FileUtil.writeFilesToZipFile(buildArchivePath, archiveContents, 
+			buildStatusManager.getArchiveCompressionLevel());
+		archiveSize.record(new File(buildArchivePath).length());
 	}
 	
 	/**
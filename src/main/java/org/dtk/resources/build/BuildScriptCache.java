@@ -0,0 +1,107 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+/**
+ * JVM-wide cache of compiled build system scripts. The build package
+ * modules are the same for every build, so each script is compiled once
+ * and the resulting Script instance executed in every build scope. 
+ * Cached scripts are recompiled when the source file changes on disk.
+ * 
+ * @author James Thomas
+ */
+
+public final class BuildScriptCache {
+	/** Compiled scripts, keyed by absolute file path */
+	protected final ConcurrentMap<String, CompiledScript> compiledScripts 
+		= new ConcurrentHashMap<String, CompiledScript>();
+	
+	/** Source file encoding for build scripts */
+	protected static final String scriptEncoding = "UTF-8";
+	
+	/** Single instance of the compiled script cache */
+	protected static final BuildScriptCache INSTANCE = new BuildScriptCache();
+	
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private BuildScriptCache() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+	}
+	
+	/**
+	 * Return static instance of BuildScriptCache
+	 * 
+	 * @return Build script cache instance.
+	 */
+	public static BuildScriptCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Return compiled script for a source file, compiling the 
+	 * file with the current context when missing or modified.
+	 * 
+	 * @param cx - Current context
+	 * @param scriptFile - Script source file
+	 * @return Compiled script
+	 * @throws IOException - Unable to read script source
+	 */
+	public Script getScript(Context cx, File scriptFile) throws IOException {
+		String scriptPath = scriptFile.getAbsolutePath();
+		long lastModified = scriptFile.lastModified();
+		
+		CompiledScript compiledScript = compiledScripts.get(scriptPath);
+		
+		// Compiling the same script twice under contention is harmless, 
+		// last one into the cache wins.
+		if (compiledScript == null || compiledScript.lastModified != lastModified) {
+			String scriptSource = FileUtils.readFileToString(scriptFile, scriptEncoding);
+			Script script = cx.compileString(scriptSource, scriptPath, 1, null);
+			
+			compiledScript = new CompiledScript(script, lastModified);
+			compiledScripts.put(scriptPath, compiledScript);
+		}
+		
+		return compiledScript.script;
+	}
+	
+	/**
+	 * Number of compiled scripts held in the cache.
+	 * 
+	 * @return Cached scripts count
+	 */
+	public int size() {
+		return compiledScripts.size();
+	}
+	
+	/**
+	 * Remove all compiled scripts.
+	 */
+	public void clear() {
+		compiledScripts.clear();
+	}
+	
+	/**
+	 * Compiled script alongside the source modification 
+	 * time it was compiled from.
+	 */
+	protected static class CompiledScript {
+		final Script script;
+		final long lastModified;
+		
+		CompiledScript(Script script, long lastModified) {
+			this.script = script;
+			this.lastModified = lastModified;
+		}
+	}
+}
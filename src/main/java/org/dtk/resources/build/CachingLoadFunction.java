@@ -0,0 +1,102 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.tools.shell.Global;
+
+/**
+ * Replacement for the Rhino shell's "load" function. Scripts beneath 
+ * one of the cached directories are executed from the compiled script
+ * cache, all other scripts are loaded by the shell as normal. 
+ * 
+ * @author James Thomas
+ */
+
+public class CachingLoadFunction extends BaseFunction {
+	/** Directory paths, with trailing separator, whose scripts are cached */
+	protected final List<String> cachedDirectories;
+	
+	/** Compiled script cache */
+	protected final BuildScriptCache scriptCache;
+	
+	/**
+	 * Create new load function.
+	 * 
+	 * @param scope - Scope function is defined in
+	 * @param cachedDirectories - Directories containing cacheable scripts
+	 * @param scriptCache - Compiled script cache
+	 */
+	public CachingLoadFunction(Scriptable scope, List<String> cachedDirectories, BuildScriptCache scriptCache) {
+		super(scope, getFunctionPrototype(scope));
+		this.cachedDirectories = cachedDirectories;
+		this.scriptCache = scriptCache;
+	}
+	
+	/**
+	 * Load and execute each script path argument in the calling 
+	 * scope.
+	 */
+	@Override
+	public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+		for (Object arg: args) {
+			String scriptPath = Context.toString(arg);
+			File scriptFile = canonicalFile(scriptPath);
+			
+			if (scriptFile != null && isCachedScript(scriptFile)) {
+				try {
+					scriptCache.getScript(cx, scriptFile).exec(cx, thisObj);
+				} catch (IOException e) {
+					throw Context.reportRuntimeError("Unable to load build script, " + scriptPath 
+						+ ": " + e.getMessage());
+				}
+			} else {
+				Global.load(cx, thisObj, new Object[] {scriptPath}, this);
+			}
+		}
+		
+		return Context.getUndefinedValue();
+	}
+	
+	/**
+	 * Resolve script path to canonical file, removing relative
+	 * path segments. 
+	 * 
+	 * @param scriptPath - Script path
+	 * @return Canonical file, null if path can't be resolved
+	 */
+	protected File canonicalFile(String scriptPath) {
+		try {
+			return new File(scriptPath).getCanonicalFile();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Does this script file live beneath a cached directory?
+	 * 
+	 * @param scriptFile - Canonical script file
+	 * @return Script should be executed from the cache
+	 */
+	protected boolean isCachedScript(File scriptFile) {
+		String scriptPath = scriptFile.getPath().replace('\\', '/');
+		
+		for (String cachedDirectory: cachedDirectories) {
+			if (scriptPath.startsWith(cachedDirectory) && scriptFile.isFile()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public String getFunctionName() {
+		return "load";
+	}
+}
@@ -0,0 +1,154 @@
+package org.dtk.resources.build;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.dojotoolkit.shrinksafe.Compressor;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Minifies build resources using ShrinkSafe on a shared pool of threads, one
+ * per processor, exposed in the build scope as "buildCompressor". The build
+ * system's optimise transform submits each resource as it's reached, carrying
+ * on with other resources, and joins the results before writing them. Large
+ * layers are compressed across all cores rather than serially on the thread
+ * running the build scripts.
+ *
+ * Each job calls the same ShrinkSafe method the build scripts used, within a
+ * context from the build's context factory in interpreted mode, so output is
+ * identical to compressing serially.
+ *
+ * @author James Thomas
+ */
+
+public final class CompressorService {
+	/** Single instance of the compressor service */
+	protected static final CompressorService INSTANCE = new CompressorService();
+
+	/** Compression threads, shared by all builds */
+	protected final ExecutorService compressExecutor;
+
+	/**
+	 * Compresses source within a context from the build's factory,
+	 * recording the time taken.
+	 */
+	protected static class Compression implements Callable<String> {
+		final ContextFactory factory;
+		final String source;
+		final String stripConsole;
+
+		/** Time spent compressing, excluding time queued */
+		volatile long millis;
+
+		Compression(ContextFactory factory, String source, String stripConsole) {
+			this.factory = factory;
+			this.source = source;
+			this.stripConsole = stripConsole;
+		}
+
+		@Override
+		public String call() throws Exception {
+			long started = System.currentTimeMillis();
+			Context cx = factory.enterContext();
+			try {
+				// Matches the interpreted mode used by the build scripts
+				cx.setOptimizationLevel(-1);
+				return Compressor.compressScript(source, 0, 1, stripConsole);
+			} finally {
+				Context.exit();
+				millis = System.currentTimeMillis() - started;
+			}
+		}
+	}
+
+	/**
+	 * Pending compression of a single resource.
+	 */
+	public static class CompressJob extends FutureTask<String> {
+		/** Compression being run */
+		protected final Compression compression;
+
+		CompressJob(Compression compression) {
+			super(compression);
+			this.compression = compression;
+		}
+
+		/**
+		 * Wait for compression to finish, returning compressed source.
+		 * Compression errors are rethrown to the build script.
+		 *
+		 * @return Compressed source
+		 * @throws Exception - Compression failed or thread interrupted
+		 */
+		public String getResult() throws Exception {
+			try {
+				return get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw (cause instanceof Exception) ? (Exception) cause : e;
+			}
+		}
+
+		/**
+		 * Time spent compressing the resource.
+		 *
+		 * @return Milliseconds, zero until complete
+		 */
+		public long getMillis() {
+			return compression.millis;
+		}
+	}
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private CompressorService() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+
+		final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		compressExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				// Don't let compression threads keep the JVM alive.
+				Thread compressor = defaultFactory.newThread(r);
+				compressor.setName("build-compress-" + compressor.getName());
+				compressor.setDaemon(true);
+				return compressor;
+			}
+		});
+	}
+
+	/**
+	 * Return static instance of CompressorService
+	 *
+	 * @return Compressor service instance.
+	 */
+	public static CompressorService getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Queue JavaScript source for compression, returning job to join for
+	 * the result. Jobs use contexts from the calling thread's context
+	 * factory, the global factory when called outside a context.
+	 *
+	 * @param source - JavaScript source text
+	 * @param stripConsole - Console calls to remove, "normal", "warn", "all" or null
+	 * @return Pending compression job
+	 */
+	public CompressJob compressScript(String source, String stripConsole) {
+		Context current = Context.getCurrentContext();
+		ContextFactory factory = (current != null) ? current.getFactory() : ContextFactory.getGlobal();
+
+		CompressJob job = new CompressJob(new Compression(factory, source, stripConsole));
+		compressExecutor.execute(job);
+		return job;
+	}
+}
@@ -0,0 +1,74 @@
+package org.dtk.resources.build;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dtk.resources.build.worker.BuildWorkerMain;
+import org.dtk.resources.build.worker.ForkedBuildWorkerPool;
+
+/**
+ * Profile builder that runs the JavaScript build system in a forked 
+ * build worker JVM rather than in the web application. Build parameters
+ * are sent to the worker and the build result, or error, reported back.
+ * 
+ * @author James Thomas
+ */
+
+public class ForkedProfileBuilder extends ProfileBuilder {
+	/** Pool of forked build workers */
+	protected ForkedBuildWorkerPool workerPool;
+	
+	/** Build job details sent to the worker */
+	protected Map<String, Object> buildJob = new HashMap<String, Object>();
+	
+	/**
+	 * Generate new ForkedProfileBuilder using the arguments passed to control
+	 * the build process. 
+	 * 
+	 * @param profileFile - Location to profile file for this build
+	 * @param resultDir - Where to store the resulting build artifacts
+	 * @param workerPool - Forked build workers
+	 * @param baseUrl - Base Dojo URL being built with 
+	 * @param buildPackagePath - AMD Builder package location
+	 * @param buildReference - Unique reference for this build
+	 */
+	public ForkedProfileBuilder(String profileFile, String resultDir, ForkedBuildWorkerPool workerPool, 
+		String baseUrl, String buildPackagePath, String buildReference) {
+		super(profileFile, resultDir, null, baseUrl, buildPackagePath, buildReference);
+		this.workerPool = workerPool;
+		
+		buildJob.put(BuildWorkerMain.TYPE, BuildWorkerMain.TYPE_BUILD);
+		buildJob.put(BuildWorkerMain.PROFILE_FILE, profileFile);
+		buildJob.put(BuildWorkerMain.RESULT_DIR, resultDir);
+		buildJob.put(BuildWorkerMain.BASE_URL, baseUrl);
+		buildJob.put(BuildWorkerMain.BUILD_PACKAGE_PATH, buildPackagePath);
+		buildJob.put(BuildWorkerMain.BUILD_REFERENCE, buildReference);
+	}
+	
+	/**
+	 * Send the build to a forked worker and wait for the result.
+	 * 
+	 * @return Build completed successfully
+	 */
+	@Override
+	public boolean executeBuild() {
+		boolean buildCompleted = false;
+		long buildStarted = System.currentTimeMillis();
+		
+		try {
+			Map<String, Object> result = workerPool.executeBuild(buildJob);
+			buildCompleted = Boolean.TRUE.equals(result.get(BuildWorkerMain.SUCCESS));
+			
+			if (!buildCompleted) {
+				this.buildError = new Exception((String) result.get(BuildWorkerMain.ERROR));
+			}
+		} catch (IOException workerError) {
+			this.buildError = workerError;
+		} finally {
+			buildSystemDuration.recordSince(buildStarted);
+		}
+		
+		return buildCompleted;
+	}
+}
@@ -0,0 +1,261 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Content addressed cache of individual build layer outputs. Each entry
+ * is a directory, named after a digest of everything affecting the output,
+ * holding the built files at their archive paths. Entries are written to a
+ * temporary directory and renamed into place, so a partially written entry
+ * is never visible. Build archives are assembled from cached entries, letting
+ * unchanged layers be shared between different build requests. Builds 
+ * acquire the entries they reuse, acquired entries are never removed, so 
+ * entries can't be evicted between planning a build and assembling its
+ * archive.
+ *
+ * @author James Thomas
+ */
+
+public class LayerBuildCache {
+	/** Directory containing cache entries */
+	protected final File cacheDir;
+
+	/** Entry lookups which found a cached entry */
+	protected final AtomicLong hits = new AtomicLong();
+
+	/** Entry lookups which had to be built */
+	protected final AtomicLong misses = new AtomicLong();
+
+	/** Entries acquired by builds, mapped to the number of builds using them */
+	protected final Map<String, Integer> acquiredEntries = new HashMap<String, Integer>();
+
+	/** Counter for unique temporary entry directories */
+	protected final AtomicLong temporaryEntries = new AtomicLong();
+
+	/** Suffix for entries being written or removed */
+	protected static final String temporaryEntrySuffix = ".partial";
+
+	/**
+	 * Create new layer cache using the directory given.
+	 *
+	 * @param cacheDir - Directory holding cache entries
+	 */
+	public LayerBuildCache(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Does the cache contain an entry for this key? Lookups are
+	 * counted towards the cache hit rate.
+	 *
+	 * @param key - Entry digest
+	 * @return Entry is cached
+	 */
+	public boolean contains(String key) {
+		File entryDir = getEntryDir(key);
+		boolean cached;
+
+		synchronized (acquiredEntries) {
+			cached = entryDir.isDirectory();
+			if (cached) {
+				// Modification time records last use for cache eviction, 
+				// updated under the lock so removal always sees the latest use.
+				entryDir.setLastModified(System.currentTimeMillis());
+			}
+		}
+
+		if (cached) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Acquire a cached entry for use by a build, stopping the entry being 
+	 * removed until released. Lookups are counted towards the cache hit rate.
+	 *
+	 * @param key - Entry digest
+	 * @return Entry is cached and was acquired, callers must release it
+	 */
+	public boolean acquire(String key) {
+		synchronized (acquiredEntries) {
+			if (!contains(key)) {
+				return false;
+			}
+
+			Integer builds = acquiredEntries.get(key);
+			acquiredEntries.put(key, (builds != null) ? builds + 1 : 1);
+			return true;
+		}
+	}
+
+	/**
+	 * Release an entry previously acquired.
+	 *
+	 * @param key - Entry digest
+	 */
+	public void release(String key) {
+		synchronized (acquiredEntries) {
+			Integer builds = acquiredEntries.get(key);
+			if (builds == null || builds <= 1) {
+				acquiredEntries.remove(key);
+			} else {
+				acquiredEntries.put(key, builds - 1);
+			}
+		}
+	}
+
+	/**
+	 * Return files for a cached entry, keyed by their archive path.
+	 *
+	 * @param key - Entry digest
+	 * @return Archive paths mapped to cached files
+	 */
+	public Map<String, File> getEntryFiles(String key) {
+		File entryDir = getEntryDir(key);
+		Map<String, File> entryFiles = new LinkedHashMap<String, File>();
+
+		if (entryDir.isDirectory()) {
+			String entryPath = entryDir.getAbsolutePath();
+			Iterator<File> fileIter = FileUtils.iterateFiles(entryDir, null, true);
+
+			while(fileIter.hasNext()) {
+				File entryFile = fileIter.next();
+				String archivePath = entryFile.getAbsolutePath().substring(entryPath.length() + 1);
+				entryFiles.put(archivePath.replace(File.separatorChar, '/'), entryFile);
+			}
+		}
+
+		return entryFiles;
+	}
+
+	/**
+	 * Store files as a new cache entry. When another build has stored
+	 * the same entry first, the existing entry is kept.
+	 *
+	 * @param key - Entry digest
+	 * @param files - Archive paths mapped to built files
+	 * @throws IOException - Unable to copy files into the cache
+	 */
+	public void store(String key, Map<String, File> files) throws IOException {
+		File entryDir = getEntryDir(key);
+
+		if (entryDir.isDirectory()) {
+			return;
+		}
+
+		File temporaryDir = getTemporaryEntryDir(key);
+
+		try {
+			if (!temporaryDir.mkdirs()) {
+				throw new IOException("Could not create directory: " + temporaryDir.getAbsolutePath());
+			}
+
+			for (Map.Entry<String, File> file: files.entrySet()) {
+				FileUtils.copyFile(file.getValue(), new File(temporaryDir, file.getKey()));
+			}
+
+			// Rename fails if another build stored this entry in the meantime
+			temporaryDir.renameTo(entryDir);
+		} finally {
+			if (temporaryDir.exists()) {
+				FileUtils.deleteDirectory(temporaryDir);
+			}
+		}
+	}
+
+	/**
+	 * Remove an entry from the cache, unless acquired by a build. Entry 
+	 * is renamed before being deleted, so builds never see a partially 
+	 * deleted entry.
+	 * 
+	 * @param key - Entry digest
+	 * @return Entry was removed
+	 * @throws IOException - Unable to delete entry
+	 */
+	public boolean remove(String key) throws IOException {
+		return remove(key, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Remove an entry from the cache, unless acquired by a build or used 
+	 * since the time given, e.g. looked up after the cache was scanned.
+	 * 
+	 * @param key - Entry digest
+	 * @param lastAccessed - Last use of the entry seen by the caller
+	 * @return Entry was removed
+	 * @throws IOException - Unable to delete entry
+	 */
+	public boolean remove(String key, long lastAccessed) throws IOException {
+		File temporaryDir = getTemporaryEntryDir(key), entryDir = getEntryDir(key);
+		
+		synchronized (acquiredEntries) {
+			if (acquiredEntries.containsKey(key) || entryDir.lastModified() > lastAccessed 
+				|| !entryDir.renameTo(temporaryDir)) {
+				return false;
+			}
+		}
+		
+		FileUtils.deleteDirectory(temporaryDir);
+		return true;
+	}
+	
+	/**
+	 * Is the directory an entry being written or removed?
+	 * 
+	 * @param entryDir - Directory within the cache
+	 * @return Directory is a temporary entry
+	 */
+	public static boolean isTemporaryEntry(File entryDir) {
+		return entryDir.getName().endsWith(temporaryEntrySuffix);
+	}
+	
+	/**
+	 * Unique temporary directory for writing or removing an entry.
+	 * 
+	 * @param key - Entry digest
+	 * @return Temporary directory
+	 */
+	protected File getTemporaryEntryDir(String key) {
+		return new File(cacheDir, key + "." + temporaryEntries.incrementAndGet() + temporaryEntrySuffix);
+	}
+	
+	/**
+	 * Directory for a cache entry.
+	 *
+	 * @param key - Entry digest
+	 * @return Entry directory
+	 */
+	protected File getEntryDir(String key) {
+		return new File(cacheDir, key);
+	}
+
+	/**
+	 * Number of lookups which found a cached entry.
+	 *
+	 * @return Cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of lookups which didn't find a cached entry.
+	 *
+	 * @return Cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,343 @@
+package org.dtk.resources.build;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.dojotoolkit.shrinksafe.Compressor;
+import org.dtk.util.DigestUtil;
+import org.mozilla.javascript.Context;
+
+/**
+ * Content addressed cache of minified module and layer source, shared by all
+ * builds. Minified output depends only on the source text, the optimise
+ * switch and the minifier, so unchanged toolkit modules are minified once and 
+ * reused by later builds of the same package versions. Each entry is a file 
+ * named after a digest of those inputs, written to a temporary file and renamed 
+ * into place. Entries minified by other ShrinkSafe or Rhino versions, before
+ * an upgrade, are never matched and age out of the cache.
+ *
+ * Copyright and "built" markers are added by the build system after lookup,
+ * so aren't part of the cached text. Least recently used entries are removed
+ * once the cache grows beyond its size limit.
+ *
+ * @author James Thomas
+ */
+
+public class MinifiedOutputCache {
+	/** Directory containing cache entries */
+	protected final File cacheDir;
+
+	/** Maximum total size of cache entries in bytes */
+	protected final long maxBytes;
+
+	/** Total size of cache entries in bytes, negative until the directory is scanned */
+	protected final AtomicLong cachedBytes = new AtomicLong(-1);
+
+	/** Lookups which found cached output */
+	protected final AtomicLong hits = new AtomicLong();
+
+	/** Lookups which had to be minified */
+	protected final AtomicLong misses = new AtomicLong();
+
+	/** Counter for unique temporary entry files */
+	protected final AtomicLong temporaryEntries = new AtomicLong();
+
+	/** Suffix for cache entry files */
+	protected static final String entrySuffix = ".js";
+
+	/** Suffix for entries being written */
+	protected static final String temporaryEntrySuffix = ".partial";
+
+	/** Encoding of cached output */
+	protected static final String encoding = "UTF-8";
+
+	/** Cache access failure log message */
+	protected static final String cacheErrorLogMsg = "Unable to access minified output cache entry, %1$s: %2$s";
+
+	/** Logging class instance */
+	protected static final Logger logger = Logger.getLogger(MinifiedOutputCache.class.getName());
+
+	/** Identifies the ShrinkSafe and Rhino libraries doing the minifying, part of every cache key */
+	protected static final String compressorFingerprint = getCompressorFingerprint(Compressor.class, Context.class);
+
+	/**
+	 * Cache entry file, with size and last access time
+	 * when the cache was scanned.
+	 */
+	protected static class CacheEntry {
+		final File file;
+		final long size;
+		final long lastAccessed;
+
+		CacheEntry(File file) {
+			this.file = file;
+			this.size = file.length();
+			this.lastAccessed = file.lastModified();
+		}
+	}
+
+	/** Orders entries least recently used first */
+	protected static final Comparator<CacheEntry> leastRecentlyUsed = new Comparator<CacheEntry>() {
+		public int compare(CacheEntry first, CacheEntry second) {
+			if (first.lastAccessed == second.lastAccessed) {
+				return 0;
+			}
+			return first.lastAccessed < second.lastAccessed ? -1 : 1;
+		}
+	};
+
+	/**
+	 * Create new minified output cache using the directory given.
+	 *
+	 * @param cacheDir - Directory holding cache entries
+	 * @param maxBytes - Size limit in bytes
+	 */
+	public MinifiedOutputCache(File cacheDir, long maxBytes) {
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Cache key for source minified using an optimise switch by the
+	 * current minifier, hex encoded hash of all three.
+	 *
+	 * @param optimizeSwitch - Build system optimise switch, e.g. "shrinksafe.keeplines"
+	 * @param source - JavaScript source text
+	 * @return Cache key
+	 */
+	public static String getKey(String optimizeSwitch, String source) {
+		StringBuilder key = new StringBuilder();
+		MessageDigest md = DigestUtil.createDigest();
+
+		md.update(DigestUtil.getBytes(compressorFingerprint));
+		md.update((byte) 0);
+		md.update(DigestUtil.getBytes(optimizeSwitch));
+		md.update((byte) 0);
+		DigestUtil.appendHex(key, md.digest(DigestUtil.getBytes(source)));
+
+		return key.toString();
+	}
+
+	/**
+	 * Fingerprint the libraries containing the classes given, a hash of 
+	 * each library's contents. Classes not loaded from a library file use
+	 * their package's implementation version instead.
+	 *
+	 * @param compressorClasses - Classes from the minifier's libraries
+	 * @return Hex encoded fingerprint
+	 */
+	protected static String getCompressorFingerprint(Class<?>... compressorClasses) {
+		StringBuilder fingerprint = new StringBuilder();
+
+		try {
+			MessageDigest md = DigestUtil.createDigest();
+
+			for (Class<?> compressorClass: compressorClasses) {
+				md.update(DigestUtil.getBytes(compressorClass.getName()));
+				File library = getLibraryFile(compressorClass);
+
+				if (library != null) {
+					md.update(FileUtils.readFileToByteArray(library));
+				} else if (compressorClass.getPackage() != null 
+					&& compressorClass.getPackage().getImplementationVersion() != null) {
+					md.update(DigestUtil.getBytes(compressorClass.getPackage().getImplementationVersion()));
+				}
+				md.update((byte) 0);
+			}
+
+			DigestUtil.appendHex(fingerprint, md.digest());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Library file a class was loaded from.
+	 *
+	 * @param libraryClass - Class loaded from the library
+	 * @return Library file, null unless loaded from a file
+	 */
+	protected static File getLibraryFile(Class<?> libraryClass) {
+		CodeSource codeSource = libraryClass.getProtectionDomain().getCodeSource();
+
+		if (codeSource != null && codeSource.getLocation() != null) {
+			try {
+				File library = new File(codeSource.getLocation().toURI());
+				if (library.isFile()) {
+					return library;
+				}
+			} catch (URISyntaxException e) {
+				// Not a local file
+			} catch (IllegalArgumentException e) {
+				// Not a local file
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Return cached minified output for this key. Lookups are
+	 * counted towards the cache hit rate.
+	 *
+	 * @param key - Entry digest
+	 * @return Minified output, null if not cached
+	 */
+	public String lookup(String key) {
+		File entry = getEntryFile(key);
+
+		if (entry.isFile()) {
+			try {
+				String minified = FileUtils.readFileToString(entry, encoding);
+				// Modification time records last use for cache eviction
+				entry.setLastModified(System.currentTimeMillis());
+				hits.incrementAndGet();
+				return minified;
+			} catch (IOException e) {
+				// Entry removed whilst being read, minify again
+				logger.log(Level.FINE, String.format(cacheErrorLogMsg, entry, e.getMessage()));
+			}
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Store minified output as a new cache entry. When another build has
+	 * stored the same entry first, the existing entry is kept. Failures are
+	 * logged rather than thrown, the build carries on without caching.
+	 *
+	 * @param key - Entry digest
+	 * @param minified - Minified output
+	 */
+	public void store(String key, String minified) {
+		File entry = getEntryFile(key);
+
+		if (entry.isFile()) {
+			return;
+		}
+
+		File temporaryEntry = new File(cacheDir, key + "." + temporaryEntries.incrementAndGet() + temporaryEntrySuffix);
+
+		try {
+			FileUtils.writeStringToFile(temporaryEntry, minified, encoding);
+			long entryBytes = temporaryEntry.length();
+
+			// Size existing entries before this one is added
+			getCachedBytes();
+
+			// Rename fails if another build stored this entry in the meantime
+			if (temporaryEntry.renameTo(entry) && cachedBytes.addAndGet(entryBytes) > maxBytes) {
+				evictEntries();
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(cacheErrorLogMsg, entry, e.getMessage()));
+		} finally {
+			temporaryEntry.delete();
+		}
+	}
+
+	/**
+	 * Total size of cache entries, scanning the cache
+	 * directory on first use.
+	 *
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		if (cachedBytes.get() < 0) {
+			long scannedBytes = 0;
+			for (File entry: listEntryFiles()) {
+				scannedBytes += entry.length();
+			}
+			cachedBytes.compareAndSet(-1, scannedBytes);
+		}
+
+		return cachedBytes.get();
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is three
+	 * quarters full, leaving room for new entries before the next
+	 * eviction pass.
+	 */
+	protected synchronized void evictEntries() {
+		if (cachedBytes.get() <= maxBytes) {
+			return;
+		}
+
+		List<CacheEntry> entries = new ArrayList<CacheEntry>();
+		for (File entryFile: listEntryFiles()) {
+			entries.add(new CacheEntry(entryFile));
+		}
+		Collections.sort(entries, leastRecentlyUsed);
+
+		long targetBytes = maxBytes / 4 * 3;
+		for (CacheEntry entry: entries) {
+			if (cachedBytes.get() <= targetBytes) {
+				break;
+			}
+
+			if (entry.file.delete()) {
+				cachedBytes.addAndGet(-entry.size);
+			}
+		}
+	}
+
+	/**
+	 * Cache entry files, excluding those being written.
+	 *
+	 * @return Entry files
+	 */
+	protected File[] listEntryFiles() {
+		File[] entries = cacheDir.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(entrySuffix);
+			}
+		});
+
+		return (entries != null) ? entries : new File[0];
+	}
+
+	/**
+	 * File for a cache entry.
+	 *
+	 * @param key - Entry digest
+	 * @return Entry file
+	 */
+	protected File getEntryFile(String key) {
+		return new File(cacheDir, key + entrySuffix);
+	}
+
+	/**
+	 * Number of lookups which found cached output.
+	 *
+	 * @return Cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of lookups which didn't find cached output.
+	 *
+	 * @return Cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
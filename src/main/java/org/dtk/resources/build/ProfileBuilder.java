@@ -1,22 +1,14 @@
 package org.dtk.resources.build;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
-import org.apache.commons.io.FileUtils;
-import org.dtk.util.FileUtil;
+import org.dtk.metrics.Histogram;
+import org.dtk.metrics.MetricsRegistry;
+import org.dtk.resources.build.manager.BuildStatusManager;
 import org.mozilla.javascript.Context;
-import org.mozilla.javascript.ContextFactory;
-import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
-import org.mozilla.javascript.tools.shell.Global;
 
 /**
  * This class is responsible for generating custom Dojo builds by executing the existing
@@ -37,8 +29,8 @@ public class ProfileBuilder {
 		}
 	};
 	
-	/** AMD module loader script path, e.g. dojo */
-	protected String moduleLoaderPath;
+	/** Pool of pre-initialised build engines, containing compiled AMD loader */
+	protected BuildEnginePool buildEnginePool;
 
 	/** AMD build package location */
 	protected String buildPackagePath;
@@ -52,6 +44,32 @@ public class ProfileBuilder {
 	
 	protected Exception buildError;
 	
+	/** Dependency scans from previous builds of the build packages, may be null */
+	protected BuildModuleIndex buildModuleIndex;
+	
+	/** Time spent running the build system */
+	protected static final Histogram buildSystemDuration = MetricsRegistry.getInstance()
+		.histogram("dwb_build_system_duration_milliseconds", "Time spent running the JavaScript build system.");
+	
+	/** Time taken to take an idle build engine, or create one when none are idle */
+	protected static final Histogram buildEngineAcquire = MetricsRegistry.getInstance()
+		.histogram("dwb_build_engine_acquire_milliseconds", "Time taken to take or create a build engine.");
+	
+	/** Name of build scope variable receiving build system events */
+	protected static final String buildEventsVariable = "buildEvents";
+	
+	/** Name of build scope variable compressing resources across multiple threads */
+	protected static final String buildCompressorVariable = "buildCompressor";
+	
+	/** Name of build scope variable holding minified output from previous builds */
+	protected static final String buildMinifiedCacheVariable = "buildMinifiedCache";
+	
+	/** Name of build scope variable providing file system access */
+	protected static final String buildFileSystemVariable = "buildFileSystem";
+	
+	/** Name of build scope variable holding dependency scans from previous builds */
+	protected static final String buildModuleIndexVariable = "buildModuleIndex";
+	
 	/**
 	 * Generate new ProfileBuilder using the arguments passed to control
 	 * the build process. All file paths are santised, swapping back slashes 
@@ -62,13 +80,13 @@ public class ProfileBuilder {
 	 * 
 	 * @param profileFile - Location to profile file for this build
 	 * @param resultDir - Where to store the resulting build artifacts
-	 * @param moduleLoaderPath - Location to AMD loader package
+	 * @param buildEnginePool - Build engines, containing compiled AMD loader
 	 * @param baseUrl - Base Dojo URL being built with 
 	 * @param buildPackagePath - AMD Builder package location
 	 */
-	public ProfileBuilder(String profileFile, String resultDir, String moduleLoaderPath, 
+	public ProfileBuilder(String profileFile, String resultDir, BuildEnginePool buildEnginePool, 
 		String baseUrl, String buildPackagePath, String buildReference) {
-		this.moduleLoaderPath = santisePath(moduleLoaderPath);
+		this.buildEnginePool = buildEnginePool;
 		this.buildPackagePath = santisePath(buildPackagePath);
 		this.buildReference = buildReference;
 		
@@ -80,58 +98,103 @@ public class ProfileBuilder {
 	/**
 	 * Initiate the build process for the profile given. Will try to execute
 	 * the JS build system scripts for this profile, reporting whether it 
-	 * executed successfully.
+	 * executed successfully. Build runs in a fresh scope on a pooled build 
+	 * engine, avoiding start up costs for the standard objects and loader.
 	 * 
 	 * @return Build completed successfully
 	 */
 	public boolean executeBuild() {
 		boolean buildCompleted = true;
 		
-		// Use Rhino's global object's as prototype for top scope because
-		// logger.js assumes access to "print" function. 
-		Global global = new Global(); 
-		Context cx = ContextFactory.getGlobal().enterContext(); 
-		global.init(cx); 
-
-		// Set up standard scripts objects
-		Scriptable topScope = cx.initStandardObjects(global);
-
-		// Enforce conversion of the Java string arguments array to JavaScript native versions.
-		// Leaving this as true, causes issues in the build scripts. 
-		cx.getWrapFactory().setJavaPrimitiveWrap(false);
+		Context cx = null; 
+		BuildEngine buildEngine = null;
+		BuildEventRecorder buildEvents = new BuildEventRecorder(buildReference);
+		long buildStarted = System.currentTimeMillis();
 
 		// Rhino may throw a number of exceptions due to a variety of the build errors, use generic catch to 
 		// get details and store for access. 
 		try {
-			String moduleLoaderScript = readModuleLoaderSource();			
-			Script moduleLoader = cx.compileString(moduleLoaderScript, "moduleLoader", 1, null);
+			buildEngine = buildEnginePool.borrowEngine();
+			buildEngineAcquire.recordSince(buildStarted);
+			cx = buildEngine.enterContext();
+			
+			// Enforce conversion of the Java string arguments array to JavaScript native versions.
+			// Leaving this as true, causes issues in the build scripts. 
+			cx.getWrapFactory().setJavaPrimitiveWrap(false);
+			
+			Scriptable topScope = buildEngine.createBuildScope(cx);
+			
+			// Local package descriptor information must be present before the loader runs
+			cx.evaluateString(topScope, getDjConfigSource(), "djConfig", 1, null);
 			
 			// Pretend these arguments came from the command line by stuffing them into the top context,
 			// module loader expects to read them from here. 
 			ScriptableObject.putConstProperty(topScope, "arguments", getBuildScriptArguments());
 			
+			// Build system reports phases and timings through this object
+			ScriptableObject.putConstProperty(topScope, buildEventsVariable, Context.javaToJS(buildEvents, topScope));
+			
+			// File reads, writes and status checks go through NIO, with status cached for this build
+			ScriptableObject.putConstProperty(topScope, buildFileSystemVariable, 
+				Context.javaToJS(new BuildFileSystem(buildEvents), topScope));
+			
+			// Optimise transform queues resources for compression on multiple threads 
+			ScriptableObject.putConstProperty(topScope, buildCompressorVariable, 
+				Context.javaToJS(CompressorService.getInstance(), topScope));
+			
+			// Optimise transform reuses minified output for unchanged resources, when cached
+			MinifiedOutputCache minifiedCache = BuildStatusManager.getInstance().getMinifiedOutputCache();
+			if (minifiedCache != null) {
+				ScriptableObject.putConstProperty(topScope, buildMinifiedCacheVariable, 
+					Context.javaToJS(minifiedCache, topScope));
+			}
+			
+			// Dependency scan reuses results for unchanged package modules, when indexed
+			if (buildModuleIndex != null) {
+				ScriptableObject.putConstProperty(topScope, buildModuleIndexVariable, 
+					Context.javaToJS(buildModuleIndex, topScope));
+			}
+			
 			// Execute the build system scripts to generate optimised dojo builds
-			moduleLoader.exec(cx, topScope);	
+			buildEngine.executeModuleLoader(cx, topScope);	
 		} catch (Exception buildError) {
 			buildCompleted = false;
 			this.buildError = buildError;
-		}		
+		} finally {
+			buildSystemDuration.recordSince(buildStarted);
+			buildEvents.buildFinished();
+			if (cx != null) {
+				Context.exit();
+			}
+			if (buildEngine != null) {
+				buildEnginePool.returnEngine(buildEngine);
+			}
+			if (buildModuleIndex != null) {
+				buildModuleIndex.save();
+			}
+		}
 		
 		return buildCompleted; 
 	}
 	
 	/**
-	 * Read AMD loader script source, with local package
-	 * descriptor information prefixed at the top.
+	 * Local package descriptor information, picked up 
+	 * by the AMD loader.
 	 * 
-	 * @return Module loader script source 
-	 * @throws IOException - Unable to find module loader 
+	 * @return djConfig script source 
 	 */
-	protected String readModuleLoaderSource() throws IOException {
-		String djConfigScriptPrefix = String.format(djConfigPrefixFormat, this.buildReference, this.buildPackagePath);
-		String moduleLoaderScript = FileUtils.readFileToString(new File(this.moduleLoaderPath));
-		
-		return djConfigScriptPrefix + moduleLoaderScript;
+	protected String getDjConfigSource() {
+		return String.format(djConfigPrefixFormat, this.buildReference, this.buildPackagePath);
+	}
+	
+	/**
+	 * Set package scan indexes used to skip scanning modules 
+	 * unchanged since an earlier build. 
+	 * 
+	 * @param buildModuleIndex - Scan indexes for the build packages
+	 */
+	public void setBuildModuleIndex(BuildModuleIndex buildModuleIndex) {
+		this.buildModuleIndex = buildModuleIndex;
 	}
 	
 	/**
@@ -140,7 +203,7 @@ public class ProfileBuilder {
 	 * 
 	 * @return Exception - Error thrown by rhino running the build scripts
 	 */
-	protected Exception getBuildError() {
+	public Exception getBuildError() {
 		return buildError;
 	}
 	
@@ -0,0 +1,270 @@
+package org.dtk.resources.build.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.resources.build.LayerBuildCache;
+
+/**
+ * Background task keeping the build result cache directory within a size
+ * and age budget. Build result directories and cached layers are evicted
+ * least recently used first, using each directory's modification time,
+ * which is refreshed whenever a build result is downloaded or a cached
+ * layer reused. Build results are only evicted through the build status
+ * manager, which refuses to evict builds in progress or being downloaded,
+ * and cached layers in use by a running build are never removed.
+ *
+ * @author James Thomas
+ */
+
+public class BuildCacheManager implements Runnable {
+	/** Build result cache directory */
+	protected final File cacheDir;
+
+	/** Maximum total size of cached entries in bytes, zero for no limit */
+	protected final long maxBytes;
+
+	/** Maximum time since an entry was last used in milliseconds, zero for no limit */
+	protected final long maxAgeMillis;
+
+	/** Handle to build status manager */
+	protected final BuildStatusManager buildStatusManager;
+
+	/** Total entries evicted */
+	protected final AtomicLong evictedEntries = new AtomicLong();
+
+	/** Total bytes evicted */
+	protected final AtomicLong evictedBytes = new AtomicLong();
+
+	/** Eviction failure log message */
+	protected static final String evictionErrorLogMsg = "Unable to evict build cache entry, %1$s: %2$s";
+
+	/** Eviction summary log message */
+	protected static final String evictionInfoLogMsg = "Evicted %1$s build cache entries, %2$s bytes, cache now %3$s bytes";
+
+	/** Logging class instance */
+	protected static final Logger logger = Logger.getLogger(BuildCacheManager.class.getName());
+
+	/**
+	 * Cached build result or layer directory, with size and
+	 * last access time when the cache was scanned.
+	 */
+	protected static class CacheEntry {
+		final File dir;
+		final boolean layer;
+		final long size;
+		final long lastAccessed;
+
+		CacheEntry(File dir, boolean layer) {
+			this.dir = dir;
+			this.layer = layer;
+			this.size = FileUtils.sizeOfDirectory(dir);
+			this.lastAccessed = dir.lastModified();
+		}
+	}
+
+	/** Orders entries least recently used first */
+	protected static final Comparator<CacheEntry> leastRecentlyUsed = new Comparator<CacheEntry>() {
+		public int compare(CacheEntry first, CacheEntry second) {
+			if (first.lastAccessed == second.lastAccessed) {
+				return 0;
+			}
+			return first.lastAccessed < second.lastAccessed ? -1 : 1;
+		}
+	};
+
+	/**
+	 * Create new cache manager.
+	 *
+	 * @param cacheDir - Build result cache directory
+	 * @param maxBytes - Size budget in bytes, zero for no limit
+	 * @param maxAgeMillis - Maximum unused time in milliseconds, zero for no limit
+	 * @param buildStatusManager - Build status manager
+	 */
+	public BuildCacheManager(File cacheDir, long maxBytes, long maxAgeMillis, BuildStatusManager buildStatusManager) {
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		this.buildStatusManager = buildStatusManager;
+	}
+
+	/**
+	 * Run a single eviction pass. Exceptions are logged rather than
+	 * thrown so later scheduled passes still run.
+	 */
+	@Override
+	public void run() {
+		try {
+			evictEntries();
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, String.format(evictionErrorLogMsg, cacheDir, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Scan the cache and evict entries, least recently used first, until the
+	 * cache is within budget. Entries unused for longer than the maximum age
+	 * are always evicted. Entries which can't be evicted, e.g. builds in
+	 * progress, are skipped.
+	 */
+	public void evictEntries() {
+		List<CacheEntry> entries = scanEntries();
+		long cacheSize = 0, passEvictedEntries = 0, passEvictedBytes = 0;
+
+		for (CacheEntry entry: entries) {
+			cacheSize += entry.size;
+		}
+
+		Collections.sort(entries, leastRecentlyUsed);
+		long now = System.currentTimeMillis();
+
+		for (CacheEntry entry: entries) {
+			boolean expired = maxAgeMillis > 0 && (now - entry.lastAccessed) > maxAgeMillis,
+				overBudget = maxBytes > 0 && cacheSize > maxBytes;
+
+			if (!expired && !overBudget) {
+				continue;
+			}
+
+			if (evictEntry(entry)) {
+				cacheSize -= entry.size;
+				passEvictedEntries++;
+				passEvictedBytes += entry.size;
+			}
+		}
+
+		if (passEvictedEntries > 0) {
+			evictedEntries.addAndGet(passEvictedEntries);
+			evictedBytes.addAndGet(passEvictedBytes);
+			logger.log(Level.INFO, String.format(evictionInfoLogMsg, passEvictedEntries, passEvictedBytes, cacheSize));
+		}
+	}
+
+	/**
+	 * Find all build result and cached layer directories. Cached minified 
+	 * output is kept within its own size limit, so isn't scanned.
+	 *
+	 * @return Cache entries
+	 */
+	protected List<CacheEntry> scanEntries() {
+		List<CacheEntry> entries = new ArrayList<CacheEntry>();
+		File layerCacheDir = new File(cacheDir, BuildStatusManager.layerCacheDirName), 
+			minifiedCacheDir = new File(cacheDir, BuildStatusManager.minifiedCacheDirName);
+
+		File[] buildDirs = cacheDir.listFiles();
+		if (buildDirs != null) {
+			for (File buildDir: buildDirs) {
+				if (buildDir.isDirectory() && !buildDir.equals(layerCacheDir) && !buildDir.equals(minifiedCacheDir)
+					&& !isEvictedBuildDir(buildDir)) {
+					addEntry(entries, buildDir, false);
+				}
+			}
+		}
+
+		File[] layerDirs = layerCacheDir.listFiles();
+		if (layerDirs != null) {
+			for (File layerDir: layerDirs) {
+				if (layerDir.isDirectory() && !LayerBuildCache.isTemporaryEntry(layerDir)) {
+					addEntry(entries, layerDir, true);
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Delete build directories left behind by evictions which failed to
+	 * finish, e.g. the server stopped whilst deleting. Run on startup, 
+	 * before eviction passes begin.
+	 */
+	public void removeEvictedBuildDirs() {
+		File[] buildDirs = cacheDir.listFiles();
+		if (buildDirs == null) {
+			return;
+		}
+
+		for (File buildDir: buildDirs) {
+			if (buildDir.isDirectory() && isEvictedBuildDir(buildDir)) {
+				try {
+					FileUtils.deleteDirectory(buildDir);
+				} catch (IOException e) {
+					logger.log(Level.WARNING, String.format(evictionErrorLogMsg, buildDir, e.getMessage()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Is the directory a build directory renamed away for eviction?
+	 * 
+	 * @param buildDir - Directory within the cache
+	 * @return Directory is being, or failed to be, evicted
+	 */
+	protected static boolean isEvictedBuildDir(File buildDir) {
+		return buildDir.getName().endsWith(BuildStatusManager.evictedBuildDirSuffix);
+	}
+
+	/**
+	 * Add directory to the scanned entries, skipping directories 
+	 * removed whilst the cache is being scanned.
+	 * 
+	 * @param entries - Scanned entries
+	 * @param dir - Entry directory
+	 * @param layer - Directory is a cached layer
+	 */
+	protected void addEntry(List<CacheEntry> entries, File dir, boolean layer) {
+		try {
+			entries.add(new CacheEntry(dir, layer));
+		} catch (IllegalArgumentException e) {
+			// Directory no longer exists
+		}
+	}
+
+	/**
+	 * Remove a single entry from the cache, unless used since the cache was 
+	 * scanned, when it's no longer the least recently used.
+	 *
+	 * @param entry - Cache entry
+	 * @return Entry was evicted
+	 */
+	protected boolean evictEntry(CacheEntry entry) {
+		try {
+			if (entry.layer) {
+				return buildStatusManager.getLayerBuildCache().remove(entry.dir.getName(), entry.lastAccessed);
+			}
+
+			return buildStatusManager.evictBuildResult(entry.dir.getName(), entry.dir, entry.lastAccessed);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(evictionErrorLogMsg, entry.dir, e.getMessage()));
+		}
+
+		return false;
+	}
+
+	/**
+	 * Total number of entries evicted.
+	 *
+	 * @return Evicted entries
+	 */
+	public long getEvictedEntries() {
+		return evictedEntries.get();
+	}
+
+	/**
+	 * Total bytes evicted.
+	 *
+	 * @return Evicted bytes
+	 */
+	public long getEvictedBytes() {
+		return evictedBytes.get();
+	}
+}
@@ -0,0 +1,245 @@
+package org.dtk.resources.build.manager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build log stored as sequence numbered lines. The most recent lines are
+ * held in a fixed size ring buffer, older lines spill to a log file so
+ * memory used by each build stays bounded. Sequence numbers keep increasing
+ * when the log is cleared for a new build attempt, letting clients holding
+ * a cursor from an earlier attempt notice the reset.
+ *
+ * @author James Thomas
+ */
+
+public class BuildLog {
+	/** Maximum number of lines held in memory */
+	protected final int capacity;
+
+	/** File receiving lines pushed out of memory */
+	protected final File spillFile;
+
+	/** Ring buffer of recent lines, created on first use */
+	protected String[] lines;
+
+	/** Sequence number of the first line in the current log */
+	protected long firstSeq = 1;
+
+	/** Sequence number for the next line added */
+	protected long nextSeq = 1;
+
+	/** Open writer for spilled lines, null when closed */
+	protected Writer spillWriter;
+
+	/**
+	 * Line read from the log with its sequence number.
+	 */
+	public static class LogLine {
+		public final long seq;
+		public final String line;
+
+		LogLine(long seq, String line) {
+			this.seq = seq;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Create new empty log.
+	 *
+	 * @param capacity - Lines held in memory
+	 * @param spillFile - File for older lines
+	 */
+	public BuildLog(int capacity, File spillFile) {
+		this.capacity = capacity;
+		this.spillFile = spillFile;
+	}
+
+	/**
+	 * Add log text, each line becomes a separate record.
+	 * Empty lines are ignored.
+	 *
+	 * @param text - Log text
+	 * @throws IOException - Unable to spill older lines to disk
+	 */
+	public synchronized void append(String text) throws IOException {
+		if (lines == null) {
+			lines = new String[capacity];
+		}
+
+		for (String line: text.split("\n")) {
+			if (line.length() == 0) {
+				continue;
+			}
+
+			int slot = (int) (nextSeq % capacity);
+
+			// Ring buffer full, oldest line moves to disk
+			if (nextSeq - firstSeq >= capacity) {
+				spillLine(lines[slot]);
+			}
+
+			lines[slot] = line;
+			nextSeq++;
+		}
+	}
+
+	/**
+	 * Return lines added after the sequence number given. When the cursor
+	 * is older than the current log, all lines are returned.
+	 *
+	 * @param after - Sequence number of the last line seen, zero for all
+	 * @return Lines after the cursor
+	 * @throws IOException - Unable to read spilled lines
+	 */
+	public synchronized List<LogLine> getLinesAfter(long after) throws IOException {
+		List<LogLine> logLines = new ArrayList<LogLine>();
+		long firstInMemory = getFirstInMemory();
+		long from = Math.max(after + 1, firstSeq);
+
+		// Lines no longer in memory are read back from the spill file
+		if (from < firstInMemory) {
+			readSpilledLines(from, firstInMemory, logLines);
+		}
+
+		addBufferedLines(Math.max(from, firstInMemory), logLines);
+		return logLines;
+	}
+
+	/**
+	 * Return lines added after the sequence number given which are still
+	 * held in memory, skipping any older lines in the spill file.
+	 *
+	 * @param after - Sequence number of the last line seen, zero for all
+	 * @return Lines after the cursor held in memory
+	 */
+	public synchronized List<LogLine> getBufferedLinesAfter(long after) {
+		List<LogLine> logLines = new ArrayList<LogLine>();
+		addBufferedLines(Math.max(after + 1, getFirstInMemory()), logLines);
+		return logLines;
+	}
+
+	/**
+	 * Has the log been cleared since the cursor was taken?
+	 *
+	 * @param after - Sequence number of the last line seen
+	 * @return Cursor refers to an earlier log
+	 */
+	public synchronized boolean isCleared(long after) {
+		return after > 0 && after < firstSeq;
+	}
+
+	/**
+	 * Sequence number of the last line added, zero when empty.
+	 *
+	 * @return Last sequence number
+	 */
+	public synchronized long getLastSeq() {
+		return nextSeq - 1;
+	}
+
+	/**
+	 * Remove all lines, including spilled lines. Sequence
+	 * numbers continue from the previous log.
+	 */
+	public synchronized void clear() {
+		closeSpill();
+		spillFile.delete();
+		firstSeq = nextSeq;
+	}
+
+	/**
+	 * Close the spill file, it's reopened if further lines spill.
+	 */
+	public synchronized void closeSpill() {
+		if (spillWriter != null) {
+			try {
+				spillWriter.close();
+			} catch (IOException e) {
+				// Nothing more can be done, spilled lines may be lost.
+			}
+			spillWriter = null;
+		}
+	}
+
+	/**
+	 * Sequence number of the oldest line held in memory.
+	 *
+	 * @return First sequence number in memory
+	 */
+	protected long getFirstInMemory() {
+		return Math.max(firstSeq, nextSeq - capacity);
+	}
+
+	/**
+	 * Add lines held in memory, from the sequence number given.
+	 *
+	 * @param from - First sequence number to add
+	 * @param logLines - Lines are added here
+	 */
+	protected void addBufferedLines(long from, List<LogLine> logLines) {
+		for (long seq = from; seq < nextSeq; seq++) {
+			logLines.add(new LogLine(seq, lines[(int) (seq % capacity)]));
+		}
+	}
+
+	/**
+	 * Write line pushed out of memory to the spill file.
+	 *
+	 * @param line - Log line
+	 * @throws IOException - Unable to write spill file
+	 */
+	protected void spillLine(String line) throws IOException {
+		if (spillWriter == null) {
+			spillFile.getParentFile().mkdirs();
+			spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile, true), "UTF-8"));
+		}
+
+		spillWriter.write(line);
+		spillWriter.write('\n');
+	}
+
+	/**
+	 * Read spilled lines back from disk. Spill file holds lines from
+	 * the start of the current log, one line per record.
+	 *
+	 * @param from - First sequence number to read
+	 * @param to - Sequence number to stop before
+	 * @param logLines - Lines read are added here
+	 * @throws IOException - Unable to read spill file
+	 */
+	protected void readSpilledLines(long from, long to, List<LogLine> logLines) throws IOException {
+		if (spillWriter != null) {
+			spillWriter.flush();
+		}
+
+		if (!spillFile.exists()) {
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), "UTF-8"));
+		try {
+			long seq = firstSeq;
+			String line = reader.readLine();
+			while (line != null && seq < to) {
+				if (seq >= from) {
+					logLines.add(new LogLine(seq, line));
+				}
+				seq++;
+				line = reader.readLine();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.dtk.resources.build.manager;
+
+import java.util.Map;
+
+/**
+ * Receives build logs and events in place of the build status 
+ * manager, used where build statuses are held in another process.
+ * 
+ * @author James Thomas
+ */
+
+public interface BuildLogListener {
+	/**
+	 * New build log text for a build.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param buildLog - Log text
+	 */
+	public void buildLogAdded(String reference, String buildLog);
+	
+	/**
+	 * Latest build system events for a build.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param buildEvents - Build events
+	 */
+	public void buildEventsUpdated(String reference, Map<String, Object> buildEvents);
+}
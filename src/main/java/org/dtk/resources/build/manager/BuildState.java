@@ -2,13 +2,15 @@ package org.dtk.resources.build.manager;
 
 /**
  * Represents possible states of a build process.
- * 
+ *
  * @author James Thomas
  */
 
 public enum BuildState {
 	// Build hasn't started
 	NOT_STARTED,
+	// Build is waiting for a free build worker
+	QUEUED,
 	// Build has begun
 	BUILDING,
 	// Build finished successfully
@@ -1,5 +1,11 @@
 package org.dtk.resources.build.manager;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -7,8 +13,11 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * This class is used to represent the state of a build process
  * and hold all associated build logs. Access to the build state
- * to controlled with ReadWrite lock. Stores final result path
- * when build has finished.
+ * to controlled with ReadWrite lock. Logs are held as sequence 
+ * numbered lines, with older lines spilling to disk. Stores final result path
+ * when build has finished. Every change to the state or logs 
+ * increments the status version, waking clients waiting for 
+ * the next change.
  * 
  * @author James Thomas
  */
@@ -20,19 +29,33 @@ public class BuildStatus {
 	/** Internal state used to represent state of associated build process */
 	BuildState buildState;
 	
-	/** Used buffer containing build logs, StringBuffer is a thread-safe class. */
-	StringBuffer buildLogs;
+	/** Build log lines, thread-safe class. */
+	final BuildLog buildLogs;
+	
+	/** Latest progress and timing events reported by the build system, null before any */
+	volatile Map<String, Object> buildEvents;
 	
 	/** Path to result of the build process, set when build is available */
 	String buildResultPath; 
+	
+	/** Incremented on every state or log change, guarded by this instance's monitor */
+	long version;
+	
+	/** Downloads of the build result in progress, result can't be evicted until zero */
+	final AtomicInteger activeDownloads = new AtomicInteger();
+	
+	/** Request references, parameters as given, served by this build, guarded by this instance's monitor */
+	final Set<String> requestReferences = new HashSet<String>();
 
 	/**
 	 * Create new build status, process hasn't been started. 
+	 * 
+	 * @param buildLogs - Empty build log
 	 */
-	public BuildStatus() {
+	public BuildStatus(BuildLog buildLogs) {
 		this.stateLock = new ReentrantReadWriteLock(); 
 		this.buildState = BuildState.NOT_STARTED;
-		this.buildLogs = new StringBuffer();
+		this.buildLogs = buildLogs;
 	}
 	
 	/**
@@ -57,6 +80,13 @@ public class BuildStatus {
 	 */
 	public void setBuildState(BuildState buildState) {
 		this.buildState = buildState;
+		
+		// No more logs expected once build has finished
+		if (buildState == BuildState.COMPLETED || buildState == BuildState.FAILED) {
+			buildLogs.closeSpill();
+		}
+		
+		notifyChanged();
 	}
 	
 	/**
@@ -68,26 +98,100 @@ public class BuildStatus {
 	}
 	
 	/**
-	 * Add a new build log line.
-	 * @param buildLog - Log line
+	 * Add new build log text, split into lines.
+	 * @param buildLog - Log text
+	 * @throws IOException - Unable to spill older lines to disk
 	 */
-	public void addBuildLog(String buildLog) {
-		buildLogs.append(buildLog);
+	public void addBuildLog(String buildLog) throws IOException {
+		try {
+			buildLogs.append(buildLog);
+		} finally {
+			notifyChanged();
+		}
 	}
 	
 	/**
 	 * Clear all build logs
 	 */
 	public void clearBuildLogs() {
-		buildLogs.setLength(0);
+		buildLogs.clear();
+		notifyChanged();
+	}
+	
+	/**
+	 * Return build log lines added after a sequence number.
+	 * 
+	 * @param after - Sequence number of the last line seen, zero for all
+	 * @return Log lines after the cursor
+	 * @throws IOException - Unable to read spilled lines
+	 */
+	public List<BuildLog.LogLine> getBuildLogsAfter(long after) throws IOException {
+		return buildLogs.getLinesAfter(after);
+	}
+	
+	/**
+	 * Retrieve the build log
+	 * @return Build log
+	 */
+	public BuildLog getBuildLog() {
+		return buildLogs;
+	}
+	
+	/**
+	 * Current status version, incremented on every change.
+	 * 
+	 * @return Status version
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Block until the status version moves past the version given 
+	 * or the timeout expires. 
+	 * 
+	 * @param knownVersion - Version the caller has already seen
+	 * @param timeoutMillis - Maximum time to wait
+	 * @return Current status version
+	 * @throws InterruptedException - Waiting thread interrupted
+	 */
+	public synchronized long awaitChange(long knownVersion, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		
+		while (version <= knownVersion && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		
+		return version;
+	}
+	
+	/**
+	 * Record a change to the status and wake waiting clients. 
+	 */
+	protected synchronized void notifyChanged() {
+		version++;
+		notifyAll();
+	}
+	
+	/**
+	 * Get latest build system progress and timing events
+	 * 
+	 * @return Build events, null if none reported
+	 */
+	public Map<String, Object> getBuildEvents() {
+		return buildEvents;
 	}
 	
 	/**
-	 * Return build logs as a single line.
-	 * @return
+	 * Set latest build system progress and timing events
+	 * 
+	 * @param buildEvents - Build events
 	 */
-	public String getAllBuildLogs() {
-		return buildLogs.toString();
+	public void setBuildEvents(Map<String, Object> buildEvents) {
+		this.buildEvents = buildEvents;
+		notifyChanged();
 	}
 	
 	/**
@@ -107,4 +211,25 @@ public class BuildStatus {
 	public void setBuildResultPath(String buildResultPath) {
 		this.buildResultPath = buildResultPath;
 	}
+	
+	/**
+	 * Get the counter of downloads in progress for the build result
+	 * 
+	 * @return Active downloads counter
+	 */
+	public AtomicInteger getActiveDownloads() {
+		return activeDownloads;
+	}
+	
+	/**
+	 * Record the request reference, build parameters as given, of a request 
+	 * served by this build. The first request recorded is the build's origin.
+	 * 
+	 * @param requestReference - Request reference
+	 * @return Build already served requests, but none given in this form
+	 */
+	public synchronized boolean addRequestReference(String requestReference) {
+		boolean servedOtherRequests = !requestReferences.isEmpty();
+		return requestReferences.add(requestReference) && servedOtherRequests;
+	}
 }
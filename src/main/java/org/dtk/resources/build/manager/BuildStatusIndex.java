@@ -0,0 +1,215 @@
+package org.dtk.resources.build.manager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of completed builds, stored alongside the build
+ * result cache so cached builds remain available after a restart.
+ * Index is an append-only log of tab separated records, one per line,
+ * either recording a completed build and its result path or the removal
+ * of a build. Log is compacted, rewriting only the live records, once
+ * superseded records outnumber the live ones. Incomplete records at the 
+ * end of the log, from a crash part way through a write, are ignored and
+ * callers should check result paths still exist before using them.
+ *
+ * @author James Thomas
+ */
+
+public class BuildStatusIndex {
+	/** Record type for a completed build */
+	protected static final String COMPLETED_RECORD = "C";
+
+	/** Record type for a removed build */
+	protected static final String REMOVED_RECORD = "R";
+
+	/** Record field separator */
+	protected static final String FIELD_SEPARATOR = "\t";
+
+	/** Minimum superseded records before compaction is considered */
+	protected static final int MIN_COMPACTION_RECORDS = 1000;
+
+	/** Log file location */
+	protected final File indexFile;
+
+	/** Live completed builds, reference mapped to result path */
+	protected final Map<String, String> completedBuilds = new LinkedHashMap<String, String>();
+
+	/** Number of records in the log file */
+	protected int logRecords;
+
+	/** Open writer appending to the log file */
+	protected Writer logWriter;
+
+	/**
+	 * Create index using the log file given.
+	 *
+	 * @param indexFile - Log file location
+	 */
+	public BuildStatusIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Replay the log file, returning all live completed builds, and
+	 * open the log for appending new records.
+	 *
+	 * @return Build references mapped to result paths
+	 * @throws IOException - Unable to read or open the log file
+	 */
+	public synchronized Map<String, String> load() throws IOException {
+		completedBuilds.clear();
+		logRecords = 0;
+
+		if (indexFile.exists()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+			try {
+				String record = reader.readLine();
+				while (record != null) {
+					replayRecord(record);
+					record = reader.readLine();
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		// Rewrite log without superseded or torn records
+		compact();
+
+		return new LinkedHashMap<String, String>(completedBuilds);
+	}
+
+	/**
+	 * Append record for a completed build.
+	 *
+	 * @param reference - Build reference
+	 * @param buildResultPath - Build result path
+	 * @throws IOException - Unable to write log record
+	 */
+	public synchronized void recordCompleted(String reference, String buildResultPath) throws IOException {
+		completedBuilds.put(reference, buildResultPath);
+		appendRecord(COMPLETED_RECORD + FIELD_SEPARATOR + reference + FIELD_SEPARATOR + buildResultPath);
+	}
+
+	/**
+	 * Append record for a removed build.
+	 *
+	 * @param reference - Build reference
+	 * @throws IOException - Unable to write log record
+	 */
+	public synchronized void recordRemoved(String reference) throws IOException {
+		if (completedBuilds.remove(reference) != null) {
+			appendRecord(REMOVED_RECORD + FIELD_SEPARATOR + reference);
+		}
+	}
+
+	/**
+	 * Close the log file.
+	 */
+	public synchronized void close() {
+		if (logWriter != null) {
+			try {
+				logWriter.close();
+			} catch (IOException e) {
+				// Records are flushed on write, nothing lost.
+			}
+			logWriter = null;
+		}
+	}
+
+	/**
+	 * Apply a single log record to the live builds. Unknown or
+	 * incomplete records are skipped.
+	 *
+	 * @param record - Log record
+	 */
+	protected void replayRecord(String record) {
+		String[] fields = record.split(FIELD_SEPARATOR);
+
+		if (COMPLETED_RECORD.equals(fields[0]) && fields.length == 3) {
+			completedBuilds.put(fields[1], fields[2]);
+		} else if (REMOVED_RECORD.equals(fields[0]) && fields.length == 2) {
+			completedBuilds.remove(fields[1]);
+		}
+
+		logRecords++;
+	}
+
+	/**
+	 * Write a record to the end of the log, flushing immediately,
+	 * and compact the log if it has grown too large.
+	 *
+	 * @param record - Log record
+	 * @throws IOException - Unable to write log record
+	 */
+	protected void appendRecord(String record) throws IOException {
+		if (logWriter == null) {
+			logWriter = openLogWriter(indexFile, true);
+		}
+
+		logWriter.write(record);
+		logWriter.write('\n');
+		logWriter.flush();
+		logRecords++;
+
+		int supersededRecords = logRecords - completedBuilds.size();
+		if (supersededRecords > MIN_COMPACTION_RECORDS && supersededRecords > completedBuilds.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite the log to contain just the live records. New log is written
+	 * to a temporary file and renamed over the old log.
+	 *
+	 * @throws IOException - Unable to write the compacted log
+	 */
+	protected void compact() throws IOException {
+		close();
+
+		File compactedFile = new File(indexFile.getAbsolutePath() + ".compact");
+		Writer writer = openLogWriter(compactedFile, false);
+		try {
+			for (Map.Entry<String, String> completedBuild: completedBuilds.entrySet()) {
+				writer.write(COMPLETED_RECORD + FIELD_SEPARATOR + completedBuild.getKey()
+					+ FIELD_SEPARATOR + completedBuild.getValue());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+
+		// Windows won't rename over an existing file
+		if (!compactedFile.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!compactedFile.renameTo(indexFile)) {
+				throw new IOException("Could not replace build status index: " + indexFile.getAbsolutePath());
+			}
+		}
+
+		logRecords = completedBuilds.size();
+		logWriter = openLogWriter(indexFile, true);
+	}
+
+	/**
+	 * Open UTF-8 writer for a log file.
+	 *
+	 * @param file - Log file
+	 * @param append - Append to existing contents
+	 * @return Log writer
+	 * @throws IOException - Unable to open file
+	 */
+	protected Writer openLogWriter(File file, boolean append) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+	}
+}
@@ -1,19 +1,47 @@
 package org.dtk.resources.build.manager;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
-import org.dtk.resources.build.BuildRequestProcessor;
+import org.apache.commons.io.FileUtils;
+import org.dtk.metrics.Counter;
+import org.dtk.metrics.Gauge;
+import org.dtk.metrics.MetricsRegistry;
+import org.dtk.resources.build.BuildContextFactory;
+import org.dtk.resources.build.BuildEnginePool;
 import org.dtk.resources.build.BuildRequest;
+import org.dtk.resources.build.LayerBuildCache;
+import org.dtk.resources.build.MinifiedOutputCache;
+import org.dtk.resources.build.worker.ForkedBuildWorkerPool;
 import org.dtk.resources.exceptions.MissingResourceException;
+import org.dtk.resources.exceptions.ServiceUnavailableException;
 
 /**
  * The build status manager is responsible for creation of new build processes,
  * maintaining the state of all running builds and ensuring that only a single build
  * process for the same parameters is running at once. 
  * 
+ * Builds are run on a fixed pool of build workers. Requests waiting for a 
+ * free worker are held in a bounded priority queue, new builds are refused
+ * once the queue is full rather than starting an unbounded number of builds.
+ * 
  * @author James Thomas
  */
 
@@ -28,6 +56,25 @@ public final class BuildStatusManager {
 	protected static final String missingResourceErrorText 
 		= "Unable to find build status for requested resource.";
 	
+	/** Build queue has no free slots error message */
+	protected static final String buildQueueFullErrorText 
+		= "Build queue is full, please try again later.";
+	
+	/** Default number of build requests allowed to wait for a build worker */
+	public static final int DEFAULT_BUILD_QUEUE_CAPACITY = 50;
+	
+	/** Default seconds a client should wait before retrying a refused build */
+	public static final int DEFAULT_RETRY_AFTER_SECONDS = 30;
+	
+	/** Default maximum number of clients waiting for build status changes */
+	protected static final int DEFAULT_STATUS_WAITERS = 256;
+	
+	/** Default maximum time a client waits for a build status change */
+	protected static final long DEFAULT_STATUS_WAIT_MILLIS = 25000;
+	
+	/** Default number of build log lines held in memory for each build */
+	protected static final int DEFAULT_BUILD_LOG_LINES = 1000;
+	
 	/** Single instance of build status manager */
 	protected static final BuildStatusManager INSTANCE = new BuildStatusManager();
 
@@ -43,6 +90,121 @@ public final class BuildStatusManager {
 	/** AMD loader module location */
 	protected String loaderModulePath;
 	
+	/** Pre-initialised Rhino build engines, created on first use */
+	protected BuildEnginePool buildEnginePool;
+	
+	/** Persistent index of completed builds, null until loaded */
+	protected BuildStatusIndex buildStatusIndex;
+	
+	/** File name for the build status index within the build result cache */
+	protected static final String buildStatusIndexFileName = "build-status.log";
+	
+	/** Unable to update build status index log message */
+	protected static final String buildStatusIndexErrorLogMsg 
+		= "Unable to update build status index for build %1$s: %2$s";
+	
+	/** Suffix for build directories without a status, renamed before deletion */
+	protected static final String evictedBuildDirSuffix = ".evicted";
+	
+	/** Held when creating build statuses and evicting directories without a status */
+	protected final Object statusCreationLock = new Object();
+	
+	/** Build log file, in the build result directory, holding lines no longer in memory */
+	protected static final String buildLogFileName = "build.log";
+	
+	/** Build log update failure log message */
+	protected static final String buildLogErrorLogMsg 
+		= "Unable to access build log for build %1$s: %2$s";
+	
+	/** Logging class instance */
+	protected static final Logger logger = Logger.getLogger(BuildStatusManager.class.getName());
+	
+	/** Runs cache eviction passes in the background, null when eviction is disabled */
+	protected ScheduledExecutorService cacheEvictionExecutor;
+	
+	/** Evicts unused entries from the build result cache, null when eviction is disabled */
+	protected volatile BuildCacheManager buildCacheManager;
+	
+	/** Remove raw build artifacts once the build archive has been created */
+	protected boolean deleteBuildArtifacts = false;
+	
+	/** Cached build output for individual layers, created on first use */
+	protected volatile LayerBuildCache layerBuildCache;
+	
+	/** Directory under the build result cache holding cached layers */
+	protected static final String layerCacheDirName = "layers";
+	
+	/** Cached minified modules and layers, created on first use */
+	protected volatile MinifiedOutputCache minifiedOutputCache;
+	
+	/** Directory under the build result cache holding minified output */
+	protected static final String minifiedCacheDirName = "minified";
+	
+	/** Default size limit for cached minified output, in megabytes */
+	public static final int DEFAULT_MINIFIED_CACHE_SIZE_MB = 64;
+	
+	/** Size limit for cached minified output in bytes, zero disables the cache */
+	protected long minifiedCacheMaxBytes = DEFAULT_MINIFIED_CACHE_SIZE_MB * 1024L * 1024L;
+	
+	/** Forked build worker JVMs, null when builds run in-process */
+	protected ForkedBuildWorkerPool forkedBuildWorkerPool;
+	
+	/** Thread pool running build processes, created on first use */
+	protected volatile ThreadPoolExecutor buildExecutor;
+	
+	/** Free slots in the build queue, acquired when a build is queued and 
+	 * released when a worker picks it up. */
+	protected Semaphore buildQueueSlots;
+	
+	/** Build requests served by an existing completed, queued or running build */
+	protected final AtomicLong duplicateBuildRequests = new AtomicLong();
+	
+	/** Duplicate build requests that only matched after canonicalisation, 
+	 * i.e. given with a different ordering or duplicate modules */
+	protected final AtomicLong canonicalisedDuplicateBuildRequests = new AtomicLong();
+	
+	/** Submission counter, keeps ordering stable for builds with equal priority */
+	protected final AtomicLong buildSequence = new AtomicLong();
+	
+	/** Build requests received */
+	protected final Counter buildRequests = MetricsRegistry.getInstance()
+		.counter("dwb_build_requests_total", "Build requests received.");
+	
+	/** Build requests which started a new build */
+	protected final Counter scheduledBuilds = MetricsRegistry.getInstance()
+		.counter("dwb_builds_scheduled_total", "Build requests which queued a new build.");
+	
+	/** Build requests refused because the build queue was full */
+	protected final Counter rejectedBuildRequests = MetricsRegistry.getInstance()
+		.counter("dwb_build_requests_rejected_total", "Build requests refused because the build queue was full.");
+	
+	/** Number of concurrent build workers */
+	protected int buildWorkers = Runtime.getRuntime().availableProcessors();
+	
+	/** Maximum number of builds waiting for a worker */
+	protected int buildQueueCapacity = DEFAULT_BUILD_QUEUE_CAPACITY;
+	
+	/** Retry-After value returned when build queue is full */
+	protected int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+	
+	/** Free slots for clients waiting on status changes, each holds a request thread */
+	protected Semaphore statusWaiterSlots = new Semaphore(DEFAULT_STATUS_WAITERS);
+	
+	/** Maximum time a client waits for a build status change */
+	protected long statusWaitMillis = DEFAULT_STATUS_WAIT_MILLIS;
+	
+	/** Build log lines held in memory for each build */
+	protected int buildLogLines = DEFAULT_BUILD_LOG_LINES;
+	
+	/** Receives build logs instead of the build status, used within forked build workers */
+	protected volatile BuildLogListener buildLogListener;
+	
+	/** Deflate level used when creating build archives */
+	protected int archiveCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+	
+	/** Rhino optimisation level for build contexts */
+	protected int buildOptimizationLevel = BuildContextFactory.DEFAULT_OPTIMIZATION_LEVEL;
+	
 	/**
 	 * Private constructor to enforce singleton pattern.
 	 */
@@ -50,6 +212,81 @@ public final class BuildStatusManager {
 		if (INSTANCE != null) {
 			throw new IllegalStateException("Already instantiated");
 		}
+		
+		registerMetrics();
+	}
+	
+	/**
+	 * Expose queue depth, duplicate requests and build cache 
+	 * counters through the metrics registry.
+	 */
+	protected void registerMetrics() {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		
+		registry.gauge("dwb_build_queue_depth", "Builds waiting for a build worker.", new Gauge() {
+			public long getValue() {
+				ThreadPoolExecutor executor = buildExecutor;
+				return (executor != null) ? executor.getQueue().size() : 0;
+			}
+		});
+		registry.gauge("dwb_builds_active", "Builds running on a build worker.", new Gauge() {
+			public long getValue() {
+				ThreadPoolExecutor executor = buildExecutor;
+				return (executor != null) ? executor.getActiveCount() : 0;
+			}
+		});
+		registry.gauge("dwb_build_statuses", "Builds with a build status held in memory.", new Gauge() {
+			public long getValue() {
+				return buildStateLookup.size();
+			}
+		});
+		registry.counter("dwb_build_requests_duplicate_total", "Build requests served by an existing build.", new Gauge() {
+			public long getValue() {
+				return getDuplicateBuildRequests();
+			}
+		});
+		registry.counter("dwb_build_requests_canonicalised_duplicate_total", 
+			"Duplicate build requests only matched after canonicalisation.", new Gauge() {
+			public long getValue() {
+				return getCanonicalisedDuplicateBuildRequests();
+			}
+		});
+		registry.counter("dwb_layer_cache_hits_total", "Layer lookups which found cached build output.", new Gauge() {
+			public long getValue() {
+				LayerBuildCache cache = layerBuildCache;
+				return (cache != null) ? cache.getHits() : 0;
+			}
+		});
+		registry.counter("dwb_layer_cache_misses_total", "Layer lookups which needed building.", new Gauge() {
+			public long getValue() {
+				LayerBuildCache cache = layerBuildCache;
+				return (cache != null) ? cache.getMisses() : 0;
+			}
+		});
+		registry.counter("dwb_minified_cache_hits_total", "Modules and layers using cached minified output.", new Gauge() {
+			public long getValue() {
+				MinifiedOutputCache cache = minifiedOutputCache;
+				return (cache != null) ? cache.getHits() : 0;
+			}
+		});
+		registry.counter("dwb_minified_cache_misses_total", "Modules and layers which needed minifying.", new Gauge() {
+			public long getValue() {
+				MinifiedOutputCache cache = minifiedOutputCache;
+				return (cache != null) ? cache.getMisses() : 0;
+			}
+		});
+		registry.counter("dwb_build_cache_evicted_entries_total", "Build results and layers evicted from the build cache.", new Gauge() {
+			public long getValue() {
+				BuildCacheManager manager = buildCacheManager;
+				return (manager != null) ? manager.getEvictedEntries() : 0;
+			}
+		});
+		registry.counter("dwb_build_cache_evicted_bytes_total", "Bytes evicted from the build cache.", new Gauge() {
+			public long getValue() {
+				BuildCacheManager manager = buildCacheManager;
+				return (manager != null) ? manager.getEvictedBytes() : 0;
+			}
+		});
 	}
 	
 	/**
@@ -65,27 +302,44 @@ public final class BuildStatusManager {
 	 * Request scheduling of a new build process for the given parameters. The internal
 	 * build status cache checks whether this is the first time a build has been requested
 	 * for this combination of parameters. If the build request is new or the previous build
-	 * attempt failed, a new build process will be start in the background. If a previous build
-	 * completed or is still in progress, no action will be taken.
+	 * attempt failed, a new build process will be queued for a background worker. If a previous 
+	 * build completed or is still queued or in progress, no action will be taken.
 	 * 
 	 * @param buildRequest - Build request to schedule
+	 * @throws ServiceUnavailableException - Build queue is full
 	 */
-	public void scheduleBuildRequest(BuildRequest buildRequest) {
+	public void scheduleBuildRequest(BuildRequest buildRequest) throws ServiceUnavailableException {
 		// Retrieve unique identifier for this build request, 
 		// just a digest of the parameters
 		String reference = buildRequest.getBuildReference();
+		buildRequests.increment();
 		
 		// Does a build need scheduling for the current request?
 		boolean scheduleBuild = false;
 		
-		// Use thread safe operation to create new build status instance
-		// the first time this particular build is requested.
-		buildStateLookup.putIfAbsent(reference, new BuildStatus());
+		// Was the build refused because the queue is full? 
+		boolean queueFull = false;
 		
-		// Now access reference to current build state for the unique 
-		// build identifier. This will either be pre-existing or the new
-		// instance we created.
+		// Use thread safe operation to create new build status instance
+		// the first time this particular build is requested. Creation 
+		// waits for eviction of a build directory without a status.
 		BuildStatus buildStatus = buildStateLookup.get(reference);
+		boolean existingStatus = buildStatus != null;
+		
+		if (!existingStatus) {
+			synchronized (statusCreationLock) {
+				existingStatus = buildStateLookup.putIfAbsent(reference, createBuildStatus(reference)) != null;
+			}
+			
+			// Now access reference to current build state for the unique 
+			// build identifier. This will either be pre-existing or the new
+			// instance we created.
+			buildStatus = buildStateLookup.get(reference);
+		}
+		
+		// Did canonicalisation match this request to a build served 
+		// for requests given in another form?
+		boolean canonicalisedDuplicate = buildStatus.addRequestReference(buildRequest.getRequestReference());
 		
 		// Retrieve next logical build state and given the current state. 
 		// Use read lock when checking actual build state. Multiple readers
@@ -95,7 +349,10 @@ public final class BuildStatusManager {
 		
 		// If the build status is ready to begin, i.e. build hasn't started or previously failed, 
 		// then we can schedule that background build process for the current build request.
-		if (nextState == BuildState.BUILDING) {
+		if (nextState == BuildState.QUEUED) {
+			// Make sure build workers and queue are available before reserving a slot.
+			Semaphore queueSlots = getBuildQueueSlots();
+			
 			// Modify the build state value to indicate build process has been started. Use write 
 			// lock to block all readers and other threads don't try to start the same build process.
 			// We must re-check build state after acquiring write lock in case another thread has 
@@ -106,46 +363,289 @@ public final class BuildStatusManager {
 				// Re-check build status hasn't been updated in between 
 				// lock releasing and re-acquiring. 
 				nextState = getNextBuildState(buildStatus.getBuildState());
-				if (nextState == BuildState.BUILDING) {
-					// Set state to BUILDING and release blocking write lock
-					// immediately. No other thread will try to start off the 
-					// build process and we can do that after. Clear out any
-					// previous build logs.
-					buildStatus.setBuildState(nextState);	
-					resetBuildLogs(reference);
-					scheduleBuild = true;
+				if (nextState == BuildState.QUEUED) {
+					// Reserve a place in the build queue, refuse the build
+					// if there's no space left and leave state unchanged.
+					if (queueSlots.tryAcquire()) {
+						// Set state to QUEUED and release blocking write lock
+						// immediately. No other thread will try to start off the 
+						// build process and we can do that after. Clear out any
+						// previous build logs.
+						buildStatus.setBuildState(nextState);	
+						resetBuildLogs(reference);
+						buildStatus.setBuildEvents(null);
+						scheduleBuild = true;
+					} else {
+						queueFull = true;
+						rejectedBuildRequests.increment();
+					}
 				}
 			} finally {
 				wlock.unlock();
 			}		
 			
+			if (queueFull) {
+				throw new ServiceUnavailableException(buildQueueFullErrorText, retryAfterSeconds);
+			}
+			
 			if (scheduleBuild) {
-				// Kick off asynchronous build thread, this process will
-				// change the state to FINISHED or FAILED.
+				// Queue asynchronous build task, this process will change 
+				// the state to BUILDING and then COMPLETED or FAILED.
 				scheduleNewBuild(buildRequest);
+				scheduledBuilds.increment();
+				return;
 			}
 		}
+		
+		// Existing build will provide the result for this request
+		recordDuplicateBuildRequest(existingStatus && canonicalisedDuplicate);
+	}
+	
+	/**
+	 * Count build request which didn't need a new build. Requests are only
+	 * counted as canonicalised duplicates when their parameters, as given, 
+	 * differ from every earlier request served by the existing build, i.e.
+	 * without canonicalisation the request would have needed its own build.
+	 * 
+	 * @param canonicalisedDuplicate - Request only matched existing build once canonicalised
+	 */
+	protected void recordDuplicateBuildRequest(boolean canonicalisedDuplicate) {
+		duplicateBuildRequests.incrementAndGet();
+		if (canonicalisedDuplicate) {
+			canonicalisedDuplicateBuildRequests.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Number of build requests served by an existing build rather 
+	 * than starting a new one.
+	 * 
+	 * @return Duplicate build request count
+	 */
+	public long getDuplicateBuildRequests() {
+		return duplicateBuildRequests.get();
+	}
+	
+	/**
+	 * Number of duplicate build requests which were not given in canonical 
+	 * form, builds saved by canonicalising the build digest.
+	 * 
+	 * @return Canonicalised duplicate build request count
+	 */
+	public long getCanonicalisedDuplicateBuildRequests() {
+		return canonicalisedDuplicateBuildRequests.get();
 	}
 	
 	/**
 	 * Schedule the asynchronous build process to generate compressed
-	 * Dojo layers from parameters object. New thread is spawned to 
-	 * run the build process in the background.   
+	 * Dojo layers from parameters object. Build is added to the worker
+	 * queue, caller must already hold a build queue slot.
 	 * 
 	 * @param buildRequest - Build request to schedule
 	 */
 	protected void scheduleNewBuild(BuildRequest buildRequest) {
-		// Code will go here to kick off new build thread, running
-		// in the background. When thread completes, it'll change
-		// the state to FINISHED or FAILED.
-		BuildRequestProcessor t = new BuildRequestProcessor(buildRequest);
-		new Thread(t).start();
+		QueuedBuild queuedBuild = new QueuedBuild(buildRequest, buildSequence.incrementAndGet(), this);
+		
+		try {
+			getBuildExecutor().execute(queuedBuild);
+		} catch (RejectedExecutionException e) {
+			// Workers have been shut down, give back queue slot and 
+			// mark build as failed so it can be retried later. 
+			buildQueueSlots.release();
+			changeBuildState(buildRequest.getBuildReference(), BuildState.FAILED);
+		}
+	}
+	
+	/**
+	 * Called by build worker when it takes a queued build off the 
+	 * queue. Frees the queue slot and moves build into BUILDING state.
+	 * 
+	 * @param queuedBuild - Build about to be run
+	 */
+	protected void dequeueBuild(QueuedBuild queuedBuild) {
+		buildQueueSlots.release();
+		changeBuildState(queuedBuild.getBuildReference(), BuildState.BUILDING);
+	}
+	
+	/**
+	 * Find the position of a queued build in the build queue, 
+	 * starting from one for the next build to run. 
+	 * 
+	 * @param reference - Unique build reference
+	 * @return Queue position, zero if build isn't waiting in the queue
+	 */
+	public int getQueuePosition(String reference) {
+		QueuedBuild queuedBuild = null;
+		Object[] waitingBuilds = getBuildExecutor().getQueue().toArray();
+		
+		for (Object waitingBuild: waitingBuilds) {
+			if (reference.equals(((QueuedBuild) waitingBuild).getBuildReference())) {
+				queuedBuild = (QueuedBuild) waitingBuild;
+				break;
+			}
+		}
+		
+		int position = 0;
+		
+		// Queue iteration order isn't priority order, count builds ahead of us
+		if (queuedBuild != null) {
+			position = 1;
+			for (Object waitingBuild: waitingBuilds) {
+				if (((QueuedBuild) waitingBuild).compareTo(queuedBuild) < 0) {
+					position++;
+				}
+			}
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Start build worker pool with the given number of workers
+	 * and queue capacity. Replaces default pool settings, must 
+	 * be called before any builds are scheduled. 
+	 * 
+	 * @param buildWorkers - Number of concurrent builds
+	 * @param buildQueueCapacity - Maximum builds waiting for a worker
+	 * @param retryAfterSeconds - Retry-After value when queue is full
+	 */
+	public synchronized void startBuildWorkers(int buildWorkers, int buildQueueCapacity, int retryAfterSeconds) {
+		if (buildExecutor != null) {
+			throw new IllegalStateException("Build workers already started");
+		}
+		
+		this.buildWorkers = buildWorkers;
+		this.buildQueueCapacity = buildQueueCapacity;
+		this.retryAfterSeconds = retryAfterSeconds;
+		
+		getBuildExecutor();
+	}
+	
+	/**
+	 * Set Rhino optimisation level used when running builds, 
+	 * must be called before the first build engine is created.
+	 * 
+	 * @param buildOptimizationLevel - Optimisation level, -1 to 9
+	 */
+	public synchronized void setBuildOptimizationLevel(int buildOptimizationLevel) {
+		if (buildEnginePool != null) {
+			throw new IllegalStateException("Build engines already created");
+		}
+		
+		this.buildOptimizationLevel = buildOptimizationLevel;
+	}
+	
+	/**
+	 * Create a build engine for each build worker, so the first
+	 * builds don't pay the engine start up cost. 
+	 * 
+	 * @throws IOException - Unable to read AMD loader script
+	 */
+	public void prestartBuildEngines() throws IOException {
+		getBuildEnginePool().prestartEngines(buildWorkers);
+	}
+	
+	/**
+	 * Return pool of build engines for the AMD loader, creating
+	 * when first accessed. At most one idle engine is kept for 
+	 * each build worker.
+	 * 
+	 * @return Build engine pool
+	 */
+	public synchronized BuildEnginePool getBuildEnginePool() {
+		if (buildEnginePool == null) {
+			buildEnginePool = new BuildEnginePool(loaderModulePath, buildModulePath, 
+				new BuildContextFactory(buildOptimizationLevel), buildWorkers);
+		}
+		
+		return buildEnginePool;
+	}
+	
+	/**
+	 * Run builds in forked worker JVMs rather than in-process. 
+	 * One worker JVM is kept for each build worker thread. 
+	 * 
+	 * @param classpath - Worker class path
+	 * @param maxHeap - Worker maximum heap size, e.g. 512m, null for JVM default
+	 * @param maxBuildsPerWorker - Builds run by a worker JVM before it's replaced
+	 * @param heartbeatMillis - Interval between worker heartbeats
+	 * @param heartbeatTimeoutMillis - Time without heartbeats before worker is killed
+	 * @param buildTimeoutMillis - Time allowed for a build before worker is killed
+	 */
+	public synchronized void startForkedBuildWorkers(String classpath, String maxHeap, int maxBuildsPerWorker, 
+		long heartbeatMillis, long heartbeatTimeoutMillis, long buildTimeoutMillis) {
+		List<String> workerCommand = ForkedBuildWorkerPool.createWorkerCommand(classpath, maxHeap, 
+			loaderModulePath, buildModulePath, buildOptimizationLevel, heartbeatMillis);
+		
+		forkedBuildWorkerPool = new ForkedBuildWorkerPool(workerCommand, buildWorkers, maxBuildsPerWorker, 
+			heartbeatTimeoutMillis, buildTimeoutMillis);
+	}
+	
+	/**
+	 * Return forked build worker pool, null when builds are 
+	 * run in-process. 
+	 * 
+	 * @return Forked build worker pool 
+	 */
+	public synchronized ForkedBuildWorkerPool getForkedBuildWorkerPool() {
+		return forkedBuildWorkerPool;
+	}
+	
+	/**
+	 * Stop all build workers, interrupting running builds. 
+	 */
+	public synchronized void stopBuildWorkers() {
+		if (buildExecutor != null) {
+			buildExecutor.shutdownNow();
+		}
+		
+		if (forkedBuildWorkerPool != null) {
+			forkedBuildWorkerPool.shutdown();
+		}
+	}
+	
+	/**
+	 * Return build worker pool, creating with current settings 
+	 * when first accessed. 
+	 * 
+	 * @return Build worker thread pool
+	 */
+	protected synchronized ThreadPoolExecutor getBuildExecutor() {
+		if (buildExecutor == null) {
+			final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			
+			buildQueueSlots = new Semaphore(buildQueueCapacity);
+			buildExecutor = new ThreadPoolExecutor(buildWorkers, buildWorkers, 0L, TimeUnit.MILLISECONDS, 
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						// Don't let build workers keep the JVM alive. 
+						Thread worker = defaultFactory.newThread(r);
+						worker.setName("build-worker-" + worker.getName());
+						worker.setDaemon(true);
+						return worker;
+					}
+				});
+		}
+		
+		return buildExecutor;
+	}
+	
+	/**
+	 * Return build queue slots semaphore, ensuring build 
+	 * workers have been started.
+	 * 
+	 * @return Build queue slots
+	 */
+	protected synchronized Semaphore getBuildQueueSlots() {
+		getBuildExecutor();
+		return buildQueueSlots;
 	}
 	
 	/**
 	 * Find the next typical build state given the current state. 
-	 * Usual path: NOT_STARTED -> BUILDING -> COMPLETED. If build 
-	 * fails, state will be FAILED, which should revert to BUILDING
+	 * Usual path: NOT_STARTED -> QUEUED -> BUILDING -> COMPLETED. If 
+	 * build fails, state will be FAILED, which should revert to QUEUED
 	 * when the build is initiated again. 
 	 * 
 	 * @param buildState - Current build state
@@ -155,8 +655,12 @@ public final class BuildStatusManager {
 		BuildState nextState = BuildState.NOT_STARTED; 
 		
 		switch(buildState) {
-		// Build hasn't started, ready to kick off a build
+		// Build hasn't started, ready to queue a build
 		case NOT_STARTED:
+			nextState = BuildState.QUEUED;
+			break;
+		// Build is waiting for a worker
+		case QUEUED:
 			nextState = BuildState.BUILDING;
 			break;
 		// Build is in progress
@@ -169,7 +673,7 @@ public final class BuildStatusManager {
 			break;
 		// Build process failed, ready to restart
 		case FAILED:
-			nextState = BuildState.BUILDING;
+			nextState = BuildState.QUEUED;
 			break;
 		}
 		
@@ -237,6 +741,399 @@ public final class BuildStatusManager {
 		} finally {
 			wlock.unlock();
 		}
+		
+		// Completed builds are remembered across restarts
+		if (newState == BuildState.COMPLETED) {
+			BuildStatusIndex index = getBuildStatusIndex();
+			if (index != null) {
+				try {
+					index.recordCompleted(reference, buildStatus.getBuildResultPath());
+				} catch (IOException e) {
+					logger.log(Level.WARNING, String.format(buildStatusIndexErrorLogMsg, reference, e.getMessage()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Open the persistent build status index in the build result cache
+	 * and restore all completed builds whose result is still available.
+	 * Restored builds can be downloaded straight away without being 
+	 * requested again. 
+	 * 
+	 * @return Number of builds restored
+	 * @throws IOException - Unable to read the build status index
+	 */
+	public int loadBuildStatusIndex() throws IOException {
+		BuildStatusIndex index = new BuildStatusIndex(new File(buildResultCachePath, buildStatusIndexFileName));
+		Map<String, String> completedBuilds = index.load();
+		int restoredBuilds = 0;
+		
+		for (Map.Entry<String, String> completedBuild: completedBuilds.entrySet()) {
+			String reference = completedBuild.getKey(), buildResultPath = completedBuild.getValue();
+			
+			// Result removed from the cache whilst the server was down
+			if (!new File(buildResultPath).exists()) {
+				index.recordRemoved(reference);
+				continue;
+			}
+			
+			BuildStatus buildStatus = createBuildStatus(reference);
+			buildStatus.setBuildState(BuildState.COMPLETED);
+			buildStatus.setBuildResultPath(buildResultPath);
+			
+			if (buildStateLookup.putIfAbsent(reference, buildStatus) == null) {
+				restoredBuilds++;
+			}
+		}
+		
+		synchronized (this) {
+			closeBuildStatusIndex();
+			buildStatusIndex = index;
+		}
+		
+		return restoredBuilds;
+	}
+	
+	/**
+	 * Find a completed build result, recording the access for cache eviction.
+	 * Result isn't reserved, it must be acquired whilst being downloaded.
+	 * 
+	 * @param reference - Unique build reference
+	 * @return Build result path, or null if build hasn't completed
+	 * @throws MissingResourceException - Unknown build reference
+	 */
+	public String findBuildResult(String reference) throws MissingResourceException {
+		return lookupBuildResult(reference, false);
+	}
+	
+	/**
+	 * Reserve a completed build result for download, recording the access for 
+	 * cache eviction. Reserved results are never evicted, callers must release
+	 * the result when the download has finished. 
+	 * 
+	 * @param reference - Unique build reference
+	 * @return Build result path, or null if build hasn't completed
+	 * @throws MissingResourceException - Unknown build reference
+	 */
+	public String acquireBuildResult(String reference) throws MissingResourceException {
+		return lookupBuildResult(reference, true);
+	}
+	
+	/**
+	 * Find a completed build result, optionally reserving it for download.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param reserve - Reserve build result, stopping eviction
+	 * @return Build result path, or null if build hasn't completed
+	 * @throws MissingResourceException - Unknown build reference
+	 */
+	protected String lookupBuildResult(String reference, boolean reserve) throws MissingResourceException {
+		BuildStatus buildStatus = retrieveBuildStatus(reference);
+		String buildResultPath = null;
+		
+		// Read lock excludes eviction, which holds the write lock
+		Lock rlock = buildStatus.getStateReadLock();
+		rlock.lock();
+		try {
+			if (buildStatus.getBuildState() == BuildState.COMPLETED) {
+				if (reserve) {
+					buildStatus.getActiveDownloads().incrementAndGet();
+				}
+				buildResultPath = buildStatus.getBuildResultPath();
+				
+				// Build directory modification time records last use for cache eviction, 
+				// updated under the lock so eviction always sees the latest use.
+				new File(buildResultPath).getParentFile().setLastModified(System.currentTimeMillis());
+			}
+		} finally {
+			rlock.unlock();
+		}
+		
+		return buildResultPath;
+	}
+	
+	/**
+	 * Release build result reserved for download. 
+	 * 
+	 * @param reference - Unique build reference
+	 */
+	public void releaseBuildResult(String reference) {
+		BuildStatus buildStatus = buildStateLookup.get(reference);
+		if (buildStatus != null) {
+			buildStatus.getActiveDownloads().decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Remove build directory from the result cache. Builds queued, in progress 
+	 * or being downloaded are never evicted. Status of an evicted build is reset, 
+	 * so a new request for the same build will build it again. Directories 
+	 * without a build status are renamed away whilst holding the status creation
+	 * lock, so a new build for the reference can't start in the directory, 
+	 * and no status is left behind for an unknown reference.
+	 * 
+	 * @param reference - Unique build reference, the directory name
+	 * @param buildDir - Build directory
+	 * @return Build was evicted
+	 * @throws IOException - Unable to delete build directory
+	 */
+	public boolean evictBuildResult(String reference, File buildDir) throws IOException {
+		return evictBuildResult(reference, buildDir, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Remove build directory from the result cache, unless the build result 
+	 * has been used since the time given, e.g. downloaded after the cache 
+	 * was scanned for eviction.
+	 * 
+	 * @param reference - Unique build reference, the directory name
+	 * @param buildDir - Build directory
+	 * @param lastAccessed - Last use of the build directory seen by the caller
+	 * @return Build was evicted
+	 * @throws IOException - Unable to delete build directory
+	 */
+	public boolean evictBuildResult(String reference, File buildDir, long lastAccessed) throws IOException {
+		BuildStatus buildStatus = buildStateLookup.get(reference);
+		
+		if (buildStatus == null) {
+			File evictedDir = new File(buildDir.getParentFile(), buildDir.getName() + evictedBuildDirSuffix);
+			
+			synchronized (statusCreationLock) {
+				buildStatus = buildStateLookup.get(reference);
+				if (buildStatus == null && !buildDir.renameTo(evictedDir)) {
+					return false;
+				}
+			}
+			
+			if (buildStatus == null) {
+				FileUtils.deleteDirectory(evictedDir);
+				return true;
+			}
+		}
+		
+		Lock wlock = buildStatus.getStateWriteLock();
+		wlock.lock();
+		try {
+			BuildState buildState = buildStatus.getBuildState();
+			if (buildState == BuildState.QUEUED || buildState == BuildState.BUILDING 
+				|| buildStatus.getActiveDownloads().get() > 0 || buildDir.lastModified() > lastAccessed) {
+				return false;
+			}
+			
+			if (buildState == BuildState.COMPLETED) {
+				buildStatus.setBuildState(BuildState.NOT_STARTED);
+				buildStatus.setBuildResultPath(null);
+				
+				BuildStatusIndex index = getBuildStatusIndex();
+				if (index != null) {
+					index.recordRemoved(reference);
+				}
+			}
+			
+			// Build log file is removed with the directory
+			buildStatus.clearBuildLogs();
+			
+			// Delete whilst holding the lock, build can't be restarted until finished
+			FileUtils.deleteDirectory(buildDir);
+		} finally {
+			wlock.unlock();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Start evicting unused entries from the build result cache in the 
+	 * background, keeping the cache within the size and age limits.
+	 * 
+	 * @param maxBytes - Maximum cache size in bytes, zero for no limit
+	 * @param maxAgeMillis - Maximum time since last use, zero for no limit
+	 * @param intervalSeconds - Seconds between eviction passes
+	 */
+	public synchronized void startBuildCacheEviction(long maxBytes, long maxAgeMillis, int intervalSeconds) {
+		stopBuildCacheEviction();
+		
+		buildCacheManager = new BuildCacheManager(new File(buildResultCachePath), maxBytes, maxAgeMillis, this);
+		buildCacheManager.removeEvictedBuildDirs();
+		cacheEvictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "build-cache-eviction");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		cacheEvictionExecutor.scheduleWithFixedDelay(buildCacheManager, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stop background build cache eviction. 
+	 */
+	public synchronized void stopBuildCacheEviction() {
+		if (cacheEvictionExecutor != null) {
+			cacheEvictionExecutor.shutdownNow();
+			cacheEvictionExecutor = null;
+		}
+	}
+	
+	/**
+	 * Get the build cache manager, null when eviction isn't enabled.
+	 * 
+	 * @return Build cache manager
+	 */
+	public synchronized BuildCacheManager getBuildCacheManager() {
+		return buildCacheManager;
+	}
+	
+	/**
+	 * Set whether raw build artifacts are deleted once the build archive 
+	 * has been created. Layer outputs remain in the layer cache. 
+	 * 
+	 * @param deleteBuildArtifacts - Delete artifacts after archiving
+	 */
+	public void setDeleteBuildArtifacts(boolean deleteBuildArtifacts) {
+		this.deleteBuildArtifacts = deleteBuildArtifacts;
+	}
+	
+	/**
+	 * Are raw build artifacts deleted once the build archive has been created?
+	 * 
+	 * @return Delete artifacts after archiving
+	 */
+	public boolean isDeleteBuildArtifacts() {
+		return deleteBuildArtifacts;
+	}
+	
+	/**
+	 * Get the persistent build status index, null if it hasn't been loaded.
+	 * 
+	 * @return Build status index
+	 */
+	protected synchronized BuildStatusIndex getBuildStatusIndex() {
+		return buildStatusIndex;
+	}
+	
+	/**
+	 * Close the persistent build status index, builds completing 
+	 * afterwards are no longer recorded.
+	 */
+	public synchronized void closeBuildStatusIndex() {
+		if (buildStatusIndex != null) {
+			buildStatusIndex.close();
+			buildStatusIndex = null;
+		}
+	}
+	
+	/**
+	 * Wait for the build status to change from the version the client 
+	 * has already seen. Returns immediately if the status has already 
+	 * changed. When too many clients are waiting, returns straight away 
+	 * and the client falls back to polling. 
+	 * 
+	 * @param reference - Unique build reference
+	 * @param knownVersion - Status version the client has seen
+	 * @return Current status version
+	 * @throws MissingResourceException - Unknown build reference
+	 */
+	public long awaitBuildStatusChange(String reference, long knownVersion) throws MissingResourceException {
+		BuildStatus buildStatus = retrieveBuildStatus(reference);
+		
+		if (buildStatus.getVersion() > knownVersion || !statusWaiterSlots.tryAcquire()) {
+			return buildStatus.getVersion();
+		}
+		
+		try {
+			return buildStatus.awaitChange(knownVersion, statusWaitMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return buildStatus.getVersion();
+		} finally {
+			statusWaiterSlots.release();
+		}
+	}
+	
+	/**
+	 * Current status version for a build, incremented on every state 
+	 * or log change.
+	 * 
+	 * @param reference - Unique build reference
+	 * @return Status version
+	 */
+	public long getBuildStatusVersion(String reference) {
+		return retrieveBuildStatus(reference).getVersion();
+	}
+	
+	/**
+	 * Build log lines added after a sequence number. Lines which 
+	 * can't be read back from the build log file are skipped.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param after - Sequence number of the last line seen, zero for all
+	 * @return Build log lines after the cursor
+	 */
+	public List<BuildLog.LogLine> getBuildLogsAfter(String reference, long after) {
+		BuildStatus buildStatus = retrieveBuildStatus(reference);
+		try {
+			return buildStatus.getBuildLogsAfter(after);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(buildLogErrorLogMsg, reference, e.getMessage()));
+			return buildStatus.getBuildLog().getBufferedLinesAfter(after);
+		}
+	}
+	
+	/**
+	 * Have the build logs been cleared, by the build restarting,
+	 * since the client read the line given?
+	 * 
+	 * @param reference - Unique build reference
+	 * @param after - Sequence number of the last line seen
+	 * @return Logs seen by the client are out of date
+	 */
+	public boolean isBuildLogCleared(String reference, long after) {
+		return retrieveBuildStatus(reference).getBuildLog().isCleared(after);
+	}
+	
+	/**
+	 * Set the number of build log lines held in memory for 
+	 * each build, older lines are moved to the build log file.
+	 * 
+	 * @param buildLogLines - Lines held in memory
+	 */
+	public void setBuildLogLines(int buildLogLines) {
+		this.buildLogLines = buildLogLines;
+	}
+	
+	/**
+	 * Send build logs to a listener rather than the build status. Forked 
+	 * build workers have no build statuses, logs are passed to the parent. 
+	 * 
+	 * @param buildLogListener - Build log listener
+	 */
+	public void setBuildLogListener(BuildLogListener buildLogListener) {
+		this.buildLogListener = buildLogListener;
+	}
+	
+	/**
+	 * Set limits for clients waiting on build status changes.
+	 * 
+	 * @param statusWaiters - Maximum concurrent waiting clients
+	 * @param statusWaitMillis - Maximum time each client waits
+	 */
+	public void setStatusWaitLimits(int statusWaiters, long statusWaitMillis) {
+		this.statusWaiterSlots = new Semaphore(statusWaiters);
+		this.statusWaitMillis = statusWaitMillis;
+	}
+	
+	/**
+	 * Create new build status, build log spills into the 
+	 * build result directory.
+	 * 
+	 * @param reference - Unique build reference
+	 * @return New build status
+	 */
+	protected BuildStatus createBuildStatus(String reference) {
+		File buildLogFile = new File(new File(buildResultCachePath, reference), buildLogFileName);
+		return new BuildStatus(new BuildLog(buildLogLines, buildLogFile));
 	}
 	
 	/**
@@ -246,8 +1143,11 @@ public final class BuildStatusManager {
 	 * @return Complete build log for a given build
 	 */
 	public String getCompleteBuildLog(String reference) {
-		BuildStatus buildStatus = retrieveBuildStatus(reference);
-		return buildStatus.getAllBuildLogs();
+		StringBuilder buildLog = new StringBuilder();
+		for (BuildLog.LogLine logLine: getBuildLogsAfter(reference, 0)) {
+			buildLog.append('\n').append(logLine.line);
+		}
+		return buildLog.toString();
 	}
 	
 	/**
@@ -257,8 +1157,44 @@ public final class BuildStatusManager {
 	 * @param buildLog - Log line to add
 	 */
 	public void addNewBuildLog(String reference, String buildLog) {
+		BuildLogListener listener = buildLogListener;
+		if (listener != null) {
+			listener.buildLogAdded(reference, buildLog);
+			return;
+		}
+		
 		BuildStatus buildStatus = retrieveBuildStatus(reference);
-		buildStatus.addBuildLog(buildLog);
+		try {
+			buildStatus.addBuildLog(buildLog);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(buildLogErrorLogMsg, reference, e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Update build system progress and timing events for a build.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param buildEvents - Latest build events
+	 */
+	public void setBuildEvents(String reference, Map<String, Object> buildEvents) {
+		BuildLogListener listener = buildLogListener;
+		if (listener != null) {
+			listener.buildEventsUpdated(reference, buildEvents);
+			return;
+		}
+		
+		retrieveBuildStatus(reference).setBuildEvents(buildEvents);
+	}
+	
+	/**
+	 * Latest build system progress and timing events for a build.
+	 * 
+	 * @param reference - Unique build reference
+	 * @return Build events, null if none reported
+	 */
+	public Map<String, Object> getBuildEvents(String reference) {
+		return retrieveBuildStatus(reference).getBuildEvents();
 	}
 	
 	/**
@@ -296,12 +1232,15 @@ public final class BuildStatusManager {
 	
 	/**
 	 * 
-	 * Set directory path containing cached build results.
+	 * Set directory path containing cached build results. Layer and 
+	 * minified output caches are recreated under the new directory.
 	 * 
 	 * @param buildResultCachePath - Directory path
 	 */
-	public void setBuildResultCachePath(String buildResultCachePath) {
+	public synchronized void setBuildResultCachePath(String buildResultCachePath) {
 		this.buildResultCachePath = buildResultCachePath;
+		this.layerBuildCache = null;
+		this.minifiedOutputCache = null;
 	}
 	
 	/**
@@ -313,6 +1252,45 @@ public final class BuildStatusManager {
 		return this.buildResultCachePath;
 	}
 
+	/**
+	 * Get cache of build output for individual layers, stored 
+	 * within the build result cache directory.
+	 * 
+	 * @return Layer build cache
+	 */
+	public synchronized LayerBuildCache getLayerBuildCache() {
+		if (layerBuildCache == null) {
+			layerBuildCache = new LayerBuildCache(new File(buildResultCachePath, layerCacheDirName));
+		}
+		
+		return layerBuildCache;
+	}
+	
+	/**
+	 * Set size limit for cached minified output, zero disables
+	 * the cache. Must be set before the cache is first used.
+	 * 
+	 * @param maxBytes - Size limit in bytes
+	 */
+	public synchronized void setMinifiedCacheSize(long maxBytes) {
+		this.minifiedCacheMaxBytes = maxBytes;
+	}
+	
+	/**
+	 * Get cache of minified modules and layers, stored within
+	 * the build result cache directory.
+	 * 
+	 * @return Minified output cache, null when disabled or no cache directory is set
+	 */
+	public synchronized MinifiedOutputCache getMinifiedOutputCache() {
+		if (minifiedOutputCache == null && buildResultCachePath != null && minifiedCacheMaxBytes > 0) {
+			minifiedOutputCache = new MinifiedOutputCache(new File(buildResultCachePath, minifiedCacheDirName), 
+				minifiedCacheMaxBytes);
+		}
+		
+		return minifiedOutputCache;
+	}
+	
 	/**
 	 * Set the build module's path directory. 
 	 * 
@@ -322,6 +1300,29 @@ public final class BuildStatusManager {
 		this.buildModulePath= buildModulePath;
 	}
 	
+	/**
+	 * Set the deflate level used when creating build archives. 
+	 * 
+	 * @param archiveCompressionLevel - Compression level, 0-9, or -1 for default
+	 */
+	public void setArchiveCompressionLevel(int archiveCompressionLevel) {
+		if ((archiveCompressionLevel < 0 || archiveCompressionLevel > 9) 
+			&& archiveCompressionLevel != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid archive compression level: " + archiveCompressionLevel);
+		}
+		
+		this.archiveCompressionLevel = archiveCompressionLevel;
+	}
+	
+	/**
+	 * Get the deflate level used when creating build archives. 
+	 * 
+	 * @return Compression level
+	 */
+	public int getArchiveCompressionLevel() {
+		return this.archiveCompressionLevel;
+	}
+	
 	/**
 	 * Get the location to the build module
 	 * 
@@ -0,0 +1,104 @@
+package org.dtk.resources.build.manager;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.dtk.resources.build.BuildRequest;
+import org.dtk.resources.build.BuildRequestProcessor;
+
+/**
+ * Build request waiting in the build worker queue. Queued builds are
+ * ordered by a deadline, the submission time plus a delay for each module
+ * requested, so small builds aren't stuck behind large ones. Large builds
+ * still age towards the front of the queue, a build is never overtaken by
+ * builds submitted more than its delay later. Builds with the same deadline
+ * fall back to submission order.
+ *
+ * @author James Thomas
+ */
+
+public class QueuedBuild implements Runnable, Comparable<QueuedBuild> {
+	/** Queue delay added for each requested module, in milliseconds */
+	protected static final long MODULE_DELAY_MILLIS = 1000;
+
+	/** Build request to process when a worker becomes available */
+	protected final BuildRequest buildRequest;
+
+	/** Submission time plus module delay, earlier deadlines run first */
+	protected final long priority;
+
+	/** Submission order, used to keep FIFO ordering for equal priorities */
+	protected final long sequence;
+
+	/** Handle to build status manager */
+	protected final BuildStatusManager buildStatusManager;
+
+	public QueuedBuild(BuildRequest buildRequest, long sequence, BuildStatusManager buildStatusManager) {
+		this(buildRequest, sequence, System.currentTimeMillis(), buildStatusManager);
+	}
+
+	protected QueuedBuild(BuildRequest buildRequest, long sequence, long submitted, BuildStatusManager buildStatusManager) {
+		this.buildRequest = buildRequest;
+		this.priority = submitted + countLayerModules(buildRequest) * MODULE_DELAY_MILLIS;
+		this.sequence = sequence;
+		this.buildStatusManager = buildStatusManager;
+	}
+
+	/**
+	 * Worker has picked up this build, free the queue slot,
+	 * move into the building state and run the build process.
+	 */
+	@Override
+	public void run() {
+		buildStatusManager.dequeueBuild(this);
+		new BuildRequestProcessor(buildRequest).run();
+	}
+
+	/**
+	 * Order builds by priority, earliest deadline first, and then by
+	 * submission order. Deadlines are fixed when the build is queued,
+	 * so the ordering stays consistent whilst builds wait.
+	 */
+	@Override
+	public int compareTo(QueuedBuild other) {
+		if (priority != other.priority) {
+			return priority < other.priority ? -1 : 1;
+		}
+
+		if (sequence != other.sequence) {
+			return sequence < other.sequence ? -1 : 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Unique build reference for the queued request.
+	 *
+	 * @return Build reference
+	 */
+	public String getBuildReference() {
+		return buildRequest.getBuildReference();
+	}
+
+	/**
+	 * Sum the number of modules referenced in every build layer.
+	 *
+	 * @param buildRequest - Build request
+	 * @return Total module count
+	 */
+	protected static int countLayerModules(BuildRequest buildRequest) {
+		int modules = 0;
+
+		Iterator<Map<String, Object>> layerIter = buildRequest.getLayers().iterator();
+		while(layerIter.hasNext()) {
+			List<?> layerModules = (List<?>) layerIter.next().get("modules");
+			if (layerModules != null) {
+				modules += layerModules.size();
+			}
+		}
+
+		return modules;
+	}
+}
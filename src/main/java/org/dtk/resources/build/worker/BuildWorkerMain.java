@@ -0,0 +1,221 @@
+package org.dtk.resources.build.worker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dtk.resources.build.BuildContextFactory;
+import org.dtk.resources.build.BuildEnginePool;
+import org.dtk.resources.build.ProfileBuilder;
+import org.dtk.resources.build.manager.BuildLogListener;
+import org.dtk.resources.build.manager.BuildStatusManager;
+import org.dtk.util.JsonUtil;
+
+/**
+ * Entry point for a forked build worker JVM. Build jobs are read from 
+ * standard input, one JSON object per line, and executed in turn using 
+ * a local build engine. Results and periodic heartbeats are written back
+ * to standard output in the same format, along with build logs for the
+ * parent's build status. Anything the build system prints is sent to 
+ * standard error so it can't corrupt the protocol stream.
+ * 
+ * Arguments: AMD loader path, build package path, Rhino optimisation level
+ * and heartbeat interval in milliseconds. 
+ * 
+ * @author James Thomas
+ */
+
+public class BuildWorkerMain implements BuildLogListener {
+	/** Message type property */
+	public static final String TYPE = "type";
+	
+	/** Heartbeat message, sent periodically while worker is alive */
+	public static final String TYPE_HEARTBEAT = "heartbeat";
+	
+	/** Build job message, sent to the worker */
+	public static final String TYPE_BUILD = "build";
+	
+	/** Build result message, returned by the worker */
+	public static final String TYPE_RESULT = "result";
+	
+	/** Build log message, sent whilst building */
+	public static final String TYPE_LOG = "log";
+	
+	/** Build events message, sent whilst building */
+	public static final String TYPE_EVENTS = "events";
+	
+	/** Build job properties */
+	public static final String PROFILE_FILE = "profileFile";
+	public static final String RESULT_DIR = "resultDir";
+	public static final String BASE_URL = "baseUrl";
+	public static final String BUILD_PACKAGE_PATH = "buildPackagePath";
+	public static final String BUILD_REFERENCE = "buildReference";
+	
+	/** Build result properties */
+	public static final String SUCCESS = "success";
+	public static final String ERROR = "error";
+	public static final String LOG = "log";
+	public static final String EVENTS = "events";
+	
+	/** Stream used for protocol messages, original standard output */
+	protected final PrintStream protocolOut;
+	
+	/** Build engines for this worker */
+	protected final BuildEnginePool buildEnginePool;
+	
+	public BuildWorkerMain(PrintStream protocolOut, BuildEnginePool buildEnginePool) {
+		this.protocolOut = protocolOut;
+		this.buildEnginePool = buildEnginePool;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: BuildWorkerMain loaderPath buildPackagePath optimizationLevel heartbeatMillis");
+			System.exit(1);
+		}
+		
+		// Protocol owns standard out, build system logging goes to standard error. 
+		PrintStream protocolOut = System.out;
+		System.setOut(System.err);
+		
+		BuildEnginePool buildEnginePool = new BuildEnginePool(args[0], args[1], 
+			new BuildContextFactory(Integer.parseInt(args[2])), 1);
+		buildEnginePool.prestartEngines(1);
+		
+		BuildWorkerMain worker = new BuildWorkerMain(protocolOut, buildEnginePool);
+		BuildStatusManager.getInstance().setBuildLogListener(worker);
+		worker.startHeartbeat(Long.parseLong(args[3]));
+		worker.processBuildJobs(new BufferedReader(new InputStreamReader(System.in, "UTF-8")));
+	}
+	
+	/**
+	 * Read and execute build jobs until the parent closes our 
+	 * standard input.
+	 * 
+	 * @param jobs - Build jobs stream
+	 * @throws IOException - Unable to read build jobs
+	 */
+	protected void processBuildJobs(BufferedReader jobs) throws IOException {
+		String job = jobs.readLine();
+		
+		while (job != null) {
+			Map<String, Object> buildJob = JsonUtil.genericJSONMapper(job);
+			
+			if (TYPE_BUILD.equals(buildJob.get(TYPE))) {
+				sendMessage(executeBuild(buildJob));
+			}
+			
+			job = jobs.readLine();
+		}
+	}
+	
+	/**
+	 * Run the build system for a single build job.
+	 * 
+	 * @param buildJob - Build job details
+	 * @return Build result message
+	 */
+	protected Map<String, Object> executeBuild(Map<String, Object> buildJob) {
+		ProfileBuilder profileBuilder = new ProfileBuilder((String) buildJob.get(PROFILE_FILE), 
+			(String) buildJob.get(RESULT_DIR), buildEnginePool, (String) buildJob.get(BASE_URL), 
+			(String) buildJob.get(BUILD_PACKAGE_PATH), (String) buildJob.get(BUILD_REFERENCE));
+		
+		Map<String, Object> result = new HashMap<String, Object>();
+		result.put(TYPE, TYPE_RESULT);
+		result.put(BUILD_REFERENCE, buildJob.get(BUILD_REFERENCE));
+		
+		boolean success = profileBuilder.executeBuild();
+		result.put(SUCCESS, success);
+		
+		if (!success) {
+			Exception buildError = profileBuilder.getBuildError();
+			result.put(ERROR, buildError.getMessage() != null ? buildError.getMessage() : buildError.toString());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Start background thread sending heartbeat messages, letting the 
+	 * parent know this JVM is still running. Heartbeats continue while
+	 * the build thread is busy, the parent limits total build time to
+	 * catch builds that never finish. 
+	 * 
+	 * @param heartbeatMillis - Interval between heartbeats
+	 */
+	protected void startHeartbeat(final long heartbeatMillis) {
+		final Map<String, Object> heartbeat = new HashMap<String, Object>();
+		heartbeat.put(TYPE, TYPE_HEARTBEAT);
+		
+		Thread heartbeatThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						sendMessage(heartbeat);
+						Thread.sleep(heartbeatMillis);
+					}
+				} catch (InterruptedException e) {
+					// Worker is shutting down
+				}
+			}
+		}, "build-worker-heartbeat");
+		
+		heartbeatThread.setDaemon(true);
+		heartbeatThread.start();
+	}
+	
+	/**
+	 * Pass build logs to the parent, which holds the build status.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param buildLog - Log text
+	 */
+	@Override
+	public void buildLogAdded(String reference, String buildLog) {
+		Map<String, Object> log = new HashMap<String, Object>();
+		log.put(TYPE, TYPE_LOG);
+		log.put(BUILD_REFERENCE, reference);
+		log.put(LOG, buildLog);
+		
+		sendMessage(log);
+	}
+	
+	/**
+	 * Pass build events to the parent, which holds the build status.
+	 * 
+	 * @param reference - Unique build reference
+	 * @param buildEvents - Build events
+	 */
+	@Override
+	public void buildEventsUpdated(String reference, Map<String, Object> buildEvents) {
+		Map<String, Object> events = new HashMap<String, Object>();
+		events.put(TYPE, TYPE_EVENTS);
+		events.put(BUILD_REFERENCE, reference);
+		events.put(EVENTS, buildEvents);
+		
+		sendMessage(events);
+	}
+	
+	/**
+	 * Write message to the parent as a single JSON line.
+	 * 
+	 * @param message - Protocol message
+	 */
+	protected void sendMessage(Map<String, Object> message) {
+		String messageJson;
+		try {
+			messageJson = JsonUtil.writeJavaToJson(message);
+		} catch (IOException e) {
+			messageJson = "{\"" + TYPE + "\":\"" + TYPE_RESULT + "\",\"" + SUCCESS + "\":false}";
+		}
+		
+		synchronized (protocolOut) {
+			protocolOut.println(messageJson);
+			protocolOut.flush();
+		}
+	}
+}
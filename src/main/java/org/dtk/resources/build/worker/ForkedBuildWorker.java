@@ -0,0 +1,281 @@
+package org.dtk.resources.build.worker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dtk.resources.Build;
+import org.dtk.resources.build.manager.BuildStatusManager;
+import org.dtk.resources.exceptions.MissingResourceException;
+import org.dtk.util.JsonUtil;
+
+/**
+ * Handle to a long-lived child JVM running builds. Build jobs are written
+ * to the child's standard input and results read back from its standard
+ * output by a background thread. The child must send heartbeats while a 
+ * build is running, a worker that misses heartbeats is presumed hung and 
+ * is destroyed. Heartbeats come from a separate thread in the child, so 
+ * they only show the JVM is alive, not that the build is progressing. 
+ * Builds running longer than the build time limit are destroyed as well,
+ * catching build scripts stuck in an endless loop.
+ * 
+ * @author James Thomas
+ */
+
+public class ForkedBuildWorker {
+	/** Child JVM process */
+	protected final Process process;
+	
+	/** Writer for build jobs sent to the child */
+	protected final BufferedWriter buildJobs;
+	
+	/** Messages received from the child, in order */
+	protected final BlockingQueue<Map<String, Object>> messages = new LinkedBlockingQueue<Map<String, Object>>();
+	
+	/** Maximum time to wait for any message from the child */
+	protected final long heartbeatTimeoutMillis;
+	
+	/** Maximum time allowed for a single build */
+	protected final long buildTimeoutMillis;
+	
+	/** Builds completed by this worker */
+	protected int completedBuilds = 0;
+	
+	/** Has the child exited or been destroyed? */
+	protected volatile boolean exited = false;
+	
+	/** Marker message queued when the child's output stream closes */
+	protected static final Map<String, Object> EXITED = new HashMap<String, Object>();
+	
+	/** Logging class for build worker errors, use global builder log */
+	protected static Logger logger = Logger.getLogger(Build.class.getName());
+	
+	/** Error text when the child stops sending heartbeats */
+	protected static final String unresponsiveWorkerErrorText = "Build worker stopped responding, killed after %1$d ms.";
+	
+	/** Error text when the build runs past the time limit */
+	protected static final String buildTimeoutErrorText = "Build didn't complete within %1$d ms, build worker killed.";
+	
+	/** Error text when the child exits during a build */
+	protected static final String exitedWorkerErrorText = "Build worker exited before completing build.";
+	
+	/**
+	 * Start new child JVM.
+	 * 
+	 * @param workerCommand - Command line for the child JVM
+	 * @param heartbeatTimeoutMillis - Time allowed between messages
+	 * @param buildTimeoutMillis - Time allowed for each build
+	 * @throws IOException - Unable to start child process
+	 */
+	public ForkedBuildWorker(List<String> workerCommand, long heartbeatTimeoutMillis, long buildTimeoutMillis) 
+		throws IOException {
+		this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+		this.buildTimeoutMillis = buildTimeoutMillis;
+		this.process = new ProcessBuilder(workerCommand).start();
+		this.buildJobs = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+		
+		startMessageReader(process.getInputStream());
+		startLogReader(process.getErrorStream());
+	}
+	
+	/**
+	 * Send build job to the child and wait for the result, destroying
+	 * the child if it stops sending heartbeats, exits or the build runs
+	 * past the time limit. 
+	 * 
+	 * @param buildJob - Build job details
+	 * @return Build result message
+	 * @throws IOException - Worker failed, no build result available
+	 */
+	public Map<String, Object> executeBuild(Map<String, Object> buildJob) throws IOException {
+		// Discard heartbeats received while we were idle
+		messages.clear();
+		if (exited) {
+			throw new IOException(exitedWorkerErrorText);
+		}
+		
+		buildJobs.write(JsonUtil.writeJavaToJson(buildJob));
+		buildJobs.newLine();
+		buildJobs.flush();
+		
+		long buildDeadline = System.currentTimeMillis() + buildTimeoutMillis;
+		
+		try {
+			while (true) {
+				long remainingMillis = buildDeadline - System.currentTimeMillis();
+				if (remainingMillis <= 0) {
+					destroy();
+					throw new IOException(String.format(buildTimeoutErrorText, buildTimeoutMillis));
+				}
+				
+				Map<String, Object> message = messages.poll(Math.min(heartbeatTimeoutMillis, remainingMillis), 
+					TimeUnit.MILLISECONDS);
+				
+				if (message == null && System.currentTimeMillis() >= buildDeadline) {
+					destroy();
+					throw new IOException(String.format(buildTimeoutErrorText, buildTimeoutMillis));
+				} else if (message == null) {
+					destroy();
+					throw new IOException(String.format(unresponsiveWorkerErrorText, heartbeatTimeoutMillis));
+				} else if (message == EXITED) {
+					destroy();
+					throw new IOException(exitedWorkerErrorText);
+				} else if (BuildWorkerMain.TYPE_RESULT.equals(message.get(BuildWorkerMain.TYPE))) {
+					completedBuilds++;
+					return message;
+				}
+			}
+		} catch (InterruptedException e) {
+			destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException(exitedWorkerErrorText);
+		}
+	}
+	
+	/**
+	 * Number of builds completed by this worker
+	 * 
+	 * @return Completed builds
+	 */
+	public int getCompletedBuilds() {
+		return completedBuilds;
+	}
+	
+	/**
+	 * Is the child still available for builds?
+	 * 
+	 * @return Child is running
+	 */
+	public boolean isAlive() {
+		return !exited;
+	}
+	
+	/**
+	 * Kill the child JVM.
+	 */
+	public void destroy() {
+		exited = true;
+		process.destroy();
+	}
+	
+	/**
+	 * Stop the child JVM gracefully, closing standard input 
+	 * causes it to exit after the current build.
+	 */
+	public void shutdown() {
+		exited = true;
+		try {
+			buildJobs.close();
+		} catch (IOException e) {
+			process.destroy();
+		}
+	}
+	
+	/**
+	 * Start background thread reading protocol messages from the 
+	 * child's standard output.
+	 * 
+	 * @param childOut - Child standard output
+	 */
+	protected void startMessageReader(final InputStream childOut) {
+		startDaemon(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(childOut, "UTF-8"));
+					String line = reader.readLine();
+					while (line != null) {
+						try {
+							Map<String, Object> message = JsonUtil.genericJSONMapper(line);
+							
+							// Build logs and events go straight to the build status
+							Object type = message.get(BuildWorkerMain.TYPE);
+							if (BuildWorkerMain.TYPE_LOG.equals(type) || BuildWorkerMain.TYPE_EVENTS.equals(type)) {
+								updateBuildStatus(message);
+							} else {
+								messages.add(message);
+							}
+						} catch (IOException e) {
+							logger.log(Level.WARNING, "Invalid build worker message: " + line);
+						}
+						line = reader.readLine();
+					}
+				} catch (IOException e) {
+					// Stream closed, child has gone.
+				} finally {
+					exited = true;
+					messages.add(EXITED);
+				}
+			}
+		}, "build-worker-messages");
+	}
+	
+	/**
+	 * Add build log or events from the child to the build status.
+	 * 
+	 * @param message - Build log or events message
+	 */
+	@SuppressWarnings("unchecked")
+	protected void updateBuildStatus(Map<String, Object> message) {
+		BuildStatusManager buildStatusManager = BuildStatusManager.getInstance();
+		String reference = (String) message.get(BuildWorkerMain.BUILD_REFERENCE);
+		
+		try {
+			if (BuildWorkerMain.TYPE_LOG.equals(message.get(BuildWorkerMain.TYPE))) {
+				buildStatusManager.addNewBuildLog(reference, (String) message.get(BuildWorkerMain.LOG));
+			} else {
+				buildStatusManager.setBuildEvents(reference, (Map<String, Object>) message.get(BuildWorkerMain.EVENTS));
+			}
+		} catch (MissingResourceException e) {
+			logger.log(Level.WARNING, "Build status update for unknown build: " + reference);
+		}
+	}
+	
+	/**
+	 * Start background thread draining build system output from 
+	 * the child's standard error, stops the child blocking on a 
+	 * full pipe.
+	 * 
+	 * @param childErr - Child standard error
+	 */
+	protected void startLogReader(final InputStream childErr) {
+		startDaemon(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(childErr, "UTF-8"));
+					String line = reader.readLine();
+					while (line != null) {
+						logger.log(Level.FINE, line);
+						line = reader.readLine();
+					}
+				} catch (IOException e) {
+					// Stream closed, child has gone.
+				}
+			}
+		}, "build-worker-logs");
+	}
+	
+	/**
+	 * Start a daemon thread.
+	 * 
+	 * @param runnable - Thread body
+	 * @param name - Thread name
+	 */
+	protected void startDaemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
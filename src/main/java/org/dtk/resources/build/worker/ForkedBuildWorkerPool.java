@@ -0,0 +1,265 @@
+package org.dtk.resources.build.worker;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Pool of forked build worker JVMs. Builds are sent to an idle worker,
+ * starting a new worker when none are available. Workers are recycled 
+ * once they've run the configured number of builds, and replaced when 
+ * they fail, so memory pressure from the build system never reaches the
+ * web application's heap.
+ * 
+ * @author James Thomas
+ */
+
+public class ForkedBuildWorkerPool {
+	/** Idle workers, ready for a build */
+	protected final BlockingQueue<ForkedBuildWorker> idleWorkers;
+	
+	/** All running workers, idle or busy */
+	protected final Set<ForkedBuildWorker> workers 
+		= Collections.synchronizedSet(new HashSet<ForkedBuildWorker>());
+	
+	/** Command line used to start a worker JVM */
+	protected final List<String> workerCommand;
+	
+	/** Builds run by a worker before it's replaced */
+	protected final int maxBuildsPerWorker;
+	
+	/** Time allowed between worker messages before it's killed */
+	protected final long heartbeatTimeoutMillis;
+	
+	/** Time allowed for a build before the worker is killed */
+	protected final long buildTimeoutMillis;
+	
+	/** Main class for worker JVMs */
+	protected static final String workerMainClass = BuildWorkerMain.class.getName();
+	
+	/** Web application directory holding classes and libraries */
+	protected static final String webInfDirectory = "WEB-INF";
+	
+	/** Web application library directory, under WEB-INF */
+	protected static final String webInfLibDirectory = "lib";
+	
+	/**
+	 * Create new empty pool.
+	 * 
+	 * @param workerCommand - Command line used to start a worker JVM
+	 * @param maxIdleWorkers - Maximum workers kept between builds
+	 * @param maxBuildsPerWorker - Builds run by a worker before it's replaced
+	 * @param heartbeatTimeoutMillis - Time allowed between worker messages
+	 * @param buildTimeoutMillis - Time allowed for each build
+	 */
+	public ForkedBuildWorkerPool(List<String> workerCommand, int maxIdleWorkers, int maxBuildsPerWorker, 
+		long heartbeatTimeoutMillis, long buildTimeoutMillis) {
+		this.workerCommand = workerCommand;
+		this.idleWorkers = new LinkedBlockingQueue<ForkedBuildWorker>(maxIdleWorkers);
+		this.maxBuildsPerWorker = maxBuildsPerWorker;
+		this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+		this.buildTimeoutMillis = buildTimeoutMillis;
+	}
+	
+	/**
+	 * Run build job on an idle worker, returning the worker to the 
+	 * pool afterwards unless it has failed or run too many builds.
+	 * 
+	 * @param buildJob - Build job details
+	 * @return Build result message
+	 * @throws IOException - Worker failed, no build result available
+	 */
+	public Map<String, Object> executeBuild(Map<String, Object> buildJob) throws IOException {
+		ForkedBuildWorker worker = borrowWorker();
+		
+		try {
+			return worker.executeBuild(buildJob);
+		} finally {
+			returnWorker(worker);
+		}
+	}
+	
+	/**
+	 * Take an idle worker from the pool, starting a new worker 
+	 * when none are available.
+	 * 
+	 * @return Build worker
+	 * @throws IOException - Unable to start worker
+	 */
+	protected ForkedBuildWorker borrowWorker() throws IOException {
+		ForkedBuildWorker worker = idleWorkers.poll();
+		
+		while (worker != null && !worker.isAlive()) {
+			workers.remove(worker);
+			worker = idleWorkers.poll();
+		}
+		
+		if (worker == null) {
+			worker = new ForkedBuildWorker(workerCommand, heartbeatTimeoutMillis, buildTimeoutMillis);
+			workers.add(worker);
+		}
+		
+		return worker;
+	}
+	
+	/**
+	 * Return worker to the pool, shutting down workers that have 
+	 * failed or reached their build limit.
+	 * 
+	 * @param worker - Worker previously borrowed
+	 */
+	protected void returnWorker(ForkedBuildWorker worker) {
+		if (worker.isAlive() && worker.getCompletedBuilds() < maxBuildsPerWorker 
+			&& idleWorkers.offer(worker)) {
+			return;
+		}
+		
+		workers.remove(worker);
+		worker.shutdown();
+	}
+	
+	/**
+	 * Stop all worker JVMs, killing any running builds.
+	 */
+	public void shutdown() {
+		idleWorkers.clear();
+		
+		synchronized (workers) {
+			for (ForkedBuildWorker worker: workers) {
+				worker.destroy();
+			}
+			workers.clear();
+		}
+	}
+	
+	/**
+	 * Generate command line to start a worker JVM with the current
+	 * Java runtime.
+	 * 
+	 * @param classpath - Worker class path 
+	 * @param maxHeap - Worker maximum heap size, e.g. 512m, null for JVM default
+	 * @param loaderPath - AMD loader script path
+	 * @param buildModulePath - AMD build package location
+	 * @param optimizationLevel - Rhino optimisation level
+	 * @param heartbeatMillis - Interval between worker heartbeats
+	 * @return Worker command line
+	 */
+	public static List<String> createWorkerCommand(String classpath, String maxHeap, String loaderPath, 
+		String buildModulePath, int optimizationLevel, long heartbeatMillis) {
+		List<String> command = new ArrayList<String>();
+		
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		if (maxHeap != null) {
+			command.add("-Xmx" + maxHeap);
+		}
+		command.add("-cp");
+		command.add(classpath);
+		command.add(workerMainClass);
+		command.add(loaderPath);
+		command.add(buildModulePath);
+		command.add(Integer.toString(optimizationLevel));
+		command.add(Long.toString(heartbeatMillis));
+		
+		return command;
+	}
+	
+	/**
+	 * Default worker class path. Within a web application this is 
+	 * WEB-INF/classes and every library in WEB-INF/lib, so the worker 
+	 * has all the classes the build system touches. Otherwise, e.g. when 
+	 * testing, the locations of the build worker's class loaders and 
+	 * the current JVM's class path are used. 
+	 * 
+	 * @return Worker class path
+	 */
+	public static String defaultWorkerClasspath() {
+		Set<String> classpathEntries = new LinkedHashSet<String>();
+		File workerClasses = getCodeSourceLocation(BuildWorkerMain.class);
+		
+		if (workerClasses != null) {
+			classpathEntries.add(workerClasses.getAbsolutePath());
+			
+			File webInf = workerClasses.getParentFile();
+			if (workerClasses.isDirectory() && webInf != null && webInfDirectory.equals(webInf.getName())) {
+				File[] libraries = new File(webInf, webInfLibDirectory).listFiles(new FilenameFilter() {
+					@Override
+					public boolean accept(File dir, String name) {
+						return name.endsWith(".jar");
+					}
+				});
+				
+				if (libraries != null) {
+					Arrays.sort(libraries);
+					for (File library: libraries) {
+						classpathEntries.add(library.getAbsolutePath());
+					}
+				}
+				
+				return StringUtils.join(classpathEntries, File.pathSeparator);
+			}
+		}
+		
+		for (ClassLoader loader = BuildWorkerMain.class.getClassLoader(); loader != null; loader = loader.getParent()) {
+			if (loader instanceof URLClassLoader) {
+				for (URL url: ((URLClassLoader) loader).getURLs()) {
+					File location = toFile(url);
+					if (location != null) {
+						classpathEntries.add(location.getAbsolutePath());
+					}
+				}
+			}
+		}
+		
+		for (String entry: StringUtils.split(System.getProperty("java.class.path", ""), File.pathSeparator)) {
+			classpathEntries.add(new File(entry).getAbsolutePath());
+		}
+		
+		return StringUtils.join(classpathEntries, File.pathSeparator);
+	}
+	
+	/**
+	 * Location a class was loaded from.
+	 * 
+	 * @param loadedClass - Class to find
+	 * @return Class directory or archive, null if not loaded from a file
+	 */
+	protected static File getCodeSourceLocation(Class<?> loadedClass) {
+		CodeSource codeSource = loadedClass.getProtectionDomain().getCodeSource();
+		return codeSource != null ? toFile(codeSource.getLocation()) : null;
+	}
+	
+	/**
+	 * Convert class path URL to a file.
+	 * 
+	 * @param url - Class path URL
+	 * @return File location, null for non-file URLs
+	 */
+	protected static File toFile(URL url) {
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			// Unescaped characters in the URL, use the path as given.
+			return new File(url.getPath());
+		}
+	}
+}
\ No newline at end of file
@@ -17,6 +17,8 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.dtk.exception.ParseException;
 import org.dtk.resources.dependencies.DojoScriptVersions.Versions;
+import org.dtk.util.HttpResponseCache;
+import org.dtk.util.HttpResponseCache.CachedResponse;
 
 /**
  * Discover the Dojo version for a given JavaScript source file. 
@@ -131,7 +133,8 @@ public class DojoScript {
 	}
 	
 	/**
-	 * Return scripts contents from URI path.
+	 * Return scripts contents from URI path, through the 
+	 * shared response cache.
 	 * 
 	 * @return Script contents 
 	 * @throws ParseException - Failed to retrieve contents.
@@ -144,11 +147,10 @@ public class DojoScript {
 		byte[] scriptSource = new byte[0];			
 
 		try {
-			HttpGet httpget = new HttpGet(scriptLocation);
-			HttpResponse response = client.execute(httpget);
+			CachedResponse response = HttpResponseCache.getInstance().retrieve(client, scriptLocation.toString());
 			// Ignore anything other than a 200 OK response
-			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				scriptSource = EntityUtils.toByteArray(response.getEntity());
+			if (response != null) {
+				scriptSource = response.getContent();
 			}
 		} catch (ClientProtocolException e) {
 			throw new ParseException(e);
@@ -1,11 +1,11 @@
 package org.dtk.resources.dependencies;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.dtk.analysis.script.ScriptParserErrorReporter;
 import org.mozilla.javascript.CompilerEnvirons;
@@ -37,7 +37,9 @@ public class ScriptParser {
 	// or djConfig. 
 	Map<String, String> modulePaths = new HashMap<String, String>();
 	
-	Set<Node> parsedNodes = new HashSet<Node>();
+	// Marker placed on the traversal stack above a node, once popped
+	// that node's children have been parsed.
+	static final Object CHILDREN_PARSED = new Object();
 	
 	public ScriptParser(String scriptSource) {
 		this.scriptSource = scriptSource;
@@ -56,38 +58,53 @@ public class ScriptParser {
 		Parser p = new Parser(ce, errorReporter); 
 		ScriptOrFnNode ast = p.parse(this.scriptSource, "script", 0);
 		
-		recursiveParse(ast);
+		searchAstForNodes(ast);
 		
 		this.scriptParsed = true;
 	}
 	
-	protected void recursiveParse(Node node) {
-		// Ignore null nodes or those we have seen before!
-		if (node == null || parsedNodes.contains(node)) {
-			return;
+	// Depth-first walk of the AST using an explicit stack, children are
+	// parsed before their parent node, then move along to the next sibling.
+	protected void searchAstForNodes(Node root) {
+		Deque<Object> pending = new ArrayDeque<Object>();
+		
+		if (root != null) {
+			pending.push(root);
 		}
 		
-		// Script level nodes have global list of function definitions. 
-		// Parse inner tokens for function definitions here.
-		if (node instanceof ScriptOrFnNode) {
-			ScriptOrFnNode sofn = (ScriptOrFnNode) node;
-			int count = sofn.getFunctionCount() - 1;
-			while (count > -1) {
-				FunctionNode fn = sofn.getFunctionNode(count);
-				recursiveParse(fn);
-				count--;
+		while (!pending.isEmpty()) {
+			Object top = pending.pop();
+			
+			// Children parsed, parse this node. Next sibling is below on the stack.
+			if (top == CHILDREN_PARSED) {
+				parseNode((Node) pending.pop());
+				continue;
+			}
+			
+			Node node = (Node) top;
+			
+			if (node.getNext() != null) {
+				pending.push(node.getNext());
+			}
+			
+			pending.push(node);
+			pending.push(CHILDREN_PARSED);
+			
+			// Parse children from left to right.
+			if (node.getFirstChild() != null) {
+				pending.push(node.getFirstChild());
+			}
+			
+			// Script level nodes have global list of function definitions. 
+			// Parse inner tokens for function definitions first, last one popped first.
+			if (node instanceof ScriptOrFnNode) {
+				ScriptOrFnNode sofn = (ScriptOrFnNode) node;
+				for (int index = 0; index < sofn.getFunctionCount(); index++) {
+					FunctionNode fn = sofn.getFunctionNode(index);
+					pending.push(fn);
+				}
 			}
 		}
-		
-		// Parse children from left to right.
-		recursiveParse(node.getFirstChild());
-		recursiveParse(node.getLastChild());
-		
-		// Parse this node and then move along to next
-		parseNode(node);
-		parsedNodes.add(node);
-		
-		recursiveParse(node.getNext());		
 	}
 	
 	protected void parseNode(Node node) {
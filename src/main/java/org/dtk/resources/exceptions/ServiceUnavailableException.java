@@ -0,0 +1,24 @@
+package org.dtk.resources.exceptions;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.HttpStatus;
+
+/**
+ * Custom exception used to indicate that the server is
+ * temporarily unable to accept the request, e.g. the build
+ * queue is full. Client is told when to try again using the
+ * Retry-After header.
+ *
+ * @author James Thomas
+ */
+
+public class ServiceUnavailableException extends WebApplicationException {
+
+	public ServiceUnavailableException(String message, int retryAfterSeconds) {
+		// Wrap message within JSON error object
+		super(Response.status(HttpStatus.SC_SERVICE_UNAVAILABLE).header("Retry-After", retryAfterSeconds)
+			.entity("{\"error\":\""+message+"\"}").build());
+    }
+}
@@ -0,0 +1,579 @@
+package org.dtk.resources.packages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.analysis.script.dependency.AMDScriptParser;
+import org.mozilla.javascript.EvaluatorException;
+
+/**
+ * Dependency graph for the AMD modules in a package version, holding each
+ * module's direct dependencies, plugin dependencies and the has() feature
+ * flags its dependencies are conditional on. The graph is built once by
+ * parsing every module in the package location and persisted in a compact
+ * binary form, module identifiers stored once in a string table and
+ * dependencies as indexes into it. Transitive dependencies for a layer are
+ * then found by walking the graph, without parsing any module source.
+ *
+ * Relative dependencies are resolved against the module identifier. Plugin
+ * dependencies add the plugin module as a direct dependency and record the
+ * full plugin resource, e.g. "dojo/text!./templates/Button.html". Modules
+ * loaded conditionally through the has plugin, e.g. "dojo/has!flag?./a:./b",
+ * are all included as direct dependencies, along with the feature flags.
+ *
+ * @author James Thomas
+ */
+
+public class PackageModuleIndex {
+	/** Index file header, "DWBI" */
+	protected static final int INDEX_MAGIC = 0x44574249;
+
+	/** Index file format version */
+	protected static final int INDEX_FORMAT_VERSION = 1;
+
+	/** Plugin separating the plugin module and resource */
+	protected static final String PLUGIN_SEPARATOR = "!";
+
+	/** Plugin module whose resources are conditional on feature flags */
+	protected static final String HAS_PLUGIN = "dojo/has";
+
+	/** Feature flag or module in a has plugin resource, followed by its delimiter */
+	protected static final Pattern HAS_TERM_PATTERN = Pattern.compile("([^?:]*)([?:]|$)");
+
+	/** Special dependencies provided by the loader, not modules */
+	protected static final List<String> LOADER_DEPENDENCIES = Arrays.asList("require", "exports", "module");
+
+	/** Encoding of module sources */
+	protected static final String SOURCE_ENCODING = "UTF-8";
+
+	/** Module source file extension */
+	protected static final String MODULE_SUFFIX = ".js";
+
+	/** Directories, anywhere in the package, holding tests rather than modules */
+	protected static final List<String> EXCLUDED_DIRECTORIES = Arrays.asList("tests");
+
+	/** Directories in the package location holding build tools rather than modules */
+	protected static final List<String> EXCLUDED_ROOT_DIRECTORIES = Arrays.asList("util");
+
+	/** Module parse failure log message */
+	protected static final String moduleParseErrorLogMsg = "Unable to parse module, %1$s, leaving it out of the index: %2$s";
+
+	/** Logging class instance */
+	protected static final Logger logger = Logger.getLogger(PackageModuleIndex.class.getName());
+
+	/** Module identifiers and other strings referenced by the graph */
+	protected final String[] strings;
+
+	/** String table positions for each string */
+	protected final Map<String, Integer> stringIndexes;
+
+	/** Direct dependencies for each module, by string index, null when not a module in this package */
+	protected final int[][] dependencies;
+
+	/** Plugin resources each module depends on, by string index */
+	protected final int[][] pluginDependencies;
+
+	/** Feature flags each module's dependencies are conditional on, by string index */
+	protected final int[][] hasFlags;
+
+	/**
+	 * Module dependencies found while building the index.
+	 */
+	protected static class ModuleEntry {
+		final Set<String> dependencies = new LinkedHashSet<String>();
+		final Set<String> pluginDependencies = new LinkedHashSet<String>();
+		final Set<String> hasFlags = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Create index from graph arrays, indexed by string table position.
+	 *
+	 * @param strings - String table
+	 * @param dependencies - Direct dependencies
+	 * @param pluginDependencies - Plugin resources
+	 * @param hasFlags - Feature flags
+	 */
+	protected PackageModuleIndex(String[] strings, int[][] dependencies, int[][] pluginDependencies, int[][] hasFlags) {
+		this.strings = strings;
+		this.dependencies = dependencies;
+		this.pluginDependencies = pluginDependencies;
+		this.hasFlags = hasFlags;
+
+		stringIndexes = new HashMap<String, Integer>(strings.length * 2);
+		for (int i = 0; i < strings.length; i++) {
+			stringIndexes.put(strings[i], i);
+		}
+	}
+
+	/**
+	 * Build the index by parsing all JavaScript modules under the
+	 * package location. Module identifiers are file paths relative to
+	 * the location, without the file extension. Build tools and test
+	 * directories aren't modules, so are skipped. Modules which can't 
+	 * be parsed are logged and left out of the index.
+	 *
+	 * @param location - Package location
+	 * @return Package module index
+	 * @throws IOException - Unable to read module sources
+	 */
+	public static PackageModuleIndex build(File location) throws IOException {
+		Map<String, ModuleEntry> modules = new TreeMap<String, ModuleEntry>();
+		List<File> moduleFiles = new ArrayList<File>();
+		String locationPath = location.getAbsolutePath();
+
+		findModuleFiles(location, true, moduleFiles);
+		for (File moduleFile: moduleFiles) {
+			String relativePath = moduleFile.getAbsolutePath().substring(locationPath.length() + 1).replace(File.separatorChar, '/'),
+				moduleId = relativePath.substring(0, relativePath.length() - MODULE_SUFFIX.length());
+
+			String source = FileUtils.readFileToString(moduleFile, SOURCE_ENCODING);
+			try {
+				modules.put(moduleId, createModuleEntry(moduleId, new AMDScriptParser(source).getModuleDependencies()));
+			} catch (EvaluatorException e) {
+				logger.log(Level.WARNING, String.format(moduleParseErrorLogMsg, moduleId, e.getMessage()));
+			}
+		}
+
+		return fromModuleEntries(modules);
+	}
+
+	/**
+	 * Find module source files beneath a directory, skipping 
+	 * directories which don't contain modules.
+	 *
+	 * @param dir - Directory to search
+	 * @param packageRoot - Directory is the package location
+	 * @param moduleFiles - Module files found
+	 */
+	protected static void findModuleFiles(File dir, boolean packageRoot, List<File> moduleFiles) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Arrays.sort(files);
+		for (File file: files) {
+			if (file.isDirectory()) {
+				boolean excluded = EXCLUDED_DIRECTORIES.contains(file.getName()) 
+					|| (packageRoot && EXCLUDED_ROOT_DIRECTORIES.contains(file.getName()));
+				if (!excluded) {
+					findModuleFiles(file, false, moduleFiles);
+				}
+			} else if (file.getName().endsWith(MODULE_SUFFIX)) {
+				moduleFiles.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Sort a module's dependency arguments into direct dependencies,
+	 * plugin resources and feature flags.
+	 *
+	 * @param moduleId - Module identifier
+	 * @param dependencyArguments - Dependencies found in the module source
+	 * @return Module entry
+	 */
+	protected static ModuleEntry createModuleEntry(String moduleId, List<String> dependencyArguments) {
+		ModuleEntry entry = new ModuleEntry();
+
+		for (String dependency: dependencyArguments) {
+			int pluginSeparator = dependency.indexOf(PLUGIN_SEPARATOR);
+
+			if (pluginSeparator == -1) {
+				if (!LOADER_DEPENDENCIES.contains(dependency)) {
+					entry.dependencies.add(resolveModuleId(moduleId, dependency));
+				}
+				continue;
+			}
+
+			String plugin = resolveModuleId(moduleId, dependency.substring(0, pluginSeparator)),
+				resource = dependency.substring(pluginSeparator + 1);
+
+			entry.dependencies.add(plugin);
+			entry.pluginDependencies.add(plugin + PLUGIN_SEPARATOR + resource);
+
+			if (HAS_PLUGIN.equals(plugin)) {
+				// Terms followed by "?" are flags, others the modules to load
+				Matcher terms = HAS_TERM_PATTERN.matcher(resource);
+				while (terms.find() && terms.end() > terms.start()) {
+					String term = terms.group(1);
+					if (terms.group(2).equals("?")) {
+						entry.hasFlags.add(term);
+					} else if (term.length() > 0) {
+						entry.dependencies.add(resolveModuleId(moduleId, term));
+					}
+				}
+			}
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Resolve relative module identifiers, e.g. "./aspect" or "../dom",
+	 * against the identifier of the module referencing them.
+	 *
+	 * @param moduleId - Referencing module identifier
+	 * @param dependency - Dependency identifier
+	 * @return Absolute module identifier
+	 */
+	protected static String resolveModuleId(String moduleId, String dependency) {
+		if (!dependency.startsWith("./") && !dependency.startsWith("../")) {
+			return dependency;
+		}
+
+		Deque<String> segments = new ArrayDeque<String>();
+		String[] moduleSegments = moduleId.split("/");
+		for (int i = 0; i < moduleSegments.length - 1; i++) {
+			segments.addLast(moduleSegments[i]);
+		}
+
+		for (String segment: dependency.split("/")) {
+			if (segment.equals("..")) {
+				segments.pollLast();
+			} else if (!segment.equals(".") && segment.length() > 0) {
+				segments.addLast(segment);
+			}
+		}
+
+		StringBuilder resolved = new StringBuilder();
+		for (String segment: segments) {
+			resolved.append(resolved.length() > 0 ? "/" : "").append(segment);
+		}
+
+		return resolved.toString();
+	}
+
+	/**
+	 * Create index from module entries, building the string table.
+	 *
+	 * @param modules - Module identifiers mapped to entries
+	 * @return Package module index
+	 */
+	protected static PackageModuleIndex fromModuleEntries(Map<String, ModuleEntry> modules) {
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+
+		// Modules first, so entries line up with their identifiers
+		for (String moduleId: modules.keySet()) {
+			addString(moduleId, strings, indexes);
+		}
+
+		Map<Integer, ModuleEntry> entries = new HashMap<Integer, ModuleEntry>();
+		for (Map.Entry<String, ModuleEntry> module: modules.entrySet()) {
+			ModuleEntry entry = module.getValue();
+			entries.put(indexes.get(module.getKey()), entry);
+			for (String value: entry.dependencies) {
+				addString(value, strings, indexes);
+			}
+			for (String value: entry.pluginDependencies) {
+				addString(value, strings, indexes);
+			}
+			for (String value: entry.hasFlags) {
+				addString(value, strings, indexes);
+			}
+		}
+
+		int[][] dependencies = new int[strings.size()][], pluginDependencies = new int[strings.size()][],
+			hasFlags = new int[strings.size()][];
+
+		for (Map.Entry<Integer, ModuleEntry> entry: entries.entrySet()) {
+			int moduleIndex = entry.getKey();
+			dependencies[moduleIndex] = toIndexes(entry.getValue().dependencies, indexes);
+			pluginDependencies[moduleIndex] = toIndexes(entry.getValue().pluginDependencies, indexes);
+			hasFlags[moduleIndex] = toIndexes(entry.getValue().hasFlags, indexes);
+		}
+
+		return new PackageModuleIndex(strings.toArray(new String[strings.size()]), dependencies, pluginDependencies, hasFlags);
+	}
+
+	/**
+	 * Add string to the string table, unless already present.
+	 *
+	 * @param value - String to add
+	 * @param strings - String table
+	 * @param indexes - String table positions
+	 */
+	protected static void addString(String value, List<String> strings, Map<String, Integer> indexes) {
+		if (!indexes.containsKey(value)) {
+			indexes.put(value, strings.size());
+			strings.add(value);
+		}
+	}
+
+	/**
+	 * Convert strings to their string table positions.
+	 *
+	 * @param values - Strings to convert
+	 * @param indexes - String table positions
+	 * @return String table positions
+	 */
+	protected static int[] toIndexes(Collection<String> values, Map<String, Integer> indexes) {
+		int[] valueIndexes = new int[values.size()];
+		int i = 0;
+		for (String value: values) {
+			valueIndexes[i++] = indexes.get(value);
+		}
+		return valueIndexes;
+	}
+
+	/**
+	 * Read a persisted index.
+	 *
+	 * @param indexFile - Index file
+	 * @return Package module index
+	 * @throws IOException - Unable to read index, or index is from another format version
+	 */
+	public static PackageModuleIndex read(File indexFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+		try {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_FORMAT_VERSION) {
+				throw new IOException("Unsupported package module index: " + indexFile.getAbsolutePath());
+			}
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			int[][] dependencies = new int[strings.length][], pluginDependencies = new int[strings.length][],
+				hasFlags = new int[strings.length][];
+
+			int moduleCount = in.readInt();
+			for (int i = 0; i < moduleCount; i++) {
+				int moduleIndex = in.readInt();
+				dependencies[moduleIndex] = readIndexes(in);
+				pluginDependencies[moduleIndex] = readIndexes(in);
+				hasFlags[moduleIndex] = readIndexes(in);
+			}
+
+			return new PackageModuleIndex(strings, dependencies, pluginDependencies, hasFlags);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Persist the index, writing to a temporary file renamed into place
+	 * so a partially written index is never read.
+	 *
+	 * @param indexFile - Index file
+	 * @throws IOException - Unable to write index
+	 */
+	public void write(File indexFile) throws IOException {
+		File partialFile = new File(indexFile.getPath() + ".partial");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile)));
+
+		try {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_FORMAT_VERSION);
+
+			out.writeInt(strings.length);
+			for (String value: strings) {
+				out.writeUTF(value);
+			}
+
+			out.writeInt(getModuleCount());
+			for (int i = 0; i < strings.length; i++) {
+				if (dependencies[i] != null) {
+					out.writeInt(i);
+					writeIndexes(out, dependencies[i]);
+					writeIndexes(out, pluginDependencies[i]);
+					writeIndexes(out, hasFlags[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		indexFile.delete();
+		if (!partialFile.renameTo(indexFile)) {
+			partialFile.delete();
+			throw new IOException("Could not write package module index: " + indexFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Read a list of string table positions.
+	 *
+	 * @param in - Index input
+	 * @return String table positions
+	 * @throws IOException - Unable to read index
+	 */
+	protected static int[] readIndexes(DataInputStream in) throws IOException {
+		int[] indexes = new int[in.readInt()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = in.readInt();
+		}
+		return indexes;
+	}
+
+	/**
+	 * Write a list of string table positions.
+	 *
+	 * @param out - Index output
+	 * @param indexes - String table positions
+	 * @throws IOException - Unable to write index
+	 */
+	protected static void writeIndexes(DataOutputStream out, int[] indexes) throws IOException {
+		out.writeInt(indexes.length);
+		for (int index: indexes) {
+			out.writeInt(index);
+		}
+	}
+
+	/**
+	 * Number of modules in the package.
+	 *
+	 * @return Module count
+	 */
+	public int getModuleCount() {
+		int moduleCount = 0;
+		for (int[] moduleDependencies: dependencies) {
+			if (moduleDependencies != null) {
+				moduleCount++;
+			}
+		}
+		return moduleCount;
+	}
+
+	/**
+	 * Identifiers of all modules in the package, in order.
+	 *
+	 * @return Module identifiers
+	 */
+	public List<String> getModules() {
+		List<String> modules = new ArrayList<String>();
+		for (int i = 0; i < strings.length; i++) {
+			if (dependencies[i] != null) {
+				modules.add(strings[i]);
+			}
+		}
+		return modules;
+	}
+
+	/**
+	 * Is the module defined in this package?
+	 *
+	 * @param moduleId - Module identifier
+	 * @return Module is in the package
+	 */
+	public boolean containsModule(String moduleId) {
+		Integer index = stringIndexes.get(moduleId);
+		return index != null && dependencies[index] != null;
+	}
+
+	/**
+	 * Direct dependencies of a module, including plugin modules.
+	 *
+	 * @param moduleId - Module identifier
+	 * @return Module identifiers, empty if not a module in this package
+	 */
+	public List<String> getDependencies(String moduleId) {
+		return lookupStrings(moduleId, dependencies);
+	}
+
+	/**
+	 * Plugin resources a module depends on.
+	 *
+	 * @param moduleId - Module identifier
+	 * @return Plugin resources, empty if not a module in this package
+	 */
+	public List<String> getPluginDependencies(String moduleId) {
+		return lookupStrings(moduleId, pluginDependencies);
+	}
+
+	/**
+	 * Feature flags a module's dependencies are conditional on.
+	 *
+	 * @param moduleId - Module identifier
+	 * @return Feature flag names, empty if not a module in this package
+	 */
+	public List<String> getHasFlags(String moduleId) {
+		return lookupStrings(moduleId, hasFlags);
+	}
+
+	/**
+	 * Find all modules needed by the modules given, including the modules
+	 * themselves, following dependencies within the package. Dependencies on
+	 * modules outside the package are included but not followed.
+	 *
+	 * @param moduleIds - Layer module identifiers
+	 * @return Module identifiers, in the order found
+	 */
+	public Set<String> getTransitiveDependencies(Collection<String> moduleIds) {
+		Set<String> found = new LinkedHashSet<String>();
+		BitSet visited = new BitSet(strings.length);
+		Deque<Integer> pending = new ArrayDeque<Integer>();
+
+		for (String moduleId: moduleIds) {
+			Integer index = stringIndexes.get(moduleId);
+			if (index == null) {
+				found.add(moduleId);
+			} else if (!visited.get(index)) {
+				visited.set(index);
+				pending.addLast(index);
+			}
+		}
+
+		while (!pending.isEmpty()) {
+			int index = pending.pollFirst();
+			found.add(strings[index]);
+
+			if (dependencies[index] != null) {
+				for (int dependency: dependencies[index]) {
+					if (!visited.get(dependency)) {
+						visited.set(dependency);
+						pending.addLast(dependency);
+					}
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Strings for a module's entry in one of the graph arrays.
+	 *
+	 * @param moduleId - Module identifier
+	 * @param graph - Graph array
+	 * @return Strings, empty if not a module in this package
+	 */
+	protected List<String> lookupStrings(String moduleId, int[][] graph) {
+		List<String> values = new ArrayList<String>();
+		Integer index = stringIndexes.get(moduleId);
+
+		if (index != null && graph[index] != null) {
+			for (int valueIndex: graph[index]) {
+				values.add(strings[valueIndex]);
+			}
+		}
+
+		return values;
+	}
+}
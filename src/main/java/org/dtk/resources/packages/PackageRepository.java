@@ -10,12 +10,20 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
+import org.dtk.metrics.Counter;
+import org.dtk.metrics.Histogram;
+import org.dtk.metrics.MetricsRegistry;
 import org.dtk.resources.Packages;
 import org.dtk.resources.build.manager.BuildStatusManager;
 import org.dtk.resources.exceptions.ConfigurationException;
@@ -42,14 +50,48 @@ public class PackageRepository {
 	 *  verifying whether a package identifier refers to temporary package. */
 	protected Set<String> temporaryPackagesIdentifiers = new HashSet<String>();
 	
+	/** Time taken to load package meta-data */
+	protected final Histogram packageDetailsDuration = MetricsRegistry.getInstance()
+		.histogram("dwb_package_details_milliseconds", "Time taken to load package meta-data.");
+	
+	/** Temporary packages created from user applications */
+	protected final Counter temporaryPackagesCreated = MetricsRegistry.getInstance()
+		.counter("dwb_temporary_packages_created_total", "Temporary packages created from user applications.");
+	
 	/** Package details configuration file */
 	protected static final String DEFAULT_PACKAGE_METADATA = "%1$s/%2$s/package.json"; 
 	
+	/** Package module dependency index file, alongside package details */
+	protected static final String DEFAULT_PACKAGE_MODULE_INDEX = "%1$s/%2$s/modules.idx"; 
+	
+	/** Build dependency scan index file, alongside package details */
+	protected static final String DEFAULT_PACKAGE_SCAN_INDEX = "%1$s/%2$s/scans.idx"; 
+	
+	/** Build dependency scan indexes loaded, keyed by package name and version */
+	protected final ConcurrentMap<String, PackageScanIndex> scanIndexes 
+		= new ConcurrentHashMap<String, PackageScanIndex>();
+	
+	/** Module dependency indexes loaded or loading, keyed by package name and version */
+	protected final ConcurrentMap<String, FutureTask<PackageModuleIndex>> moduleIndexes 
+		= new ConcurrentHashMap<String, FutureTask<PackageModuleIndex>>();
+	
+	/** Time taken to index package modules when no persisted index is available */
+	protected final Histogram moduleIndexDuration = MetricsRegistry.getInstance()
+		.histogram("dwb_package_module_index_milliseconds", "Time taken to build package module dependency indexes.");
+	
 	/** Log messages */
 	/** Fatal accessing accessing package repository for package & version */
 	protected static final  String invalidMetaDataErrorMsg 
 	= "Unable to access meta-data for valid package (%1$s) & version (%2$s). Error in package repository location.";
 	
+	/** Package module index couldn't be read or persisted */
+	protected static final String moduleIndexErrorMsg 
+	= "Unable to access module index for package (%1$s) & version (%2$s), details: %3$s";
+	
+	/** Package scan index couldn't be read or persisted */
+	protected static final String scanIndexErrorMsg 
+	= "Unable to access scan index for package (%1$s) & version (%2$s), details: %3$s";
+	
 	/** Build configuration file is not accessible **/
 	protected static final String buildConfigNotFoundErrorMsg 
 	= "Unable to access package repository build configuration @ %1$s";
@@ -132,6 +174,7 @@ public class PackageRepository {
 		}
 		
 		HashMap<String, Object> packageMetaData = null;
+		long loadStarted = System.currentTimeMillis();
 		
 		try {
 			String packageMetaDataPath = String.format(DEFAULT_PACKAGE_METADATA, packageName, packageVersion);
@@ -141,6 +184,7 @@ public class PackageRepository {
 			// actual file paths
 			String packageLocation = (String) packageMetaData.get("location");
 			packageMetaData.put("location", FileUtil.resolveEnvironmentVariables(packageLocation));
+			packageDetailsDuration.recordSince(loadStarted);
 		} catch (IOException e) {
 			String errorMessage = String.format(invalidMetaDataErrorMsg, packageName, packageVersion);
 			logger.log(Level.SEVERE, errorMessage);
@@ -152,7 +196,9 @@ public class PackageRepository {
 	
 	/**
 	 * Retrieve location for a given package reference. This may
-	 * be from the persistent or temporary package stores. 
+	 * be from the persistent or temporary package stores. Persistent 
+	 * package locations are registered with the package source cache,
+	 * sharing their files between builds.
 	 * 
 	 * @param packageName - Package reference 
 	 * @param packageVersion - Package version
@@ -167,11 +213,196 @@ public class PackageRepository {
 		} else {
 			HashMap<String, Object> details = getPackageDetails(packageName, packageVersion);
 			location = (String) details.get("location");
+			PackageSourceCache.getInstance().registerPackage(packageName, packageVersion, location);
 		}
 		
 		return location;
 	}
 	
+	/**
+	 * Return dependency graph for the modules in a package version. Indexes
+	 * are built once, by parsing every module in the package, and persisted 
+	 * alongside the package details for later use. Persisted indexes older
+	 * than the package details are rebuilt. Temporary packages are indexed 
+	 * on each request, without being persisted or held in memory. Concurrent
+	 * requests for the same package version wait for a single index to load, 
+	 * without blocking requests for other packages. 
+	 * 
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @return Package module index
+	 * @throws ConfigurationException - Unable to read package modules
+	 */
+	public PackageModuleIndex getModuleIndex(final String packageName, final String packageVersion) {
+		if (isTemporaryPackage(packageName)) {
+			return loadModuleIndex(packageName, packageVersion);
+		}
+		
+		String indexKey = packageName + "@" + packageVersion;
+		FutureTask<PackageModuleIndex> moduleIndex = moduleIndexes.get(indexKey);
+		
+		if (moduleIndex == null) {
+			FutureTask<PackageModuleIndex> indexLoader = new FutureTask<PackageModuleIndex>(new Callable<PackageModuleIndex>() {
+				public PackageModuleIndex call() {
+					return loadModuleIndex(packageName, packageVersion);
+				}
+			});
+			
+			moduleIndex = moduleIndexes.putIfAbsent(indexKey, indexLoader);
+			if (moduleIndex == null) {
+				moduleIndex = indexLoader;
+				indexLoader.run();
+			}
+		}
+		
+		try {
+			return moduleIndex.get();
+		} catch (ExecutionException e) {
+			// Allow later requests to try again
+			moduleIndexes.remove(indexKey, moduleIndex);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ConfigurationException(e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConfigurationException(String.format(moduleIndexErrorMsg, packageName, packageVersion, e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Read persisted module index for a package version, building 
+	 * and persisting a new index when missing or out of date.
+	 * 
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @return Package module index
+	 * @throws ConfigurationException - Unable to read package modules
+	 */
+	protected PackageModuleIndex loadModuleIndex(String packageName, String packageVersion) {
+		String packageLocation = getPackageLocation(packageName, packageVersion);
+		boolean temporaryPackage = isTemporaryPackage(packageName);
+		
+		File indexFile = new File(packageBaseLocation, String.format(DEFAULT_PACKAGE_MODULE_INDEX, packageName, packageVersion)),
+			metaDataFile = new File(packageBaseLocation, String.format(DEFAULT_PACKAGE_METADATA, packageName, packageVersion));
+		
+		if (!temporaryPackage && indexFile.isFile() && indexFile.lastModified() >= metaDataFile.lastModified()) {
+			try {
+				return PackageModuleIndex.read(indexFile);
+			} catch (IOException e) {
+				// Corrupt or older format index, rebuild below
+				logger.log(Level.WARNING, String.format(moduleIndexErrorMsg, packageName, packageVersion, e.getMessage()));
+			}
+		}
+		
+		PackageModuleIndex moduleIndex;
+		long indexStarted = System.currentTimeMillis();
+		
+		try {
+			moduleIndex = PackageModuleIndex.build(new File(packageLocation));
+			moduleIndexDuration.recordSince(indexStarted);
+		} catch (IOException e) {
+			String errorMessage = String.format(moduleIndexErrorMsg, packageName, packageVersion, e.getMessage());
+			logger.log(Level.SEVERE, errorMessage);
+			throw new ConfigurationException(errorMessage);
+		}
+		
+		if (!temporaryPackage) {
+			try {
+				moduleIndex.write(indexFile);
+			} catch (IOException e) {
+				// Index is still usable, it will be rebuilt after the next restart
+				logger.log(Level.WARNING, String.format(moduleIndexErrorMsg, packageName, packageVersion, e.getMessage()));
+			}
+		}
+		
+		return moduleIndex;
+	}
+
+	/**
+	 * Return dependency scans recorded by builds of a package version. Scan
+	 * indexes aren't built from the package modules, they are read from the
+	 * persisted index when present, otherwise start empty. Temporary packages
+	 * get an empty index, not held between requests.
+	 *
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @return Package scan index
+	 */
+	public PackageScanIndex getScanIndex(String packageName, String packageVersion) {
+		if (isTemporaryPackage(packageName)) {
+			return new PackageScanIndex();
+		}
+
+		String indexKey = packageName + "@" + packageVersion;
+		PackageScanIndex scanIndex = scanIndexes.get(indexKey);
+
+		if (scanIndex == null) {
+			PackageScanIndex loadedIndex = loadScanIndex(packageName, packageVersion);
+			scanIndex = scanIndexes.putIfAbsent(indexKey, loadedIndex);
+			if (scanIndex == null) {
+				scanIndex = loadedIndex;
+			}
+		}
+
+		return scanIndex;
+	}
+
+	/**
+	 * Read persisted scan index for a package version, starting
+	 * a new index when missing or unreadable.
+	 *
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @return Package scan index
+	 */
+	protected PackageScanIndex loadScanIndex(String packageName, String packageVersion) {
+		File indexFile = getScanIndexFile(packageName, packageVersion);
+
+		if (indexFile.isFile()) {
+			try {
+				return PackageScanIndex.read(indexFile);
+			} catch (IOException e) {
+				// Corrupt or older format index, scans are recorded again
+				logger.log(Level.WARNING, String.format(scanIndexErrorMsg, packageName, packageVersion, e.getMessage()));
+			}
+		}
+
+		return new PackageScanIndex();
+	}
+
+	/**
+	 * Persist scan results recorded by builds of a package version.
+	 * Temporary packages, and indexes without new results, aren't 
+	 * written. Failures are logged, the results remain in memory.
+	 *
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @param scanIndex - Scan index returned for the package version
+	 */
+	public void saveScanIndex(String packageName, String packageVersion, PackageScanIndex scanIndex) {
+		if (isTemporaryPackage(packageName) || !scanIndex.hasUnsavedScanResults()) {
+			return;
+		}
+
+		try {
+			scanIndex.write(getScanIndexFile(packageName, packageVersion));
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format(scanIndexErrorMsg, packageName, packageVersion, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Scan index file for a package version, alongside package details.
+	 *
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @return Scan index file
+	 */
+	protected File getScanIndexFile(String packageName, String packageVersion) {
+		return new File(packageBaseLocation, String.format(DEFAULT_PACKAGE_SCAN_INDEX, packageName, packageVersion));
+	}
+
 	/**
 	 * Retrieve build parameters, parse default file in source folder.
 	 * 
@@ -222,6 +453,7 @@ public class PackageRepository {
 		
 		// Store reference for quick package location checking
 		temporaryPackagesIdentifiers.add(packageReference);
+		temporaryPackagesCreated.increment();
 		
 		return packageReference;
 	}
@@ -331,7 +563,7 @@ public class PackageRepository {
 	 * @param packageReference - Package reference
 	 * @return Package is a temporary package
 	 */
-	protected boolean isTemporaryPackage(String packageReference) {
+	public boolean isTemporaryPackage(String packageReference) {
 		return temporaryPackagesIdentifiers.contains(packageReference);
 	}
 	
@@ -0,0 +1,180 @@
+package org.dtk.resources.packages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Build system dependency scans of the modules in a package version,
+ * recorded by builds and reused by later builds. Each scan result is stored
+ * with a digest of the module text it was found in, so is only returned
+ * while the text is unchanged. Nothing is parsed to create the index, it
+ * starts empty and fills as modules are built.
+ *
+ * Scan results are opaque strings, persisted in a compact binary form.
+ *
+ * @author James Thomas
+ */
+
+public class PackageScanIndex {
+	/** Index file header, "DWBS" */
+	protected static final int INDEX_MAGIC = 0x44574253;
+
+	/** Index file format version */
+	protected static final int INDEX_FORMAT_VERSION = 1;
+
+	/** Longest scan result persisted, keeping within the modified UTF-8 string limit */
+	protected static final int MAX_SCAN_RESULT_LENGTH = 16384;
+
+	/** Scanned modules, by module identifier */
+	protected final ConcurrentMap<String, ScannedModule> scannedModules = new ConcurrentHashMap<String, ScannedModule>();
+
+	/** Scan results recorded since the index was last persisted */
+	protected final AtomicBoolean changed = new AtomicBoolean();
+
+	/**
+	 * Build system dependency scan of a module's text.
+	 */
+	protected static class ScannedModule {
+		final String sourceDigest;
+		final String scanResult;
+
+		ScannedModule(String sourceDigest, String scanResult) {
+			this.sourceDigest = sourceDigest;
+			this.scanResult = scanResult;
+		}
+	}
+
+	/**
+	 * Read a persisted index.
+	 *
+	 * @param indexFile - Index file
+	 * @return Package scan index
+	 * @throws IOException - Unable to read index, or index is from another format version
+	 */
+	public static PackageScanIndex read(File indexFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+		try {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_FORMAT_VERSION) {
+				throw new IOException("Unsupported package scan index: " + indexFile.getAbsolutePath());
+			}
+
+			PackageScanIndex scanIndex = new PackageScanIndex();
+			int scannedCount = in.readInt();
+			for (int i = 0; i < scannedCount; i++) {
+				String moduleId = in.readUTF(), sourceDigest = in.readUTF();
+				scanIndex.scannedModules.put(moduleId, new ScannedModule(sourceDigest, in.readUTF()));
+			}
+
+			return scanIndex;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Persist the index, writing to a temporary file renamed into place
+	 * so a partially written index is never read. Scan results recorded
+	 * while writing are kept for the next write.
+	 *
+	 * @param indexFile - Index file
+	 * @throws IOException - Unable to write index
+	 */
+	public synchronized void write(File indexFile) throws IOException {
+		File partialFile = new File(indexFile.getPath() + ".partial");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile)));
+		boolean written = false;
+
+		changed.set(false);
+		try {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_FORMAT_VERSION);
+
+			Map<String, ScannedModule> scanned = new TreeMap<String, ScannedModule>(scannedModules);
+			out.writeInt(scanned.size());
+			for (Map.Entry<String, ScannedModule> entry: scanned.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().sourceDigest);
+				out.writeUTF(entry.getValue().scanResult);
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written) {
+				changed.set(true);
+				partialFile.delete();
+			}
+		}
+
+		indexFile.delete();
+		if (!partialFile.renameTo(indexFile)) {
+			partialFile.delete();
+			changed.set(true);
+			throw new IOException("Could not write package scan index: " + indexFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Scan result recorded for a module, if the module text
+	 * is unchanged since the scan.
+	 *
+	 * @param moduleId - Module identifier
+	 * @param sourceDigest - Digest of the current module text
+	 * @return Scan result, null if not scanned or the text has changed
+	 */
+	public String getScanResult(String moduleId, String sourceDigest) {
+		ScannedModule scannedModule = scannedModules.get(moduleId);
+		if (scannedModule == null || !scannedModule.sourceDigest.equals(sourceDigest)) {
+			return null;
+		}
+		return scannedModule.scanResult;
+	}
+
+	/**
+	 * Record scan result for a module, replacing any earlier
+	 * scan. Results too large to persist are ignored.
+	 *
+	 * @param moduleId - Module identifier
+	 * @param sourceDigest - Digest of the module text scanned
+	 * @param scanResult - Scan result, opaque to the index
+	 */
+	public void recordScanResult(String moduleId, String sourceDigest, String scanResult) {
+		if (moduleId.length() > MAX_SCAN_RESULT_LENGTH || scanResult.length() > MAX_SCAN_RESULT_LENGTH) {
+			return;
+		}
+
+		ScannedModule previous = scannedModules.put(moduleId, new ScannedModule(sourceDigest, scanResult));
+		if (previous == null || !previous.sourceDigest.equals(sourceDigest) || !previous.scanResult.equals(scanResult)) {
+			changed.set(true);
+		}
+	}
+
+	/**
+	 * Number of modules with scan results.
+	 *
+	 * @return Scanned module count
+	 */
+	public int getScannedModuleCount() {
+		return scannedModules.size();
+	}
+
+	/**
+	 * Have scan results been recorded since the index was last persisted?
+	 *
+	 * @return Index has unsaved scan results
+	 */
+	public boolean hasUnsavedScanResults() {
+		return changed.get();
+	}
+}
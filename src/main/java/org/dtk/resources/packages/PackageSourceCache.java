@@ -0,0 +1,292 @@
+package org.dtk.resources.packages;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dtk.metrics.Gauge;
+import org.dtk.metrics.MetricsRegistry;
+import org.dtk.util.BoundedLruCache;
+
+/**
+ * Bounded cache of package source files and directory listings, shared by
+ * all builds in the JVM. Concurrent builds against the same package version,
+ * e.g. Dojo 1.8, read the same thousands of files, so file contents and
+ * directory listings under a package's location are held once in memory,
+ * keyed by package name, version and relative path.
+ *
+ * Entries record the modification time, and file size, seen when read. Every
+ * lookup checks these against the file system, so changed files are read
+ * again. Entries are held in a bounded least recently used cache, sized by
+ * their estimated memory use. Paths outside a registered package location
+ * are never cached.
+ *
+ * @author James Thomas
+ */
+
+public final class PackageSourceCache {
+	/** Single instance of the package source cache */
+	protected static final PackageSourceCache INSTANCE = new PackageSourceCache();
+
+	/** Default limit on cached entries, in megabytes */
+	public static final int DEFAULT_MAX_SIZE_MB = 64;
+
+	/** Estimated bytes used by each cache entry and each listing name */
+	protected static final int ENTRY_OVERHEAD_BYTES = 64;
+
+	/** Package locations, normalised path with trailing separator mapped to name and version */
+	protected final Map<String, String> packageLocations = new LinkedHashMap<String, String>();
+
+	/** Cached entries, misses are reads and listings not cached or changed since cached */
+	protected final BoundedLruCache<CachedEntry> entries = new BoundedLruCache<CachedEntry>(DEFAULT_MAX_SIZE_MB * 1024L * 1024L,
+		new BoundedLruCache.SizeFunction<CachedEntry>() {
+			public long getSize(String key, CachedEntry entry) {
+				return estimateSize(key, entry.value);
+			}
+		},
+		MetricsRegistry.getInstance().counter("dwb_package_source_cache_hits_total", "Package files and directories read from the source cache."),
+		MetricsRegistry.getInstance().counter("dwb_package_source_cache_misses_total", "Package files and directories read from disk."));
+
+	/**
+	 * File contents or directory listing, with the file status
+	 * when read.
+	 */
+	protected static class CachedEntry {
+		final Object value;
+		final long lastModified;
+		final long length;
+
+		CachedEntry(Object value, long lastModified, long length) {
+			this.value = value;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private PackageSourceCache() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+
+		MetricsRegistry.getInstance().gauge("dwb_package_source_cache_bytes", "Estimated size of cached package source.",
+			new Gauge() {
+				public long getValue() {
+					return getCachedBytes();
+				}
+			});
+	}
+
+	/**
+	 * Return static instance of PackageSourceCache
+	 *
+	 * @return Package source cache instance.
+	 */
+	public static PackageSourceCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Register the location of a package version, allowing its
+	 * files and directories to be cached.
+	 *
+	 * @param packageName - Package name
+	 * @param packageVersion - Package version
+	 * @param location - Package location
+	 */
+	public synchronized void registerPackage(String packageName, String packageVersion, String location) {
+		packageLocations.put(normalisePath(new File(location).getAbsolutePath()) + "/", packageName + "@" + packageVersion);
+	}
+
+	/**
+	 * Return cached contents of a package file, decoded using the
+	 * encoding given, if unchanged since cached.
+	 *
+	 * @param filename - File path
+	 * @param encoding - Character encoding
+	 * @return File contents, null if not cached or outside a package
+	 */
+	public String getFileContents(String filename, String encoding) {
+		String key = getKey(filename, encoding);
+		return (key != null) ? (String) lookup(key, new File(filename), true) : null;
+	}
+
+	/**
+	 * Cache contents of a package file. Files outside a package are
+	 * ignored. File status must be read before the contents, so changes
+	 * made whilst reading are picked up on the next lookup.
+	 *
+	 * @param filename - File path
+	 * @param encoding - Character encoding
+	 * @param contents - Decoded contents
+	 * @param lastModified - File modification time before reading
+	 * @param length - File size before reading
+	 */
+	public void putFileContents(String filename, String encoding, String contents, long lastModified, long length) {
+		String key = getKey(filename, encoding);
+		if (key != null) {
+			entries.put(key, new CachedEntry(contents, lastModified, length));
+		}
+	}
+
+	/**
+	 * Return cached names within a package directory, if the
+	 * directory is unchanged since cached.
+	 *
+	 * @param path - Directory path
+	 * @return Directory entry names, null if not cached or outside a package
+	 */
+	public String[] getDirectoryListing(String path) {
+		String key = getKey(path, null);
+		return (key != null) ? (String[]) lookup(key, new File(path), false) : null;
+	}
+
+	/**
+	 * Cache names within a package directory. Directories outside
+	 * a package are ignored.
+	 *
+	 * @param path - Directory path
+	 * @param names - Directory entry names
+	 * @param lastModified - Directory modification time before listing
+	 */
+	public void putDirectoryListing(String path, String[] names, long lastModified) {
+		String key = getKey(path, null);
+		if (key != null) {
+			entries.put(key, new CachedEntry(names.clone(), lastModified, 0));
+		}
+	}
+
+	/**
+	 * Set limit on estimated size of cached entries, removing
+	 * entries if the cache is now too large.
+	 *
+	 * @param maxBytes - Cache size in bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		entries.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Estimated size of cached entries.
+	 *
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return entries.getCachedBytes();
+	}
+
+	/**
+	 * Remove all cached entries.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Cache key for a path within a registered package, package name
+	 * and version followed by the relative path. File contents include
+	 * the encoding used to decode them.
+	 *
+	 * @param path - File or directory path
+	 * @param encoding - Character encoding, null for directory listings
+	 * @return Cache key, null if outside a package
+	 */
+	protected synchronized String getKey(String path, String encoding) {
+		String normalisedPath = normalisePath(path) + "/", packageRoot = null;
+
+		// Nested package locations use the most specific package
+		for (String location: packageLocations.keySet()) {
+			if (normalisedPath.startsWith(location) && (packageRoot == null || location.length() > packageRoot.length())) {
+				packageRoot = location;
+			}
+		}
+
+		if (packageRoot == null) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(packageLocations.get(packageRoot)).append(':');
+		if (encoding != null) {
+			key.append(encoding.toUpperCase());
+		}
+
+		// Package root itself has an empty relative path
+		int relativeEnd = Math.max(packageRoot.length(), normalisedPath.length() - 1);
+		return key.append(':').append(normalisedPath, packageRoot.length(), relativeEnd).toString();
+	}
+
+	/**
+	 * Return cached value for a key, if the file status is unchanged.
+	 * Changed entries are removed.
+	 *
+	 * @param key - Cache key
+	 * @param path - File or directory
+	 * @param checkLength - Compare file size as well as modification time
+	 * @return Cached value, null if not cached or changed
+	 */
+	protected Object lookup(String key, File path, boolean checkLength) {
+		CachedEntry cached = entries.get(key);
+
+		if (cached != null && cached.lastModified == path.lastModified()
+			&& (!checkLength || cached.length == path.length())) {
+			entries.recordHit();
+			return cached.value;
+		}
+
+		if (cached != null) {
+			entries.remove(key, cached);
+		}
+
+		entries.recordMiss();
+		return null;
+	}
+
+	/**
+	 * Estimate memory used by an entry, file contents or
+	 * directory listing names.
+	 *
+	 * @param key - Cache key
+	 * @param value - File contents or directory listing
+	 * @return Estimated size in bytes
+	 */
+	protected static long estimateSize(String key, Object value) {
+		long size = estimateSize(key);
+
+		if (value instanceof String) {
+			size += ((String) value).length() * 2L;
+		} else {
+			for (String name: (String[]) value) {
+				size += estimateSize(name);
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Estimate memory used by a string.
+	 *
+	 * @param value - String value
+	 * @return Estimated size in bytes
+	 */
+	protected static long estimateSize(String value) {
+		return ENTRY_OVERHEAD_BYTES + value.length() * 2L;
+	}
+
+	/**
+	 * Use forward slashes and remove trailing separators, matching
+	 * the paths used by the build system.
+	 *
+	 * @param path - File or directory path
+	 * @return Normalised path
+	 */
+	protected static String normalisePath(String path) {
+		String normalisedPath = path.replace('\\', '/');
+		while (normalisedPath.length() > 1 && normalisedPath.endsWith("/")) {
+			normalisedPath = normalisedPath.substring(0, normalisedPath.length() - 1);
+		}
+		return normalisedPath;
+	}
+}
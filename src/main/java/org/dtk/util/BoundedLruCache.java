@@ -0,0 +1,216 @@
+package org.dtk.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dtk.metrics.Counter;
+
+/**
+ * In-memory cache bounded by the estimated size of its entries, rather
+ * than their number. Least recently used entries are removed once the
+ * total size exceeds the limit. Entry sizes are given by the size function
+ * when stored. Hits and misses are counted by callers, who decide what a
+ * usable entry is, e.g. an unchanged file or a fresh response. Methods are
+ * synchronised, cached values are shared between threads.
+ *
+ * @author James Thomas
+ */
+
+public class BoundedLruCache<V> {
+	/** Cached entries, least recently used first */
+	protected final LinkedHashMap<String, CachedEntry<V>> entries
+		= new LinkedHashMap<String, CachedEntry<V>>(16, 0.75f, true);
+
+	/** Estimates entry sizes */
+	protected final SizeFunction<V> sizeFunction;
+
+	/** Lookups answered from the cache */
+	protected final Counter hits;
+
+	/** Lookups not answered from the cache */
+	protected final Counter misses;
+
+	/** Estimated size of cached entries */
+	protected long cachedBytes;
+
+	/** Limit on estimated size of cached entries */
+	protected long maxBytes;
+
+	/**
+	 * Estimates the memory used by an entry.
+	 */
+	public interface SizeFunction<V> {
+		/**
+		 * Estimated entry size, including the key.
+		 *
+		 * @param key - Cache key
+		 * @param value - Cached value
+		 * @return Size in bytes
+		 */
+		long getSize(String key, V value);
+	}
+
+	/**
+	 * Cached value with its size when stored.
+	 */
+	protected static class CachedEntry<V> {
+		final V value;
+		final long size;
+
+		CachedEntry(V value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Create new cache with the size limit given.
+	 *
+	 * @param maxBytes - Size limit in bytes
+	 * @param sizeFunction - Estimates entry sizes
+	 * @param hits - Counts lookups answered from the cache
+	 * @param misses - Counts lookups not answered from the cache
+	 */
+	public BoundedLruCache(long maxBytes, SizeFunction<V> sizeFunction, Counter hits, Counter misses) {
+		this.maxBytes = maxBytes;
+		this.sizeFunction = sizeFunction;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	/**
+	 * Return cached value, marking it as recently used.
+	 *
+	 * @param key - Cache key
+	 * @return Cached value, null if not cached
+	 */
+	public synchronized V get(String key) {
+		CachedEntry<V> entry = entries.get(key);
+		return (entry != null) ? entry.value : null;
+	}
+
+	/**
+	 * Add value to the cache, replacing any previous value, and remove
+	 * least recently used entries to stay within the size limit.
+	 *
+	 * @param key - Cache key
+	 * @param value - Value to cache
+	 */
+	public synchronized void put(String key, V value) {
+		CachedEntry<V> entry = new CachedEntry<V>(value, sizeFunction.getSize(key, value)),
+			previous = entries.put(key, entry);
+		if (previous != null) {
+			cachedBytes -= previous.size;
+		}
+		cachedBytes += entry.size;
+		evict();
+	}
+
+	/**
+	 * Remove cached value.
+	 *
+	 * @param key - Cache key
+	 */
+	public synchronized void remove(String key) {
+		CachedEntry<V> previous = entries.remove(key);
+		if (previous != null) {
+			cachedBytes -= previous.size;
+		}
+	}
+
+	/**
+	 * Remove cached value, unless already replaced.
+	 *
+	 * @param key - Cache key
+	 * @param value - Value to remove
+	 */
+	public synchronized void remove(String key, V value) {
+		CachedEntry<V> entry = entries.get(key);
+		if (entry != null && entry.value == value) {
+			remove(key);
+		}
+	}
+
+	/**
+	 * Remove all cached values.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		cachedBytes = 0;
+	}
+
+	/**
+	 * Set limit on estimated size of cached entries, removing
+	 * entries if the cache is now too large.
+	 *
+	 * @param maxBytes - Cache size in bytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Limit on estimated size of cached entries.
+	 *
+	 * @return Cache size in bytes
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Estimated size of cached entries.
+	 *
+	 * @return Cached bytes
+	 */
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	/**
+	 * Number of cached entries.
+	 *
+	 * @return Entry count
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Count lookup answered from the cache.
+	 */
+	public void recordHit() {
+		hits.increment();
+	}
+
+	/**
+	 * Count lookup not answered from the cache.
+	 */
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	/**
+	 * Fraction of lookups answered from the cache.
+	 *
+	 * @return Hit rate between zero and one, zero before any lookups
+	 */
+	public double getHitRate() {
+		long hitCount = hits.getCount(), total = hitCount + misses.getCount();
+		return (total > 0) ? (double) hitCount / total : 0;
+	}
+
+	/**
+	 * Remove least recently used entries until the cache fits.
+	 */
+	protected synchronized void evict() {
+		Iterator<Map.Entry<String, CachedEntry<V>>> iter = entries.entrySet().iterator();
+
+		while (cachedBytes > maxBytes && iter.hasNext()) {
+			cachedBytes -= iter.next().getValue().size;
+			iter.remove();
+		}
+	}
+}
@@ -9,16 +9,21 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import javax.management.JMException;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import org.dtk.analysis.script.ScriptParseCache;
 
+import org.dtk.metrics.MetricsRegistry;
 import org.dtk.resources.Build;
 import org.dtk.resources.Dependencies;
 import org.dtk.resources.Packages;
 import org.dtk.resources.build.BuildRequest;
 import org.dtk.resources.build.manager.BuildStatusManager;
+import org.dtk.resources.build.worker.ForkedBuildWorkerPool;
 import org.dtk.resources.packages.PackageRepository;
+import org.dtk.resources.packages.PackageSourceCache;
 
 /**
  * Simple context listener to set package paths context parameter
@@ -38,6 +43,99 @@ public class ContextListener implements ServletContextListener {
 	/** User property to override default location for package repository */
 	protected static final String packageRepoPathParam = "packagespath";
 	
+	/** User property to set number of concurrent build workers */
+	protected static final String buildWorkersParam = "buildworkers";
+	
+	/** User property to set maximum number of builds waiting for a worker */
+	protected static final String buildQueueSizeParam = "buildqueuesize";
+	
+	/** User property to set Retry-After seconds when build queue is full */
+	protected static final String buildRetryAfterParam = "buildretryafter";
+	
+	/** User property to set Rhino optimisation level for builds */
+	protected static final String buildOptimizationLevelParam = "buildoptimizationlevel";
+	
+	/** User property to set deflate level, 0-9, for build archives */
+	protected static final String archiveCompressionLevelParam = "archivecompressionlevel";
+	
+	/** User property to choose build execution mode, "inprocess" or "forked" */
+	protected static final String buildModeParam = "buildmode";
+	
+	/** Build mode value to run builds in forked worker JVMs */
+	protected static final String forkedBuildMode = "forked";
+	
+	/** User property to set maximum heap for forked build workers, e.g. 512m */
+	protected static final String buildWorkerHeapParam = "buildworkerheap";
+	
+	/** User property to set number of builds run by a forked worker before it's replaced */
+	protected static final String buildWorkerMaxBuildsParam = "buildworkermaxbuilds";
+	
+	/** User property to set seconds a forked build may run before its worker is killed */
+	protected static final String buildWorkerTimeoutParam = "buildworkertimeout";
+	
+	/** User property to override forked build worker class path */
+	protected static final String buildWorkerClasspathParam = "buildworkerclasspath";
+	
+	/** User property to set maximum build cache size in megabytes */
+	protected static final String cacheMaxSizeParam = "cachemaxsize";
+	
+	/** User property to set hours an unused build is kept in the cache */
+	protected static final String cacheMaxAgeParam = "cachemaxage";
+	
+	/** User property to set seconds between build cache eviction passes */
+	protected static final String cacheEvictionIntervalParam = "cacheevictioninterval";
+	
+	/** User property to delete raw build artifacts once the archive is created */
+	protected static final String cacheDeleteArtifactsParam = "cachedeleteartifacts";
+	
+	/** Default seconds between build cache eviction passes */
+	protected static final int defaultCacheEvictionInterval = 300;
+	
+	/** User property to set maximum clients waiting for build status changes */
+	protected static final String statusWaitersParam = "statuswaiters";
+	
+	/** User property to set seconds a client waits for a build status change */
+	protected static final String statusTimeoutParam = "statustimeout";
+	
+	/** User property to set build log lines held in memory for each build */
+	protected static final String buildLogLinesParam = "buildloglines";
+	
+	/** User property to set maximum concurrent requests to each host during remote analysis */
+	protected static final String fetchesPerHostParam = "fetchesperhost";
+	
+	/** User property to set size of the remote resource cache in megabytes */
+	protected static final String httpCacheSizeParam = "httpcachesize";
+	
+	/** User property to set size of the script parse results cache in megabytes */
+	protected static final String parseCacheSizeParam = "parsecachesize";
+	
+	/** User property to set size of the minified build output cache in megabytes */
+	protected static final String minifiedCacheSizeParam = "minifiedcachesize";
+	
+	/** User property to set size of the package source cache in megabytes */
+	protected static final String packageCacheSizeParam = "packagecachesize";
+	
+	/** Default maximum clients waiting for build status changes */
+	protected static final int defaultStatusWaiters = 256;
+	
+	/** Default seconds a client waits for a build status change */
+	protected static final int defaultStatusTimeout = 25;
+	
+	/** Default build log lines held in memory for each build */
+	protected static final int defaultBuildLogLines = 1000;
+	
+	/** Default number of builds run by a forked worker */
+	protected static final int defaultBuildWorkerMaxBuilds = 20;
+	
+	/** Default seconds a forked build may run */
+	protected static final int defaultBuildWorkerTimeout = 600;
+	
+	/** Interval between forked worker heartbeats */
+	protected static final long buildWorkerHeartbeatMillis = 5000;
+	
+	/** Time without heartbeats before a forked worker is killed */
+	protected static final long buildWorkerHeartbeatTimeoutMillis = 30000;
+	
 	/** Relative path to custom Dojo build script */
 	protected static final String buildModulePathParam = "/js/build/bdbuild/";
 
@@ -68,15 +166,49 @@ public class ContextListener implements ServletContextListener {
 	protected static final String LOG_HANDLER_ERROR = "Unable to add file handler to logger for %1$s. " +
 		"All application logs will be lost when the application exits.";
 	
+	/** Error message when build engines can't be created at start up **/
+	protected static final String BUILD_ENGINE_ERROR = "Unable to create build engines using AMD loader at '%1$s'.";
+	
+	/** Error message when build status index can't be read at start up **/
+	protected static final String BUILD_STATUS_INDEX_ERROR = "Unable to load build status index from '%1$s', " +
+		"previously completed builds must be requested again: %2$s";
+	
+	/** Restored builds information statement **/
+	protected static final String BUILD_STATUS_INDEX_INFO = "Restored %1$s completed builds from build status index.";
+	
+	/** Error message when metrics can't be registered with JMX **/
+	protected static final String METRICS_MBEAN_ERROR = "Unable to register metrics with JMX, metrics only available over HTTP: %1$s";
+	
+	/** Forked build workers information statement **/
+	protected static final String FORKED_WORKERS_INFO = "Running builds in forked worker JVMs, class path: %1$s";
+	
 	/** Log path information statement **/
 	protected static final String LOG_HANDLER_INFO = "Logging all logs from %1$s to '%2$s'";
 	
 	/** Listener logging class */
 	protected static Logger logger = Logger.getLogger(ContextListener.class.getName());
 	
+	/**
+	 * Event listener fired when context is destroyed. Stop 
+	 * background build workers and cache eviction, then close 
+	 * the build status index, pooled HTTP connections and remove
+	 * the metrics MBean.
+	 * 
+	 * @param contextEvent - Handle to servlet context
+	 */
 	@Override
 	public void contextDestroyed(ServletContextEvent contextEvent) {
-		// Intentionally empty...
+		BuildStatusManager buildStatusManager = BuildStatusManager.getInstance();
+		buildStatusManager.stopBuildWorkers();
+		buildStatusManager.stopBuildCacheEviction();
+		buildStatusManager.closeBuildStatusIndex();
+		HttpClientPool.getInstance().shutdown();
+		
+		try {
+			MetricsRegistry.getInstance().unregisterMBean();
+		} catch (JMException e) {
+			logger.log(Level.WARNING, String.format(METRICS_MBEAN_ERROR, e.getMessage()));
+		}
 	}
 
 	/**
@@ -107,6 +239,84 @@ public class ContextListener implements ServletContextListener {
 		buildStatusManager.setBuildResultCachePath(cachePath);
 		buildStatusManager.setBuildModulePath(builderModulePath);
 		buildStatusManager.setLoaderModulePath(loaderModulePath);
+		buildStatusManager.setBuildLogLines(getIntegerConfigParam(buildLogLinesParam, defaultBuildLogLines));
+		buildStatusManager.setMinifiedCacheSize(getMinifiedCacheSize());
+		
+		// Serve builds completed before the last restart straight away
+		try {
+			int restoredBuilds = buildStatusManager.loadBuildStatusIndex();
+			logger.log(Level.INFO, String.format(BUILD_STATUS_INDEX_INFO, restoredBuilds));
+		} catch (IOException io) {
+			logger.log(Level.WARNING, String.format(BUILD_STATUS_INDEX_ERROR, cachePath, io.getMessage()));
+		}
+		
+		buildStatusManager.startBuildWorkers(
+			getIntegerConfigParam(buildWorkersParam, Runtime.getRuntime().availableProcessors()),
+			getIntegerConfigParam(buildQueueSizeParam, BuildStatusManager.DEFAULT_BUILD_QUEUE_CAPACITY),
+			getIntegerConfigParam(buildRetryAfterParam, BuildStatusManager.DEFAULT_RETRY_AFTER_SECONDS));
+		
+		buildStatusManager.setStatusWaitLimits(getIntegerConfigParam(statusWaitersParam, defaultStatusWaiters), 
+			getIntegerConfigParam(statusTimeoutParam, defaultStatusTimeout) * 1000L);
+		
+		// Keep build cache within configured size and age, if either is set
+		String cacheMaxSize = lookupUsersConfigParam(cacheMaxSizeParam), 
+			cacheMaxAge = lookupUsersConfigParam(cacheMaxAgeParam);
+		if (!isParameterMissing(cacheMaxSize) || !isParameterMissing(cacheMaxAge)) {
+			long maxBytes = isParameterMissing(cacheMaxSize) ? 0 : getIntegerConfigParam(cacheMaxSizeParam, 0) * 1024L * 1024L,
+				maxAgeMillis = isParameterMissing(cacheMaxAge) ? 0 : getIntegerConfigParam(cacheMaxAgeParam, 0) * 60L * 60L * 1000L;
+			buildStatusManager.startBuildCacheEviction(maxBytes, maxAgeMillis, 
+				getIntegerConfigParam(cacheEvictionIntervalParam, defaultCacheEvictionInterval));
+		}
+		buildStatusManager.setDeleteBuildArtifacts(Boolean.parseBoolean(lookupUsersConfigParam(cacheDeleteArtifactsParam)));
+		
+		String compressionLevel = lookupUsersConfigParam(archiveCompressionLevelParam);
+		if (!isParameterMissing(compressionLevel)) {
+			buildStatusManager.setArchiveCompressionLevel(Integer.parseInt(compressionLevel.trim()));
+		}
+		
+		String optimizationLevel = lookupUsersConfigParam(buildOptimizationLevelParam);
+		if (!isParameterMissing(optimizationLevel)) {
+			buildStatusManager.setBuildOptimizationLevel(Integer.parseInt(optimizationLevel.trim()));
+		}
+		
+		// Optionally isolate builds in separate worker JVMs, otherwise compile 
+		// AMD loader ahead of the first build request
+		if (forkedBuildMode.equals(lookupUsersConfigParam(buildModeParam))) {
+			String classpath = lookupUsersConfigParam(buildWorkerClasspathParam),
+				maxHeap = lookupUsersConfigParam(buildWorkerHeapParam);
+			
+			if (isParameterMissing(classpath)) {
+				classpath = ForkedBuildWorkerPool.defaultWorkerClasspath();
+			}
+			
+			buildStatusManager.startForkedBuildWorkers(classpath, isParameterMissing(maxHeap) ? null : maxHeap, 
+				getIntegerConfigParam(buildWorkerMaxBuildsParam, defaultBuildWorkerMaxBuilds), 
+				buildWorkerHeartbeatMillis, buildWorkerHeartbeatTimeoutMillis, 
+				getIntegerConfigParam(buildWorkerTimeoutParam, defaultBuildWorkerTimeout) * 1000L);
+			logger.log(Level.INFO, String.format(FORKED_WORKERS_INFO, classpath));
+		} else {
+			try {
+				buildStatusManager.prestartBuildEngines();
+			} catch (IOException io) {
+				logger.log(Level.WARNING, String.format(BUILD_ENGINE_ERROR, loaderModulePath));
+			}
+		}
+		
+		HttpClientPool.getInstance().setMaxConnectionsPerHost(
+			getIntegerConfigParam(fetchesPerHostParam, HttpClientPool.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+		HttpResponseCache.getInstance().setMaxBytes(
+			getIntegerConfigParam(httpCacheSizeParam, HttpResponseCache.DEFAULT_MAX_SIZE_MB) * 1024L * 1024L);
+		ScriptParseCache.getInstance().setMaxBytes(
+			getIntegerConfigParam(parseCacheSizeParam, ScriptParseCache.DEFAULT_MAX_SIZE_MB) * 1024L * 1024L);
+		PackageSourceCache.getInstance().setMaxBytes(
+			getIntegerConfigParam(packageCacheSizeParam, PackageSourceCache.DEFAULT_MAX_SIZE_MB) * 1024L * 1024L);
+		
+		// Make application metrics available to JMX clients
+		try {
+			MetricsRegistry.getInstance().registerMBean();
+		} catch (JMException e) {
+			logger.log(Level.WARNING, String.format(METRICS_MBEAN_ERROR, e.getMessage()));
+		}
 		
 		// Add file handlers to certain class loggers
 		initialiseLoggingHandlers();
@@ -212,6 +422,58 @@ public class ContextListener implements ServletContextListener {
     	return configParam;
     }    
     
+    /**
+     * Look up a user configurable integer parameter, falling back to the 
+     * default value when the parameter is missing. Values must be positive.
+     * 
+     * @param configParamName - Parameter name
+     * @param defaultValue - Value used when parameter is missing
+     * @return Parameter value
+     */
+    protected int getIntegerConfigParam(String configParamName, int defaultValue) {
+    	return getIntegerConfigParam(configParamName, defaultValue, 1);
+    }
+    
+    /**
+     * Look up a user configurable integer parameter, falling back to the 
+     * default value when the parameter is missing. Values must be at least
+     * the minimum given.
+     * 
+     * @param configParamName - Parameter name
+     * @param defaultValue - Value used when parameter is missing
+     * @param minimumValue - Smallest value allowed
+     * @return Parameter value
+     */
+    protected int getIntegerConfigParam(String configParamName, int defaultValue, int minimumValue) {
+    	String configParam = lookupUsersConfigParam(configParamName);
+    	
+    	if (isParameterMissing(configParam)) {
+    		return defaultValue;
+    	}
+    	
+    	int value;
+    	try {
+    		value = Integer.parseInt(configParam.trim());
+    	} catch (NumberFormatException nfe) {
+    		throw new NumberFormatException("Parameter, " + configParamName + ", must be an integer: " + configParam);
+    	}
+    	
+    	if (value < minimumValue) {
+    		throw new IllegalArgumentException("Parameter, " + configParamName + ", must be at least " + minimumValue + ".");
+    	}
+    	
+    	return value;
+    }
+    
+    /**
+     * Look up the minified output cache size, zero disables the cache.
+     * 
+     * @return Cache size in bytes
+     */
+    protected long getMinifiedCacheSize() {
+    	return getIntegerConfigParam(minifiedCacheSizeParam, BuildStatusManager.DEFAULT_MINIFIED_CACHE_SIZE_MB, 0) * 1024L * 1024L;
+    }
+    
     /**
      * Confirm the path parameter points to an existing directory
      * on the system.
@@ -0,0 +1,70 @@
+package org.dtk.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 digests, hex encoded, used to key cached content by its text.
+ *
+ * @author James Thomas
+ */
+
+public class DigestUtil {
+	/** Digest algorithm */
+	protected static final String DIGEST_ALGO = "SHA-1";
+
+	/** Text encoding for digests */
+	protected static final String ENCODING = "UTF-8";
+
+	/**
+	 * Create new SHA-1 message digest.
+	 *
+	 * @return Message digest
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGO);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encode text as UTF-8 bytes.
+	 *
+	 * @param text - Text to encode
+	 * @return Encoded text
+	 */
+	public static byte[] getBytes(String text) {
+		try {
+			return text.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Hex encoded SHA-1 digest of text, encoded as UTF-8.
+	 *
+	 * @param text - Text to digest
+	 * @return Hex encoded digest
+	 */
+	public static String sha1Hex(String text) {
+		StringBuilder hex = new StringBuilder();
+		appendHex(hex, createDigest().digest(getBytes(text)));
+		return hex.toString();
+	}
+
+	/**
+	 * Append hex encoded bytes.
+	 *
+	 * @param hex - Hex encoded output
+	 * @param bytes - Bytes to encode
+	 */
+	public static void appendHex(StringBuilder hex, byte[] bytes) {
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+	}
+}
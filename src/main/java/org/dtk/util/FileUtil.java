@@ -1,9 +1,8 @@
 package org.dtk.util;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -13,6 +12,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -26,8 +28,13 @@ import java.util.zip.ZipOutputStream;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.io.IOUtils;
+
 public class FileUtil {
 
+	/** Buffer size used when copying file contents between streams */
+	protected static final int COPY_BUFFER_SIZE = 64 * 1024;
+
 	public static void writeToZipFile(String path, Map<String, byte[]> files) throws IOException {
 		File file = new File(path);
 
@@ -55,6 +62,67 @@ public class FileUtil {
 		out.close();
 	}
 
+	/**
+	 * Write files into a new zip archive, streaming each file's contents straight 
+	 * into the archive through a single copy buffer. Memory use doesn't depend on 
+	 * the size or number of files. Archive is written to a temporary file and 
+	 * renamed when complete, so a partial archive is never visible at the path.
+	 * 
+	 * @param path - Archive file path
+	 * @param files - Archive entry names mapped to source files
+	 * @param compressionLevel - Deflate level, 0-9, or -1 for default
+	 * @throws IOException - Unable to read source files or write archive
+	 */
+	public static void writeFilesToZipFile(String path, Map<String, File> files, int compressionLevel) 
+		throws IOException {
+		File file = new File(path);
+		File partialFile = new File(path + ".partial");
+
+		//Make sure destination dir exists.
+		File parentDir = file.getParentFile();
+		if(!parentDir.exists()){
+			if(!parentDir.mkdirs()){
+				throw new IOException("Could not create directory: " + parentDir.getAbsolutePath());
+			}
+		}
+
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile)));
+		out.setLevel(compressionLevel);
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		boolean completed = false;
+
+		try {
+			for (Map.Entry<String, File> entry: files.entrySet()) {
+				out.putNextEntry(new ZipEntry(entry.getKey()));
+				InputStream in = new FileInputStream(entry.getValue());
+				try {
+					int bytesRead = in.read(buffer);
+					while (bytesRead != -1) {
+						out.write(buffer, 0, bytesRead);
+						bytesRead = in.read(buffer);
+					}
+				} finally {
+					in.close();
+				}
+				out.closeEntry();
+			}
+			// Complete the ZIP file
+			out.close();
+			completed = true;
+		} finally {
+			// Don't leave incomplete archive behind on failure
+			if (!completed) {
+				IOUtils.closeQuietly(out);
+				partialFile.delete();
+			}
+		}
+
+		if (!partialFile.renameTo(file)) {
+			partialFile.delete();
+			throw new IOException("Could not rename archive: " + partialFile.getAbsolutePath());
+		}
+	}
+
 	public static String createTemporaryPackage(Map<String, String> packageModules) {
 		String temporaryPackageId = null;
 		Set<String> modulePaths = packageModules.keySet();
@@ -251,20 +319,9 @@ public class FileUtil {
 	public static StreamingOutput streamingFileOutput(final String filename, final boolean removeOnFinish) {
 		return new StreamingOutput() {			
 			public void write(OutputStream output) throws IOException, WebApplicationException {
-				// Read file, write to output buffer and close stream...
 				File file = new File(filename);
 
-				BufferedInputStream in = new java.io.BufferedInputStream(
-						new DataInputStream(new FileInputStream(file)));                
-				byte[] bytes = new byte[64000];
-				int bytesRead = in.read(bytes);
-
-				while (bytesRead != -1) {
-					output.write(bytes, 0, bytesRead);
-					bytesRead = in.read(bytes);
-				}        
-
-				in.close();
+				transferFileRange(file, 0, file.length(), output);
 
 				// Remove file after streaming completes?
 				if (removeOnFinish) {
@@ -274,6 +331,58 @@ public class FileUtil {
 		};
 	}
 	
+	/**
+	 * Return streaming output for a byte range of a file. Range is 
+	 * inclusive at both ends, matching HTTP Range semantics.
+	 * 
+	 * @param filename - File to stream
+	 * @param start - First byte offset
+	 * @param end - Last byte offset
+	 * @return Streaming output for the range
+	 */
+	public static StreamingOutput streamingFileRangeOutput(final String filename, final long start, final long end) {
+		return new StreamingOutput() {			
+			public void write(OutputStream output) throws IOException, WebApplicationException {
+				transferFileRange(new File(filename), start, end - start + 1, output);
+			}
+		};
+	}
+	
+	/**
+	 * Write section of file to the output stream using FileChannel.transferTo. 
+	 * Servlet output streams aren't channels, so the stream is wrapped and 
+	 * transferTo copies through the wrapper's small heap buffer rather than 
+	 * being zero copy. Only the requested range is read, without loading 
+	 * the file into memory.
+	 * 
+	 * @param file - Source file
+	 * @param position - Offset to start from
+	 * @param count - Number of bytes to write
+	 * @param output - Destination stream
+	 * @throws IOException - Unable to read file or write output
+	 */
+	protected static void transferFileRange(File file, long position, long count, OutputStream output) 
+		throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		
+		try {
+			FileChannel fileChannel = in.getChannel();
+			WritableByteChannel outChannel = Channels.newChannel(output);
+			long end = position + count;
+			
+			while (position < end) {
+				long transferred = fileChannel.transferTo(position, end - position, outChannel);
+				// File truncated whilst streaming, nothing left to send.
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
 	/**
 	 * Substitute any environment variables in the file path
 	 * for actual values. 
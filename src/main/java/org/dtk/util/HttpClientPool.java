@@ -0,0 +1,173 @@
+package org.dtk.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Shared HTTP client for retrieving remote resources, e.g. pages and
+ * modules analysed for dependencies. Connections are pooled and kept alive
+ * between requests, with a limit on connections open to each host. The
+ * client is safe to use from multiple threads. Callers making many requests
+ * concurrently take a permit for the host first, so requests queue for the
+ * host here rather than timing out waiting for a pooled connection.
+ *
+ * @author James Thomas
+ */
+
+public final class HttpClientPool {
+	/** Single instance of the client pool */
+	protected static final HttpClientPool INSTANCE = new HttpClientPool();
+
+	/** Default maximum connections open to each host */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+
+	/** Maximum connections open across all hosts */
+	protected static final int MAX_TOTAL_CONNECTIONS = 100;
+
+	/** Timeout connecting, reading and waiting for a pooled connection */
+	protected static final int TIMEOUT_MILLIS = 30 * 1000;
+
+	/** Idle time before closing a kept alive connection, unless the server says otherwise */
+	protected static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+
+	/** Keep connections alive for the server's timeout, or the default when missing */
+	protected static final ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = super.getKeepAliveDuration(response, context);
+			return (duration > 0) ? duration : DEFAULT_KEEP_ALIVE_MILLIS;
+		}
+	};
+
+	/** Maximum connections open to each host */
+	protected volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+	/** Pooled client, created on first use */
+	protected HttpClient httpClient;
+
+	/** Permits for concurrent requests to each host, shared by all callers */
+	protected final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private HttpClientPool() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+	}
+
+	/**
+	 * Return static instance of HttpClientPool
+	 *
+	 * @return Client pool instance.
+	 */
+	public static HttpClientPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Return shared client, creating the connection pool with
+	 * current settings when first accessed.
+	 *
+	 * @return Pooled HTTP client
+	 */
+	public synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			HttpParams params = new BasicHttpParams();
+			HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+			HttpConnectionParams.setConnectionTimeout(params, TIMEOUT_MILLIS);
+			HttpConnectionParams.setSoTimeout(params, TIMEOUT_MILLIS);
+			ConnManagerParams.setTimeout(params, TIMEOUT_MILLIS);
+			ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerHost));
+
+			SchemeRegistry schemeRegistry = new SchemeRegistry();
+			schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+			ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+			DefaultHttpClient pooledClient = new DefaultHttpClient(connectionManager, params);
+			pooledClient.setKeepAliveStrategy(keepAliveStrategy);
+			httpClient = pooledClient;
+		}
+
+		return httpClient;
+	}
+
+	/**
+	 * Maximum connections, and concurrent requests, to each host.
+	 *
+	 * @return Connections per host
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Set maximum connections to each host. Any existing pool
+	 * is closed, a new pool is created on next use.
+	 *
+	 * @param maxConnectionsPerHost - Connections per host
+	 */
+	public synchronized void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		hostPermits.clear();
+		shutdown();
+	}
+
+	/**
+	 * Wait for a permit to make a request to the host, limiting concurrent
+	 * requests to the maximum connections per host across every caller.
+	 * Permit must be released on the returned semaphore.
+	 *
+	 * @param host - Host, with any port, e.g. "localhost:8080"
+	 * @return Semaphore holding the permit
+	 * @throws InterruptedException - Interrupted whilst waiting
+	 */
+	public Semaphore acquireHostPermit(String host) throws InterruptedException {
+		Semaphore permits = hostPermits.get(host);
+
+		if (permits == null) {
+			Semaphore hostLimit = new Semaphore(maxConnectionsPerHost, true);
+			permits = hostPermits.putIfAbsent(host, hostLimit);
+			if (permits == null) {
+				permits = hostLimit;
+			}
+		}
+
+		permits.acquire();
+		return permits;
+	}
+
+	/**
+	 * Close all pooled connections.
+	 */
+	public synchronized void shutdown() {
+		if (httpClient != null) {
+			httpClient.getConnectionManager().shutdown();
+			httpClient = null;
+		}
+	}
+}
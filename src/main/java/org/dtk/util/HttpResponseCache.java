@@ -0,0 +1,403 @@
+package org.dtk.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.dtk.metrics.Counter;
+import org.dtk.metrics.Gauge;
+import org.dtk.metrics.MetricsRegistry;
+
+/**
+ * Bounded cache of remote resources, e.g. scripts and modules downloaded
+ * during application analysis, shared by all requests. Responses are kept
+ * while fresh according to the Cache-Control and Expires headers, then
+ * revalidated using ETag and Last-Modified validators, so unchanged
+ * resources aren't downloaded again. Responses marked no-store or private,
+ * and those with no freshness or validators, aren't cached. Responses are
+ * held in a bounded least recently used cache, sized by their content.
+ *
+ * @author James Thomas
+ */
+
+public final class HttpResponseCache {
+	/** Single instance of the response cache */
+	protected static final HttpResponseCache INSTANCE = new HttpResponseCache();
+
+	/** Default limit on cached content, in megabytes */
+	public static final int DEFAULT_MAX_SIZE_MB = 32;
+
+	/** Largest response cached, as a fraction of the cache size */
+	protected static final int MAX_ENTRY_FRACTION = 8;
+
+	/** Upper limit for heuristic freshness of responses without explicit expiry */
+	protected static final long MAX_HEURISTIC_MILLIS = 24L * 60 * 60 * 1000;
+
+	/** Default character set for text content, as used by HttpClient */
+	protected static final String DEFAULT_CHARSET = HTTP.DEFAULT_CONTENT_CHARSET;
+
+	/** Cached responses by location, hits answered without contacting the server, misses downloaded in full */
+	protected final BoundedLruCache<CachedResponse> responses = new BoundedLruCache<CachedResponse>(DEFAULT_MAX_SIZE_MB * 1024L * 1024L,
+		new BoundedLruCache.SizeFunction<CachedResponse>() {
+			public long getSize(String location, CachedResponse response) {
+				return response.content.length;
+			}
+		},
+		MetricsRegistry.getInstance().counter("dwb_http_cache_hits_total", "Remote resources served from the response cache."),
+		MetricsRegistry.getInstance().counter("dwb_http_cache_misses_total", "Remote resources downloaded in full."));
+
+	/** Requests where the server confirmed the cached response was unchanged */
+	protected final Counter revalidations = MetricsRegistry.getInstance()
+		.counter("dwb_http_cache_revalidations_total", "Cached remote resources revalidated as unchanged.");
+
+	/**
+	 * Response body with the headers controlling reuse.
+	 */
+	public static class CachedResponse {
+		final byte[] content;
+		final String charset;
+		final String location;
+		final String entityTag;
+		final String lastModified;
+		volatile long expires;
+
+		CachedResponse(byte[] content, String charset, String location, String entityTag, String lastModified, long expires) {
+			this.content = content;
+			this.charset = charset;
+			this.location = location;
+			this.entityTag = entityTag;
+			this.lastModified = lastModified;
+			this.expires = expires;
+		}
+
+		/**
+		 * Raw response body.
+		 *
+		 * @return Response content
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * Character set given by the response content type.
+		 *
+		 * @return Response character set, null if missing
+		 */
+		public String getCharset() {
+			return charset;
+		}
+
+		/**
+		 * Location the response was served from, after following
+		 * any redirects.
+		 *
+		 * @return Response URL
+		 */
+		public String getLocation() {
+			return location;
+		}
+
+		/**
+		 * Response body decoded using the response character set,
+		 * defaulting to ISO-8859-1.
+		 *
+		 * @return Response text
+		 */
+		public String getText() {
+			return getText(DEFAULT_CHARSET);
+		}
+
+		/**
+		 * Response body decoded using the response character set.
+		 *
+		 * @param defaultCharset - Character set when response has none
+		 * @return Response text
+		 */
+		public String getText(String defaultCharset) {
+			try {
+				return new String(content, charset != null ? charset : defaultCharset);
+			} catch (UnsupportedEncodingException e) {
+				return new String(content);
+			}
+		}
+	}
+
+	/**
+	 * Private constructor to enforce singleton pattern.
+	 */
+	private HttpResponseCache() {
+		if (INSTANCE != null) {
+			throw new IllegalStateException("Already instantiated");
+		}
+
+		MetricsRegistry.getInstance().gauge("dwb_http_cache_bytes", "Size of remote resources in the response cache.",
+			new Gauge() {
+				public long getValue() {
+					return getCachedBytes();
+				}
+			});
+	}
+
+	/**
+	 * Return static instance of HttpResponseCache
+	 *
+	 * @return Response cache instance.
+	 */
+	public static HttpResponseCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Retrieve resource at the location given, using the cached response
+	 * when fresh or unchanged.
+	 *
+	 * @param client - HTTP client for requests
+	 * @param location - Resource URL
+	 * @return Response, null unless the resource was available
+	 * @throws IOException - Unable to contact server
+	 */
+	public CachedResponse retrieve(HttpClient client, String location) throws IOException {
+		CachedResponse cached = responses.get(location);
+		long now = System.currentTimeMillis();
+
+		if (cached != null && now < cached.expires) {
+			responses.recordHit();
+			return cached;
+		}
+
+		HttpGet request = new HttpGet(location);
+		if (cached != null && cached.entityTag != null) {
+			request.addHeader("If-None-Match", cached.entityTag);
+		}
+		if (cached != null && cached.lastModified != null) {
+			request.addHeader("If-Modified-Since", cached.lastModified);
+		}
+
+		HttpContext context = new BasicHttpContext();
+		HttpResponse response = client.execute(request, context);
+		int statusCode = response.getStatusLine().getStatusCode();
+		HttpEntity entity = response.getEntity();
+
+		if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+			consume(entity);
+			revalidations.increment();
+			cached.expires = getExpiry(response, now);
+			return cached;
+		}
+
+		if (statusCode != HttpStatus.SC_OK) {
+			consume(entity);
+			return null;
+		}
+
+		responses.recordMiss();
+		byte[] content = (entity != null) ? EntityUtils.toByteArray(entity) : new byte[0];
+		String charset = (entity != null) ? EntityUtils.getContentCharSet(entity) : null;
+		CachedResponse fetched = new CachedResponse(content, charset, getFinalLocation(context, location), getHeaderValue(response, "ETag"),
+			getHeaderValue(response, "Last-Modified"), getExpiry(response, now));
+
+		if (isCacheable(response, fetched)) {
+			responses.put(location, fetched);
+		} else if (cached != null) {
+			responses.remove(location);
+		}
+
+		return fetched;
+	}
+
+	/**
+	 * Set limit on total size of cached content, removing
+	 * responses if the cache is now too large.
+	 *
+	 * @param maxBytes - Cache size in bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		responses.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Total size of cached content.
+	 *
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return responses.getCachedBytes();
+	}
+
+	/**
+	 * Remove all cached responses.
+	 */
+	public void clear() {
+		responses.clear();
+	}
+
+	/**
+	 * Can the response be stored and reused? Must not be marked as
+	 * no-store or private, must fit in the cache and be reusable either
+	 * without contacting the server or by revalidation.
+	 *
+	 * @param response - Server response
+	 * @param fetched - Response details
+	 * @return Response should be cached
+	 */
+	protected boolean isCacheable(HttpResponse response, CachedResponse fetched) {
+		if (hasCacheDirective(response, "no-store") || hasCacheDirective(response, "private")) {
+			return false;
+		}
+
+		if (fetched.content.length > responses.getMaxBytes() / MAX_ENTRY_FRACTION) {
+			return false;
+		}
+
+		return fetched.expires > System.currentTimeMillis() || fetched.entityTag != null || fetched.lastModified != null;
+	}
+
+	/**
+	 * Calculate the time a response stays fresh. Uses max-age, falling back
+	 * to Expires relative to Date, then a tenth of the time since the resource
+	 * was last modified. Responses marked no-cache must always be revalidated.
+	 *
+	 * @param response - Server response
+	 * @param now - Time the request was sent
+	 * @return Expiry time, in milliseconds
+	 */
+	protected long getExpiry(HttpResponse response, long now) {
+		if (hasCacheDirective(response, "no-cache")) {
+			return now;
+		}
+
+		for (Header header: response.getHeaders("Cache-Control")) {
+			for (HeaderElement element: header.getElements()) {
+				if ("s-maxage".equalsIgnoreCase(element.getName()) || "max-age".equalsIgnoreCase(element.getName())) {
+					try {
+						return now + Long.parseLong(element.getValue().trim()) * 1000L;
+					} catch (RuntimeException e) {
+						return now;
+					}
+				}
+			}
+		}
+
+		Date date = getDateHeader(response, "Date");
+		long serverNow = (date != null) ? date.getTime() : now;
+
+		Date expires = getDateHeader(response, "Expires");
+		if (response.containsHeader("Expires")) {
+			return (expires != null) ? now + Math.max(0, expires.getTime() - serverNow) : now;
+		}
+
+		Date lastModified = getDateHeader(response, "Last-Modified");
+		if (lastModified != null) {
+			return now + Math.min(MAX_HEURISTIC_MILLIS, Math.max(0, serverNow - lastModified.getTime()) / 10);
+		}
+
+		return now;
+	}
+
+	/**
+	 * Find the location of the final request sent, once redirects have
+	 * been followed, from the request execution context.
+	 *
+	 * @param context - Request execution context
+	 * @param location - Location originally requested
+	 * @return Final request location, the original location if unknown
+	 */
+	protected static String getFinalLocation(HttpContext context, String location) {
+		Object request = context.getAttribute(ExecutionContext.HTTP_REQUEST), 
+			host = context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+
+		if (request instanceof HttpUriRequest) {
+			URI uri = ((HttpUriRequest) request).getURI();
+			if (uri.isAbsolute()) {
+				return uri.toString();
+			}
+			if (host instanceof HttpHost) {
+				return ((HttpHost) host).toURI() + uri;
+			}
+		}
+
+		return location;
+	}
+
+	/**
+	 * Does the Cache-Control header contain the directive?
+	 *
+	 * @param response - Server response
+	 * @param directive - Directive name
+	 * @return Directive is present
+	 */
+	protected static boolean hasCacheDirective(HttpResponse response, String directive) {
+		for (Header header: response.getHeaders("Cache-Control")) {
+			for (HeaderElement element: header.getElements()) {
+				if (directive.equalsIgnoreCase(element.getName())) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Parse date header value.
+	 *
+	 * @param response - Server response
+	 * @param name - Header name
+	 * @return Header date, null if missing or invalid
+	 */
+	protected static Date getDateHeader(HttpResponse response, String name) {
+		String value = getHeaderValue(response, name);
+
+		if (value != null) {
+			try {
+				return DateUtils.parseDate(value);
+			} catch (DateParseException e) {
+				// Invalid dates are treated as missing
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Value of the first header with this name.
+	 *
+	 * @param response - Server response
+	 * @param name - Header name
+	 * @return Header value, null if missing
+	 */
+	protected static String getHeaderValue(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return (header != null) ? header.getValue() : null;
+	}
+
+	/**
+	 * Read and discard response body, releasing the connection.
+	 *
+	 * @param entity - Response body, may be null
+	 * @throws IOException - Unable to read body
+	 */
+	protected static void consume(HttpEntity entity) throws IOException {
+		if (entity != null) {
+			entity.consumeContent();
+		}
+	}
+}
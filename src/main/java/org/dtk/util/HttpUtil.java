@@ -2,8 +2,10 @@ package org.dtk.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -16,6 +18,9 @@ import javax.ws.rs.core.MultivaluedMap;
 import org.apache.wink.common.internal.MultivaluedMapImpl;
 import org.apache.wink.common.model.multipart.BufferedInMultiPart;
 import org.apache.wink.common.model.multipart.InPart;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 
 public class HttpUtil {
 	/** Content disposition HTTP header */
@@ -24,12 +29,35 @@ public class HttpUtil {
 	/** Filename for build result */
 	public static final String contentDispositionAttachment = "attachment; filename=dojo.zip";
 
+	/** Conditional and range request headers */
+	public static final String ifNoneMatch = "If-None-Match";
+	
+	public static final String ifRange = "If-Range";
+	
+	public static final String range = "Range";
+	
+	/** Range and length response headers */
+	public static final String acceptRanges = "Accept-Ranges";
+	
+	public static final String contentRange = "Content-Range";
+	
+	public static final String contentLength = "Content-Length";
+
+	/** Prefix marking a weak entity tag */
+	protected static final String weakEntityTagPrefix = "W/";
+
 	/** Regex pattern to match name attributes in content disposition header */
 	protected static final String namePatternStr = "name=\"(.+?)\"";
 
 	/** Regex pattern */
 	protected static final Pattern namePattern = Pattern.compile(namePatternStr);
 
+	/** Single byte range request, "bytes=start-end", either end may be missing */
+	protected static final Pattern byteRangePattern = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+	/** Character set parameter in a content type, "text/html; charset=UTF-8" */
+	protected static final Pattern charsetPattern = Pattern.compile("charset=[\"']?([^\\s;\"']+)", Pattern.CASE_INSENSITIVE);
+
 	/** Resource path format, "context_path/servet_path/resource_path" */
 	protected static final String resourcePathFormat = "%1$s/%2$s";
 	
@@ -89,6 +117,181 @@ public class HttpUtil {
 		return formPartName; 
 	}
 	
+	/**
+	 * Parse the value of a Range header into inclusive start and end 
+	 * offsets for a resource of the given length. Only single byte ranges
+	 * are supported, missing, malformed or multiple ranges return null and
+	 * the full resource should be sent. Ranges starting beyond the end of the
+	 * resource are returned with start greater than or equal to length, 
+	 * which callers should treat as unsatisfiable. 
+	 * 
+	 * @param rangeHeader - Range header value, may be null
+	 * @param length - Resource length in bytes
+	 * @return Start and end offsets, or null to ignore range
+	 */
+	public static long[] parseByteRange(String rangeHeader, long length) {
+		if (rangeHeader == null) {
+			return null;
+		}
+		
+		Matcher matcher = byteRangePattern.matcher(rangeHeader.trim());
+		if (!matcher.matches()) {
+			return null;
+		}
+		
+		String first = matcher.group(1), last = matcher.group(2);
+		long start, end;
+		
+		try {
+			if (first.length() == 0) {
+				// Suffix range, "bytes=-500" is the final 500 bytes.
+				if (last.length() == 0) {
+					return null;
+				}
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength == 0) {
+					return new long[] {length, length};
+				}
+				start = Math.max(0, length - suffixLength);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = (last.length() == 0) ? Long.MAX_VALUE : Long.parseLong(last);
+				if (end < start) {
+					return null;
+				}
+				end = Math.min(end, length - 1);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		
+		return new long[] {start, end};
+	}
+	
+	/**
+	 * Does an If-None-Match or If-Range header value contain the entity tag?
+	 * Weak comparison, used for If-None-Match, ignores the "W/" prefix on 
+	 * weak tags. Strong comparison, used for If-Range, never matches weak 
+	 * tags, as the resource bytes may differ.
+	 * 
+	 * @param headerValue - Header value, comma separated list of tags or "*"
+	 * @param entityTag - Quoted strong entity tag of the current resource
+	 * @param weakComparison - Allow weak tags to match
+	 * @return Header matches the entity tag
+	 */
+	public static boolean entityTagMatches(String headerValue, String entityTag, boolean weakComparison) {
+		if (headerValue == null) {
+			return false;
+		}
+		
+		for (String tag: headerValue.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith(weakEntityTagPrefix)) {
+				if (!weakComparison) {
+					continue;
+				}
+				tag = tag.substring(weakEntityTagPrefix.length());
+			}
+			
+			if (tag.equals("*") || tag.equals(entityTag)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Parse HTML page content, decoding with the response character set. 
+	 * Pages served without one are decoded with the character set declared 
+	 * by a meta element, falling back to the default, as Jsoup does when 
+	 * fetching pages itself.
+	 * 
+	 * @param content - Raw page content
+	 * @param charset - Response character set, may be null
+	 * @param defaultCharset - Character set when the page declares none
+	 * @param baseUri - Page location, after following redirects
+	 * @return Parsed document
+	 */
+	public static Document parseHtmlDocument(byte[] content, String charset, String defaultCharset, String baseUri) {
+		if (charset != null) {
+			return Jsoup.parse(decodeContent(content, charset, defaultCharset), baseUri);
+		}
+		
+		Document document = Jsoup.parse(decodeContent(content, defaultCharset, defaultCharset), baseUri);
+		String declaredCharset = getDeclaredCharset(document);
+		
+		if (declaredCharset != null && !declaredCharset.equalsIgnoreCase(defaultCharset)) {
+			document = Jsoup.parse(decodeContent(content, declaredCharset, defaultCharset), baseUri);
+		}
+		
+		return document;
+	}
+	
+	/**
+	 * Find character set declared by the page, either through the HTML5 
+	 * meta charset attribute or a http-equiv content type.
+	 * 
+	 * @param document - Parsed document
+	 * @return Declared character set, null if missing
+	 */
+	protected static String getDeclaredCharset(Document document) {
+		for (Element meta: document.getElementsByTag("meta")) {
+			if (meta.hasAttr("charset") && meta.attr("charset").trim().length() > 0) {
+				return meta.attr("charset").trim();
+			}
+			
+			if ("content-type".equalsIgnoreCase(meta.attr("http-equiv"))) {
+				Matcher matcher = charsetPattern.matcher(meta.attr("content"));
+				if (matcher.find()) {
+					return matcher.group(1);
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Decode content, using the default character set when the 
+	 * character set is illegal or isn't supported.
+	 * 
+	 * @param content - Raw content
+	 * @param charset - Character set
+	 * @param defaultCharset - Fallback character set
+	 * @return Decoded text
+	 */
+	protected static String decodeContent(byte[] content, String charset, String defaultCharset) {
+		try {
+			if (isSupportedCharset(charset)) {
+				return new String(content, charset);
+			}
+			if (isSupportedCharset(defaultCharset)) {
+				return new String(content, defaultCharset);
+			}
+		} catch (UnsupportedEncodingException e) {
+			// Checked as supported above, fall through to platform default
+		}
+		
+		return new String(content);
+	}
+	
+	/**
+	 * Is the character set name legal and supported? Names taken
+	 * from page markup, e.g. "{{charset}}", may not be legal.
+	 * 
+	 * @param charset - Character set name
+	 * @return Character set can be used for decoding
+	 */
+	protected static boolean isSupportedCharset(String charset) {
+		try {
+			return charset != null && Charset.isSupported(charset);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Return an absolute URL for the relative resource path, given the 
 	 * passed context.
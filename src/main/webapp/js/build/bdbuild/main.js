@@ -85,10 +85,17 @@ define(["require", "dojo/has"], function(require, has){
 		var
 			gateListeners = bc.gateListeners = [],
 
+			// called once all resources have been advised of a gate, transforms running work on host
+			// threads wait for it here and call back, letting those resources continue through the gate
+			joinListeners = bc.joinListeners = [],
+
 			transforms = bc.transforms,
 			transformJobs = bc.transformJobs,
 			transformJobsLength = transformJobs.length,
 
+			// build events recorder provided by the host, if any
+			events = bc.events = typeof buildEvents!="undefined" ? buildEvents : 0,
+
 			// all discovered resources
 			resources = [],
 
@@ -97,7 +104,15 @@ define(["require", "dojo/has"], function(require, has){
 				resource.error = true;
 			},
 
+			transformFinished = function(resource){
+				if(events){
+					var proc = resource.job[resource.jobPos][0];
+					events.transformFinished(proc.transformId || "unknown", resource.mid || resource.src, (new Date()).getTime() - resource.transformStarted);
+				}
+			},
+
 			returnFromAsyncProc = function(resource, err){
+				transformFinished(resource);
 				bc.waiting--;
 				if(err){
 					// notice reportError can decide to continue or panic
@@ -124,11 +139,13 @@ define(["require", "dojo/has"], function(require, has){
 					if(candidate && candidate[1]<=bc.currentGate){
 						resource.jobPos++;
 						bc.waiting++;
+						resource.transformStarted = (new Date()).getTime();
 						err = candidate[0](resource, returnFromAsyncProc);
 						if(err===returnFromAsyncProc){
 							// the transform proc must call returnFromAsyncProc when complete
 							return;
 						}
+						transformFinished(resource);
 						bc.waiting--;
 						if(err){
 							// notice we reportError can decide to continue or panic
@@ -151,6 +168,7 @@ define(["require", "dojo/has"], function(require, has){
 				while(1){
 					bc.currentGate = ++currentGate;
 					bc.log("pacify", "starting " + bc.gates[bc.currentGate][2] + "...");
+					events && events.phaseStarted(bc.gates[bc.currentGate][2]);
 					gateListeners.forEach(function(listener){
 						listener(bc.gates[bc.currentGate][1]);
 					});
@@ -176,6 +194,7 @@ define(["require", "dojo/has"], function(require, has){
 					// hold the next gate until all resources have been advised
 					bc.waiting++;
 					resources.forEach(function(resource){ advance(resource, 0); });
+					joinListeners.forEach(function(listener){ listener(); });
 					// release the hold placed above
 					passGate();
 				}else{
@@ -254,6 +273,8 @@ define(["require", "dojo/has"], function(require, has){
 				for(var id, proc, i=0; i<transformNames.length;){
 					id = transformNames[i++];
 					proc = arguments[argsPos++];
+					// name reported with transform timings
+					proc.transformId = id;
 					// replace every occurence of id with proc
 					transformJobs.forEach(function(item){
 						// item is a [predicate, vector of [transformId, gateId] pairs] pairs
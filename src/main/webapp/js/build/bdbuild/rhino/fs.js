@@ -1,21 +1,35 @@
 define([], function() {
 	var
+		// build events recorder provided by the host, if any
+		events = typeof buildEvents!="undefined" ? buildEvents : 0,
+
+		// file system access provided by the host, if any
+		host = typeof buildFileSystem!="undefined" ? buildFileSystem : 0,
+
 		readFileSync = function(filename, encoding) {
 			if (encoding=="utf8") {
 				// convert node.js idiom to rhino idiom
 				encoding = "utf-8";
 			}
+			if (host) {
+				return host.readFileSync(filename, encoding || "utf-8");
+			}
+			events && events.fileRead((new java.io.File(filename)).length());
 			return readFile(filename, encoding || "utf-8");
 		},
 
 		writeFileSync = function(filename, contents, encoding){
-			var
-				outFile = new java.io.File(filename),
-				outWriter;
 			if (encoding=="utf8") {
 				// convert node.js idiom to java idiom
 				encoding = "UTF-8";
 			}
+			if (host) {
+				host.writeFileSync(filename, contents, encoding || null);
+				return;
+			}
+			var
+				outFile = new java.io.File(filename),
+				outWriter;
 			if(encoding){
 				outWriter = new java.io.OutputStreamWriter(new java.io.FileOutputStream(outFile), encoding);
 			}else{
@@ -28,14 +42,19 @@ define([], function() {
 			}finally{
 				os.close();
 			}
+			events && events.fileWritten(outFile.length());
 		};
 
 	return {
 		statSync:function(filename) {
-			return new java.io.File(filename);
+			return host ? host.statSync(filename) : new java.io.File(filename);
 		},
 
 		mkdirSync:function(filename) {
+			if (host) {
+				host.mkdirSync(filename);
+				return;
+			}
 			var dir = new java.io.File(filename);
 			if (!dir.exists()) {
 				dir.mkdirs();
@@ -46,6 +65,9 @@ define([], function() {
 
 		readdirSync:function(path) {
 			// the item+"" is necessary because item is a java object that doesn't have the substring method
+			if (host) {
+				return host.readdirSync(path).map(function(item){ return (item+""); });
+			}
 			return (new java.io.File(path)).listFiles().map(function(item){ return (item.name+""); });
 		},
 
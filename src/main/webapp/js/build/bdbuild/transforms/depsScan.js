@@ -12,6 +12,9 @@ define([
 		var
 			newline = bc.newline,
 
+			// host index of dependency scans from previous builds, if any
+			moduleIndex = typeof buildModuleIndex!="undefined" ? buildModuleIndex : 0,
+
 			mix = function(dest, src){
 				dest = dest || {};
 				for(var p in src){
@@ -199,15 +202,37 @@ define([
 				// find the dependencies for this resource using the fast path if the module says it's OK
 				// pure AMD says the module can be executed in the build environment
 				// note: the user can provide a build environment with TODO
+				// returns the scan result, or 0 if the module could not be evaluated
+				var legacyApi = 0;
 				try{
 					if(resource.mid!="dojo/_base/loader" && /dojo\.(require|provide)\s*\(/.test(removeComments(resource.text))){
+						legacyApi = 1;
 						bc.log("amdPureContainedLegacyApi", ["module", resource.mid]);
 					}
 					(new Function("define", "require", resource.text))(simulatedDefine, simulatedRequire);
 					tagAbsMid(absMid);
+					return {deps:aggregateDeps, absMid:absMid, legacyApi:legacyApi};
 				}catch (e){
 					bc.log("amdFailedEval", ["module", resource.mid, "error", e]);
 				}
+				return 0;
+			},
+
+			processIndexedAmdModule = function(){
+				// reuse the scan from a previous build when the module text is unchanged, otherwise
+				// scan the module and record the result; the text is hashed after pragmas are applied
+				var scanned = moduleIndex.lookup(resource.src, resource.text);
+				if(scanned){
+					scanned = json.parse(scanned + "");
+					if(scanned.legacyApi){
+						bc.log("amdPureContainedLegacyApi", ["module", resource.mid]);
+					}
+					aggregateDeps = scanned.deps;
+					absMid = scanned.absMid;
+					tagAbsMid(absMid);
+				}else if((scanned = processPureAmdModule())){
+					moduleIndex.record(resource.src, resource.text, json.stringify(scanned));
+				}
 			},
 
 			convertToStrings = function(text){
@@ -610,7 +635,11 @@ define([
 		if(resource.tag.nls){
 			processNlsBundle();
 		}else if(resource.tag.amd || /\/\/>>\s*pure-amd/.test(resource.text)){
-			processPureAmdModule();
+			if(moduleIndex){
+				processIndexedAmdModule();
+			}else{
+				processPureAmdModule();
+			}
 		}else{
 			processWithRegExs();
 		}
@@ -23,35 +23,56 @@ define([
 	}
 
 	if(has("host-rhino") && (bc.optimize || bc.layerOptimize)){
-		function sscompile(text, dest, optimizeSwitch, copyright){
+		// host service compressing on multiple threads, if any
+		var compressor = typeof buildCompressor!="undefined" ? buildCompressor : 0;
+
+		// host cache of minified output from previous builds, if any
+		var minifiedCache = typeof buildMinifiedCache!="undefined" ? buildMinifiedCache : 0;
+
+		function decodeSwitch(optimizeSwitch){
 			// decode the optimize switch
 			var
 				options = optimizeSwitch.split("."),
-				comments = 0,
-				keepLines = 0,
-				strip = null;
+				decoded = {comments:0, keepLines:0, strip:null};
 			while(options.length){
 				switch(options.pop()){
 				case "normal":
-					strip = "normal";
+					decoded.strip = "normal";
 					break;
 				case "warn":
-					strip = "warn";
+					decoded.strip = "warn";
 					break;
 				case "all":
-					strip = "all";
+					decoded.strip = "all";
 					break;
 				case "keeplines":
-					keepLines = 1;
+					decoded.keepLines = 1;
 					break;
 				case "comments":
-					comments = 1;
+					decoded.comments = 1;
 					break;
 				}
 			}
+			return decoded;
+		}
+
+		function ssfinish(text, keepLines){
+			if(!keepLines){
+				text = text.replace(/[\r\n]/g, "");
+			}
+			return text;
+		}
+
+		// returns minified text, without copyright or built markers
+		function sscompile(text, dest, optimizeSwitch){
+			var
+				options = decodeSwitch(optimizeSwitch),
+				comments = options.comments;
 
 			//Use rhino to help do minifying/compressing.
-			var context = Packages.org.mozilla.javascript.Context.enter();
+			var context = Packages.org.mozilla.javascript.Context.enter(),
+				// the build's context is re-entered here, restore its optimization level when done
+				optimizationLevel = context.getOptimizationLevel();
 			try{
 				// Use the interpreter for interactive input (copied this from Main rhino class).
 				context.setOptimizationLevel(-1);
@@ -66,15 +87,13 @@ define([
 					text = text.replace(/	 /g, "\t");
 				}else{
 					//Apply compression using custom compression call in Dojo-modified rhino.
-					text = new String(Packages.org.dojotoolkit.shrinksafe.Compressor.compressScript(text, 0, 1, strip));
-					if(!keepLines){
-						text = text.replace(/[\r\n]/g, "");
-					}
+					text = ssfinish(new String(Packages.org.dojotoolkit.shrinksafe.Compressor.compressScript(text, 0, 1, options.strip)), options.keepLines);
 				}
 			}finally{
+				context.setOptimizationLevel(optimizationLevel);
 				Packages.org.mozilla.javascript.Context.exit();
 			}
-			return copyright +	built + text;
+			return text;
 		}
 
 		var JSSourceFilefromCode, closurefromCode, jscomp= 0;
@@ -108,22 +127,70 @@ define([
 			return copyright + built + compiler.toSource();
 		}
 
+		var writeResult = function(resource, result, callback){
+			fs.writeFile(resource.dest, result, resource.encoding, function(err){
+				if(err){
+					bc.log("optimizeFailedWrite", ["filename", result.dest]);
+				}
+				callback(resource, err);
+			});
+		};
+
+		// ShrinkSafe jobs queued on the host compressor, in the order submitted
+		var pendingJobs = [];
+
+		// once every resource has been advised of the gate, wait for each queued job in turn
+		// and write its result, exactly as if the resource had been compressed serially
+		compressor && bc.joinListeners.push(function(){
+			while(pendingJobs.length){
+				var pending = pendingJobs.shift(), result, minified;
+				try{
+					minified = ssfinish(new String(pending.job.getResult()), pending.keepLines);
+				}catch(e){
+					bc.log("optimizeFailed", ["module identifier", pending.resource.mid, "exception", e+""]);
+					pending.callback(pending.resource, 0);
+					continue;
+				}
+				pending.cacheKey && minifiedCache.store(pending.cacheKey, minified);
+				result = pending.copyright + built + minified;
+				bc.events && bc.events.optimizeFinished(pending.resource.mid, pending.job.getMillis(), pending.textLength, result.length);
+				writeResult(pending.resource, result, pending.callback);
+			}
+		});
+
 		compile= function(resource, text, copyright, optimizeSwitch, callback){
 			bc.log("optimize", ["module", resource.mid]);
 			copyright = copyright || "";
-			var result = 0;
+			var result = 0, started = (new Date()).getTime(), options, cacheKey, minified;
 			try{
 				if(/closure/.test(optimizeSwitch)){
 					result= ccompile(stripConsoleRe ? text.replace(stripConsoleRe, "0 && $&") : text, resource.dest, optimizeSwitch, copyright);
 				}else{
-					result= sscompile(text, resource.dest, optimizeSwitch, copyright);
-				}
-				fs.writeFile(resource.dest, result, resource.encoding, function(err){
-					if(err){
-						bc.log("optimizeFailedWrite", ["filename", result.dest]);
+					// minified text depends only on the source and switch, reuse it when unchanged
+					cacheKey = minifiedCache && minifiedCache.getKey(optimizeSwitch, text);
+					minified = cacheKey && minifiedCache.lookup(cacheKey);
+					if(minified){
+						minified = new String(minified);
+					}else if(compressor && !(options = decodeSwitch(optimizeSwitch)).comments){
+						// compress on the host's threads, the result is written when joined
+						pendingJobs.push({
+							resource:resource,
+							callback:callback,
+							copyright:copyright,
+							keepLines:options.keepLines,
+							textLength:text.length,
+							cacheKey:cacheKey,
+							job:compressor.compressScript(text, options.strip)
+						});
+						return callback;
+					}else{
+						minified = sscompile(text, resource.dest, optimizeSwitch);
+						cacheKey && minifiedCache.store(cacheKey, minified);
 					}
-					callback(resource, err);
-				});
+					result = copyright + built + minified;
+				}
+				bc.events && bc.events.optimizeFinished(resource.mid, (new Date()).getTime() - started, text.length, result.length);
+				writeResult(resource, result, callback);
 			}catch(e){
 				bc.log("optimizeFailed", ["module identifier", resource.mid, "exception", e+""]);
 				callback(resource, 0);
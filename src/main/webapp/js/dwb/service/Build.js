@@ -14,10 +14,20 @@ dojo.declare("dwb.service.Build", null, {
     // build result polling XHR request. 
     _inflight: null,
 
+    // Status version, build log text and sequence number of the 
+    // last log line seen so far, server holds status requests 
+    // until there's something new.
+    _version: null,
+    _logs: "",
+    _logSeq: 0,
+
     // Schedule a new build request using the profile parameter
     // containing module layers and build options. XHR requests
     // creates a new service request and polls for response.
     schedule: function (request) {
+        this._version = null;
+        this._logs = "";
+        this._logSeq = 0;
         this.onBuildStarted();
 
         // POST new build request, response will contain status link.
@@ -32,6 +42,7 @@ dojo.declare("dwb.service.Build", null, {
 		this._inflight.then(dojo.hitch(this, function (response) {
             this._inflight = dojo.xhrGet({
                 url: response.buildStatusLink,
+                content: {after: 0},
                 handleAs: "json"
             });
                 
@@ -50,28 +61,40 @@ dojo.declare("dwb.service.Build", null, {
     },
 
     // Iteratively poll the build service until the build 
-    // request has completed. Publish the uploaded status logs
-    // to all listeners.
+    // request has completed. Server responds when the status 
+    // changes, returning only new logs. Publish the uploaded 
+    // status logs to all listeners.
     _pollBuildStatus: function (statusUrl, response) {
-        this.onBuildStatusUpdate(response.logs.split("\n"));
+        var unchanged = (response.version === this._version);
+        this._version = response.version;
+        // Logs seen so far belong to an earlier build attempt
+        if (response.logsCleared === "true") {
+            this._logs = "";
+        }
+        this._logs += response.logs;
+        this._logSeq = response.logSeq;
+
+        this.onBuildStatusUpdate(this._logs.split("\n"));
 
 		// If the build has completed, publish location of the resulting build.
 		if (response.state === "COMPLETED") {
 			this.onBuildFinished(response.result);
         // Otherwise, keep polling for log changes.
-		} else if (response.state === "BUILDING" || response.state === "NOT_STARTED") {
+		} else if (response.state === "BUILDING" || response.state === "QUEUED" || response.state === "NOT_STARTED") {
+			// Server wasn't able to hold the request, back off before asking again.
 			setTimeout(dojo.hitch(this, function () {
                 // Check user hasn't tried to cancel build 
                 // during the time we were asleep....
                 if (this._inflight) {
 				    this._inflight = dojo.xhrGet({
                         url: statusUrl,
+                        content: {version: this._version, after: this._logSeq},
                         handleAs: "json"
                     });
 
                     this._inflight.then(dojo.hitch(this, "_pollBuildStatus", statusUrl), this.onBuildFailed);	
                 }
-			}), 500);
+			}), unchanged ? 500 : 0);
 		// An error occurred, indicate this.
 		} else {
 			this.onBuildFailed();
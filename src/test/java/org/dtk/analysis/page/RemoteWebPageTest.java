@@ -7,12 +7,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -21,6 +23,7 @@ import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
@@ -318,6 +321,90 @@ public class RemoteWebPageTest {
 		assertFalse(sourceAvailable);		
 	}
 	
+	@Test
+	public void willDiscoverSameModulesWhenRetrievedConcurrently() throws MalformedURLException, IOException, FatalAnalysisError, ModuleSourceNotAvailable, UnknownModuleIdentifier {		
+		final AtomicInteger inFlight = new AtomicInteger(), maxInFlight = new AtomicInteger();
+		
+		// Earlier modules take longest to retrieve
+		MockHttpClient mockHttpClient = new MockHttpClient() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+				String url = request.getURI().toString();
+				int current = inFlight.incrementAndGet();
+				maxInFlight.set(Math.max(maxInFlight.get(), current));
+				try {
+					Thread.sleep(url.endsWith("dep_one.js") ? 300 : url.endsWith("dep_two.js") ? 150 : 0);
+					return super.execute(request);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			}
+		};
+		
+		mockHttpClient.hostPrefix = "http://localhost/";
+		mockHttpClient.appDir = "sample_apps/amd/local_dtk_with_custom_modules_paths/";		 
+		
+		Document document = Jsoup.parse(getResourceAsString(mockHttpClient.appDir + "index.html"), mockHttpClient.hostPrefix);
+		
+		RemoteWebPage webPage = new RemoteWebPage(document, new URL(mockHttpClient.hostPrefix), mockHttpClient);										
+		
+		assertEquals(Arrays.asList("sample/app", "sample/dep_one", "sample/dep_two", "sample/dep_three"), 
+			webPage.getModules().get("sample"));
+		assertEquals(getResourceAsString(mockHttpClient.appDir + "/sample/dep_one.js"),
+			webPage.getModuleSource("sample/dep_one"));
+		assertTrue(maxInFlight.get() > 1);
+	}
+	
+	@Test
+	public void willRetryTransientModuleFetchFailures() throws IOException, InterruptedException {
+		final AtomicInteger attempts = new AtomicInteger();
+		String location = "http://localhost/retried_module.js?" + System.nanoTime();
+		
+		// Server drops the first connection without responding
+		MockHttpClient mockHttpClient = new MockHttpClient() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+				if (attempts.incrementAndGet() == 1) {
+					throw new NoHttpResponseException("Connection dropped");
+				}
+				HttpResponse response = new BasicHttpResponse(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_OK, null));
+				response.setEntity(new StringEntity("define([], {});"));
+				return response;
+			}
+		};
+		
+		RemoteWebPage webPage = new RemoteWebPage(new Document(""), new URL("http://localhost/"), mockHttpClient);
+		
+		assertEquals("define([], {});", webPage.fetchModuleSource(location));
+		assertEquals(2, attempts.get());
+	}
+	
+	@Test
+	public void willNotRetryPermanentModuleFetchFailures() throws IOException, InterruptedException {
+		final AtomicInteger attempts = new AtomicInteger();
+		String location = "http://unknown.invalid/module.js?" + System.nanoTime();
+		
+		MockHttpClient mockHttpClient = new MockHttpClient() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+				attempts.incrementAndGet();
+				throw new UnknownHostException("unknown.invalid");
+			}
+		};
+		
+		RemoteWebPage webPage = new RemoteWebPage(new Document(""), new URL("http://localhost/"), mockHttpClient);
+		
+		try {
+			webPage.fetchModuleSource(location);
+			fail("Unknown host should not be retrieved");
+		} catch (UnknownHostException e) {
+			// Expected
+		}
+		assertEquals(1, attempts.get());
+	}
+	
 	// Utility method
 	private String getResourceAsString(String filePath) throws IOException {
 		InputStream is = getClass().getClassLoader().getResourceAsStream(filePath);		
@@ -0,0 +1,77 @@
+package org.dtk.analysis.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.dtk.analysis.script.config.LoaderConfigParser;
+import org.dtk.analysis.script.dependency.AMDScriptParser;
+import org.dtk.analysis.script.dependency.NonAMDScriptParser;
+import org.dtk.analysis.script.node.ObjectLiteral;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ScriptParseCache class.
+ *
+ * @author James Thomas
+ */
+
+public class ScriptParseCacheTest {
+
+	private final ScriptParseCache cache = ScriptParseCache.getInstance();
+
+	@Before
+	public void clearCache() {
+		cache.clear();
+		cache.setMaxBytes(ScriptParseCache.DEFAULT_MAX_SIZE_MB * 1024L * 1024L);
+	}
+
+	@Test
+	public void reusesDependenciesForSameSource() {
+		String source = "require([\"dojo/parser\", \"dijit/form/Button\"]);";
+
+		List<String> parsed = cache.getModuleDependencies(new AMDScriptParser(source), source);
+		List<String> cached = cache.getModuleDependencies(new AMDScriptParser(new String(source)), source);
+
+		assertEquals(Arrays.asList("dojo/parser", "dijit/form/Button"), parsed);
+		assertSame(parsed, cached);
+	}
+
+	@Test
+	public void separatesResultsByParserAndSource() {
+		String source = "dojo.require(\"dijit.form.Button\");";
+
+		assertEquals(Arrays.asList("dijit.form.Button"), cache.getModuleDependencies(new NonAMDScriptParser(source), source));
+		assertTrue(cache.getModuleDependencies(new AMDScriptParser(source), source).isEmpty());
+
+		String changed = "dojo.require(\"dijit.form.Select\");";
+		assertEquals(Arrays.asList("dijit.form.Select"), cache.getModuleDependencies(new NonAMDScriptParser(changed), changed));
+	}
+
+	@Test
+	public void reusesFullyReadConfiguration() {
+		String source = "var dojoConfig = { async: true, paths: { app: \"../app\" } };";
+
+		cache.getScriptConfig(new LoaderConfigParser(source), source);
+		Map<String, Object> config = cache.getScriptConfig(new LoaderConfigParser(source), source);
+
+		assertEquals(Boolean.TRUE, config.get("async"));
+		assertEquals("../app", ((ObjectLiteral) config.get("paths")).getValue("app"));
+	}
+
+	@Test
+	public void removesLeastRecentlyUsedResultsWhenFull() {
+		String first = "require([\"app/first\"]);", second = "require([\"app/second\"]);";
+
+		List<String> firstParsed = cache.getModuleDependencies(new AMDScriptParser(first), first);
+		cache.setMaxBytes(cache.getCachedBytes());
+		cache.getModuleDependencies(new AMDScriptParser(second), second);
+
+		assertTrue(firstParsed != cache.getModuleDependencies(new AMDScriptParser(first), first));
+	}
+}
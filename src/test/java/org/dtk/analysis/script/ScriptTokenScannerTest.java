@@ -0,0 +1,52 @@
+package org.dtk.analysis.script;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the ScriptTokenScanner class.
+ *
+ * @author James Thomas
+ */
+
+public class ScriptTokenScannerTest {
+
+	private static final List<String> amdMethods = Arrays.asList("require", "define");
+
+	private static boolean containsAmdMethod(String source) {
+		return ScriptTokenScanner.containsIdentifier(source, amdMethods);
+	}
+
+	@Test
+	public void findsIdentifierTokens() {
+		assertTrue(containsAmdMethod("require([\"dojo/parser\"]);"));
+		assertTrue(containsAmdMethod("var x=1;define(function(){});"));
+		assertTrue(containsAmdMethod("dojo.require('dijit.form.Button')"));
+		assertTrue(containsAmdMethod("var a = b / c; require(\"x\") / 2;"));
+	}
+
+	@Test
+	public void ignoresPartialIdentifiers() {
+		assertFalse(containsAmdMethod("var requireAll = 1, undefined, _define = 2;"));
+		assertFalse(containsAmdMethod("$require(); defined();"));
+	}
+
+	@Test
+	public void ignoresCommentsAndStrings() {
+		assertFalse(containsAmdMethod("// require(\"a\")\nvar x = 1; /* define([]) */"));
+		assertFalse(containsAmdMethod("var s = \"require(\\\"a\\\")\", t = 'define';"));
+	}
+
+	@Test
+	public void ignoresRegularExpressions() {
+		assertFalse(containsAmdMethod("var r = /require\\(\"[/\"]/g.test(s);"));
+		assertFalse(containsAmdMethod("if (x) return /define'/;"));
+		assertTrue(containsAmdMethod("var half = total / 2, q = \"/\"; require(['a']);"));
+		assertTrue(containsAmdMethod("i++ / 2; require(['a']); var b = '/';"));
+	}
+}
@@ -127,4 +127,15 @@ public class AMDScriptParserTest {
 		assertEquals(Arrays.asList("some/module/id", "another/module/id"), 
 				getScriptDeps("define('this/module/id', ['some/module/id', 'another/module/id'], function () {});"));
 	}
+	
+	@Test
+	public void detectsDependenciesInScriptWithManyStatements() {
+		StringBuilder source = new StringBuilder("require(['first/module']);");
+		for (int i = 0; i < 50000; i++) {
+			source.append("x").append(i).append(" = ").append(i).append(";");
+		}
+		source.append("require(['last/module']);");
+		
+		assertEquals(Arrays.asList("first/module", "last/module"), getScriptDeps(source.toString()));
+	}
 }
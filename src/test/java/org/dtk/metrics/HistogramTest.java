@@ -0,0 +1,45 @@
+package org.dtk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void smallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 50; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(50, histogram.getCount());
+		assertEquals(1275, histogram.getSum());
+		assertEquals(50, histogram.getMax());
+		assertEquals(25, histogram.getQuantile(0.5));
+		assertEquals(45, histogram.getQuantile(0.9));
+	}
+
+	@Test
+	public void largeValuesAreWithinPrecision() {
+		Histogram histogram = new Histogram();
+		for (long value = 1000; value <= 1000000; value += 1000) {
+			histogram.record(value);
+		}
+
+		long median = histogram.getQuantile(0.5);
+		assertTrue(Math.abs(median - 500000) <= 500000 / 32);
+		assertEquals(1000000, histogram.getQuantile(1.0));
+		assertEquals(0, new Histogram().getQuantile(0.5));
+	}
+
+	@Test
+	public void bucketsCoverAllValues() {
+		for (long value: new long[] {0, 63, 64, 65, 1L << 40, Long.MAX_VALUE}) {
+			int index = Histogram.bucketIndex(value);
+			assertTrue(index < Histogram.BUCKET_COUNT);
+			assertTrue(Histogram.bucketUpperBound(index) >= value);
+		}
+	}
+}
@@ -464,7 +464,8 @@ public class BuildIntegrationTest {
 				assertNotNull(buildResultLocation);
 				break;	
 			} else {
-				assertTrue(buildState.equals(BuildState.NOT_STARTED) || buildState.equals(BuildState.BUILDING));
+				assertTrue(buildState.equals(BuildState.NOT_STARTED) || buildState.equals(BuildState.QUEUED) 
+					|| buildState.equals(BuildState.BUILDING));
 			}
 		} while (System.currentTimeMillis() < futureTimeMillis);
 
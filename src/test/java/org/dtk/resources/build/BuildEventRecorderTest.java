@@ -0,0 +1,52 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BuildEventRecorderTest {
+
+	@Test
+	public void transformTimingsAreAggregated() {
+		BuildEventRecorder recorder = new BuildEventRecorder("reference");
+		for (int i = 0; i < 25; i++) {
+			recorder.transformFinished("read", "module" + i, i);
+		}
+
+		Map<String, Object> events = recorder.getEvents();
+
+		@SuppressWarnings("unchecked")
+		Map<String, Map<String, Object>> transforms = (Map<String, Map<String, Object>>) events.get("transforms");
+		assertEquals(25L, transforms.get("read").get("count"));
+		assertEquals(300L, transforms.get("read").get("totalTime"));
+		assertEquals(24L, transforms.get("read").get("maxTime"));
+
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> slowest = (List<Map<String, Object>>) events.get("slowestTransforms");
+		assertEquals(BuildEventRecorder.SLOWEST_TRANSFORMS, slowest.size());
+		assertEquals("module24", slowest.get(0).get("module"));
+		assertEquals("module15", slowest.get(slowest.size() - 1).get("module"));
+	}
+
+	@Test
+	public void startingPhaseFinishesPrevious() {
+		BuildEventRecorder recorder = new BuildEventRecorder("reference");
+		recorder.phaseStarted("reading");
+		recorder.phaseStarted("writing");
+
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> phases = (List<Map<String, Object>>) recorder.getEvents().get("phases");
+		assertEquals(2, phases.size());
+		assertEquals(-1L, phases.get(1).get("duration"));
+
+		recorder.buildFinished();
+
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> finishedPhases = (List<Map<String, Object>>) recorder.getEvents().get("phases");
+		assertEquals(true, ((Long) finishedPhases.get(1).get("duration")) >= 0);
+		assertEquals(true, recorder.getEvents().get("finished"));
+	}
+}
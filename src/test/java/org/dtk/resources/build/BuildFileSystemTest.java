@@ -0,0 +1,89 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildFileSystemTest {
+
+	private File tempDir;
+
+	private final BuildFileSystem fs = new BuildFileSystem(null);
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("build", "fs");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void readsSmallAndMappedFiles() throws IOException {
+		StringBuilder large = new StringBuilder();
+		while (large.length() < BuildFileSystem.MAP_THRESHOLD_BYTES) {
+			large.append("var caf\u00e9 = \"\u2603\";\n");
+		}
+
+		for (String contents: new String[] {"", "var caf\u00e9 = \"\u2603\";", large.toString()}) {
+			File file = new File(tempDir, "module.js");
+			FileUtils.writeStringToFile(file, contents, "UTF-8");
+			assertEquals(contents, fs.readFileSync(file.getPath(), "utf-8"));
+		}
+	}
+
+	@Test
+	public void writesEncodedContents() throws IOException {
+		String filename = new File(tempDir, "module.js").getPath();
+
+		fs.writeFileSync(filename, "var caf\u00e9;", "UTF-8");
+		assertEquals("var caf\u00e9;", FileUtils.readFileToString(new File(filename), "UTF-8"));
+
+		fs.writeFileSync(filename, "var caf\u00e9;", "ISO-8859-1");
+		assertEquals(9, new File(filename).length());
+	}
+
+	@Test
+	public void cachesStatusUntilPathIsWritten() throws IOException {
+		String dirname = new File(tempDir, "dojo").getPath(),
+			filename = new File(dirname, "module.js").getPath();
+
+		assertFalse(fs.statSync(dirname).isDirectory());
+		assertFalse(fs.statSync(dirname).isDirectory());
+		assertEquals(1, fs.getStatCacheHits());
+
+		fs.mkdirSync(dirname);
+		assertTrue(fs.statSync(dirname).isDirectory());
+
+		assertFalse(fs.statSync(filename).isFile());
+		fs.writeFileSync(filename, "var answer = 42;", "UTF-8");
+		assertTrue(fs.statSync(filename).isFile());
+		assertEquals(16, fs.statSync(filename).getSize());
+	}
+
+	@Test
+	public void listsDirectoryEntries() throws IOException {
+		FileUtils.writeStringToFile(new File(tempDir, "one.js"), "1");
+		FileUtils.writeStringToFile(new File(tempDir, "two.js"), "2");
+
+		String[] names = fs.readdirSync(tempDir.getPath());
+		Arrays.sort(names);
+
+		assertArrayEquals(new String[] {"one.js", "two.js"}, names);
+		assertEquals(0, fs.readdirSync(new File(tempDir, "missing").getPath()).length);
+	}
+}
@@ -0,0 +1,71 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.resources.packages.PackageScanIndex;
+import org.dtk.util.DigestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildModuleIndexTest {
+
+	private File tempDir;
+
+	private PackageScanIndex packageIndex;
+
+	private BuildModuleIndex buildModuleIndex;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("build", "modules");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		packageIndex = new PackageScanIndex();
+		buildModuleIndex = new BuildModuleIndex();
+		buildModuleIndex.addPackage("dojo", "1.7.0", new File(tempDir, "dojo"), packageIndex);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private String getSourcePath(String path) {
+		return new File(tempDir, path).getAbsolutePath().replace('\\', '/');
+	}
+
+	@Test
+	public void reusesScanForUnchangedModuleText() {
+		String src = getSourcePath("dojo/dojo/dom.js"), text = "define([\"./has\"], function () {});";
+
+		assertNull(buildModuleIndex.lookup(src, text));
+		buildModuleIndex.record(src, text, "{\"deps\":[\"./has\"],\"absMid\":0}");
+
+		assertEquals("{\"deps\":[\"./has\"],\"absMid\":0}", buildModuleIndex.lookup(src, text));
+		assertNull(buildModuleIndex.lookup(src, text + "\n// changed"));
+		assertEquals(1, buildModuleIndex.getScanHits());
+		assertEquals(2, buildModuleIndex.getScanMisses());
+		assertTrue(packageIndex.hasUnsavedScanResults());
+		assertEquals("{\"deps\":[\"./has\"],\"absMid\":0}", 
+			packageIndex.getScanResult("dojo/dom", DigestUtil.sha1Hex(text)));
+	}
+
+	@Test
+	public void ignoresModulesOutsideBuildPackages() {
+		String src = getSourcePath("app/main.js"), text = "define([], function () {});";
+
+		buildModuleIndex.record(src, text, "{\"deps\":[],\"absMid\":0}");
+
+		assertNull(buildModuleIndex.lookup(src, text));
+		assertFalse(packageIndex.hasUnsavedScanResults());
+	}
+}
@@ -0,0 +1,165 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BuildRequestTest {
+
+	private static Map<String, String> getReference(String... keyValues) {
+		Map<String, String> reference = new HashMap<String, String>();
+
+		for(int i = 1; i < keyValues.length; i += 2) {
+			reference.put(keyValues[i-1], keyValues[i]);
+		}
+
+		return reference;
+	}
+
+	private static Map<String, Object> getLayer(String name, Map<String, String>... modules) {
+		Map<String, Object> layer = new HashMap<String, Object>();
+		List<Map<String, String>> layerModules = new ArrayList<Map<String, String>>();
+
+		for (Map<String, String> module: modules) {
+			layerModules.add(module);
+		}
+
+		layer.put("name", name);
+		layer.put("modules", layerModules);
+
+		return layer;
+	}
+
+	private static BuildRequest getBuildRequest(List<Map<String, String>> packages, List<Map<String, Object>> layers)
+		throws Exception {
+		return new BuildRequest(packages, "none", "shrinksafe", "comments", "all", "none", layers);
+	}
+
+	@Test
+	public void sameDigestForReorderedModulesAndPackages() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+		packages.add(getReference("name", "dojox", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo"),
+			getReference("name", "dojox.grid.DataGrid", "package", "dojox")));
+
+		List<Map<String, String>> reorderedPackages = new ArrayList<Map<String, String>>();
+		reorderedPackages.add(getReference("version", "1.7.0", "name", "dojox"));
+		reorderedPackages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> reorderedLayers = new ArrayList<Map<String, Object>>();
+		reorderedLayers.add(getLayer("dojo.js", getReference("name", "dojox/grid/DataGrid", "package", "dojox"),
+			getReference("name", "dojo.query", "package", "dojo"), getReference("package", "dojo", "name", " dojo.query")));
+
+		BuildRequest buildRequest = getBuildRequest(packages, layers),
+			reorderedBuildRequest = getBuildRequest(reorderedPackages, reorderedLayers);
+
+		assertEquals(buildRequest.getBuildReference(), reorderedBuildRequest.getBuildReference());
+		assertTrue(buildRequest.isCanonicalForm());
+		assertFalse(reorderedBuildRequest.isCanonicalForm());
+		assertEquals(buildRequest.getBuildReference(), buildRequest.getRequestReference());
+		assertFalse(reorderedBuildRequest.getBuildReference().equals(reorderedBuildRequest.getRequestReference()));
+		assertEquals(reorderedBuildRequest.getRequestReference(), 
+			getBuildRequest(reorderedPackages, reorderedLayers).getRequestReference());
+	}
+
+	@Test
+	public void differentDigestForDifferentModules() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>(),
+			otherLayers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo")));
+		otherLayers.add(getLayer("dojo.js", getReference("name", "dojo.parser", "package", "dojo")));
+
+		assertFalse(getBuildRequest(packages, layers).getBuildReference()
+			.equals(getBuildRequest(packages, otherLayers).getBuildReference()));
+	}
+
+	@Test
+	public void layerOrderIsPreserved() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js"));
+		layers.add(getLayer("app.js", getReference("name", "dojo.query", "package", "dojo")));
+
+		List<Map<String, Object>> canonicalLayers = getBuildRequest(packages, layers).getLayers();
+
+		assertEquals("dojo.js", canonicalLayers.get(0).get("name"));
+		assertEquals("app.js", canonicalLayers.get(1).get("name"));
+	}
+
+	@Test
+	public void layerDigestDependsOnExcludedDojoLayer() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>(),
+			otherLayers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo")));
+		layers.add(getLayer("app.js", getReference("name", "dojo.parser", "package", "dojo")));
+		otherLayers.add(getLayer("dojo.js", getReference("name", "dojo.fx", "package", "dojo")));
+		otherLayers.add(getLayer("app.js", getReference("name", "dojo.parser", "package", "dojo")));
+
+		BuildRequest buildRequest = getBuildRequest(packages, layers),
+			otherBuildRequest = getBuildRequest(packages, otherLayers);
+
+		assertFalse(buildRequest.getLayerDigest(buildRequest.getLayers().get(1))
+			.equals(otherBuildRequest.getLayerDigest(otherBuildRequest.getLayers().get(1))));
+	}
+
+	@Test
+	public void layerDigestIgnoresOtherCustomLayers() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>(),
+			otherLayers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo")));
+		layers.add(getLayer("app.js", getReference("name", "dojo.parser", "package", "dojo")));
+		otherLayers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo")));
+		otherLayers.add(getLayer("app.js", getReference("name", "dojo.parser", "package", "dojo")));
+		otherLayers.add(getLayer("widgets.js", getReference("name", "dojo.fx", "package", "dojo")));
+
+		BuildRequest buildRequest = getBuildRequest(packages, layers),
+			otherBuildRequest = getBuildRequest(packages, otherLayers);
+
+		assertEquals(buildRequest.getLayerDigest(buildRequest.getLayers().get(0)),
+			otherBuildRequest.getLayerDigest(otherBuildRequest.getLayers().get(0)));
+		assertEquals(buildRequest.getLayerDigest(buildRequest.getLayers().get(1)),
+			otherBuildRequest.getLayerDigest(otherBuildRequest.getLayers().get(1)));
+	}
+
+	@Test
+	public void partialBuildsKeepExcludedDojoLayer() throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		packages.add(getReference("name", "dojo", "version", "1.7.0"));
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>();
+		layers.add(getLayer("dojo.js", getReference("name", "dojo.query", "package", "dojo")));
+		layers.add(getLayer("app.js", getReference("name", "dojo.parser", "package", "dojo")));
+		layers.add(getLayer("widgets.js", getReference("name", "dojo.fx", "package", "dojo")));
+
+		BuildRequest buildRequest = getBuildRequest(packages, layers);
+		List<Map<String, Object>> canonicalLayers = buildRequest.getLayers();
+
+		List<Map<String, Object>> profileLayers = buildRequest.getProfileBuildLayers(canonicalLayers.subList(2, 3));
+		assertEquals(2, profileLayers.size());
+		assertEquals("dojo.js", profileLayers.get(0).get("name"));
+		assertEquals("widgets.js", profileLayers.get(1).get("name"));
+
+		assertEquals(1, buildRequest.getProfileBuildLayers(canonicalLayers.subList(0, 1)).size());
+	}
+}
@@ -0,0 +1,79 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.dojotoolkit.shrinksafe.Compressor;
+import org.dtk.resources.build.CompressorService.CompressJob;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+
+/**
+ * Unit tests for the CompressorService class.
+ *
+ * @author James Thomas
+ */
+
+public class CompressorServiceTest {
+
+	private final String sampleModules = "src/test/resources/sample_module_libs";
+
+	private String compressSerially(String source, String stripConsole) {
+		Context cx = Context.enter();
+		try {
+			cx.setOptimizationLevel(-1);
+			return Compressor.compressScript(source, 0, 1, stripConsole);
+		} finally {
+			Context.exit();
+		}
+	}
+
+	@Test
+	public void compressesConcurrentlyMatchingSerialOutput() throws Exception {
+		Collection<File> scripts = FileUtils.listFiles(new File(sampleModules), new String[] {"js"}, true);
+		assertFalse(scripts.isEmpty());
+
+		List<String> sources = new ArrayList<String>();
+		List<CompressJob> jobs = new ArrayList<CompressJob>();
+		for (File script: scripts) {
+			String source = FileUtils.readFileToString(script);
+			sources.add(source);
+			jobs.add(CompressorService.getInstance().compressScript(source, null));
+		}
+
+		for (int i = 0; i < jobs.size(); i++) {
+			assertEquals(compressSerially(sources.get(i), null), jobs.get(i).getResult());
+		}
+	}
+
+	@Test
+	public void stripsConsoleCallsMatchingSerialOutput() throws Exception {
+		String source = "function log(message) {\n\tconsole.warn(message);\n\tconsole.log(\"logged\");\n\treturn message;\n}";
+
+		for (String stripConsole: new String[] {"normal", "warn", "all"}) {
+			assertEquals(compressSerially(source, stripConsole),
+				CompressorService.getInstance().compressScript(source, stripConsole).getResult());
+		}
+	}
+
+	@Test
+	public void rethrowsCompressionErrors() throws IOException {
+		try {
+			CompressorService.getInstance().compressScript("function broken( {", null).getResult();
+			fail("Expected compression of invalid source to fail");
+		} catch (EvaluatorException e) {
+			// Expected, thrown by the parser
+		} catch (Exception e) {
+			fail("Unexpected exception: " + e);
+		}
+	}
+}
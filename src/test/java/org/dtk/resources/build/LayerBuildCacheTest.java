@@ -0,0 +1,97 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayerBuildCacheTest {
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("layer", "cache");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private File createArtifact(String path, String contents) throws IOException {
+		File artifact = new File(tempDir, "artifacts/" + path);
+		FileUtils.writeStringToFile(artifact, contents);
+		return artifact;
+	}
+
+	@Test
+	public void canStoreAndRetrieveEntries() throws IOException {
+		LayerBuildCache cache = new LayerBuildCache(new File(tempDir, "layers"));
+
+		Map<String, File> layerFiles = new LinkedHashMap<String, File>();
+		layerFiles.put("app.js", createArtifact("app.js", "layer"));
+		layerFiles.put("nls/app_en-us.js", createArtifact("nls/app_en-us.js", "bundle"));
+
+		assertFalse(cache.contains("key"));
+		cache.store("key", layerFiles);
+		assertTrue(cache.contains("key"));
+
+		Map<String, File> entryFiles = cache.getEntryFiles("key");
+		assertEquals(2, entryFiles.size());
+		assertEquals("layer", FileUtils.readFileToString(entryFiles.get("app.js")));
+		assertEquals("bundle", FileUtils.readFileToString(entryFiles.get("nls/app_en-us.js")));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void existingEntriesAreKept() throws IOException {
+		LayerBuildCache cache = new LayerBuildCache(new File(tempDir, "layers"));
+
+		Map<String, File> layerFiles = new LinkedHashMap<String, File>();
+		layerFiles.put("app.js", createArtifact("first.js", "first"));
+		cache.store("key", layerFiles);
+
+		layerFiles.put("app.js", createArtifact("second.js", "second"));
+		cache.store("key", layerFiles);
+
+		assertEquals("first", FileUtils.readFileToString(cache.getEntryFiles("key").get("app.js")));
+		assertEquals(1, new File(tempDir, "layers").list().length);
+	}
+
+	@Test
+	public void acquiredEntriesAreNotRemoved() throws IOException {
+		LayerBuildCache cache = new LayerBuildCache(new File(tempDir, "layers"));
+
+		Map<String, File> layerFiles = new LinkedHashMap<String, File>();
+		layerFiles.put("app.js", createArtifact("app.js", "layer"));
+		cache.store("key", layerFiles);
+
+		assertFalse(cache.acquire("missing"));
+		assertTrue(cache.acquire("key"));
+		assertTrue(cache.acquire("key"));
+
+		assertFalse(cache.remove("key"));
+		cache.release("key");
+		assertFalse(cache.remove("key"));
+		assertEquals("layer", FileUtils.readFileToString(cache.getEntryFiles("key").get("app.js")));
+
+		cache.release("key");
+		assertTrue(cache.remove("key"));
+		assertFalse(cache.contains("key"));
+		assertFalse(cache.acquire("key"));
+	}
+}
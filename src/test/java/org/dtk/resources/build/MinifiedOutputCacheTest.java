@@ -0,0 +1,103 @@
+package org.dtk.resources.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.dojotoolkit.shrinksafe.Compressor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+
+public class MinifiedOutputCacheTest {
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("minified", "cache");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private String repeat(char c, int count) {
+		StringBuilder repeated = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			repeated.append(c);
+		}
+		return repeated.toString();
+	}
+
+	@Test
+	public void canStoreAndRetrieveMinifiedOutput() {
+		MinifiedOutputCache cache = new MinifiedOutputCache(tempDir, 1024);
+		String key = MinifiedOutputCache.getKey("shrinksafe", "var answer = 42;");
+
+		assertNull(cache.lookup(key));
+		cache.store(key, "var answer=42;");
+
+		assertEquals("var answer=42;", cache.lookup(key));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(14, cache.getCachedBytes());
+	}
+
+	@Test
+	public void keysDependOnSourceAndOptimizeSwitch() {
+		String key = MinifiedOutputCache.getKey("shrinksafe", "var answer = 42;");
+
+		assertEquals(key, MinifiedOutputCache.getKey("shrinksafe", "var answer = 42;"));
+		assertFalse(key.equals(MinifiedOutputCache.getKey("shrinksafe.keeplines", "var answer = 42;")));
+		assertFalse(key.equals(MinifiedOutputCache.getKey("shrinksafe", "var answer = 43;")));
+	}
+
+	@Test
+	public void fingerprintDependsOnCompressorLibraries() {
+		String fingerprint = MinifiedOutputCache.getCompressorFingerprint(Compressor.class, Context.class);
+
+		assertEquals(fingerprint, MinifiedOutputCache.compressorFingerprint);
+		assertEquals(fingerprint, MinifiedOutputCache.getCompressorFingerprint(Compressor.class, Context.class));
+		assertFalse(fingerprint.equals(MinifiedOutputCache.getCompressorFingerprint(Compressor.class)));
+		assertFalse(fingerprint.equals(MinifiedOutputCache.getCompressorFingerprint(Compressor.class, FileUtils.class)));
+	}
+
+	@Test
+	public void entriesPersistAcrossCacheInstances() {
+		String key = MinifiedOutputCache.getKey("comments", "/* comment */ var answer = 42;");
+		new MinifiedOutputCache(tempDir, 1024).store(key, "var answer = 42;");
+
+		MinifiedOutputCache cache = new MinifiedOutputCache(tempDir, 1024);
+		assertEquals(16, cache.getCachedBytes());
+		assertEquals("var answer = 42;", cache.lookup(key));
+	}
+
+	@Test
+	public void removesLeastRecentlyUsedEntriesWhenFull() {
+		MinifiedOutputCache cache = new MinifiedOutputCache(tempDir, 100);
+		String first = MinifiedOutputCache.getKey("shrinksafe", "first"),
+			second = MinifiedOutputCache.getKey("shrinksafe", "second"),
+			third = MinifiedOutputCache.getKey("shrinksafe", "third");
+
+		cache.store(first, repeat('a', 40));
+		new File(tempDir, first + ".js").setLastModified(1000);
+		cache.store(second, repeat('b', 40));
+		new File(tempDir, second + ".js").setLastModified(2000);
+		cache.store(third, repeat('c', 40));
+
+		// Evicts down to three quarters of the limit
+		assertNull(cache.lookup(first));
+		assertNull(cache.lookup(second));
+		assertEquals(repeat('c', 40), cache.lookup(third));
+		assertEquals(40, cache.getCachedBytes());
+	}
+}
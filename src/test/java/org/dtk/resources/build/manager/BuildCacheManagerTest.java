@@ -0,0 +1,181 @@
+package org.dtk.resources.build.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.resources.build.LayerBuildCache;
+import org.dtk.resources.exceptions.MissingResourceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildCacheManagerTest {
+
+	private File tempDir;
+
+	private BuildStatusManager buildStatusManager;
+
+	private String previousCachePath;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("build", "cache");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		buildStatusManager = BuildStatusManager.getInstance();
+		previousCachePath = buildStatusManager.getBuildResultCachePath();
+		buildStatusManager.setBuildResultCachePath(tempDir.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (String reference: new String[] {"oldest", "middle", "newest", "downloaded", "unknown"}) {
+			buildStatusManager.buildStateLookup.remove(reference);
+		}
+		buildStatusManager.setBuildResultCachePath(previousCachePath);
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private File createBuildDir(String reference, long lastModified) throws IOException {
+		File buildDir = new File(tempDir, reference);
+		FileUtils.writeStringToFile(new File(buildDir, "dojo.zip"), "0123456789");
+		buildDir.setLastModified(lastModified);
+		return buildDir;
+	}
+
+	private BuildStatus completeBuild(String reference, File buildDir) {
+		BuildStatus buildStatus = buildStatusManager.createBuildStatus(reference);
+		buildStatus.setBuildState(BuildState.COMPLETED);
+		buildStatus.setBuildResultPath(new File(buildDir, "dojo.zip").getAbsolutePath());
+		buildStatusManager.buildStateLookup.put(reference, buildStatus);
+		return buildStatus;
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedFirst() throws IOException {
+		long now = System.currentTimeMillis();
+		File oldest = createBuildDir("oldest", now - 30000), 
+			newest = createBuildDir("newest", now - 10000),
+			middle = createBuildDir("middle", now - 20000);
+
+		// Budget holds two build directories
+		BuildCacheManager cacheManager = new BuildCacheManager(tempDir, 20, 0, buildStatusManager);
+		cacheManager.evictEntries();
+
+		assertFalse(oldest.exists());
+		assertTrue(middle.exists());
+		assertTrue(newest.exists());
+		assertEquals(1, cacheManager.getEvictedEntries());
+		assertEquals(10, cacheManager.getEvictedBytes());
+	}
+
+	@Test
+	public void downloadingBuildsAreNotEvicted() throws IOException {
+		File buildDir = createBuildDir("downloaded", System.currentTimeMillis() - 60000);
+		BuildStatus buildStatus = completeBuild("downloaded", buildDir);
+
+		String buildResultPath = buildStatusManager.acquireBuildResult("downloaded");
+		assertEquals(buildStatus.getBuildResultPath(), buildResultPath);
+		assertEquals(1, buildStatus.getActiveDownloads().get());
+
+		assertFalse(buildStatusManager.evictBuildResult("downloaded", buildDir));
+		assertTrue(buildDir.exists());
+
+		buildStatusManager.releaseBuildResult("downloaded");
+		assertEquals(0, buildStatus.getActiveDownloads().get());
+
+		assertTrue(buildStatusManager.evictBuildResult("downloaded", buildDir));
+		assertFalse(buildDir.exists());
+		assertEquals(BuildState.NOT_STARTED, buildStatusManager.retrieveBuildState("downloaded"));
+		assertNull(buildStatusManager.findBuildResult("downloaded"));
+	}
+
+	@Test
+	public void findingBuildResultDoesNotReserveIt() throws IOException {
+		File buildDir = createBuildDir("downloaded", System.currentTimeMillis() - 60000);
+		BuildStatus buildStatus = completeBuild("downloaded", buildDir);
+
+		assertEquals(buildStatus.getBuildResultPath(), buildStatusManager.findBuildResult("downloaded"));
+		assertEquals(0, buildStatus.getActiveDownloads().get());
+		assertTrue(buildDir.lastModified() > System.currentTimeMillis() - 60000);
+
+		assertTrue(buildStatusManager.evictBuildResult("downloaded", buildDir));
+	}
+
+	@Test
+	public void evictingUnknownBuildLeavesNoStatus() throws IOException {
+		File buildDir = createBuildDir("unknown", System.currentTimeMillis());
+
+		assertTrue(buildStatusManager.evictBuildResult("unknown", buildDir));
+		assertFalse(buildDir.exists());
+		assertEquals(0, tempDir.list().length);
+
+		try {
+			buildStatusManager.retrieveBuildState("unknown");
+			fail("Evicted build without a status should be unknown");
+		} catch (MissingResourceException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void acquiredLayersAreNotEvicted() throws IOException {
+		LayerBuildCache layerCache = buildStatusManager.getLayerBuildCache();
+		Map<String, File> layerFiles = new LinkedHashMap<String, File>();
+		File layerFile = new File(tempDir, "app.js");
+		FileUtils.writeStringToFile(layerFile, "layer");
+		layerFiles.put("app.js", layerFile);
+		layerCache.store("layer", layerFiles);
+		layerFile.delete();
+
+		assertTrue(layerCache.acquire("layer"));
+
+		BuildCacheManager cacheManager = new BuildCacheManager(tempDir, 0, 1, buildStatusManager);
+		File layerDir = new File(tempDir, BuildStatusManager.layerCacheDirName + "/layer");
+		layerDir.setLastModified(System.currentTimeMillis() - 60000);
+		cacheManager.evictEntries();
+		assertTrue(layerDir.isDirectory());
+
+		layerCache.release("layer");
+		cacheManager.evictEntries();
+		assertFalse(layerCache.contains("layer"));
+		assertEquals(1, cacheManager.getEvictedEntries());
+	}
+
+	@Test
+	public void buildsUsedSinceScanAreNotEvicted() throws IOException {
+		long scanned = System.currentTimeMillis() - 60000;
+		File buildDir = createBuildDir("downloaded", scanned);
+		completeBuild("downloaded", buildDir);
+
+		buildStatusManager.findBuildResult("downloaded");
+
+		assertFalse(buildStatusManager.evictBuildResult("downloaded", buildDir, scanned));
+		assertTrue(buildDir.exists());
+		assertTrue(buildStatusManager.evictBuildResult("downloaded", buildDir, buildDir.lastModified()));
+	}
+
+	@Test
+	public void leftoverEvictedBuildsAreSkippedAndRemoved() throws IOException {
+		File evictedDir = createBuildDir("oldest" + BuildStatusManager.evictedBuildDirSuffix, 
+			System.currentTimeMillis() - 60000);
+
+		BuildCacheManager cacheManager = new BuildCacheManager(tempDir, 0, 1, buildStatusManager);
+		cacheManager.evictEntries();
+		assertEquals(0, cacheManager.getEvictedEntries());
+		assertTrue(evictedDir.exists());
+
+		cacheManager.removeEvictedBuildDirs();
+		assertFalse(evictedDir.exists());
+	}
+}
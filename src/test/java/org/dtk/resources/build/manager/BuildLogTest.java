@@ -0,0 +1,71 @@
+package org.dtk.resources.build.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildLogTest {
+
+	private File logFile;
+
+	@Before
+	public void setUp() throws IOException {
+		logFile = File.createTempFile("build", ".log");
+		logFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		logFile.delete();
+	}
+
+	@Test
+	public void olderLinesSpillToDisk() throws IOException {
+		BuildLog buildLog = new BuildLog(3, logFile);
+		buildLog.append("\none\ntwo\nthree");
+		buildLog.append("\nfour");
+		buildLog.append("\nfive");
+		buildLog.closeSpill();
+
+		assertEquals("one\ntwo\n", FileUtils.readFileToString(logFile));
+		assertEquals(5, buildLog.getLastSeq());
+
+		List<BuildLog.LogLine> logLines = buildLog.getLinesAfter(0);
+		assertEquals(5, logLines.size());
+		assertEquals("one", logLines.get(0).line);
+		assertEquals("five", logLines.get(4).line);
+
+		logLines = buildLog.getLinesAfter(1);
+		assertEquals(2, logLines.get(0).seq);
+		assertEquals("two", logLines.get(0).line);
+
+		assertEquals(2, buildLog.getBufferedLinesAfter(3).size());
+	}
+
+	@Test
+	public void sequenceContinuesAfterClear() throws IOException {
+		BuildLog buildLog = new BuildLog(2, logFile);
+		buildLog.append("\none\ntwo\nthree");
+		assertFalse(buildLog.isCleared(3));
+
+		buildLog.clear();
+		buildLog.append("\nretry");
+
+		assertTrue(buildLog.isCleared(3));
+		assertFalse(logFile.exists());
+
+		List<BuildLog.LogLine> logLines = buildLog.getLinesAfter(3);
+		assertEquals(1, logLines.size());
+		assertEquals(4, logLines.get(0).seq);
+		assertEquals("retry", logLines.get(0).line);
+	}
+}
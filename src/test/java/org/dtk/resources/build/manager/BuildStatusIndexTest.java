@@ -0,0 +1,56 @@
+package org.dtk.resources.build.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildStatusIndexTest {
+
+	private File indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		indexFile = File.createTempFile("build-status", ".log");
+		indexFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		indexFile.delete();
+	}
+
+	@Test
+	public void completedBuildsSurviveReload() throws IOException {
+		BuildStatusIndex index = new BuildStatusIndex(indexFile);
+		assertTrue(index.load().isEmpty());
+
+		index.recordCompleted("first", "/cache/first/dojo.zip");
+		index.recordCompleted("second", "/cache/second/dojo.zip");
+		index.recordRemoved("first");
+		index.close();
+
+		Map<String, String> completedBuilds = new BuildStatusIndex(indexFile).load();
+		assertEquals(1, completedBuilds.size());
+		assertEquals("/cache/second/dojo.zip", completedBuilds.get("second"));
+	}
+
+	@Test
+	public void incompleteRecordsAreIgnored() throws IOException {
+		FileUtils.writeStringToFile(indexFile, "C\tfirst\t/cache/first/dojo.zip\nC\tsec");
+
+		BuildStatusIndex index = new BuildStatusIndex(indexFile);
+		Map<String, String> completedBuilds = index.load();
+		index.close();
+
+		assertEquals(1, completedBuilds.size());
+		assertEquals("C\tfirst\t/cache/first/dojo.zip\n", FileUtils.readFileToString(indexFile));
+	}
+}
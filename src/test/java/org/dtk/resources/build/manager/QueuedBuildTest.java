@@ -0,0 +1,64 @@
+package org.dtk.resources.build.manager;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dtk.resources.build.BuildRequest;
+import org.junit.Test;
+
+public class QueuedBuildTest {
+
+	private static BuildRequest getBuildRequest(int moduleCount) throws Exception {
+		List<Map<String, String>> packages = new ArrayList<Map<String, String>>();
+		Map<String, String> dojo = new HashMap<String, String>();
+		dojo.put("name", "dojo");
+		dojo.put("version", "1.7.0");
+		packages.add(dojo);
+
+		List<Map<String, String>> modules = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < moduleCount; i++) {
+			Map<String, String> module = new HashMap<String, String>();
+			module.put("name", "dojo/module" + i);
+			module.put("package", "dojo");
+			modules.add(module);
+		}
+
+		Map<String, Object> layer = new HashMap<String, Object>();
+		layer.put("name", "dojo.js");
+		layer.put("modules", modules);
+
+		List<Map<String, Object>> layers = new ArrayList<Map<String, Object>>();
+		layers.add(layer);
+
+		return new BuildRequest(packages, "none", "shrinksafe", "comments", "all", "none", layers);
+	}
+
+	@Test
+	public void smallerBuildsSubmittedTogetherRunFirst() throws Exception {
+		QueuedBuild large = new QueuedBuild(getBuildRequest(20), 1, 0, null),
+			small = new QueuedBuild(getBuildRequest(2), 2, 0, null);
+
+		assertTrue(small.compareTo(large) < 0);
+	}
+
+	@Test
+	public void largeBuildsAreNotOvertakenForever() throws Exception {
+		QueuedBuild large = new QueuedBuild(getBuildRequest(20), 1, 0, null),
+			recentSmall = new QueuedBuild(getBuildRequest(2), 2, 30 * QueuedBuild.MODULE_DELAY_MILLIS, null);
+
+		assertTrue(large.compareTo(recentSmall) < 0);
+	}
+
+	@Test
+	public void equalDeadlinesKeepSubmissionOrder() throws Exception {
+		QueuedBuild first = new QueuedBuild(getBuildRequest(5), 1, 0, null),
+			second = new QueuedBuild(getBuildRequest(5), 2, 0, null);
+
+		assertTrue(first.compareTo(second) < 0);
+		assertTrue(second.compareTo(first) > 0);
+	}
+}
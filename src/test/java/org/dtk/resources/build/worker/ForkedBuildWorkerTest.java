@@ -0,0 +1,101 @@
+package org.dtk.resources.build.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.resources.build.BuildContextFactory;
+import org.junit.Test;
+
+public class ForkedBuildWorkerTest {
+
+	/**
+	 * Worker which keeps sending heartbeats but never finishes
+	 * a build, like a build script stuck in an endless loop.
+	 */
+	public static class HungBuildWorker {
+		public static void main(String[] args) throws InterruptedException {
+			while (true) {
+				System.out.println("{\"type\":\"heartbeat\"}");
+				System.out.flush();
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private static List<String> getWorkerCommand(Class<?> workerClass) {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(workerClass.getName());
+		return command;
+	}
+
+	@Test
+	public void killsWorkerStillSendingHeartbeatsAfterBuildTimeout() throws IOException {
+		ForkedBuildWorker worker = new ForkedBuildWorker(getWorkerCommand(HungBuildWorker.class), 5000, 1000);
+		Map<String, Object> buildJob = new HashMap<String, Object>();
+		buildJob.put(BuildWorkerMain.TYPE, BuildWorkerMain.TYPE_BUILD);
+
+		long started = System.currentTimeMillis();
+		try {
+			worker.executeBuild(buildJob);
+			fail("Hung build should time out");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("1000 ms"));
+		} finally {
+			worker.destroy();
+		}
+
+		assertTrue(System.currentTimeMillis() - started < 5000);
+		assertFalse(worker.isAlive());
+	}
+
+	@Test
+	public void runsBuildOnWorkerStartedWithDefaultClasspath() throws IOException {
+		File tempDir = File.createTempFile("build", "worker");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		File profileFile = new File(tempDir, "build.profile.js"), resultDir = new File(tempDir, "result");
+		FileUtils.writeStringToFile(profileFile, "var profile = { layers: [] };");
+
+		List<String> command = ForkedBuildWorkerPool.createWorkerCommand(ForkedBuildWorkerPool.defaultWorkerClasspath(), 
+			null, new File("src/main/webapp/js/build/amd_loader/dojo.js").getAbsolutePath(), 
+			new File("src/main/webapp/js/build/bdbuild/").getAbsolutePath(), 
+			BuildContextFactory.DEFAULT_OPTIMIZATION_LEVEL, 100);
+		ForkedBuildWorker worker = new ForkedBuildWorker(command, 30000, 60000);
+
+		Map<String, Object> buildJob = new HashMap<String, Object>();
+		buildJob.put(BuildWorkerMain.TYPE, BuildWorkerMain.TYPE_BUILD);
+		buildJob.put(BuildWorkerMain.PROFILE_FILE, profileFile.getAbsolutePath());
+		buildJob.put(BuildWorkerMain.RESULT_DIR, resultDir.getAbsolutePath());
+		buildJob.put(BuildWorkerMain.BASE_URL, tempDir.getAbsolutePath());
+		buildJob.put(BuildWorkerMain.BUILD_PACKAGE_PATH, tempDir.getAbsolutePath());
+		buildJob.put(BuildWorkerMain.BUILD_REFERENCE, "default-classpath");
+
+		try {
+			// Worker must load the build status classes and survive the build, 
+			// whether or not the build system accepts this profile.
+			Map<String, Object> result = worker.executeBuild(buildJob);
+			assertEquals(BuildWorkerMain.TYPE_RESULT, result.get(BuildWorkerMain.TYPE));
+			assertEquals("default-classpath", result.get(BuildWorkerMain.BUILD_REFERENCE));
+			assertNotNull(result.get(BuildWorkerMain.SUCCESS));
+			assertTrue(worker.isAlive());
+		} finally {
+			worker.destroy();
+			FileUtils.deleteDirectory(tempDir);
+		}
+	}
+}
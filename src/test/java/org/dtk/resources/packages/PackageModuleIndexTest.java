@@ -0,0 +1,126 @@
+package org.dtk.resources.packages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackageModuleIndexTest {
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("module", "index");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		writeModule("dojo/has", "define([\"require\"], function (require) {});");
+		writeModule("dojo/i18n", "define([\"./has\"], function (has) {});");
+		writeModule("dojo/dom", "define([\"./has\", \"exports\"], function (has, exports) {});");
+		writeModule("dojo/query", "define([\"./dom\", \"./has!dom-qsa?./selector/lite:./selector/acme\"], function () {});");
+		writeModule("dojo/selector/lite", "define([\"../has\"], function () {});");
+		writeModule("dojo/selector/acme", "define([\"../dom\"], function () {});");
+		writeModule("app/main", "define([\"dojo/query\", \"dojo/i18n!./nls/strings\", \"external/widget\"], function () {});");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private void writeModule(String moduleId, String source) throws IOException {
+		FileUtils.writeStringToFile(new File(tempDir, moduleId + ".js"), source, "UTF-8");
+	}
+
+	@Test
+	public void indexesModuleDependencies() throws IOException {
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+
+		assertEquals(7, index.getModuleCount());
+		assertTrue(index.containsModule("dojo/selector/acme"));
+		assertFalse(index.containsModule("external/widget"));
+
+		assertEquals(Arrays.asList("dojo/has"), index.getDependencies("dojo/dom"));
+		assertEquals(Arrays.asList("dojo/dom"), index.getDependencies("dojo/selector/acme"));
+	}
+
+	@Test
+	public void indexesPluginResourcesAndHasFlags() throws IOException {
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+
+		assertEquals(Arrays.asList("dojo/dom", "dojo/has", "dojo/selector/lite", "dojo/selector/acme"),
+			index.getDependencies("dojo/query"));
+		assertEquals(Arrays.asList("dojo/has!dom-qsa?./selector/lite:./selector/acme"), index.getPluginDependencies("dojo/query"));
+		assertEquals(Arrays.asList("dom-qsa"), index.getHasFlags("dojo/query"));
+
+		assertEquals(Arrays.asList("dojo/i18n!./nls/strings"), index.getPluginDependencies("app/main"));
+	}
+
+	@Test
+	public void resolvesTransitiveDependencies() throws IOException {
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+
+		assertEquals(Arrays.asList("dojo/selector/acme", "dojo/dom", "dojo/has"),
+			new ArrayList<String>(index.getTransitiveDependencies(Arrays.asList("dojo/selector/acme"))));
+
+		// External modules are included but not followed
+		assertTrue(index.getTransitiveDependencies(Arrays.asList("app/main")).containsAll(Arrays.asList(
+			"app/main", "dojo/query", "dojo/i18n", "external/widget", "dojo/selector/lite", "dojo/selector/acme")));
+	}
+
+	@Test
+	public void skipsUnparseableModules() throws IOException {
+		writeModule("dojo/broken", "define([\"./has\"], function () { return {; });");
+
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+
+		assertEquals(7, index.getModuleCount());
+		assertFalse(index.containsModule("dojo/broken"));
+		assertEquals(Arrays.asList("dojo/has"), index.getDependencies("dojo/dom"));
+	}
+
+	@Test
+	public void skipsBuildToolsAndTests() throws IOException {
+		writeModule("util/build/main", "define([\"./fs\"], function () {});");
+		writeModule("dojo/tests/module", "define([\"doh\"], function () {});");
+
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+
+		assertEquals(7, index.getModuleCount());
+		assertFalse(index.containsModule("util/build/main"));
+		assertFalse(index.containsModule("dojo/tests/module"));
+	}
+
+	@Test
+	public void persistedIndexMatchesBuiltIndex() throws IOException {
+		PackageModuleIndex index = PackageModuleIndex.build(tempDir);
+		File indexFile = new File(tempDir, "modules.idx");
+		index.write(indexFile);
+
+		PackageModuleIndex persisted = PackageModuleIndex.read(indexFile);
+		assertEquals(index.getModules(), persisted.getModules());
+		for (String moduleId: index.getModules()) {
+			assertEquals(index.getDependencies(moduleId), persisted.getDependencies(moduleId));
+			assertEquals(index.getPluginDependencies(moduleId), persisted.getPluginDependencies(moduleId));
+			assertEquals(index.getHasFlags(moduleId), persisted.getHasFlags(moduleId));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownIndexFormat() throws IOException {
+		File indexFile = new File(tempDir, "modules.idx");
+		FileUtils.writeStringToFile(indexFile, "not an index", "UTF-8");
+
+		PackageModuleIndex.read(indexFile);
+	}
+}
@@ -0,0 +1,77 @@
+package org.dtk.resources.packages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackageScanIndexTest {
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("scan", "index");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void scanResultsPersistWithIndex() throws IOException {
+		PackageScanIndex index = new PackageScanIndex();
+		assertFalse(index.hasUnsavedScanResults());
+
+		index.recordScanResult("dojo/dom", "digest", "{\"deps\":[\"./has\"]}");
+		assertTrue(index.hasUnsavedScanResults());
+
+		File indexFile = new File(tempDir, "scans.idx");
+		index.write(indexFile);
+		assertFalse(index.hasUnsavedScanResults());
+		assertFalse(new File(tempDir, "scans.idx.partial").exists());
+
+		PackageScanIndex persisted = PackageScanIndex.read(indexFile);
+		assertEquals(1, persisted.getScannedModuleCount());
+		assertEquals("{\"deps\":[\"./has\"]}", persisted.getScanResult("dojo/dom", "digest"));
+		assertFalse(persisted.hasUnsavedScanResults());
+	}
+
+	@Test
+	public void scanResultsRequireUnchangedSource() {
+		PackageScanIndex index = new PackageScanIndex();
+		index.recordScanResult("dojo/dom", "digest", "{\"deps\":[\"./has\"]}");
+
+		assertNull(index.getScanResult("dojo/dom", "changed"));
+		assertNull(index.getScanResult("dojo/has", "digest"));
+	}
+
+	@Test
+	public void unchangedScanResultsAreNotUnsaved() throws IOException {
+		PackageScanIndex index = new PackageScanIndex();
+		index.recordScanResult("dojo/dom", "digest", "{\"deps\":[]}");
+		index.write(new File(tempDir, "scans.idx"));
+
+		index.recordScanResult("dojo/dom", "digest", "{\"deps\":[]}");
+		assertFalse(index.hasUnsavedScanResults());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownIndexFormat() throws IOException {
+		File indexFile = new File(tempDir, "scans.idx");
+		FileUtils.writeStringToFile(indexFile, "not an index", "UTF-8");
+
+		PackageScanIndex.read(indexFile);
+	}
+}
@@ -0,0 +1,107 @@
+package org.dtk.resources.packages;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the PackageSourceCache class.
+ *
+ * @author James Thomas
+ */
+
+public class PackageSourceCacheTest {
+
+	private final PackageSourceCache cache = PackageSourceCache.getInstance();
+
+	private File packageDir;
+
+	@Before
+	public void setUp() throws IOException {
+		packageDir = File.createTempFile("package", "source");
+		packageDir.delete();
+		packageDir.mkdirs();
+
+		cache.clear();
+		cache.setMaxBytes(PackageSourceCache.DEFAULT_MAX_SIZE_MB * 1024L * 1024L);
+		cache.registerPackage("dojo", "1.8.0", packageDir.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(packageDir);
+	}
+
+	private String cacheFile(File file, String contents) throws IOException {
+		FileUtils.writeStringToFile(file, contents, "UTF-8");
+		cache.putFileContents(file.getPath(), "UTF-8", contents, file.lastModified(), file.length());
+		return contents;
+	}
+
+	@Test
+	public void sharesUnchangedPackageFiles() throws IOException {
+		File module = new File(packageDir, "dojo/dom.js");
+		String contents = cacheFile(module, "define([], function(){});");
+
+		assertSame(contents, cache.getFileContents(module.getPath(), "UTF-8"));
+		assertNull(cache.getFileContents(module.getPath(), "ISO-8859-1"));
+	}
+
+	@Test
+	public void rereadsFilesChangedSinceCached() throws IOException {
+		File module = new File(packageDir, "dojo/dom.js");
+		cacheFile(module, "define([], function(){});");
+
+		FileUtils.writeStringToFile(module, "define([], function(){ return 1; });", "UTF-8");
+		module.setLastModified(module.lastModified() - 10000);
+
+		assertNull(cache.getFileContents(module.getPath(), "UTF-8"));
+		assertEquals(0, cache.getCachedBytes());
+	}
+
+	@Test
+	public void ignoresFilesOutsidePackages() throws IOException {
+		File outside = File.createTempFile("outside", ".js");
+
+		try {
+			cache.putFileContents(outside.getPath(), "UTF-8", "", outside.lastModified(), outside.length());
+			assertNull(cache.getFileContents(outside.getPath(), "UTF-8"));
+			assertEquals(0, cache.getCachedBytes());
+		} finally {
+			outside.delete();
+		}
+	}
+
+	@Test
+	public void sharesDirectoryListings() throws IOException {
+		File dir = new File(packageDir, "dojo");
+		dir.mkdirs();
+
+		cache.putDirectoryListing(dir.getPath() + "/", new String[] {"dom.js", "query.js"}, dir.lastModified());
+		assertArrayEquals(new String[] {"dom.js", "query.js"}, cache.getDirectoryListing(dir.getPath()));
+
+		cache.putDirectoryListing(packageDir.getPath(), new String[] {"dojo"}, packageDir.lastModified());
+		assertArrayEquals(new String[] {"dojo"}, cache.getDirectoryListing(packageDir.getPath()));
+	}
+
+	@Test
+	public void removesLeastRecentlyUsedEntriesWhenFull() throws IOException {
+		File first = new File(packageDir, "one.js"), second = new File(packageDir, "two.js");
+		cacheFile(first, "define([], 1);");
+
+		cache.setMaxBytes(cache.getCachedBytes());
+		cacheFile(second, "define([], 2);");
+
+		assertNull(cache.getFileContents(first.getPath(), "UTF-8"));
+		assertEquals("define([], 2);", cache.getFileContents(second.getPath(), "UTF-8"));
+	}
+}
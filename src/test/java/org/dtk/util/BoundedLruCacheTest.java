@@ -0,0 +1,73 @@
+package org.dtk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.dtk.metrics.Counter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedLruCacheTest {
+
+	private BoundedLruCache<String> cache;
+
+	@Before
+	public void setUp() {
+		cache = new BoundedLruCache<String>(10, new BoundedLruCache.SizeFunction<String>() {
+			public long getSize(String key, String value) {
+				return value.length();
+			}
+		}, new Counter(), new Counter());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedOverLimit() {
+		cache.put("first", "aaaa");
+		cache.put("second", "bbbb");
+		assertEquals("aaaa", cache.get("first"));
+
+		cache.put("third", "cccc");
+
+		assertNull(cache.get("second"));
+		assertEquals("aaaa", cache.get("first"));
+		assertEquals("cccc", cache.get("third"));
+		assertEquals(8, cache.getCachedBytes());
+	}
+
+	@Test
+	public void replacedAndRemovedEntriesFreeSpace() {
+		cache.put("first", "aaaa");
+		cache.put("first", "aa");
+		assertEquals(2, cache.getCachedBytes());
+
+		cache.remove("first", "other");
+		assertEquals("aa", cache.get("first"));
+
+		cache.remove("first", cache.get("first"));
+		assertNull(cache.get("first"));
+		assertEquals(0, cache.getCachedBytes());
+	}
+
+	@Test
+	public void reducingLimitEvictsEntries() {
+		cache.put("first", "aaaa");
+		cache.put("second", "bbbb");
+
+		cache.setMaxBytes(4);
+
+		assertEquals(1, cache.size());
+		assertEquals("bbbb", cache.get("second"));
+	}
+
+	@Test
+	public void hitRateCountsRecordedLookups() {
+		assertEquals(0, cache.getHitRate(), 0);
+
+		cache.recordHit();
+		cache.recordHit();
+		cache.recordHit();
+		cache.recordMiss();
+
+		assertEquals(0.75, cache.getHitRate(), 0);
+	}
+}
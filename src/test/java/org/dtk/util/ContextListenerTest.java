@@ -0,0 +1,78 @@
+package org.dtk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.dtk.resources.build.manager.BuildStatusManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContextListenerTest {
+
+	private File tempDir;
+
+	private String previousCachePath;
+
+	private static class ConfiguredContextListener extends ContextListener {
+		final Map<String, String> configParams = new HashMap<String, String>();
+
+		@Override
+		protected String lookupUsersConfigParam(String configParamName) {
+			return configParams.get(configParamName);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("context", "listener");
+		tempDir.delete();
+		tempDir.mkdirs();
+		previousCachePath = BuildStatusManager.getInstance().getBuildResultCachePath();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		BuildStatusManager buildStatusManager = BuildStatusManager.getInstance();
+		buildStatusManager.setMinifiedCacheSize(BuildStatusManager.DEFAULT_MINIFIED_CACHE_SIZE_MB * 1024L * 1024L);
+		buildStatusManager.setBuildResultCachePath(previousCachePath);
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void zeroMinifiedCacheSizeDisablesCache() {
+		ConfiguredContextListener listener = new ConfiguredContextListener();
+		listener.configParams.put(ContextListener.minifiedCacheSizeParam, "0");
+		assertEquals(0, listener.getMinifiedCacheSize());
+
+		BuildStatusManager buildStatusManager = BuildStatusManager.getInstance();
+		buildStatusManager.setMinifiedCacheSize(listener.getMinifiedCacheSize());
+		buildStatusManager.setBuildResultCachePath(tempDir.getAbsolutePath());
+		assertNull(buildStatusManager.getMinifiedOutputCache());
+	}
+
+	@Test
+	public void missingMinifiedCacheSizeUsesDefault() {
+		ConfiguredContextListener listener = new ConfiguredContextListener();
+		assertEquals(BuildStatusManager.DEFAULT_MINIFIED_CACHE_SIZE_MB * 1024L * 1024L, listener.getMinifiedCacheSize());
+
+		BuildStatusManager buildStatusManager = BuildStatusManager.getInstance();
+		buildStatusManager.setMinifiedCacheSize(listener.getMinifiedCacheSize());
+		buildStatusManager.setBuildResultCachePath(tempDir.getAbsolutePath());
+		assertNotNull(buildStatusManager.getMinifiedOutputCache());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeMinifiedCacheSizeIsRejected() {
+		ConfiguredContextListener listener = new ConfiguredContextListener();
+		listener.configParams.put(ContextListener.minifiedCacheSizeParam, "-1");
+		listener.getMinifiedCacheSize();
+	}
+}
@@ -0,0 +1,94 @@
+package org.dtk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileUtilTest {
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = File.createTempFile("file", "util");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	private File createFile(String path, String contents) throws IOException {
+		File file = new File(tempDir, path);
+		FileUtils.writeStringToFile(file, contents, "utf-8");
+		return file;
+	}
+
+	private Map<String, String> readZipFile(File archive) throws IOException {
+		Map<String, String> entries = new HashMap<String, String>();
+		ZipInputStream in = new ZipInputStream(new FileInputStream(archive));
+
+		try {
+			ZipEntry entry = in.getNextEntry();
+			while (entry != null) {
+				entries.put(entry.getName(), IOUtils.toString(in, "utf-8"));
+				entry = in.getNextEntry();
+			}
+		} finally {
+			in.close();
+		}
+
+		return entries;
+	}
+
+	@Test
+	public void canStreamFilesIntoZipFile() throws IOException {
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		files.put("dojo/dojo.js", createFile("src/dojo.js", "var dojo = {};"));
+		files.put("app/main.js", createFile("src/app/main.js", "dojo.require(\"app.module\");"));
+		File archive = new File(tempDir, "out/build.zip");
+
+		FileUtil.writeFilesToZipFile(archive.getAbsolutePath(), files, -1);
+
+		Map<String, String> entries = readZipFile(archive);
+		assertEquals(2, entries.size());
+		assertEquals("var dojo = {};", entries.get("dojo/dojo.js"));
+		assertEquals("dojo.require(\"app.module\");", entries.get("app/main.js"));
+		assertFalse(new File(archive.getAbsolutePath() + ".partial").exists());
+	}
+
+	@Test
+	public void removesPartialZipFileOnFailure() throws IOException {
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		files.put("dojo/dojo.js", createFile("src/dojo.js", "var dojo = {};"));
+		files.put("app/missing.js", new File(tempDir, "src/missing.js"));
+		File archive = new File(tempDir, "out/build.zip");
+
+		try {
+			FileUtil.writeFilesToZipFile(archive.getAbsolutePath(), files, -1);
+			fail("Archive written with missing source file");
+		} catch (IOException e) {
+		}
+
+		assertFalse(archive.exists());
+		assertFalse(new File(archive.getAbsolutePath() + ".partial").exists());
+		assertEquals(0, new File(tempDir, "out").list().length);
+	}
+}
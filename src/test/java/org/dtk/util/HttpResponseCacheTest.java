@@ -0,0 +1,124 @@
+package org.dtk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the HttpResponseCache class.
+ *
+ * @author James Thomas
+ */
+
+public class HttpResponseCacheTest {
+
+	/** Client returning a canned response, recording requests */
+	private static class CannedHttpClient extends MockHttpClient {
+		int statusCode = HttpStatus.SC_OK;
+		String[] headers = new String[0];
+		List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>();
+
+		@Override
+		public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+			requests.add(request);
+
+			HttpResponse response = new BasicHttpResponse(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), statusCode, null));
+			for (int i = 1; i < headers.length; i += 2) {
+				response.addHeader(headers[i - 1], headers[i]);
+			}
+			if (statusCode == HttpStatus.SC_OK) {
+				response.setEntity(new StringEntity("content"));
+			}
+
+			return response;
+		}
+	}
+
+	private final String location = "http://localhost/cached.js";
+
+	@Before
+	public void clearCache() {
+		HttpResponseCache.getInstance().clear();
+	}
+
+	@Test
+	public void reusesFreshResponseWithoutRequest() throws IOException {
+		CannedHttpClient client = new CannedHttpClient();
+		client.headers = new String[] {"Cache-Control", "public, max-age=600"};
+
+		assertEquals("content", HttpResponseCache.getInstance().retrieve(client, location).getText());
+		assertEquals("content", HttpResponseCache.getInstance().retrieve(client, location).getText());
+		assertEquals(1, client.requests.size());
+	}
+
+	@Test
+	public void revalidatesStaleResponseWithValidators() throws IOException {
+		String lastModified = DateUtils.formatDate(new Date(0));
+		CannedHttpClient client = new CannedHttpClient();
+		client.headers = new String[] {"Cache-Control", "no-cache", "ETag", "\"v1\"", "Last-Modified", lastModified};
+
+		HttpResponseCache.getInstance().retrieve(client, location);
+
+		client.statusCode = HttpStatus.SC_NOT_MODIFIED;
+		assertEquals("content", HttpResponseCache.getInstance().retrieve(client, location).getText());
+		assertEquals(2, client.requests.size());
+		assertEquals("\"v1\"", client.requests.get(1).getFirstHeader("If-None-Match").getValue());
+		assertEquals(lastModified, client.requests.get(1).getFirstHeader("If-Modified-Since").getValue());
+	}
+
+	@Test
+	public void doesNotCacheNoStoreOrUnvalidatedResponses() throws IOException {
+		CannedHttpClient client = new CannedHttpClient();
+		client.headers = new String[] {"Cache-Control", "no-store", "ETag", "\"v1\""};
+		HttpResponseCache.getInstance().retrieve(client, location);
+
+		client.headers = new String[0];
+		HttpResponseCache.getInstance().retrieve(client, location);
+
+		assertEquals(0, HttpResponseCache.getInstance().getCachedBytes());
+		assertNull(client.requests.get(1).getFirstHeader("If-None-Match"));
+	}
+
+	@Test
+	public void recordsLocationAfterRedirects() throws IOException {
+		CannedHttpClient client = new CannedHttpClient() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException, ClientProtocolException {
+				context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, new HttpHost("localhost", 8080));
+				context.setAttribute(ExecutionContext.HTTP_REQUEST, new HttpGet("/moved/cached.js"));
+				return execute(request);
+			}
+		};
+
+		assertEquals("http://localhost:8080/moved/cached.js", HttpResponseCache.getInstance().retrieve(client, location).getLocation());
+		assertEquals(location, HttpResponseCache.getInstance().retrieve(new CannedHttpClient(), location).getLocation());
+	}
+
+	@Test
+	public void returnsNullForUnavailableResource() throws IOException {
+		CannedHttpClient client = new CannedHttpClient();
+		client.statusCode = HttpStatus.SC_NOT_FOUND;
+
+		assertNull(HttpResponseCache.getInstance().retrieve(client, location));
+	}
+}
@@ -0,0 +1,99 @@
+package org.dtk.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+public class HttpUtilTest {
+
+	@Test
+	public void parsesClosedByteRange() {
+		assertArrayEquals(new long[] {0, 99}, HttpUtil.parseByteRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] {500, 999}, HttpUtil.parseByteRange("bytes=500-5000", 1000));
+	}
+
+	@Test
+	public void parsesOpenByteRange() {
+		assertArrayEquals(new long[] {200, 999}, HttpUtil.parseByteRange("bytes=200-", 1000));
+	}
+
+	@Test
+	public void parsesSuffixByteRange() {
+		assertArrayEquals(new long[] {900, 999}, HttpUtil.parseByteRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] {0, 999}, HttpUtil.parseByteRange("bytes=-5000", 1000));
+	}
+
+	@Test
+	public void unsatisfiableRangesStartAtOrPastLength() {
+		assertTrue(HttpUtil.parseByteRange("bytes=1000-", 1000)[0] >= 1000);
+		assertTrue(HttpUtil.parseByteRange("bytes=2000-3000", 1000)[0] >= 1000);
+		assertTrue(HttpUtil.parseByteRange("bytes=-0", 1000)[0] >= 1000);
+	}
+
+	@Test
+	public void ignoresMissingMalformedAndMultipleRanges() {
+		assertNull(HttpUtil.parseByteRange(null, 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=-", 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=50-10", 1000));
+		assertNull(HttpUtil.parseByteRange("items=0-10", 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=0-10,20-30", 1000));
+	}
+
+	@Test
+	public void matchesAnyOfMultipleEntityTags() {
+		assertTrue(HttpUtil.entityTagMatches("\"other\", \"build-1\"", "\"build-1\"", true));
+		assertTrue(HttpUtil.entityTagMatches("*", "\"build-1\"", false));
+		assertFalse(HttpUtil.entityTagMatches("\"other\", \"build-2\"", "\"build-1\"", true));
+		assertFalse(HttpUtil.entityTagMatches(null, "\"build-1\"", true));
+	}
+
+	@Test
+	public void weakEntityTagsOnlyMatchWeakComparison() {
+		assertTrue(HttpUtil.entityTagMatches("W/\"build-1\"", "\"build-1\"", true));
+		assertFalse(HttpUtil.entityTagMatches("W/\"build-1\"", "\"build-1\"", false));
+		assertTrue(HttpUtil.entityTagMatches("W/\"build-1\", \"build-1\"", "\"build-1\"", false));
+	}
+
+	@Test
+	public void decodesPageWithResponseCharset() throws UnsupportedEncodingException {
+		byte[] content = "<html><head><meta charset=\"UTF-8\"></head><body>caf\u00e9</body></html>".getBytes("ISO-8859-1");
+
+		Document document = HttpUtil.parseHtmlDocument(content, "ISO-8859-1", "UTF-8", "http://localhost/");
+		assertEquals("caf\u00e9", document.body().text());
+	}
+
+	@Test
+	public void decodesPageWithDeclaredCharset() throws UnsupportedEncodingException {
+		byte[] content = "<html><head><meta charset=\"ISO-8859-1\"></head><body>caf\u00e9</body></html>".getBytes("ISO-8859-1");
+		assertEquals("caf\u00e9", HttpUtil.parseHtmlDocument(content, null, "UTF-8", "http://localhost/").body().text());
+
+		content = ("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-1\"></head>"
+			+ "<body>caf\u00e9</body></html>").getBytes("ISO-8859-1");
+		assertEquals("caf\u00e9", HttpUtil.parseHtmlDocument(content, null, "UTF-8", "http://localhost/").body().text());
+
+		content = "<html><body>caf\u00e9</body></html>".getBytes("UTF-8");
+		assertEquals("caf\u00e9", HttpUtil.parseHtmlDocument(content, null, "UTF-8", "http://localhost/").body().text());
+	}
+
+	@Test
+	public void decodesPageWithIllegalDeclaredCharset() throws UnsupportedEncodingException {
+		for (String charset: new String[] {"{{charset}}", "utf-8,", "x-unknown-charset"}) {
+			byte[] content = ("<html><head><meta charset=\"" + charset + "\"></head><body>caf\u00e9</body></html>").getBytes("UTF-8");
+			assertEquals("caf\u00e9", HttpUtil.parseHtmlDocument(content, null, "UTF-8", "http://localhost/").body().text());
+		}
+	}
+
+	@Test
+	public void resolvesPageReferencesAgainstBaseUri() {
+		Document document = HttpUtil.parseHtmlDocument("<script src=\"js/app.js\"></script>".getBytes(), 
+			null, "UTF-8", "http://localhost/app/index.html");
+		assertEquals("http://localhost/app/js/app.js", document.select("script").first().absUrl("src"));
+	}
+}
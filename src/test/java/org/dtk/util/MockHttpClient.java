@@ -74,8 +74,7 @@ public class MockHttpClient implements HttpClient {
 	@Override
 	public HttpResponse execute(HttpUriRequest request, HttpContext context)
 			throws IOException, ClientProtocolException {
-		// TODO Auto-generated method stub
-		return null;
+		return execute(request);
 	}
 
 	@Override